@@ -0,0 +1,122 @@
+package de.logicalco.socketeer.client;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.server.CommandHandler;
+import de.logicalco.socketeer.server.SocketeerServer;
+import de.logicalco.socketeer.server.WireProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commands sent by a {@link SocketeerClient} to a server on the loopback interface : 'pooled' shares one client and
+ * its persistent connections among all benchmark threads, 'connectPerCommand' opens a connection (including the
+ * handshake) for each command, as ad-hoc socket code does. The number of concurrent callers is set with the thread
+ * count (e.g. -t 8), the throughput is given in commands per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class ClientPoolBenchmark {
+
+    private static final byte[] PONG = "pong\n".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"text", "framed"})
+    public String protocol;
+
+    private SocketeerServer server;
+    private InetSocketAddress address;
+    private SocketeerClient pooled;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        final int port;
+        try(final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new SocketeerServer(port, 512, new CommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return Optional.absent();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return "app".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public Optional<byte[]> handle(byte[] command) {
+                return Optional.of(PONG);
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return "exit".getBytes(StandardCharsets.UTF_8);
+            }
+        }, StandardCharsets.UTF_8).withWireProtocol("framed".equals(protocol) ? WireProtocol.FRAMED
+                : WireProtocol.TEXT);
+        server.start();
+        address = new InetSocketAddress("localhost", port);
+        awaitServer(port);
+        pooled = client();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        pooled.close();
+        server.stop(true);
+    }
+
+    @Benchmark
+    public byte[] pooled() throws IOException {
+        return pooled.execute(new byte[] {'p', 'i', 'n', 'g'});
+    }
+
+    @Benchmark
+    public byte[] connectPerCommand() throws IOException {
+        final SocketeerClient client = client().withPool(1, 1);
+        try {
+            return client.execute(new byte[] {'p', 'i', 'n', 'g'});
+        } finally {
+            client.close();
+        }
+    }
+
+    private SocketeerClient client() {
+        final SocketeerClient client = new SocketeerClient(address, "app", StandardCharsets.UTF_8);
+        return "framed".equals(protocol) ? client.withFraming() : client;
+    }
+
+    /*
+     * The server binds asynchronously.
+     */
+    private static void awaitServer(final int port) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch(ConnectException e) {
+                if(i == 50) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package de.logicalco.socketeer.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatching a command line with {@link CommandRouter} compared with the usual String switch of a
+ * {@link CommandHandler} (decode the line, split off the arguments, switch on the name) for 60 commands.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandRouterBenchmark {
+
+    static final String[] NAMES = {
+            "cache-list", "cache-flush", "cache-stats", "cache-reset", "cache-dump", "cache-get",
+            "cache-set", "cache-reload", "cache-count", "cache-info", "session-list", "session-flush",
+            "session-stats", "session-reset", "session-dump", "session-get", "session-set", "session-reload",
+            "session-count", "session-info", "user-list", "user-flush", "user-stats", "user-reset",
+            "user-dump", "user-get", "user-set", "user-reload", "user-count", "user-info",
+            "queue-list", "queue-flush", "queue-stats", "queue-reset", "queue-dump", "queue-get",
+            "queue-set", "queue-reload", "queue-count", "queue-info", "log-list", "log-flush",
+            "log-stats", "log-reset", "log-dump", "log-get", "log-set", "log-reload",
+            "log-count", "log-info", "config-list", "config-flush", "config-stats", "config-reset",
+            "config-dump", "config-get", "config-set", "config-reload", "config-count", "config-info"
+    };
+
+    private static final byte[][] REPLIES = new byte[NAMES.length][];
+
+    static {
+        for(int i = 0; i < NAMES.length; i++) {
+            REPLIES[i] = (NAMES[i] + " done\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final ResponseBuffer response = new ResponseBuffer(StandardCharsets.UTF_8);
+    private CommandRouter router;
+    private ByteBuffer[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        router = new CommandRouter("app", "exit", StandardCharsets.UTF_8);
+        for(int i = 0; i < NAMES.length; i++) {
+            final byte[] reply = REPLIES[i];
+            router.withCommand(NAMES[i], NAMES[i], new CommandRouter.Command() {
+                @Override
+                public void handle(ByteBuffer arguments, ResponseBuffer response) {
+                    response.write(reply);
+                }
+            });
+        }
+        //the lines are views of a read buffer, like the session passes them
+        lines = new ByteBuffer[NAMES.length];
+        for(int i = 0; i < NAMES.length; i++) {
+            lines[i] = ByteBuffer.wrap((NAMES[(i * 7) % NAMES.length] + " all --verbose")
+                    .getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Writing a reply without dispatching, the cost both variants share.
+     */
+    @Benchmark
+    public int baseline() {
+        final ByteBuffer line = nextLine();
+        response.reset();
+        response.write(REPLIES[line.remaining()]);
+        return response.size();
+    }
+
+    @Benchmark
+    public int router() {
+        final ByteBuffer line = nextLine();
+        response.reset();
+        router.handle(line, response);
+        return response.size();
+    }
+
+    @Benchmark
+    public int stringSwitch() {
+        final ByteBuffer line = nextLine();
+        response.reset();
+        //what a CommandHandler has to do : copy and decode the line, then split off the arguments
+        final byte[] command = new byte[line.remaining()];
+        line.get(command);
+        final String text = new String(command, StandardCharsets.UTF_8);
+        final int space = text.indexOf(' ');
+        final String name = space < 0 ? text : text.substring(0, space);
+        final String arguments = space < 0 ? "" : text.substring(space + 1);
+        switchOn(name, arguments);
+        return response.size();
+    }
+
+    private ByteBuffer nextLine() {
+        final ByteBuffer line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        line.clear();
+        return line;
+    }
+
+    private void switchOn(String name, String arguments) {
+        switch(name) {
+            case "cache-list":
+                response.write(REPLIES[0]);
+                break;
+            case "cache-flush":
+                response.write(REPLIES[1]);
+                break;
+            case "cache-stats":
+                response.write(REPLIES[2]);
+                break;
+            case "cache-reset":
+                response.write(REPLIES[3]);
+                break;
+            case "cache-dump":
+                response.write(REPLIES[4]);
+                break;
+            case "cache-get":
+                response.write(REPLIES[5]);
+                break;
+            case "cache-set":
+                response.write(REPLIES[6]);
+                break;
+            case "cache-reload":
+                response.write(REPLIES[7]);
+                break;
+            case "cache-count":
+                response.write(REPLIES[8]);
+                break;
+            case "cache-info":
+                response.write(REPLIES[9]);
+                break;
+            case "session-list":
+                response.write(REPLIES[10]);
+                break;
+            case "session-flush":
+                response.write(REPLIES[11]);
+                break;
+            case "session-stats":
+                response.write(REPLIES[12]);
+                break;
+            case "session-reset":
+                response.write(REPLIES[13]);
+                break;
+            case "session-dump":
+                response.write(REPLIES[14]);
+                break;
+            case "session-get":
+                response.write(REPLIES[15]);
+                break;
+            case "session-set":
+                response.write(REPLIES[16]);
+                break;
+            case "session-reload":
+                response.write(REPLIES[17]);
+                break;
+            case "session-count":
+                response.write(REPLIES[18]);
+                break;
+            case "session-info":
+                response.write(REPLIES[19]);
+                break;
+            case "user-list":
+                response.write(REPLIES[20]);
+                break;
+            case "user-flush":
+                response.write(REPLIES[21]);
+                break;
+            case "user-stats":
+                response.write(REPLIES[22]);
+                break;
+            case "user-reset":
+                response.write(REPLIES[23]);
+                break;
+            case "user-dump":
+                response.write(REPLIES[24]);
+                break;
+            case "user-get":
+                response.write(REPLIES[25]);
+                break;
+            case "user-set":
+                response.write(REPLIES[26]);
+                break;
+            case "user-reload":
+                response.write(REPLIES[27]);
+                break;
+            case "user-count":
+                response.write(REPLIES[28]);
+                break;
+            case "user-info":
+                response.write(REPLIES[29]);
+                break;
+            case "queue-list":
+                response.write(REPLIES[30]);
+                break;
+            case "queue-flush":
+                response.write(REPLIES[31]);
+                break;
+            case "queue-stats":
+                response.write(REPLIES[32]);
+                break;
+            case "queue-reset":
+                response.write(REPLIES[33]);
+                break;
+            case "queue-dump":
+                response.write(REPLIES[34]);
+                break;
+            case "queue-get":
+                response.write(REPLIES[35]);
+                break;
+            case "queue-set":
+                response.write(REPLIES[36]);
+                break;
+            case "queue-reload":
+                response.write(REPLIES[37]);
+                break;
+            case "queue-count":
+                response.write(REPLIES[38]);
+                break;
+            case "queue-info":
+                response.write(REPLIES[39]);
+                break;
+            case "log-list":
+                response.write(REPLIES[40]);
+                break;
+            case "log-flush":
+                response.write(REPLIES[41]);
+                break;
+            case "log-stats":
+                response.write(REPLIES[42]);
+                break;
+            case "log-reset":
+                response.write(REPLIES[43]);
+                break;
+            case "log-dump":
+                response.write(REPLIES[44]);
+                break;
+            case "log-get":
+                response.write(REPLIES[45]);
+                break;
+            case "log-set":
+                response.write(REPLIES[46]);
+                break;
+            case "log-reload":
+                response.write(REPLIES[47]);
+                break;
+            case "log-count":
+                response.write(REPLIES[48]);
+                break;
+            case "log-info":
+                response.write(REPLIES[49]);
+                break;
+            case "config-list":
+                response.write(REPLIES[50]);
+                break;
+            case "config-flush":
+                response.write(REPLIES[51]);
+                break;
+            case "config-stats":
+                response.write(REPLIES[52]);
+                break;
+            case "config-reset":
+                response.write(REPLIES[53]);
+                break;
+            case "config-dump":
+                response.write(REPLIES[54]);
+                break;
+            case "config-get":
+                response.write(REPLIES[55]);
+                break;
+            case "config-set":
+                response.write(REPLIES[56]);
+                break;
+            case "config-reload":
+                response.write(REPLIES[57]);
+                break;
+            case "config-count":
+                response.write(REPLIES[58]);
+                break;
+            case "config-info":
+                response.write(REPLIES[59]);
+                break;
+            default:
+                response.println("Unknown command '" + name + "' " + arguments);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.logicalco.socketeer.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trips of a command through a server on the loopback interface : the client sends 'ping' and waits for the
+ * response and the following prompt. Every benchmark thread is a client with its own session, so the number of
+ * concurrent clients is set with the thread count (e.g. -t 4). The throughput is given in commands per second, the
+ * sample time mode gives the latency percentiles.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SessionRoundTripBenchmark {
+
+    private static final byte[] PING = "ping\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PONG = "pong\napp> ".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The running server, shared by all clients.
+     */
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"blocking", "nio"})
+        public String engine;
+
+        private SocketeerServer server;
+        private int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            port = SessionTestSupport.freePort();
+            server = new SocketeerServer(port, 64, SessionTestSupport.PING_HANDLER, StandardCharsets.UTF_8);
+            if("nio".equals(engine)) {
+                server.withNonBlockingIo(1);
+            }
+            server.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.stop(true);
+        }
+    }
+
+    /**
+     * The session of one client.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        private final byte[] buffer = new byte[PONG.length];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws Exception {
+            socket = SessionTestSupport.connect(server.port);
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            SessionTestSupport.readUntil(in, "app> ");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        private byte[] roundTrip() throws IOException {
+            out.write(PING);
+            int read = 0;
+            while(read < buffer.length) {
+                final int n = in.read(buffer, read, buffer.length - read);
+                if(n < 0) {
+                    throw new EOFException("Session closed.");
+                }
+                read += n;
+            }
+            return buffer;
+        }
+    }
+
+    @Benchmark
+    public byte[] ping(Client client) throws IOException {
+        return client.roundTrip();
+    }
+}
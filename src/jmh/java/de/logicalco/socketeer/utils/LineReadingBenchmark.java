@@ -0,0 +1,67 @@
+package de.logicalco.socketeer.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading lines of different lengths from an in-memory stream with {@link SocketeerUtils#readLineUnicode(java.io.InputStream)}
+ * (one read call per byte, a new array per line) and with {@link LineDecoder} (bulk reads, lines are slices of its
+ * buffer). The score is the time per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LineReadingBenchmark {
+
+    private static final int LINES = 1000;
+
+    @Param({"8", "64", "250"})
+    public int lineLength;
+
+    private byte[] input;
+    private LineDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        final byte[] line = new byte[lineLength + 2];
+        Arrays.fill(line, (byte) 'a');
+        line[lineLength] = '\r';
+        line[lineLength + 1] = '\n';
+        input = new byte[line.length * LINES];
+        for(int i = 0; i < LINES; i++) {
+            System.arraycopy(line, 0, input, i * line.length, line.length);
+        }
+        decoder = new LineDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH, LineDecoder.OverflowPolicy.DISCARD);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void readLineUnicode(Blackhole blackhole) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(input);
+        for(int i = 0; i < LINES; i++) {
+            blackhole.consume(SocketeerUtils.readLineUnicode(in));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void lineDecoder(Blackhole blackhole) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(input);
+        while(decoder.readLine(in)) {
+            blackhole.consume(decoder.lineLength());
+        }
+    }
+}
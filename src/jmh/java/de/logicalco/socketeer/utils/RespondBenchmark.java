@@ -0,0 +1,46 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a response with {@link SocketeerUtils#respond(String, java.nio.charset.Charset, boolean)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RespondBenchmark {
+
+    @Param({"4", "64", "1024"})
+    public int length;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        text = new String(chars);
+    }
+
+    @Benchmark
+    public Optional<byte[]> respond() {
+        return SocketeerUtils.respond(text, StandardCharsets.UTF_8, true);
+    }
+
+    @Benchmark
+    public Optional<byte[]> respondUTF8() {
+        return SocketeerUtils.respondUTF8(text, false);
+    }
+}
@@ -0,0 +1,97 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of telnet commands, e.g. the negotiation of the security handshake. The lookup by code and the
+ * encoding of a negotiation are compared with the former implementations (scanning the enum values, building the
+ * frame and writing it byte by byte).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelnetBenchmark {
+
+    //a reply of a client to WILL ECHO
+    private final int[] reply = {255, 253, 1};
+
+    private final Telnet[] values = Telnet.values();
+
+    //counts the bytes, so the writes are not eliminated
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    private int code = 236;
+
+    @Benchmark
+    public Optional<Telnet> forCode() {
+        //commands from the start to the end of the enum
+        code = code == 255 ? 236 : code + 1;
+        return Telnet.forCode(code);
+    }
+
+    @Benchmark
+    public Optional<Telnet> forCodeScan() {
+        code = code == 255 ? 236 : code + 1;
+        for(final Telnet telnet : values) {
+            if(telnet.getCode() == code) {
+                return Optional.of(telnet);
+            }
+        }
+        return Optional.absent();
+    }
+
+    @Benchmark
+    public byte[] buildCmdChain() {
+        return Telnet.buildCmdChain(Telnet.IAC, Telnet.WILL, Telnet.ECHO);
+    }
+
+    @Benchmark
+    public Telnet[] readCmdChain() {
+        return Telnet.readCmdChain(reply);
+    }
+
+    @Benchmark
+    public String cmdChainToString() {
+        return Telnet.cmdChainToString(reply);
+    }
+
+    @Benchmark
+    public long writeNegotiation() throws IOException {
+        Telnet.writeNegotiation(out, Telnet.WILL, Telnet.ECHO.getCode());
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeCmdChain() throws IOException {
+        //an OutputStream without write(byte[], int, int) writes byte by byte, like a FilterOutputStream
+        for(final byte b : Telnet.buildCmdChain(Telnet.IAC, Telnet.WILL, Telnet.ECHO)) {
+            out.write(b);
+        }
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package de.logicalco.socketeer.client;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent connection of a {@link SocketeerClient}. Commands are written by the calling threads, without waiting
+ * for the responses of the previous ones, a reader thread completes the responses. When the connection breaks, the
+ * pending responses fail and the pool opens a new connection for the next command.
+ */
+abstract class ClientConnection implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientConnection.class);
+
+    private static final ThreadFactory READER_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-client-%d").setDaemon(true).build();
+
+    /**
+     * Login of the {@link de.logicalco.socketeer.server.TelnetPasswordUsernameSecurityHandler}.
+     */
+    static final class Credentials {
+
+        private final byte[] user;
+        private final byte[] password;
+
+        Credentials(final byte[] user, final byte[] password) {
+            this.user = checkNotNull(user, "User cannot be null.");
+            this.password = checkNotNull(password, "Password cannot be null.");
+        }
+    }
+
+    private static final byte[] USER_PROMPT = bytes("user : ");
+    private static final byte[] PASSWORD_PROMPT = bytes("password : ");
+
+    protected final Socket socket;
+    protected final InputStream in;
+    protected final OutputStream out;
+    //serializes the writes and the registration of the pending responses
+    protected final Object lock = new Object();
+
+    private volatile boolean closed = false;
+
+    /*
+     * Commands in flight on this connection, guarded by the pool.
+     */
+    int load = 0;
+
+    /**
+     * @param socket    The connected socket.
+     * @throws IOException
+     */
+    ClientConnection(final Socket socket) throws IOException {
+        this.socket = checkNotNull(socket, "Socket cannot be null.");
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Open the session : Log in (if the server has a security handler) and read up to the first prompt (or the
+     * acknowledged preamble). Runs on the calling thread with the socket's read timeout.
+     *
+     * @param credentials   Login of the client.
+     * @throws IOException  If the server closed the connection, e.g. because the login was denied.
+     */
+    abstract void handshake(Optional<Credentials> credentials) throws IOException;
+
+    /**
+     * Send a command.
+     *
+     * @param command   The command.
+     * @return          The response, it fails, if the connection breaks before.
+     */
+    abstract CompletableFuture<byte[]> submit(byte[] command);
+
+    /**
+     * Read the responses, until the connection is closed. Called by the reader thread.
+     *
+     * @throws IOException
+     */
+    protected abstract void read() throws IOException;
+
+    /**
+     * Take the pending responses, called once under the lock, after the connection was closed. They are failed by the
+     * caller.
+     *
+     * @return  The pending responses.
+     */
+    protected abstract List<CompletableFuture<byte[]>> takePending();
+
+    /**
+     * Start the reader thread after the handshake.
+     */
+    void start() {
+        READER_THREAD_FACTORY.newThread(new Runnable() {
+            @Override
+            public void run() {
+                IOException cause = new EOFException("Connection closed by server.");
+                try {
+                    read();
+                } catch(IOException e) {
+                    if(!closed) {
+                        LOGGER.debug("Connection failed.", e);
+                        cause = e;
+                    }
+                } catch(Exception e) {
+                    LOGGER.error("Connection crashed!", e);
+                    cause = new IOException("Connection crashed.", e);
+                } finally {
+                    final List<CompletableFuture<byte[]>> pending;
+                    synchronized(lock) {
+                        close();
+                        pending = takePending();
+                    }
+                    for(final CompletableFuture<byte[]> response : pending) {
+                        response.completeExceptionally(cause);
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * @return  false if the connection is closed.
+     */
+    boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch(IOException e) {
+            LOGGER.warn("Could not close connection properly.", e);
+        }
+    }
+
+    /**
+     * Answer the prompts of the telnet login. The server switches the echo off while the password is read and on
+     * afterwards, the telnet commands are skipped by the reader.
+     *
+     * @param reader        Reader of the connection's input.
+     * @param credentials   Login of the client.
+     * @throws IOException
+     */
+    protected void login(final PromptReader reader, final Credentials credentials) throws IOException {
+        reader.readUntil(USER_PROMPT);
+        out.write(line(credentials.user));
+        reader.readUntil(PASSWORD_PROMPT);
+        out.write(line(credentials.password));
+    }
+
+    /**
+     * @param bytes The text.
+     * @return      The text followed by a line feed.
+     */
+    static byte[] line(final byte[] bytes) {
+        final byte[] line = new byte[bytes.length + 1];
+        System.arraycopy(bytes, 0, line, 0, bytes.length);
+        line[bytes.length] = '\n';
+        return line;
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
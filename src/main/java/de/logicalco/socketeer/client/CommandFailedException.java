@@ -0,0 +1,41 @@
+package de.logicalco.socketeer.client;
+
+import de.logicalco.socketeer.utils.FrameStatus;
+
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Completes the response of a command, that the server answered with {@link FrameStatus#FAILED} or
+ * {@link FrameStatus#TIMED_OUT} (framed protocol only). The connection stays usable.
+ */
+public class CommandFailedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final FrameStatus status;
+
+    /**
+     * @param status    Status of the response.
+     * @param message   Message sent by the server.
+     */
+    public CommandFailedException(FrameStatus status, String message) {
+        super(message);
+        this.status = checkNotNull(status, "Status cannot be null.");
+    }
+
+    /**
+     * @return  Status of the response.
+     */
+    public FrameStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return  true if the command exceeded the command timeout of the server.
+     */
+    public boolean isTimedOut() {
+        return status == FrameStatus.TIMED_OUT;
+    }
+}
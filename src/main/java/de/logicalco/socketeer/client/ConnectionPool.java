@@ -0,0 +1,158 @@
+package de.logicalco.socketeer.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The persistent connections of a {@link SocketeerClient}. A command is sent over the connection with the fewest
+ * commands in flight, a new connection is opened only, if all connections are busy with the max amount of pipelined
+ * commands. If the max amount of connections is reached, the caller waits for a response. Broken connections are
+ * dropped, when the next command is sent.
+ */
+final class ConnectionPool implements Closeable {
+
+    /**
+     * Opens the connections of the pool.
+     */
+    interface Factory {
+        /**
+         * @return  A connection, its handshake is done.
+         * @throws IOException
+         */
+        ClientConnection open() throws IOException;
+    }
+
+    private final Factory factory;
+    private final int maxConnections;
+    private final int maxPipelined;
+
+    private final List<ClientConnection> connections = new ArrayList<>();
+    //connections being opened count against the max
+    private int opening = 0;
+    private boolean closed = false;
+
+    /**
+     * @param factory           Opens the connections.
+     * @param maxConnections    Max amount of connections.
+     * @param maxPipelined      Max amount of commands in flight per connection.
+     */
+    ConnectionPool(final Factory factory, final int maxConnections, final int maxPipelined) {
+        checkArgument(maxConnections > 0, "Max connections have to be positive.");
+        checkArgument(maxPipelined > 0, "Max pipelined commands have to be positive.");
+        this.factory = checkNotNull(factory, "Factory cannot be null.");
+        this.maxConnections = maxConnections;
+        this.maxPipelined = maxPipelined;
+    }
+
+    /**
+     * Take a slot for a command, it has to be given back by {@link #release(ClientConnection)}.
+     *
+     * @param timeoutMillis Max time to wait for a slot.
+     * @return              The connection to send the command over.
+     * @throws SocketTimeoutException   If no slot was available in time.
+     * @throws IOException              If the client is closed or a connection could not be opened.
+     * @throws InterruptedException
+     */
+    ClientConnection acquire(final long timeoutMillis) throws IOException, InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized(this) {
+            while(true) {
+                if(closed) {
+                    throw new IOException("Client closed.");
+                }
+                final ClientConnection idlest = idlest();
+                if(idlest != null && idlest.load < maxPipelined) {
+                    idlest.load++;
+                    return idlest;
+                }
+                if(connections.size() + opening < maxConnections) {
+                    opening++;
+                    break;
+                }
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if(remaining <= 0) {
+                    throw new SocketTimeoutException("No connection available.");
+                }
+                wait(remaining);
+            }
+        }
+        //opened outside of the lock, so the other connections keep serving
+        final ClientConnection connection;
+        try {
+            connection = factory.open();
+        } catch(IOException | RuntimeException e) {
+            synchronized(this) {
+                opening--;
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized(this) {
+            opening--;
+            if(closed) {
+                connection.close();
+                notifyAll();
+                throw new IOException("Client closed.");
+            }
+            connections.add(connection);
+            connection.load++;
+            return connection;
+        }
+    }
+
+    /**
+     * Give back the slot of a command, that was answered (or failed).
+     *
+     * @param connection    The connection the command was sent over.
+     */
+    synchronized void release(final ClientConnection connection) {
+        connection.load--;
+        notifyAll();
+    }
+
+    /**
+     * @return  Amount of open connections.
+     */
+    synchronized int getConnections() {
+        idlest();
+        return connections.size();
+    }
+
+    /*
+     * Drops the broken connections.
+     */
+    private ClientConnection idlest() {
+        ClientConnection idlest = null;
+        final Iterator<ClientConnection> iterator = connections.iterator();
+        while(iterator.hasNext()) {
+            final ClientConnection connection = iterator.next();
+            if(!connection.isOpen()) {
+                iterator.remove();
+            } else if(idlest == null || connection.load < idlest.load) {
+                idlest = connection;
+            }
+        }
+        return idlest;
+    }
+
+    /**
+     * Close all connections, the pending responses fail.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for(final ClientConnection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+        notifyAll();
+    }
+}
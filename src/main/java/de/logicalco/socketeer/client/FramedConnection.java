@@ -0,0 +1,131 @@
+package de.logicalco.socketeer.client;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.FrameStatus;
+import de.logicalco.socketeer.utils.Frames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A connection speaking the framed protocol (see {@link Frames}) : Each command is sent with its own request id, the
+ * server answers it as soon as it is done, so the responses are matched to the commands by their ids. The commands
+ * and responses are binary and of any length.
+ */
+final class FramedConnection extends ClientConnection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FramedConnection.class);
+
+    /*
+     * The server does not limit its responses.
+     */
+    private static final int MAX_RESPONSE_LENGTH = Integer.MAX_VALUE - Frames.HEADER_LENGTH;
+
+    private final Charset charset;
+    private final Optional<PushListener> pushListener;
+    //guarded by the lock, id 0 is used by the server for pushed messages
+    private final Map<Integer, CompletableFuture<byte[]>> pending = new HashMap<>();
+    private int lastId = 0;
+
+    /**
+     * @param socket        The connected socket.
+     * @param charset       The character set of the server's messages.
+     * @param pushListener  Receives the pushed messages.
+     * @throws IOException
+     */
+    FramedConnection(final Socket socket, final Charset charset, final Optional<PushListener> pushListener)
+            throws IOException {
+        super(socket);
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.pushListener = checkNotNull(pushListener, "Push listener cannot be null.");
+    }
+
+    /*
+     * The server expects the preamble first (it may detect the protocol), the login runs on the raw connection.
+     */
+    @Override
+    void handshake(final Optional<Credentials> credentials) throws IOException {
+        out.write(Frames.preamble());
+        final PromptReader reader = new PromptReader(in);
+        if(credentials.isPresent()) {
+            login(reader, credentials.get());
+        }
+        reader.readUntil(Frames.preamble());
+    }
+
+    @Override
+    CompletableFuture<byte[]> submit(final byte[] command) {
+        final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        synchronized(lock) {
+            if(!isOpen()) {
+                response.completeExceptionally(new IOException("Connection closed."));
+                return response;
+            }
+            do {
+                lastId++;
+            } while(lastId == 0 || pending.containsKey(lastId));
+            pending.put(lastId, response);
+            final ByteBuffer frame = Frames.encode(lastId, FrameStatus.OK, command);
+            try {
+                out.write(frame.array(), frame.position(), frame.remaining());
+            } catch(IOException e) {
+                //the reader fails the pending responses
+                LOGGER.debug("Could not send command.", e);
+                close();
+            }
+        }
+        return response;
+    }
+
+    @Override
+    protected void read() throws IOException {
+        final FrameDecoder frames = new FrameDecoder(MAX_RESPONSE_LENGTH);
+        while(frames.readFrame(in)) {
+            switch(frames.status()) {
+                case PUSH:
+                    if(pushListener.isPresent()) {
+                        pushListener.get().pushed(frames.copyPayload());
+                    }
+                    break;
+                case CLOSING:
+                    throw new IOException("Session closed by server : " + text(frames.copyPayload()));
+                default:
+                    final CompletableFuture<byte[]> response;
+                    synchronized(lock) {
+                        response = pending.remove(frames.id());
+                    }
+                    if(response == null) {
+                        LOGGER.debug("Skipped response to unknown request {}.", frames.id());
+                    } else if(frames.status() == FrameStatus.OK) {
+                        response.complete(frames.copyPayload());
+                    } else {
+                        response.completeExceptionally(new CommandFailedException(frames.status(),
+                                text(frames.copyPayload())));
+                    }
+            }
+        }
+    }
+
+    @Override
+    protected List<CompletableFuture<byte[]>> takePending() {
+        final List<CompletableFuture<byte[]>> taken = new ArrayList<>(pending.values());
+        pending.clear();
+        return taken;
+    }
+
+    private String text(final byte[] payload) {
+        return new String(payload, charset).trim();
+    }
+}
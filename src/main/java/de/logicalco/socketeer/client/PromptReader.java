@@ -0,0 +1,71 @@
+package de.logicalco.socketeer.client;
+
+import de.logicalco.socketeer.utils.TelnetDecoder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reads the text the server sends up to a terminator (e.g. the prompt), the telnet commands are skipped. The input is
+ * consumed byte by byte, so a buffered stream should be passed and the bytes following the terminator are left to the
+ * next reader, e.g. the frames following the acknowledged preamble.
+ * <b>Note</b> : A reader is not thread-safe.
+ */
+final class PromptReader {
+
+    private final InputStream in;
+    private final TelnetDecoder telnet = new TelnetDecoder();
+    private final byte[] single = new byte[1];
+    private byte[] buffer = new byte[256];
+    private int length = 0;
+
+    /**
+     * @param in    The input of the connection (buffered).
+     */
+    PromptReader(final InputStream in) {
+        this.in = checkNotNull(in, "Input stream cannot be null.");
+    }
+
+    /**
+     * @param terminator    Bytes ending the text.
+     * @return              The text read before the terminator.
+     * @throws EOFException If the stream ended before the terminator.
+     * @throws IOException
+     */
+    byte[] readUntil(final byte[] terminator) throws IOException {
+        length = 0;
+        while(!endsWith(terminator)) {
+            final int b = in.read();
+            if(b < 0) {
+                throw new EOFException(String.format("Stream ended after '%s'.",
+                        new String(buffer, 0, length, StandardCharsets.ISO_8859_1)));
+            }
+            single[0] = (byte) b;
+            if(telnet.decode(single, 0, 1) == 0) {
+                continue;
+            }
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) b;
+        }
+        return Arrays.copyOf(buffer, length - terminator.length);
+    }
+
+    private boolean endsWith(final byte[] terminator) {
+        if(length < terminator.length) {
+            return false;
+        }
+        for(int i = 0; i < terminator.length; i++) {
+            if(buffer[length - terminator.length + i] != terminator[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,16 @@
+package de.logicalco.socketeer.client;
+
+/**
+ * Receives the messages pushed by the server to a framed connection (see
+ * {@link de.logicalco.socketeer.server.SocketeerServer#broadcast(String)}).
+ * <b>Note</b> : A listener is shared by all connections of a client therefore it has to be thread-safe.
+ */
+public interface PushListener {
+
+    /**
+     * Called by the reader thread of the connection, so it should return quickly.
+     *
+     * @param message   The pushed message.
+     */
+    void pushed(byte[] message);
+}
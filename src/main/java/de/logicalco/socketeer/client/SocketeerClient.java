@@ -0,0 +1,361 @@
+package de.logicalco.socketeer.client;
+
+import com.google.common.base.Optional;
+import com.google.common.net.InetAddresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Client of a {@link de.logicalco.socketeer.server.SocketeerServer}. The client keeps a pool of persistent (and
+ * authenticated) connections and pipelines the commands : A command is sent without waiting for the responses of the
+ * previous ones over the connection with the fewest commands in flight.
+ * <br/><br/>
+ * By default the client speaks the line based protocol, the end of a response is detected by the server's prompt
+ * (the application's name followed by '> '), so the prompt must not be suppressed while pipelining (see
+ * {@link de.logicalco.socketeer.server.SocketeerServer#withPipelining}) and the server must not send the prompt
+ * before the response, as it does for responses of an {@link de.logicalco.socketeer.server.AsyncCommandHandler}
+ * completed later. The framed protocol (see
+ * {@link #withFraming()}) has no such restrictions : Commands and responses are binary and the server may answer
+ * them out of order.
+ * <br/><br/>
+ * A command is not sent again, if its connection breaks, its response fails with an {@link IOException}. The next
+ * command opens a new connection.
+ * <br/><br/>
+ * The client is thread-safe, it has to be configured before the first command is sent.
+ */
+public final class SocketeerClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SocketeerClient.class);
+
+    /**
+     * Default max amount of connections.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    /**
+     * Default max amount of commands in flight per connection.
+     */
+    public static final int DEFAULT_MAX_PIPELINED = 16;
+
+    /**
+     * Default timeout in milliseconds.
+     */
+    public static final long DEFAULT_TIMEOUT = 10000L;
+
+    private final InetSocketAddress address;
+    private final byte[] prompt;
+    private final Charset charset;
+
+    private Optional<ClientConnection.Credentials> credentials = Optional.absent();
+    private Optional<SSLContext> sslContext = Optional.absent();
+    private Optional<PushListener> pushListener = Optional.absent();
+    private boolean framing = false;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxPipelined = DEFAULT_MAX_PIPELINED;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private volatile ConnectionPool pool = null;
+
+    /**
+     * @param address   Address of the server.
+     * @param appName   Name of the server's application (the name of its command handler), needed for the prompt.
+     * @param charset   Character set of the server.
+     */
+    public SocketeerClient(final InetSocketAddress address, final String appName, final Charset charset) {
+        this.address = checkNotNull(address, "Address cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.prompt = (checkNotNull(appName, "Application name cannot be null.") + "> ").getBytes(charset);
+    }
+
+    /**
+     * Log in to a server secured by a {@link de.logicalco.socketeer.server.TelnetPasswordUsernameSecurityHandler}
+     * (or any handler reading the same prompts).
+     *
+     * @param user      The user.
+     * @param password  The password.
+     * @return          The client.
+     */
+    public SocketeerClient withCredentials(final String user, final String password) {
+        checkConfigurable();
+        this.credentials = Optional.of(new ClientConnection.Credentials(
+                checkNotNull(user, "User cannot be null.").getBytes(charset),
+                checkNotNull(password, "Password cannot be null.").getBytes(charset)));
+        return this;
+    }
+
+    /**
+     * Connect via TLS. The server's certificate has to be trusted by the context and issued for the host of the
+     * address (as for HTTPS), the host is sent for server name indication.
+     *
+     * @param sslContext    Context trusting the server's certificate.
+     * @return              The client.
+     */
+    public SocketeerClient withTls(final SSLContext sslContext) {
+        checkConfigurable();
+        this.sslContext = Optional.of(checkNotNull(sslContext, "SSL context cannot be null."));
+        return this;
+    }
+
+    /**
+     * Speak the framed protocol, the server has to accept it (see
+     * {@link de.logicalco.socketeer.server.SocketeerServer#withWireProtocol}).
+     *
+     * @return  The client.
+     */
+    public SocketeerClient withFraming() {
+        checkConfigurable();
+        this.framing = true;
+        return this;
+    }
+
+    /**
+     * Receive the messages pushed by the server, only supported by the framed protocol.
+     *
+     * @param pushListener  The listener.
+     * @return              The client.
+     */
+    public SocketeerClient withPushListener(final PushListener pushListener) {
+        checkConfigurable();
+        this.pushListener = Optional.of(checkNotNull(pushListener, "Push listener cannot be null."));
+        return this;
+    }
+
+    /**
+     * Limit the connections. A command waits, if all connections have the max amount of commands in flight.
+     * Defaults are {@value #DEFAULT_MAX_CONNECTIONS} connections with {@value #DEFAULT_MAX_PIPELINED} commands.
+     *
+     * @param maxConnections    Max amount of connections.
+     * @param maxPipelined      Max amount of commands in flight per connection, 1 disables pipelining.
+     * @return                  The client.
+     */
+    public SocketeerClient withPool(final Integer maxConnections, final Integer maxPipelined) {
+        checkConfigurable();
+        checkArgument(checkNotNull(maxConnections, "Max connections cannot be null.") > 0,
+                "Max connections have to be positive.");
+        checkArgument(checkNotNull(maxPipelined, "Max pipelined commands cannot be null.") > 0,
+                "Max pipelined commands have to be positive.");
+        this.maxConnections = maxConnections;
+        this.maxPipelined = maxPipelined;
+        return this;
+    }
+
+    /**
+     * Timeout to connect (including the login), to wait for a free connection and to wait for a response of
+     * {@link #execute(byte[])}. Default is {@value #DEFAULT_TIMEOUT} milliseconds.
+     *
+     * @param timeout   The timeout.
+     * @param unit      Unit of the timeout.
+     * @return          The client.
+     */
+    public SocketeerClient withTimeout(final Long timeout, final TimeUnit unit) {
+        checkConfigurable();
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") > 0, "Timeout has to be positive.");
+        this.timeout = checkNotNull(unit, "Unit cannot be null.").toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Send a command. Blocks, if all connections have the max amount of commands in flight.
+     *
+     * @param command   The command, in the line based protocol it cannot contain line breaks.
+     * @return          The response. It fails with an {@link IOException}, if no connection could be opened or the
+     *                  connection broke, with a {@link CommandFailedException}, if the server could not handle the
+     *                  (framed) command.
+     */
+    public CompletableFuture<byte[]> submit(final byte[] command) {
+        checkNotNull(command, "Command cannot be null.");
+        final ConnectionPool pool = pool();
+        final ClientConnection connection;
+        try {
+            connection = pool.acquire(timeout);
+        } catch(IOException e) {
+            return failed(e);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(new InterruptedIOException("Interrupted while waiting for a connection."));
+        }
+        final CompletableFuture<byte[]> response = connection.submit(command);
+        response.whenComplete(new BiConsumer<byte[], Throwable>() {
+            @Override
+            public void accept(final byte[] bytes, final Throwable throwable) {
+                pool.release(connection);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Send a command (see {@link #submit(byte[])}).
+     *
+     * @param command   The command.
+     * @return          The response.
+     */
+    public CompletableFuture<String> submit(final String command) {
+        return submit(checkNotNull(command, "Command cannot be null.").getBytes(charset))
+                .thenApply(new Function<byte[], String>() {
+                    @Override
+                    public String apply(final byte[] bytes) {
+                        return new String(bytes, charset);
+                    }
+                });
+    }
+
+    /**
+     * Send a command and wait for its response.
+     *
+     * @param command   The command.
+     * @return          The response.
+     * @throws SocketTimeoutException   If the response did not arrive in time.
+     * @throws CommandFailedException   If the server could not handle the (framed) command.
+     * @throws IOException              If no connection could be opened or the connection broke.
+     */
+    public byte[] execute(final byte[] command) throws IOException {
+        return await(submit(command));
+    }
+
+    /**
+     * Send a command and wait for its response (see {@link #execute(byte[])}).
+     *
+     * @param command   The command.
+     * @return          The response.
+     * @throws IOException
+     */
+    public String execute(final String command) throws IOException {
+        return new String(execute(checkNotNull(command, "Command cannot be null.").getBytes(charset)), charset);
+    }
+
+    /**
+     * @return  Amount of open connections.
+     */
+    public int getOpenConnections() {
+        final ConnectionPool pool = this.pool;
+        return pool == null ? 0 : pool.getConnections();
+    }
+
+    /**
+     * Close all connections, the pending responses fail. Further commands fail, too.
+     */
+    @Override
+    public synchronized void close() {
+        if(pool == null) {
+            pool = newPool();
+        }
+        pool.close();
+    }
+
+    private byte[] await(final CompletableFuture<byte[]> response) throws IOException {
+        try {
+            return response.get(timeout, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response.");
+        } catch(TimeoutException e) {
+            throw new SocketTimeoutException("No response within " + timeout + " milliseconds.");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private ConnectionPool pool() {
+        ConnectionPool pool = this.pool;
+        if(pool == null) {
+            synchronized(this) {
+                if(this.pool == null) {
+                    this.pool = newPool();
+                }
+                pool = this.pool;
+            }
+        }
+        return pool;
+    }
+
+    private ConnectionPool newPool() {
+        return new ConnectionPool(new ConnectionPool.Factory() {
+            @Override
+            public ClientConnection open() throws IOException {
+                return connect();
+            }
+        }, maxConnections, maxPipelined);
+    }
+
+    private ClientConnection connect() throws IOException {
+        final Socket plain = new Socket();
+        Socket socket = plain;
+        try {
+            plain.connect(address, (int) Math.min(timeout, Integer.MAX_VALUE));
+            plain.setTcpNoDelay(true);
+            plain.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+            if(sslContext.isPresent()) {
+                socket = handshake(plain);
+            }
+            final ClientConnection connection = framing ? new FramedConnection(socket, charset, pushListener)
+                    : new TextConnection(socket, prompt);
+            connection.handshake(credentials);
+            //responses may take any time
+            socket.setSoTimeout(0);
+            connection.start();
+            LOGGER.debug("Connected to {}.", address);
+            return connection;
+        } catch(IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /*
+     * The certificate has to be trusted and issued for the host, before the credentials are sent.
+     */
+    private SSLSocket handshake(final Socket plain) throws IOException {
+        final String host = address.getHostString();
+        final SSLSocket socket = (SSLSocket) sslContext.get().getSocketFactory().createSocket(plain, host,
+                address.getPort(), true);
+        final SSLParameters parameters = socket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        if(!InetAddresses.isInetAddress(host)) {
+            parameters.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+        }
+        socket.setSSLParameters(parameters);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private void checkConfigurable() {
+        checkState(pool == null, "The client cannot be configured after the first command.");
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable throwable) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
@@ -0,0 +1,103 @@
+package de.logicalco.socketeer.client;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A connection speaking the line based protocol : A command is a line, its response is the text up to the next
+ * prompt. The server answers the commands in order, so the responses are matched to the commands by their order.
+ * <br/>
+ * The server must not suppress the prompt of pipelined commands or send it before the response and a response must
+ * not contain the prompt. Messages
+ * pushed by the server are taken as part of the next response.
+ */
+final class TextConnection extends ClientConnection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextConnection.class);
+
+    private final byte[] prompt;
+    private final PromptReader reader;
+    //guarded by the lock
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+    /**
+     * @param socket    The connected socket.
+     * @param prompt    The prompt of the server (the application's name followed by '> ').
+     * @throws IOException
+     */
+    TextConnection(final Socket socket, final byte[] prompt) throws IOException {
+        super(socket);
+        this.prompt = checkNotNull(prompt, "Prompt cannot be null.");
+        this.reader = new PromptReader(in);
+    }
+
+    @Override
+    void handshake(final Optional<Credentials> credentials) throws IOException {
+        if(credentials.isPresent()) {
+            login(reader, credentials.get());
+        }
+        //the opener is skipped
+        reader.readUntil(prompt);
+    }
+
+    @Override
+    CompletableFuture<byte[]> submit(final byte[] command) {
+        final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        for(final byte b : command) {
+            if(b == '\n' || b == '\r') {
+                response.completeExceptionally(new IllegalArgumentException("Command cannot contain line breaks."));
+                return response;
+            }
+        }
+        synchronized(lock) {
+            if(!isOpen()) {
+                response.completeExceptionally(new IOException("Connection closed."));
+                return response;
+            }
+            pending.add(response);
+            try {
+                out.write(line(command));
+            } catch(IOException e) {
+                //the reader fails the pending responses
+                LOGGER.debug("Could not send command.", e);
+                close();
+            }
+        }
+        return response;
+    }
+
+    @Override
+    protected void read() throws IOException {
+        while(true) {
+            final byte[] response = reader.readUntil(prompt);
+            final CompletableFuture<byte[]> next;
+            synchronized(lock) {
+                next = pending.poll();
+            }
+            if(next == null) {
+                LOGGER.debug("Skipped text without command : {}", new String(response, StandardCharsets.UTF_8));
+                continue;
+            }
+            next.complete(response);
+        }
+    }
+
+    @Override
+    protected List<CompletableFuture<byte[]>> takePending() {
+        final List<CompletableFuture<byte[]>> taken = new ArrayList<>(pending);
+        pending.clear();
+        return taken;
+    }
+}
@@ -0,0 +1,215 @@
+package de.logicalco.socketeer.server;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Admission control of a server : At most maxSessions sessions run at the same time, further connections wait in a
+ * bounded queue of pending sessions and are started in order, when a session ends. Connections exceeding the queue or
+ * the limit per remote address are rejected.
+ * <br/>
+ * Admissions are rare compared to commands, so a simple monitor guards the state.
+ */
+final class Admissions {
+
+    /**
+     * What happened to a connection passed to {@link #admit(InetAddress, Connection)}.
+     */
+    enum Decision {
+        /**
+         * The session was started.
+         */
+        STARTED,
+        /**
+         * The session is started, when another one ends.
+         */
+        QUEUED,
+        /**
+         * Max sessions are running and the queue is full.
+         */
+        BUSY,
+        /**
+         * The remote address has too many connections.
+         */
+        ADDRESS_LIMIT;
+
+        boolean isAdmitted() {
+            return this == STARTED || this == QUEUED;
+        }
+    }
+
+    /**
+     * An accepted connection.
+     */
+    interface Connection {
+
+        /**
+         * Start the session. It has to call {@link #release(InetAddress)}, when it ends (or if it cannot be started).
+         */
+        void start();
+
+        /**
+         * Close the connection, it was still queued when the admissions were closed.
+         */
+        void close();
+    }
+
+    private static final class Pending {
+
+        private final InetAddress address;
+        private final Connection connection;
+
+        private Pending(final InetAddress address, final Connection connection) {
+            this.address = address;
+            this.connection = connection;
+        }
+    }
+
+    private final int maxSessions;
+    private final int maxPending;
+    private final int maxPerAddress;
+    private final SocketeerMetrics metrics;
+
+    private final Queue<Pending> pending = new ArrayDeque<>();
+    private final Map<InetAddress, Integer> connections = new HashMap<>();
+    private int active = 0;
+    private boolean closed = false;
+
+    /**
+     * @param maxSessions   Max amount of sessions running at the same time.
+     * @param maxPending    Max amount of connections waiting for a session, 0 for none.
+     * @param maxPerAddress Max amount of running and waiting connections per remote address, 0 for no limit.
+     * @param metrics       Metrics to report queued and rejected connections to.
+     */
+    Admissions(final int maxSessions, final int maxPending, final int maxPerAddress, final SocketeerMetrics metrics) {
+        checkArgument(maxSessions > 0, "Max sessions have to be positive.");
+        checkArgument(maxPending >= 0, "Max pending sessions cannot be negative.");
+        checkArgument(maxPerAddress >= 0, "Max connections per address cannot be negative.");
+        this.maxSessions = maxSessions;
+        this.maxPending = maxPending;
+        this.maxPerAddress = maxPerAddress;
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+    }
+
+    /**
+     * Wait until a connection can be admitted, so the acceptor does not accept connections it would have to reject.
+     * Returns at once, if the admissions are closed.
+     *
+     * @throws InterruptedException
+     */
+    synchronized void awaitCapacity() throws InterruptedException {
+        while(!closed && active + pending.size() >= maxSessions + maxPending) {
+            wait();
+        }
+    }
+
+    /**
+     * Start the session of a connection, queue it or reject it. A rejected connection is left to the caller.
+     *
+     * @param address       Remote address of the connection.
+     * @param connection    The connection.
+     * @return              The decision.
+     */
+    Decision admit(final InetAddress address, final Connection connection) {
+        checkNotNull(address, "Address cannot be null.");
+        checkNotNull(connection, "Connection cannot be null.");
+        final Decision decision;
+        synchronized(this) {
+            final Integer count = connections.get(address);
+            if(closed || maxPerAddress > 0 && count != null && count >= maxPerAddress) {
+                decision = closed ? Decision.BUSY : Decision.ADDRESS_LIMIT;
+            } else if(active < maxSessions) {
+                active++;
+                decision = Decision.STARTED;
+            } else if(pending.size() < maxPending) {
+                pending.add(new Pending(address, connection));
+                decision = Decision.QUEUED;
+            } else {
+                decision = Decision.BUSY;
+            }
+            if(decision.isAdmitted()) {
+                connections.put(address, count == null ? 1 : count + 1);
+            }
+        }
+        if(decision == Decision.STARTED) {
+            connection.start();
+        } else if(decision == Decision.QUEUED) {
+            metrics.sessionQueued();
+        } else {
+            metrics.connectionRejected();
+        }
+        return decision;
+    }
+
+    /**
+     * A session of the given address ended, the next pending one is started.
+     *
+     * @param address   Remote address of the session.
+     */
+    void release(final InetAddress address) {
+        final Pending next;
+        synchronized(this) {
+            decrement(address);
+            next = pending.poll();
+            if(next == null) {
+                active--;
+            }
+            notifyAll();
+        }
+        if(next != null) {
+            metrics.sessionDequeued();
+            next.connection.start();
+        }
+    }
+
+    /**
+     * Reject all further connections and close the pending ones.
+     */
+    void close() {
+        final List<Pending> closing;
+        synchronized(this) {
+            closed = true;
+            closing = new ArrayList<>(pending);
+            pending.clear();
+            for(final Pending p : closing) {
+                decrement(p.address);
+            }
+            notifyAll();
+        }
+        for(final Pending p : closing) {
+            metrics.sessionDequeued();
+            p.connection.close();
+        }
+    }
+
+    /**
+     * @return  Number of running sessions.
+     */
+    synchronized int getActive() {
+        return active;
+    }
+
+    /**
+     * @return  Number of connections waiting for a session.
+     */
+    synchronized int getPending() {
+        return pending.size();
+    }
+
+    private void decrement(final InetAddress address) {
+        final Integer count = connections.get(address);
+        if(count == null || count <= 1) {
+            connections.remove(address);
+        } else {
+            connections.put(address, count - 1);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Alternative to {@link CommandHandler} for commands, that take a while (e.g. flushing caches or dumping statistics).
+ * The session does not wait for the response : Unless the response is complete already, the prompt is sent back at
+ * once and the response is sent (followed by the prompt) when it is complete. Responses are always sent in the order
+ * of the commands. A pending response is cancelled, if the session is closed, the escape sequence is sent or the
+ * command timeout is exceeded (see {@link SocketeerServer#withCommandTimeout(Long, java.util.concurrent.TimeUnit)}).
+ * <b>Note</b> : A command handler is shared by all sessions therefore it has to be thread-safe.
+ */
+public interface AsyncCommandHandler {
+
+    /**
+     * This is the opening phrase sent by the server when a session is started.
+     * Optional#absent should be returned for no opening phrase.
+     *
+     * @return  Opening phrase or Optional#absent
+     */
+    Optional<byte[]> getOpener();
+
+    /**
+     * Return the application's name.
+     *
+     * @return  The application's name.
+     */
+    byte[] getAppName();
+
+    /**
+     * Start handling the command. This is called by the session, so the work should be done by another thread.
+     * The returned stage is cancelled (via {@link java.util.concurrent.CompletableFuture#cancel(boolean)}), if the
+     * response is not needed any more.
+     *
+     * @param command   Command to handle.
+     * @return          Stage completed with the response to send back to the client.
+     */
+    CompletionStage<Optional<byte[]>> handle(byte[] command);
+
+    /**
+     * The escape sequence is a string that destroys the current session on server side (and the connection too).
+     *
+     * @return  Escape sequence.
+     */
+    byte[] getEscapeSeq();
+
+}
@@ -0,0 +1,65 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapter to pass an {@link AsyncCommandHandler} as {@link ByteBufferCommandHandler} to the server. The sessions
+ * recognize the adapter and deliver the responses asynchronously, {@link #handle(ByteBuffer, ResponseBuffer)} waits for
+ * the response.
+ */
+public class AsyncCommandHandlerAdapter implements ByteBufferCommandHandler {
+
+    private final AsyncCommandHandler delegate;
+
+    /**
+     * @param delegate  The command handler to adapt.
+     */
+    public AsyncCommandHandlerAdapter(AsyncCommandHandler delegate) {
+        this.delegate = checkNotNull(delegate, "Command handler cannot be null.");
+    }
+
+    @Override
+    public Optional<byte[]> getOpener() {
+        return delegate.getOpener();
+    }
+
+    @Override
+    public byte[] getAppName() {
+        return delegate.getAppName();
+    }
+
+    @Override
+    public void handle(ByteBuffer command, ResponseBuffer response) {
+        final byte[] bytes = new byte[command.remaining()];
+        command.get(bytes);
+        final Optional<byte[]> result;
+        try {
+            result = delegate.handle(bytes).toCompletableFuture().get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the response.", e);
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Command failed.", e.getCause());
+        }
+        if(result.isPresent()) {
+            response.write(result.get());
+        }
+    }
+
+    @Override
+    public byte[] getEscapeSeq() {
+        return delegate.getEscapeSeq();
+    }
+
+    /**
+     * @return  The adapted command handler.
+     */
+    public AsyncCommandHandler getDelegate() {
+        return delegate;
+    }
+}
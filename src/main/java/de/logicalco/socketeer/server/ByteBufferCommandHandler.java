@@ -0,0 +1,46 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Zero-copy alternative to {@link CommandHandler}. The command is passed as a read-only view of the session's read
+ * buffer and the response is written to a buffer owned by the session, so handling a command does not need to
+ * allocate anything. Existing command handlers can be used via {@link CommandHandlerAdapter}.
+ * <b>Note</b> : A command handler is shared by all sessions therefore it has to be thread-safe.
+ */
+public interface ByteBufferCommandHandler {
+
+    /**
+     * This is the opening phrase sent by the server when a session is started.
+     * Optional#absent should be returned for no opening phrase.
+     *
+     * @return  Opening phrase or Optional#absent
+     */
+    Optional<byte[]> getOpener();
+
+    /**
+     * Return the application's name.
+     *
+     * @return  The application's name.
+     */
+    byte[] getAppName();
+
+    /**
+     * Handle the command and optionally write a response.
+     *
+     * @param command   Command to handle, the bytes between position and limit of a read-only view. The view (and its
+     *                  content) is only valid until the method returns.
+     * @param response  Buffer for the response to send back to the client, nothing is sent if it is left empty.
+     */
+    void handle(ByteBuffer command, ResponseBuffer response);
+
+    /**
+     * The escape sequence is a string that destroys the current session on server side (and the connection too).
+     *
+     * @return  Escape sequence.
+     */
+    byte[] getEscapeSeq();
+
+}
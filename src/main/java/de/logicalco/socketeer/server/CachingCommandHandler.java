@@ -0,0 +1,352 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A command handler caching the responses of expensive commands (e.g. a status polled by several monitoring
+ * sessions), all other commands are passed to the delegate. A cacheable command is marked with the time its responses
+ * are cached, a rule for 'config show' applies to 'config show' as well as to 'config show users' (after leading
+ * spaces), the longest matching rule wins. The responses are cached per command, the key is the raw command.
+ * <br/>
+ * The cache is bounded by the bytes of the commands and responses, the least recently used responses are evicted
+ * first. Sessions sending the same command at the same time wait for a single call of the delegate, failures are not
+ * cached. Responses depending on the session (e.g. on a subscription) must not be cached.
+ * <br/>
+ * Example :
+ * <pre>
+ *     final CachingCommandHandler handler = new CachingCommandHandler(delegate, StandardCharsets.UTF_8, 1L << 20)
+ *             .withCacheable("status", 1L, TimeUnit.SECONDS)
+ *             .withCacheable("config show", 1L, TimeUnit.MINUTES);
+ *     //after 'config set'
+ *     handler.invalidate("config show");
+ * </pre>
+ * <b>Note</b> : The responses are shared by all sessions, the delegate must not modify them afterwards.
+ */
+public class CachingCommandHandler implements CommandHandler {
+
+    private static final byte SPACE = ' ';
+
+    /*
+     * Estimated bytes of an entry besides the command and the response.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final class Rule {
+
+        private final String command;
+        private final byte[] bytes;
+        private final long ttl;
+
+        private Rule(final String command, final byte[] bytes, final long ttl) {
+            this.command = command;
+            this.bytes = bytes;
+            this.ttl = ttl;
+        }
+    }
+
+    private static final class Key {
+
+        private final byte[] command;
+        private final int hash;
+
+        private Key(final byte[] command) {
+            this.command = command;
+            this.hash = Arrays.hashCode(command);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key && Arrays.equals(command, ((Key) other).command);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        private final Optional<byte[]> response;
+        private final long expires;
+
+        private Entry(final Optional<byte[]> response, final long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+
+        private int weight() {
+            return ENTRY_OVERHEAD + (response.isPresent() ? response.get().length : 0);
+        }
+    }
+
+    private final CommandHandler delegate;
+    private final Charset charset;
+    private final Ticker ticker;
+    private final Cache<Key, Entry> cache;
+
+    //replaced with every change, so lookups need no lock
+    private volatile Rule[] rules = new Rule[0];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param delegate  The command handler computing the responses.
+     * @param charset   Charset of the commands.
+     * @param maxBytes  Max size of the cached commands and responses.
+     */
+    public CachingCommandHandler(final CommandHandler delegate, final Charset charset, final Long maxBytes) {
+        this(delegate, charset, maxBytes, Ticker.systemTicker());
+    }
+
+    /**
+     * @param delegate  The command handler computing the responses.
+     * @param charset   Charset of the commands.
+     * @param maxBytes  Max size of the cached commands and responses.
+     * @param ticker    Time source of the expiry.
+     */
+    CachingCommandHandler(final CommandHandler delegate, final Charset charset, final Long maxBytes,
+                          final Ticker ticker) {
+        this.delegate = checkNotNull(delegate, "Command handler cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        checkArgument(checkNotNull(maxBytes, "Max bytes cannot be null.") > 0, "Max bytes have to be positive.");
+        this.ticker = checkNotNull(ticker, "Ticker cannot be null.");
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return key.command.length + entry.weight();
+                    }
+                })
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        if(notification.getCause() == RemovalCause.SIZE) {
+                            evictions.increment();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Cache the responses of a command (and of the command with arguments), an existing rule of the command is
+     * replaced. A changed time applies to the responses cached afterwards.
+     *
+     * @param command   The command, it must neither be empty nor start with a space.
+     * @param ttl       Time a response is cached.
+     * @param unit      Unit of the time.
+     * @return          this
+     */
+    public synchronized CachingCommandHandler withCacheable(final String command, final Long ttl,
+                                                            final TimeUnit unit) {
+        checkArgument(!checkNotNull(command, "Command cannot be null.").trim().isEmpty(),
+                "Command cannot be empty.");
+        checkArgument(command.charAt(0) != SPACE, "Command cannot start with a space.");
+        checkArgument(checkNotNull(ttl, "TTL cannot be null.") > 0, "TTL has to be positive.");
+        final Rule rule = new Rule(command, command.getBytes(charset),
+                checkNotNull(unit, "Unit cannot be null.").toNanos(ttl));
+        final Rule[] current = rules;
+        for(int i = 0; i < current.length; i++) {
+            if(current[i].command.equals(command)) {
+                final Rule[] changed = current.clone();
+                changed[i] = rule;
+                rules = changed;
+                return this;
+            }
+        }
+        final Rule[] added = Arrays.copyOf(current, current.length + 1);
+        added[current.length] = rule;
+        rules = added;
+        return this;
+    }
+
+    /**
+     * Stop caching the responses of a command, its cached responses are dropped.
+     *
+     * @param command   The command.
+     * @return          this
+     */
+    public synchronized CachingCommandHandler withoutCacheable(final String command) {
+        checkNotNull(command, "Command cannot be null.");
+        final Rule[] current = rules;
+        for(int i = 0; i < current.length; i++) {
+            if(current[i].command.equals(command)) {
+                final Rule[] removed = new Rule[current.length - 1];
+                System.arraycopy(current, 0, removed, 0, i);
+                System.arraycopy(current, i + 1, removed, i, current.length - i - 1);
+                rules = removed;
+                break;
+            }
+        }
+        return invalidate(command);
+    }
+
+    /**
+     * Drop the cached responses of a command (and of the command with arguments), e.g. when the data changed. A
+     * response being computed meanwhile is still cached.
+     *
+     * @param command   The command.
+     * @return          this
+     */
+    public CachingCommandHandler invalidate(final String command) {
+        final byte[] bytes = checkNotNull(command, "Command cannot be null.").getBytes(charset);
+        final Iterator<Key> keys = cache.asMap().keySet().iterator();
+        while(keys.hasNext()) {
+            if(matches(keys.next().command, bytes)) {
+                keys.remove();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Drop all cached responses.
+     *
+     * @return  this
+     */
+    public CachingCommandHandler invalidateAll() {
+        cache.invalidateAll();
+        return this;
+    }
+
+    @Override
+    public Optional<byte[]> getOpener() {
+        return delegate.getOpener();
+    }
+
+    @Override
+    public byte[] getAppName() {
+        return delegate.getAppName();
+    }
+
+    @Override
+    public Optional<byte[]> handle(final byte[] command) {
+        final Rule rule = find(command);
+        if(rule == null) {
+            return delegate.handle(command);
+        }
+        final Key key = new Key(command);
+        final boolean[] loaded = new boolean[1];
+        final Callable<Entry> loader = new Callable<Entry>() {
+            @Override
+            public Entry call() {
+                loaded[0] = true;
+                final long start = ticker.read();
+                //the key must not change, if the delegate modifies the command
+                return new Entry(delegate.handle(command.clone()), start + rule.ttl);
+            }
+        };
+        while(true) {
+            final Entry entry;
+            try {
+                entry = cache.get(key, loader);
+            } catch(ExecutionException | UncheckedExecutionException e) {
+                misses.increment();
+                throw Throwables.propagate(e.getCause());
+            }
+            if(loaded[0]) {
+                misses.increment();
+                return entry.response;
+            }
+            if(entry.expires - ticker.read() > 0) {
+                hits.increment();
+                return entry.response;
+            }
+            //only one of the sessions finding the expired response loads a new one
+            cache.asMap().remove(key, entry);
+        }
+    }
+
+    @Override
+    public byte[] getEscapeSeq() {
+        return delegate.getEscapeSeq();
+    }
+
+    /**
+     * @return  Commands answered from the cache (including commands waiting for the same command of another session).
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return  Cacheable commands passed to the delegate.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return  Responses dropped to stay within the max size (expired and invalidated responses are not counted).
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return  Approximate amount of cached responses (including expired ones, they are dropped on access or eviction).
+     */
+    public long getSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return  The decorated command handler.
+     */
+    public CommandHandler getDelegate() {
+        return delegate;
+    }
+
+    private Rule find(final byte[] command) {
+        Rule found = null;
+        for(final Rule rule : rules) {
+            if((found == null || rule.bytes.length > found.bytes.length) && matches(command, rule.bytes)) {
+                found = rule;
+            }
+        }
+        return found;
+    }
+
+    /*
+     * The command (after leading spaces) is the prefix, followed by nothing or a space.
+     */
+    private static boolean matches(final byte[] command, final byte[] prefix) {
+        int start = 0;
+        while(start < command.length && command[start] == SPACE) {
+            start++;
+        }
+        final int end = start + prefix.length;
+        if(end > command.length || end < command.length && command[end] != SPACE) {
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++) {
+            if(command[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
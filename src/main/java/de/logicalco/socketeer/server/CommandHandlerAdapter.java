@@ -0,0 +1,55 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adapter to run a {@link CommandHandler} as {@link ByteBufferCommandHandler}. The command is copied to a new array
+ * and the response array is copied to the session's response buffer, as the {@link CommandHandler} contract requires.
+ */
+public class CommandHandlerAdapter implements ByteBufferCommandHandler {
+
+    private final CommandHandler delegate;
+
+    /**
+     * @param delegate  The command handler to adapt.
+     */
+    public CommandHandlerAdapter(CommandHandler delegate) {
+        this.delegate = checkNotNull(delegate, "Command handler cannot be null.");
+    }
+
+    @Override
+    public Optional<byte[]> getOpener() {
+        return delegate.getOpener();
+    }
+
+    @Override
+    public byte[] getAppName() {
+        return delegate.getAppName();
+    }
+
+    @Override
+    public void handle(ByteBuffer command, ResponseBuffer response) {
+        final byte[] bytes = new byte[command.remaining()];
+        command.get(bytes);
+        final Optional<byte[]> result = delegate.handle(bytes);
+        if(result.isPresent()) {
+            response.write(result.get());
+        }
+    }
+
+    @Override
+    public byte[] getEscapeSeq() {
+        return delegate.getEscapeSeq();
+    }
+
+    /**
+     * @return  The adapted command handler.
+     */
+    public CommandHandler getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,337 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A command handler dispatching to named commands, instead of a switch on the decoded command in one handler.
+ * The name of a command is everything up to the first space (after leading spaces), the rest of the line is passed to
+ * the command as arguments. The name is looked up in a trie of the raw bytes, so dispatching neither decodes nor copies
+ * the line.
+ * A command can be abbreviated by any prefix matching only this command (e.g. 'sta' for 'status', if there is no
+ * 'start'). The command 'help' listing all commands with their descriptions is built in.
+ * <br/>
+ * Example :
+ * <pre>
+ *     new CommandRouter("myApp", "exit", StandardCharsets.UTF_8)
+ *             .withCommand("ping", "Answers pong.", new CommandRouter.Command() {
+ *                 public void handle(ByteBuffer arguments, ResponseBuffer response) {
+ *                     response.println("pong");
+ *                 }
+ *             });
+ * </pre>
+ * Commands can be added while the server is running, the router is thread-safe.
+ */
+public class CommandRouter implements ByteBufferCommandHandler {
+
+    /**
+     * The name of the built-in help command.
+     */
+    public static final String HELP = "help";
+
+    private static final byte SPACE = ' ';
+
+    /**
+     * A command of the router.
+     * <b>Note</b> : A command is shared by all sessions therefore it has to be thread-safe.
+     */
+    public interface Command {
+        /**
+         * Handle the command and optionally write a response.
+         *
+         * @param arguments     The arguments (the line after the command's name and the following spaces), a
+         *                      read-only view only valid until the method returns.
+         * @param response      Buffer for the response to send back to the client.
+         */
+        void handle(ByteBuffer arguments, ResponseBuffer response);
+    }
+
+    private final byte[] appName;
+    private final byte[] escapeSeq;
+    private final Charset charset;
+    private Optional<byte[]> opener = Optional.absent();
+
+    private final Map<String, Entry> commands = new TreeMap<>();
+
+    /*
+     * Rebuilt with every new command, so lookups need no lock.
+     */
+    private volatile Node root;
+
+    /**
+     * @param appName       The application's name (used for the prompt).
+     * @param escapeSeq     The command closing the session.
+     * @param charset       Charset of the command names and responses.
+     */
+    public CommandRouter(String appName, String escapeSeq, Charset charset) {
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.appName = checkNotNull(appName, "App name cannot be null.").getBytes(charset);
+        this.escapeSeq = checkNotNull(escapeSeq, "Escape sequence cannot be null.").getBytes(charset);
+        commands.put(HELP, new Entry(HELP, HELP.getBytes(charset),
+                "Lists the commands or describes the given command.", new Help()));
+        this.root = build(commands);
+    }
+
+    /**
+     * @param opener    Opening phrase sent when a session is started.
+     * @return          this
+     */
+    public CommandRouter withOpener(String opener) {
+        this.opener = Optional.of(checkNotNull(opener, "Opener cannot be null.").getBytes(charset));
+        return this;
+    }
+
+    /**
+     * Add a command, an existing command with the same name (including 'help') is replaced.
+     *
+     * @param name          Name of the command, it must neither be empty nor contain spaces.
+     * @param description   Description shown by 'help'.
+     * @param command       The command.
+     * @return              this
+     */
+    public synchronized CommandRouter withCommand(String name, String description, Command command) {
+        checkArgument(!checkNotNull(name, "Name cannot be null.").isEmpty(), "Name cannot be empty.");
+        checkArgument(name.indexOf(SPACE) < 0, "Name cannot contain spaces.");
+        checkNotNull(description, "Description cannot be null.");
+        checkNotNull(command, "Command cannot be null.");
+        commands.put(name, new Entry(name, name.getBytes(charset), description, command));
+        root = build(commands);
+        return this;
+    }
+
+    @Override
+    public Optional<byte[]> getOpener() {
+        return opener;
+    }
+
+    @Override
+    public byte[] getAppName() {
+        return appName;
+    }
+
+    @Override
+    public byte[] getEscapeSeq() {
+        return escapeSeq;
+    }
+
+    @Override
+    public void handle(ByteBuffer command, ResponseBuffer response) {
+        final int limit = command.limit();
+        int start = command.position();
+        while(start < limit && command.get(start) == SPACE) {
+            start++;
+        }
+        int end = start;
+        while(end < limit && command.get(end) != SPACE) {
+            end++;
+        }
+        if(end == start) {
+            //empty line
+            return;
+        }
+        final Node node = root.find(command, start, end);
+        final Entry entry = node == null ? null : node.match(end - start);
+        if(entry != null) {
+            int arguments = end;
+            while(arguments < limit && command.get(arguments) == SPACE) {
+                arguments++;
+            }
+            command.position(arguments);
+            entry.command.handle(command, response);
+            return;
+        }
+        command.limit(end).position(start);
+        if(node == null) {
+            response.print("Unknown command '");
+            response.write(command);
+            response.println("', try 'help'.");
+        } else {
+            response.print("Ambiguous command '");
+            response.write(command);
+            response.print("' :");
+            node.writeNames(response);
+            response.write('\n');
+        }
+    }
+
+    private static Node build(Map<String, Entry> entries) {
+        final Node node = new Node(new byte[0]);
+        for(final Entry entry : entries.values()) {
+            node.add(entry, 0);
+        }
+        node.compress(0);
+        return node;
+    }
+
+    private static final class Entry {
+
+        private final String name;
+        private final byte[] bytes;
+        private final String description;
+        private final Command command;
+
+        private Entry(String name, byte[] bytes, String description, Command command) {
+            this.name = name;
+            this.bytes = bytes;
+            this.description = description;
+            this.command = command;
+        }
+    }
+
+    /*
+     * A node of the trie. Chains of nodes without command and with a single child are merged, so the edge to a node
+     * is labeled with a sequence of bytes (a radix tree) and a lookup only branches, where the names differ. The
+     * children are kept in two parallel arrays, as the fan-out is small.
+     */
+    private static final class Node {
+
+        //the edge from the parent, the first byte is the key in the parent
+        private byte[] label;
+        private byte[] keys = new byte[0];
+        private Node[] children = new Node[0];
+        private Entry entry;
+        //number of commands in the subtree, a prefix is unique if it is 1
+        private int count;
+        //length of the names up to the end of the label
+        private int depth;
+
+        private Node(byte[] label) {
+            this.label = label;
+        }
+
+        private void add(Entry added, int depth) {
+            count++;
+            if(depth == added.bytes.length) {
+                entry = added;
+                return;
+            }
+            final byte key = added.bytes[depth];
+            int index = indexOf(key);
+            if(index < 0) {
+                index = keys.length;
+                keys = Arrays.copyOf(keys, index + 1);
+                children = Arrays.copyOf(children, index + 1);
+                keys[index] = key;
+                children[index] = new Node(new byte[]{key});
+            }
+            children[index].add(added, depth + 1);
+        }
+
+        private void compress(int parentDepth) {
+            while(entry == null && children.length == 1 && label.length > 0) {
+                final Node child = children[0];
+                final byte[] merged = Arrays.copyOf(label, label.length + child.label.length);
+                System.arraycopy(child.label, 0, merged, label.length, child.label.length);
+                label = merged;
+                keys = child.keys;
+                children = child.children;
+                entry = child.entry;
+            }
+            depth = parentDepth + label.length;
+            for(final Node child : children) {
+                child.compress(depth);
+            }
+        }
+
+        private int indexOf(byte key) {
+            for(int i = 0; i < keys.length; i++) {
+                if(keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /*
+         * The node reached by the name, the name may end within the label of the node.
+         */
+        private Node find(ByteBuffer name, int start, int end) {
+            Node node = this;
+            int i = start;
+            while(i < end) {
+                final int index = node.indexOf(name.get(i));
+                if(index < 0) {
+                    return null;
+                }
+                node = node.children[index];
+                final byte[] edge = node.label;
+                final int length = Math.min(edge.length, end - i);
+                for(int j = 1; j < length; j++) {
+                    if(name.get(i + j) != edge[j]) {
+                        return null;
+                    }
+                }
+                i += length;
+            }
+            return node;
+        }
+
+        /*
+         * The command of this node, if the name ends here, or the only command below it.
+         */
+        private Entry match(int nameLength) {
+            if(entry != null && nameLength == depth) {
+                return entry;
+            }
+            if(count != 1) {
+                return null;
+            }
+            Node node = this;
+            while(node.entry == null) {
+                node = node.children[0];
+            }
+            return node.entry;
+        }
+
+        private void writeNames(ResponseBuffer response) {
+            if(entry != null) {
+                response.write(' ');
+                response.write(entry.bytes);
+            }
+            for(final Node child : children) {
+                child.writeNames(response);
+            }
+        }
+    }
+
+    /*
+     * Lists all commands or describes one.
+     */
+    private final class Help implements Command {
+
+        @Override
+        public void handle(ByteBuffer arguments, ResponseBuffer response) {
+            if(arguments.hasRemaining()) {
+                final Node node = root.find(arguments, arguments.position(), arguments.limit());
+                final Entry entry = node == null ? null : node.match(arguments.remaining());
+                if(entry != null) {
+                    describe(entry, response);
+                    return;
+                }
+                response.print("Unknown command '");
+                response.write(arguments);
+                response.println("'.");
+                return;
+            }
+            synchronized(CommandRouter.this) {
+                for(final Entry entry : commands.values()) {
+                    describe(entry, response);
+                }
+            }
+        }
+
+        private void describe(Entry entry, ResponseBuffer response) {
+            response.print(entry.name);
+            response.print(" - ");
+            response.println(entry.description);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A username/password authentication against a {@link CredentialStore}, asking the client the same way as
+ * {@link TelnetPasswordUsernameSecurityHandler}. Passwords are verified in constant time against their salted hashes,
+ * unknown users take as long as known ones.
+ * <br/>
+ * Failed attempts are throttled per remote address : After {@link #DEFAULT_MAX_FAILURES} failures within
+ * {@link #DEFAULT_THROTTLE_WINDOW_MILLIS} further handshakes of the address are denied at once, without asking for
+ * credentials, until the window has passed.
+ * <br/>
+ * Optionally verified credentials are cached (see {@link #withCache(Integer, Long, TimeUnit)}), so repeated logins of
+ * scripted clients do not run the key derivation each time. The cache keeps a keyed digest of each password, not the
+ * password, and an entry is only used as long as the store holds the same hash for the user.
+ */
+public class CredentialSecurityHandler implements SecurityHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialSecurityHandler.class);
+
+    /**
+     * Failed attempts per remote address, before it is throttled.
+     */
+    public static final int DEFAULT_MAX_FAILURES = 5;
+
+    /**
+     * Window of the failed attempts (1min).
+     */
+    public static final long DEFAULT_THROTTLE_WINDOW_MILLIS = 60000L;
+
+    //addresses tracked at once, the oldest are forgotten first
+    private static final int MAX_TRACKED_ADDRESSES = 10000;
+    private static final String DIGEST_ALGORITHM = "HmacSHA256";
+    //iteration counts of the store kept at once, usually a single one
+    private static final int MAX_UNKNOWN_USER_HASHES = 4;
+
+    private final CredentialStore store;
+    private final Charset charset;
+    private Integer maxFailures = DEFAULT_MAX_FAILURES;
+    private Cache<InetAddress, AtomicInteger> failures = failures(DEFAULT_THROTTLE_WINDOW_MILLIS);
+    private Optional<Cache<String, Verified>> verified = Optional.absent();
+    //key of the digests in the cache, never leaves the process
+    private final byte[] digestKey = new byte[32];
+    //verified for unknown users, one per iteration count of the store, created with the first unknown user
+    private final LoadingCache<Integer, PasswordHash> unknownUsers = CacheBuilder.newBuilder()
+            .maximumSize(MAX_UNKNOWN_USER_HASHES).build(new CacheLoader<Integer, PasswordHash>() {
+                @Override
+                public PasswordHash load(Integer iterations) {
+                    return PasswordHash.create(new char[0], iterations);
+                }
+            });
+
+    /**
+     * @param store     The credentials of the users.
+     * @param charset   Charset for String<->byte conversion.
+     */
+    public CredentialSecurityHandler(final CredentialStore store, final Charset charset) {
+        this.store = checkNotNull(store, "Store cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        new SecureRandom().nextBytes(digestKey);
+    }
+
+    /**
+     * Cache verified credentials (disabled by default).
+     *
+     * @param maxSize   Max amount of cached users.
+     * @param ttl       Time a verification is cached.
+     * @param unit      Unit of the time.
+     * @return          this.
+     */
+    public CredentialSecurityHandler withCache(final Integer maxSize, final Long ttl, final TimeUnit unit) {
+        checkArgument(checkNotNull(maxSize, "Max size cannot be null.") > 0, "Max size has to be positive.");
+        checkArgument(checkNotNull(ttl, "TTL cannot be null.") > 0, "TTL has to be positive.");
+        checkNotNull(unit, "Unit cannot be null.");
+        this.verified = Optional.of(CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, unit)
+                .<String, Verified>build());
+        return this;
+    }
+
+    /**
+     * Throttle remote addresses with too many failed attempts (by default {@link #DEFAULT_MAX_FAILURES} within
+     * {@link #DEFAULT_THROTTLE_WINDOW_MILLIS}).
+     *
+     * @param maxFailures   Failed attempts within the window, before an address is throttled.
+     * @param window        Window starting with the first failed attempt, an address is throttled until it passed.
+     * @param unit          Unit of the window.
+     * @return              this.
+     */
+    public CredentialSecurityHandler withThrottling(final Integer maxFailures, final Long window, final TimeUnit unit) {
+        checkArgument(checkNotNull(maxFailures, "Max failures cannot be null.") > 0,
+                "Max failures have to be positive.");
+        checkArgument(checkNotNull(window, "Window cannot be null.") > 0, "Window has to be positive.");
+        this.maxFailures = maxFailures;
+        this.failures = failures(checkNotNull(unit, "Unit cannot be null.").toMillis(window));
+        return this;
+    }
+
+    @Override
+    public Boolean handle(final InputStream in, final OutputStream out) throws IOException {
+        return authenticate(Optional.<InetAddress>absent(), in, out);
+    }
+
+    @Override
+    public Boolean handle(final InetSocketAddress remoteAddress, final InputStream in, final OutputStream out)
+            throws IOException {
+        return authenticate(Optional.of(checkNotNull(remoteAddress, "Remote address cannot be null.").getAddress()),
+                in, out);
+    }
+
+    @Override
+    public byte[] getDenyMessage() {
+        return "Authetication failed!\n".getBytes(charset);
+    }
+
+    /**
+     * @param user      Name of the user.
+     * @param password  Password of the user.
+     * @return          true if the store holds the user with the password.
+     */
+    boolean verify(final String user, final char[] password) {
+        final Optional<PasswordHash> hash = store.lookup(user);
+        if(!hash.isPresent()) {
+            //takes as long as a wrong password of a known user
+            unknownUser().verify(password);
+            return false;
+        }
+        if(!verified.isPresent()) {
+            return hash.get().verify(password);
+        }
+        final byte[] digest = digest(user, password);
+        final Verified cached = verified.get().getIfPresent(user);
+        if(cached != null && cached.hash.equals(hash.get()) && MessageDigest.isEqual(cached.digest, digest)) {
+            return true;
+        }
+        if(!hash.get().verify(password)) {
+            return false;
+        }
+        verified.get().put(user, new Verified(hash.get(), digest));
+        return true;
+    }
+
+    /**
+     * @return  Hash verified for unknown users, with the store's max iterations.
+     */
+    PasswordHash unknownUser() {
+        return unknownUsers.getUnchecked(store.getMaxIterations());
+    }
+
+    private Boolean authenticate(final Optional<InetAddress> address, final InputStream in, final OutputStream out)
+            throws IOException {
+        checkNotNull(in, "Input stream cannot be null.");
+        checkNotNull(out, "Output stream cannot be null.");
+        if(address.isPresent() && isThrottled(address.get())) {
+            LOGGER.debug("Throttled handshake of {}.", address.get());
+            return false;
+        }
+        final String user = new String(TelnetPasswordUsernameSecurityHandler.readUser(in, out, charset), charset);
+        final byte[] bytes = TelnetPasswordUsernameSecurityHandler.readPassword(in, out, charset);
+        final CharBuffer chars = charset.decode(ByteBuffer.wrap(bytes));
+        final char[] password = Arrays.copyOf(chars.array(), chars.limit());
+        final boolean authenticated;
+        try {
+            authenticated = verify(user, password);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            Arrays.fill(chars.array(), ' ');
+            Arrays.fill(password, ' ');
+        }
+        if(address.isPresent()) {
+            if(authenticated) {
+                failures.invalidate(address.get());
+            } else {
+                failed(address.get());
+            }
+        }
+        return authenticated;
+    }
+
+    private boolean isThrottled(final InetAddress address) {
+        final AtomicInteger failed = failures.getIfPresent(address);
+        return failed != null && failed.get() >= maxFailures;
+    }
+
+    private void failed(final InetAddress address) {
+        final AtomicInteger failed = failures.asMap().putIfAbsent(address, new AtomicInteger(1));
+        if(failed != null) {
+            failed.incrementAndGet();
+        }
+    }
+
+    private byte[] digest(final String user, final char[] password) {
+        final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            final Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+            mac.init(new SecretKeySpec(digestKey, DIGEST_ALGORITHM));
+            mac.update(user.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(bytes);
+            return mac.doFinal();
+        } catch(GeneralSecurityException e) {
+            //every JDK provides HmacSHA256
+            throw new IllegalStateException("Could not digest password.", e);
+        } finally {
+            Arrays.fill(bytes.array(), (byte) 0);
+        }
+    }
+
+    private static Cache<InetAddress, AtomicInteger> failures(final long windowMillis) {
+        return CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_ADDRESSES)
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    private static final class Verified {
+
+        private final PasswordHash hash;
+        private final byte[] digest;
+
+        private Verified(final PasswordHash hash, final byte[] digest) {
+            this.hash = hash;
+            this.digest = digest;
+        }
+    }
+}
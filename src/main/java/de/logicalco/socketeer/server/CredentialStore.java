@@ -0,0 +1,26 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+/**
+ * Holds the password hashes of the users, that may open a session. See {@link InMemoryCredentialStore} and
+ * {@link FileCredentialStore}, the credentials are verified by a {@link CredentialSecurityHandler}.
+ * <b>Note</b> : A store is called concurrently by the handshakes of the sessions.
+ */
+public interface CredentialStore {
+
+    /**
+     * @param user  Name of the user.
+     * @return      Hash of the user's password, absent if the user is unknown.
+     */
+    Optional<PasswordHash> lookup(String user);
+
+    /**
+     * Unknown users are verified against a hash with these iterations, so they take as long as known ones.
+     *
+     * @return  Max iterations of the stored hashes, by default {@link PasswordHash#DEFAULT_ITERATIONS}.
+     */
+    default int getMaxIterations() {
+        return PasswordHash.DEFAULT_ITERATIONS;
+    }
+}
@@ -0,0 +1,268 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import de.logicalco.socketeer.utils.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lock-free implementation of {@link SocketeerMetrics} : The events are counted with {@link LongAdder}s, so sessions
+ * do not contend for a counter, and the latencies of the command handler are recorded in a {@link LatencyHistogram}.
+ * The metrics can be registered as MBean and shown to clients with a {@link StatsCommand}.
+ * <br/>
+ * Example :
+ * <pre>
+ *     final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+ *     metrics.registerMBean("myApp");
+ *     new SocketeerServer(port, 10, commandHandler, StandardCharsets.UTF_8).withMetrics(metrics);
+ * </pre>
+ */
+public class DefaultSocketeerMetrics implements SocketeerMetrics, SocketeerMetricsMXBean {
+
+    /**
+     * JMX domain of the registered MBeans.
+     */
+    public static final String JMX_DOMAIN = "de.logicalco.socketeer";
+
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder authSuccesses = new LongAdder();
+    private final LongAdder authFailures = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder rejectedCommands = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final Ticker ticker;
+    private long sampleTime;
+    private long sampleCommands;
+    private double commandsPerSecond;
+    private Optional<ObjectName> objectName = Optional.absent();
+
+    public DefaultSocketeerMetrics() {
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker    Time source for the command rate.
+     */
+    DefaultSocketeerMetrics(final Ticker ticker) {
+        this.ticker = checkNotNull(ticker, "Ticker cannot be null.");
+        this.sampleTime = ticker.read();
+    }
+
+    /**
+     * Register the metrics at the platform MBean server as
+     * '{@value #JMX_DOMAIN}:type=SocketeerMetrics,name=&lt;name&gt;'.
+     *
+     * @param name          Name of the server (e.g. the application's name), it is quoted if necessary.
+     * @return              The name of the MBean.
+     * @throws JMException  If the name is invalid or already registered.
+     */
+    public synchronized ObjectName registerMBean(final String name) throws JMException {
+        checkNotNull(name, "Name cannot be null.");
+        final ObjectName registered = new ObjectName(JMX_DOMAIN + ":type=SocketeerMetrics,name="
+                + (name.matches("[\\w.-]+") ? name : ObjectName.quote(name)));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = Optional.of(registered);
+        return registered;
+    }
+
+    /**
+     * Remove the MBean registered by {@link #registerMBean(String)}, if any.
+     *
+     * @throws JMException  If the MBean cannot be unregistered.
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if(objectName.isPresent()) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName.get());
+            objectName = Optional.absent();
+        }
+    }
+
+    @Override
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    @Override
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void sessionQueued() {
+        queued.increment();
+    }
+
+    @Override
+    public void sessionDequeued() {
+        queued.decrement();
+    }
+
+    @Override
+    public void sessionOpened() {
+        active.increment();
+    }
+
+    @Override
+    public void sessionClosed() {
+        active.decrement();
+    }
+
+    @Override
+    public void authenticated(final boolean success) {
+        (success ? authSuccesses : authFailures).increment();
+    }
+
+    @Override
+    public void bytesRead(final int bytes) {
+        bytesRead.add(bytes);
+    }
+
+    @Override
+    public void bytesWritten(final int bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void commandHandled(final long nanos) {
+        latencies.record(nanos);
+    }
+
+    @Override
+    public void rateLimited(final RateLimitPolicy policy) {
+        switch(policy) {
+            case DELAY:
+                delayed.increment();
+                break;
+            case REJECT:
+                rejectedCommands.increment();
+                break;
+            default:
+                disconnected.increment();
+        }
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return active.sum();
+    }
+
+    @Override
+    public long getQueuedSessions() {
+        return queued.sum();
+    }
+
+    @Override
+    public long getAuthSuccesses() {
+        return authSuccesses.sum();
+    }
+
+    @Override
+    public long getAuthFailures() {
+        return authFailures.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getCommands() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getDelayedCommands() {
+        return delayed.sum();
+    }
+
+    @Override
+    public long getRejectedCommands() {
+        return rejectedCommands.sum();
+    }
+
+    @Override
+    public long getRateLimitDisconnects() {
+        return disconnected.sum();
+    }
+
+    @Override
+    public synchronized double getCommandsPerSecond() {
+        final long now = ticker.read();
+        final long elapsed = now - sampleTime;
+        if(elapsed >= SAMPLE_INTERVAL_NANOS) {
+            final long commands = latencies.getCount();
+            commandsPerSecond = (commands - sampleCommands) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            sampleCommands = commands;
+            sampleTime = now;
+        }
+        return commandsPerSecond;
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latencies.getMean() / 1000;
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return toMicros(latencies.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return toMicros(latencies.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getLatencyP999Micros() {
+        return toMicros(latencies.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return toMicros(latencies.getMax());
+    }
+
+    /**
+     * @return  The histogram of the command handler's latencies in nanoseconds.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
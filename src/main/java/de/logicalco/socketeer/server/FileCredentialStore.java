@@ -0,0 +1,145 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Credentials read from a file, one user per line :
+ * <pre>
+ *     # comment
+ *     alice:pbkdf2-sha256$310000$...$...
+ * </pre>
+ * The hashes are created by {@link PasswordHash}. The file is reloaded, when it changed, without restarting the
+ * server : A lookup checks the modification time and size of the file at most once per reload interval (by default
+ * every second), so the file can be replaced by an administrator or a deployment at any time. If a changed file cannot
+ * be read or is invalid, the previous credentials are kept.
+ */
+public class FileCredentialStore implements CredentialStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileCredentialStore.class);
+
+    /**
+     * Interval of the checks for a changed file (1s).
+     */
+    public static final long DEFAULT_RELOAD_INTERVAL_MILLIS = 1000L;
+
+    private final Path file;
+    private volatile long reloadIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RELOAD_INTERVAL_MILLIS);
+    //the thread winning the update checks the file, the others go on with the current credentials
+    private final AtomicLong lastCheck;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param file          The credential file.
+     * @throws IOException  If the file cannot be read or is invalid.
+     */
+    public FileCredentialStore(final Path file) throws IOException {
+        this.file = checkNotNull(file, "File cannot be null.");
+        this.snapshot = load(file);
+        this.lastCheck = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @param interval  Min time between two checks of the file, 0 to check it on every lookup.
+     * @param unit      Unit of the interval.
+     * @return          this.
+     */
+    public FileCredentialStore withReloadInterval(final Long interval, final TimeUnit unit) {
+        checkArgument(checkNotNull(interval, "Interval cannot be null.") >= 0, "Interval cannot be negative.");
+        this.reloadIntervalNanos = checkNotNull(unit, "Unit cannot be null.").toNanos(interval);
+        return this;
+    }
+
+    @Override
+    public Optional<PasswordHash> lookup(final String user) {
+        checkNotNull(user, "User cannot be null.");
+        final long now = System.nanoTime();
+        final long last = lastCheck.get();
+        if(now - last >= reloadIntervalNanos && lastCheck.compareAndSet(last, now)) {
+            reloadIfChanged();
+        }
+        return Optional.fromNullable(snapshot.hashes.get(user));
+    }
+
+    @Override
+    public int getMaxIterations() {
+        return snapshot.maxIterations;
+    }
+
+    /**
+     * Read the file at once, e.g. after it was changed within the modification time's resolution.
+     *
+     * @throws IOException  If the file cannot be read or is invalid, the previous credentials are kept.
+     */
+    public void reload() throws IOException {
+        snapshot = load(file);
+        LOGGER.info("Reloaded {} credentials from {}.", snapshot.hashes.size(), file);
+    }
+
+    private void reloadIfChanged() {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if(attributes.lastModifiedTime().equals(snapshot.modified) && attributes.size() == snapshot.size) {
+                return;
+            }
+            reload();
+        } catch(IOException e) {
+            LOGGER.warn("Could not reload credentials, keeping the previous ones.", e);
+        }
+    }
+
+    private static Snapshot load(final Path file) throws IOException {
+        //read before the content, so a change while reading is seen by the next check
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        final Map<String, PasswordHash> hashes = new HashMap<>();
+        for(int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final int separator = line.lastIndexOf(':');
+            if(separator <= 0) {
+                throw new IOException(String.format("Line %d of %s is not 'user:hash'.", i + 1, file));
+            }
+            try {
+                hashes.put(line.substring(0, separator), PasswordHash.parse(line.substring(separator + 1)));
+            } catch(IllegalArgumentException e) {
+                throw new IOException(String.format("Line %d of %s has an invalid hash.", i + 1, file), e);
+            }
+        }
+        return new Snapshot(ImmutableMap.copyOf(hashes), attributes.lastModifiedTime(), attributes.size());
+    }
+
+    private static final class Snapshot {
+
+        private final ImmutableMap<String, PasswordHash> hashes;
+        private final FileTime modified;
+        private final long size;
+        private final int maxIterations;
+
+        private Snapshot(final ImmutableMap<String, PasswordHash> hashes, final FileTime modified, final long size) {
+            this.hashes = hashes;
+            this.modified = modified;
+            this.size = size;
+            this.maxIterations = InMemoryCredentialStore.maxIterations(hashes.values());
+        }
+    }
+}
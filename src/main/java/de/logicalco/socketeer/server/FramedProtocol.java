@@ -0,0 +1,387 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.FrameStatus;
+import de.logicalco.socketeer.utils.Frames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The command cycle of a framed session, shared by {@link SocketeerSession} and {@link NioFramedSession} : Each request
+ * is handled on its own, a {@link ByteBufferCommandHandler} is called on the executor, an {@link AsyncCommandHandler}
+ * by the session. A response is sent as soon as its command is done, regardless of the order of the requests, so a
+ * slow command does not hold back the others. The session limits the requests in flight (see {@link #getInFlight()}),
+ * it stops reading, while the limit is reached.
+ * <br/>
+ * The command timeout applies to the responses of an {@link AsyncCommandHandler}, as in the line based protocol.
+ * A request delayed by the {@link RateLimiter} is in flight until it is answered, so the session stops reading, when
+ * the limit of requests in flight is reached.
+ * Subscriptions and streamed responses are not supported, a response is sent as a single frame.
+ * <b>Note</b> : Requests are added by the session only, the responses are completed by any thread.
+ */
+final class FramedProtocol {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FramedProtocol.class);
+
+    /**
+     * Sends the frames of a session to the client.
+     */
+    interface Output {
+        /**
+         * Send a frame to the client, called by the threads completing the responses (possibly at the same time).
+         *
+         * @param frame The frame.
+         */
+        void send(ByteBuffer frame);
+    }
+
+    private final ByteBufferCommandHandler commandHandler;
+    private final Charset charset;
+    private final Executor executor;
+    private Output output;
+    private final byte[] escapeSeq;
+    private final byte[] failed;
+    private final byte[] timedOut;
+    private final byte[] rateLimited;
+
+    private Optional<AsyncCommandHandler> asyncHandler = Optional.absent();
+    private Optional<ScheduledExecutorService> timer = Optional.absent();
+    private Long timeoutMillis = 0L;
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+    private Optional<SessionTimeouts.Tracker> tracker = Optional.absent();
+    private Optional<RateLimiter.SessionLimits> limits = Optional.absent();
+    private Optional<ScheduledExecutorService> delayer = Optional.absent();
+
+    private final Set<Request> requests = new HashSet<>();
+    private boolean closed = false;
+
+    /**
+     * @param commandHandler    The handler for the commands.
+     * @param charset           The character set for String<->byte conversion.
+     * @param executor          Executor calling a {@link ByteBufferCommandHandler}.
+     */
+    FramedProtocol(final ByteBufferCommandHandler commandHandler, final Charset charset, final Executor executor) {
+        this.commandHandler = checkNotNull(commandHandler, "Command handler cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.executor = checkNotNull(executor, "Executor cannot be null.");
+        this.escapeSeq = commandHandler.getEscapeSeq();
+        this.failed = "Command failed.\n".getBytes(charset);
+        this.timedOut = "Command timed out.\n".getBytes(charset);
+        this.rateLimited = SessionProtocol.rateLimited(charset);
+        if(commandHandler instanceof AsyncCommandHandlerAdapter) {
+            this.asyncHandler = Optional.of(((AsyncCommandHandlerAdapter) commandHandler).getDelegate());
+        }
+    }
+
+    /**
+     * Send the responses to the client, has to be set before the first request.
+     *
+     * @param output    Output of the session.
+     * @return          this
+     */
+    FramedProtocol withOutput(final Output output) {
+        this.output = checkNotNull(output, "Output cannot be null.");
+        return this;
+    }
+
+    /**
+     * Cancel asynchronous responses, that are not complete within a timeout.
+     *
+     * @param timer             Timer for the timeouts.
+     * @param timeoutMillis     Timeout in milliseconds.
+     * @return                  this
+     */
+    FramedProtocol withCommandTimeout(final ScheduledExecutorService timer, final Long timeoutMillis) {
+        checkArgument(checkNotNull(timeoutMillis, "Timeout cannot be null.") >= 0, "Timeout cannot be negative.");
+        this.timer = Optional.of(checkNotNull(timer, "Timer cannot be null."));
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Report the latency of each command to the metrics.
+     *
+     * @param metrics   The metrics of the server.
+     * @return          this
+     */
+    FramedProtocol withMetrics(final SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        return this;
+    }
+
+    /**
+     * Tell the timeouts, whether commands are in flight, so the session is not idle meanwhile.
+     *
+     * @param tracker   Tracker of the session's timeouts.
+     * @return          this
+     */
+    FramedProtocol withTimeouts(final SessionTimeouts.Tracker tracker) {
+        this.tracker = Optional.of(checkNotNull(tracker, "Tracker cannot be null."));
+        return this;
+    }
+
+    /**
+     * Check each request against the limits of the session.
+     *
+     * @param limits    Limits of the session.
+     * @param delayer   Scheduler starting the delayed requests.
+     * @return          this
+     */
+    FramedProtocol withRateLimits(final RateLimiter.SessionLimits limits, final ScheduledExecutorService delayer) {
+        this.limits = Optional.of(checkNotNull(limits, "Limits cannot be null."));
+        this.delayer = Optional.of(checkNotNull(delayer, "Delayer cannot be null."));
+        return this;
+    }
+
+    /**
+     * Start handling a request.
+     *
+     * @param id        Request id.
+     * @param command   The command, only valid until the method returns.
+     * @return          false if the session has to be closed, because the escape sequence was sent.
+     * @throws RateLimitExceededException   If the session has to be closed, because it exceeded a rate limit.
+     */
+    boolean handle(final int id, final ByteBuffer command) throws RateLimitExceededException {
+        checkState(output != null, "Output has to be set before the first request.");
+        if(isEscapeSeq(command)) {
+            close();
+            return false;
+        }
+        final long wait = limits.isPresent() ? limits.get().acquire(command) : 0;
+        if(wait == RateLimiter.DISCONNECTED) {
+            close();
+            throw new RateLimitExceededException();
+        }
+        if(wait == RateLimiter.REJECTED) {
+            output.send(Frames.encode(id, FrameStatus.FAILED, ByteBuffer.wrap(rateLimited)));
+            return true;
+        }
+        final byte[] bytes = new byte[command.remaining()];
+        command.duplicate().get(bytes);
+        final Request request = new Request(id);
+        synchronized(this) {
+            if(closed) {
+                return false;
+            }
+            requests.add(request);
+            if(requests.size() == 1 && tracker.isPresent()) {
+                tracker.get().handling(true);
+            }
+        }
+        if(wait > 0) {
+            try {
+                delayer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        final boolean open;
+                        synchronized(FramedProtocol.this) {
+                            open = !closed;
+                        }
+                        if(open) {
+                            start(request, bytes);
+                        } else {
+                            //nothing is sent anymore
+                            complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+                        }
+                    }
+                }, wait, TimeUnit.NANOSECONDS);
+            } catch(RejectedExecutionException e) {
+                LOGGER.warn("Delayer rejected command.");
+                complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+            }
+            return true;
+        }
+        start(request, bytes);
+        return true;
+    }
+
+    private void start(final Request request, final byte[] bytes) {
+        request.start = System.nanoTime();
+        if(asyncHandler.isPresent()) {
+            handleAsync(request, bytes);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final ResponseBuffer response = new ResponseBuffer(charset);
+                    try {
+                        commandHandler.handle(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), response);
+                    } catch(Exception e) {
+                        LOGGER.warn("Command failed.", e);
+                        complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+                        return;
+                    }
+                    complete(request, FrameStatus.OK, response.asByteBuffer());
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            LOGGER.warn("Executor rejected command.");
+            complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+        }
+    }
+
+    private void handleAsync(final Request request, final byte[] command) {
+        final CompletableFuture<Optional<byte[]>> future;
+        try {
+            future = checkNotNull(asyncHandler.get().handle(command), "Response cannot be null.")
+                    .toCompletableFuture();
+        } catch(Exception e) {
+            LOGGER.warn("Command failed.", e);
+            complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+            return;
+        }
+        request.future = Optional.of(future);
+        if(timer.isPresent()) {
+            request.timeout = Optional.<ScheduledFuture<?>>of(timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    //completed first, so the cancellation is not taken for a failure
+                    complete(request, FrameStatus.TIMED_OUT, ByteBuffer.wrap(timedOut));
+                    future.cancel(true);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        future.whenComplete(new BiConsumer<Optional<byte[]>, Throwable>() {
+            @Override
+            public void accept(final Optional<byte[]> result, final Throwable failure) {
+                if(failure != null) {
+                    LOGGER.debug("Command failed.", failure);
+                    complete(request, FrameStatus.FAILED, ByteBuffer.wrap(failed));
+                } else {
+                    complete(request, FrameStatus.OK,
+                            ByteBuffer.wrap(result.isPresent() ? result.get() : new byte[0]));
+                }
+            }
+        });
+    }
+
+    /*
+     * A request is completed once, by its command, its timeout or the closing session.
+     */
+    private void complete(final Request request, final FrameStatus status, final ByteBuffer payload) {
+        if(!request.done.compareAndSet(false, true)) {
+            return;
+        }
+        if(request.timeout.isPresent()) {
+            request.timeout.get().cancel(false);
+        }
+        metrics.commandHandled(System.nanoTime() - request.start);
+        final boolean send;
+        synchronized(this) {
+            send = !closed;
+        }
+        if(send) {
+            output.send(Frames.encode(request.id, status, payload));
+        }
+        synchronized(this) {
+            requests.remove(request);
+            if(requests.isEmpty()) {
+                if(tracker.isPresent()) {
+                    tracker.get().handling(false);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private boolean isEscapeSeq(final ByteBuffer command) {
+        if(command.remaining() != escapeSeq.length) {
+            return false;
+        }
+        for(int i = 0; i < escapeSeq.length; i++) {
+            if(command.get(command.position() + i) != escapeSeq[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  Amount of requests, that are not answered yet.
+     */
+    synchronized int getInFlight() {
+        return requests.size();
+    }
+
+    /**
+     * Wait while the given amount of requests is in flight.
+     *
+     * @param maxInFlight   Max amount of requests in flight.
+     * @throws InterruptedException
+     */
+    synchronized void awaitCapacity(final int maxInFlight) throws InterruptedException {
+        while(!closed && requests.size() >= maxInFlight) {
+            wait();
+        }
+    }
+
+    /**
+     * Wait until all requests are answered, e.g. before a session, whose client closed its output, is closed.
+     *
+     * @param millis    Max time to wait.
+     * @return          true if no request is in flight.
+     * @throws InterruptedException
+     */
+    synchronized boolean awaitIdle(final long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = millis;
+        while(!requests.isEmpty() && remaining > 0) {
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        return requests.isEmpty();
+    }
+
+    /**
+     * Cancel the responses of an {@link AsyncCommandHandler}, nothing is sent afterwards.
+     */
+    void close() {
+        final Request[] cancelled;
+        synchronized(this) {
+            closed = true;
+            cancelled = requests.toArray(new Request[requests.size()]);
+            notifyAll();
+        }
+        for(final Request request : cancelled) {
+            if(request.timeout.isPresent()) {
+                request.timeout.get().cancel(false);
+            }
+            if(request.future.isPresent()) {
+                request.future.get().cancel(true);
+            }
+        }
+    }
+
+    private static final class Request {
+
+        private final int id;
+        //set, when the command is started (after a delay)
+        private volatile long start = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Optional<CompletableFuture<Optional<byte[]>>> future = Optional.absent();
+        private volatile Optional<ScheduledFuture<?>> timeout = Optional.absent();
+
+        private Request(final int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Credentials kept in memory, users can be added and removed, while the server is running.
+ */
+public class InMemoryCredentialStore implements CredentialStore {
+
+    private final ConcurrentMap<String, PasswordHash> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Add a user or replace its password, which is hashed with {@link PasswordHash#DEFAULT_ITERATIONS}.
+     *
+     * @param user      Name of the user.
+     * @param password  Password of the user.
+     * @return          this.
+     */
+    public InMemoryCredentialStore withUser(final String user, final String password) {
+        return withUser(user, PasswordHash.create(checkNotNull(password, "Password cannot be null.").toCharArray()));
+    }
+
+    /**
+     * Add a user or replace its password.
+     *
+     * @param user  Name of the user.
+     * @param hash  Hash of the user's password.
+     * @return      this.
+     */
+    public InMemoryCredentialStore withUser(final String user, final PasswordHash hash) {
+        hashes.put(checkNotNull(user, "User cannot be null."), checkNotNull(hash, "Hash cannot be null."));
+        return this;
+    }
+
+    /**
+     * @param user  Name of the user, who cannot open new sessions anymore.
+     */
+    public void remove(final String user) {
+        hashes.remove(checkNotNull(user, "User cannot be null."));
+    }
+
+    @Override
+    public Optional<PasswordHash> lookup(final String user) {
+        return Optional.fromNullable(hashes.get(checkNotNull(user, "User cannot be null.")));
+    }
+
+    @Override
+    public int getMaxIterations() {
+        return maxIterations(hashes.values());
+    }
+
+    /**
+     * @param hashes    The stored hashes.
+     * @return          Max iterations of the hashes, {@link PasswordHash#DEFAULT_ITERATIONS} without any.
+     */
+    static int maxIterations(final Iterable<PasswordHash> hashes) {
+        int max = 0;
+        for(final PasswordHash hash : hashes) {
+            max = Math.max(max, hash.getIterations());
+        }
+        return max > 0 ? max : PasswordHash.DEFAULT_ITERATIONS;
+    }
+}
@@ -0,0 +1,125 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An endpoint a server listens on : A TCP address or the path of a Unix domain socket. All endpoints of a server share
+ * its command handler, sessions and metrics.
+ */
+final class Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Listener.class);
+
+    private final Optional<InetSocketAddress> address;
+    private final Optional<Path> path;
+    private final Optional<WireProtocol> protocol;
+
+    private Listener(final Optional<InetSocketAddress> address, final Optional<Path> path,
+                     final Optional<WireProtocol> protocol) {
+        this.address = address;
+        this.path = path;
+        this.protocol = checkNotNull(protocol, "Protocol cannot be null.");
+    }
+
+    /**
+     * @param address   The TCP address, the wildcard address listens on all interfaces.
+     * @param protocol  Protocol of the endpoint, absent for the protocol of the server.
+     * @return          The endpoint.
+     */
+    static Listener tcp(final InetSocketAddress address, final Optional<WireProtocol> protocol) {
+        return new Listener(Optional.of(checkNotNull(address, "Address cannot be null.")), Optional.<Path>absent(),
+                protocol);
+    }
+
+    /**
+     * @param path      Path of the socket file.
+     * @param protocol  Protocol of the endpoint, absent for the protocol of the server.
+     * @return          The endpoint.
+     */
+    static Listener unixDomain(final Path path, final Optional<WireProtocol> protocol) {
+        return new Listener(Optional.<InetSocketAddress>absent(),
+                Optional.of(checkNotNull(path, "Path cannot be null.")), protocol);
+    }
+
+    /**
+     * @param serverProtocol    Protocol of the server.
+     * @return                  The endpoint speaking the server's protocol, unless it has an own one. A Unix domain
+     *                          socket cannot detect the protocol, it speaks {@link WireProtocol#TEXT} instead.
+     */
+    Listener withDefaultProtocol(final WireProtocol serverProtocol) {
+        if(protocol.isPresent()) {
+            return this;
+        }
+        return new Listener(address, path, Optional.of(isUnixDomain() && serverProtocol == WireProtocol.AUTO
+                ? WireProtocol.TEXT : serverProtocol));
+    }
+
+    boolean isUnixDomain() {
+        return path.isPresent();
+    }
+
+    /**
+     * @return  Protocol of the endpoint.
+     */
+    WireProtocol getProtocol() {
+        return protocol.or(WireProtocol.TEXT);
+    }
+
+    /**
+     * @return  The TCP address.
+     */
+    InetSocketAddress getAddress() {
+        return address.get();
+    }
+
+    /**
+     * Bind a channel in blocking mode (the server's receive buffer size is applied to TCP channels).
+     *
+     * @param server        The server.
+     * @return              The bound channel.
+     * @throws IOException  If the endpoint cannot be bound.
+     */
+    ServerSocketChannel bind(final SocketeerServer server) throws IOException {
+        if(path.isPresent()) {
+            return UnixDomainSocket.bind(path.get(), server.getAcceptBacklog());
+        }
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            server.configure(channel.socket());
+            channel.bind(address.get(), server.getAcceptBacklog());
+            return channel;
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Remove the socket file of a closed Unix domain socket, so clients fail at once instead of connecting to nothing.
+     */
+    void unbound() {
+        if(!path.isPresent()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path.get());
+        } catch(IOException e) {
+            LOGGER.warn("Could not delete socket file {}.", path.get(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path.isPresent() ? "unix:" + path.get() : "tcp:" + address.get();
+    }
+}
@@ -0,0 +1,73 @@
+package de.logicalco.socketeer.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streams reporting the bytes read and written to {@link SocketeerMetrics}.
+ */
+final class MeteredStreams {
+
+    private MeteredStreams() {
+    }
+
+    /**
+     * @param in        Stream to read from.
+     * @param metrics   Metrics to report the bytes read to.
+     * @return          The stream itself, if the metrics are {@link SocketeerMetrics#NONE}, or a stream reporting
+     *                  the bytes read from it.
+     */
+    static InputStream metered(final InputStream in, final SocketeerMetrics metrics) {
+        if(metrics == SocketeerMetrics.NONE) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if(b >= 0) {
+                    metrics.bytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if(read > 0) {
+                    metrics.bytesRead(read);
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * @param out       Stream to write to.
+     * @param metrics   Metrics to report the bytes written to.
+     * @return          The stream itself, if the metrics are {@link SocketeerMetrics#NONE}, or a stream reporting
+     *                  the bytes written to it.
+     */
+    static OutputStream metered(final OutputStream out, final SocketeerMetrics metrics) {
+        if(metrics == SocketeerMetrics.NONE) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                metrics.bytesWritten(1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                //FilterOutputStream would write byte by byte
+                out.write(b, off, len);
+                metrics.bytesWritten(len);
+            }
+        };
+    }
+}
@@ -0,0 +1,159 @@
+package de.logicalco.socketeer.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single selector thread driving all non-blocking channels registered to it.
+ * All state of the registered channels is only touched by the loop thread, other threads hand over their work by
+ * calling {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioEventLoop.class);
+
+    /**
+     * Callback for channels registered to the loop.
+     */
+    interface Handler {
+
+        /**
+         * Called by the loop thread, if the channel is ready for at least one of its interest operations.
+         *
+         * @param key   The selection key of the channel.
+         * @throws IOException
+         */
+        void onReady(SelectionKey key) throws IOException;
+
+        /**
+         * Close the channel, called by the loop thread on errors and when the loop is shut down.
+         */
+        void close();
+    }
+
+    private final Selector selector;
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile Boolean running = Boolean.TRUE;
+
+    //set after the selector was closed, later tasks run on the calling thread
+    private volatile Boolean terminated = Boolean.FALSE;
+
+    private volatile Thread thread;
+
+    /**
+     * @throws IOException  If the selector cannot be opened.
+     */
+    NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Run a task on the loop thread. If the loop is shut down already, the task runs on the calling thread, so it can
+     * release its resources (a channel cannot be registered anymore).
+     *
+     * @param task  Task to run.
+     */
+    void execute(final Runnable task) {
+        tasks.add(checkNotNull(task, "Task cannot be null."));
+        if(terminated) {
+            runTasks();
+        } else if(!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return  true if the calling thread is the loop thread.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Register a channel to the selector of this loop. Has to be called from the loop thread.
+     *
+     * @param channel       Channel to register (has to be in non-blocking mode).
+     * @param ops           Initial interest operations.
+     * @param handler       Handler to be called, if the channel gets ready.
+     * @return              The selection key.
+     * @throws ClosedChannelException
+     */
+    SelectionKey register(final SelectableChannel channel, final int ops, final Handler handler)
+            throws ClosedChannelException {
+        return channel.register(selector, ops, handler);
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while(running) {
+                selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final Handler handler = (Handler) key.attachment();
+                    if(!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        handler.onReady(key);
+                    } catch(Exception e) {
+                        LOGGER.error("Session crashed!", e);
+                        handler.close();
+                    }
+                }
+                runTasks();
+            }
+        } catch(Exception e) {
+            LOGGER.error("Event loop crashed!", e);
+        } finally {
+            //e.g. sessions of connections just accepted are registered, to be closed below
+            runTasks();
+            for(final SelectionKey key : selector.keys()) {
+                ((Handler) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch(IOException e) {
+                LOGGER.warn("Could not close selector properly.", e);
+            }
+            terminated = Boolean.TRUE;
+            //tasks added meanwhile
+            runTasks();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch(Exception e) {
+                LOGGER.error("Event loop task failed!", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the loop, the queued tasks are run and all channels still registered are closed by the loop thread.
+     */
+    void shutdown() {
+        running = Boolean.FALSE;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,409 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.FrameStatus;
+import de.logicalco.socketeer.utils.FrameTooLongException;
+import de.logicalco.socketeer.utils.Frames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A framed session driven by a {@link NioEventLoop} (see {@link FramedProtocol}). The loop decodes the requests and
+ * writes the responses, the commands are handled by the protocol. The session stops reading, while the max amount of
+ * requests is in flight or responses are not written yet, so a client, that does not read its responses, does not
+ * make the session buffer them.
+ * <br/>
+ * When the client closes its output or the session expires, the requests in flight are answered, before the session
+ * is closed. The preamble was acknowledged before the session starts.
+ */
+class NioFramedSession implements NioEventLoop.Handler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioFramedSession.class);
+
+    private final SocketChannel channel;
+    //the channel or the TLS channel on top of it
+    private ByteChannel io;
+    private Optional<TlsChannel> tls = Optional.absent();
+    private final FramedProtocol protocol;
+    private final Charset charset;
+    private final FrameDecoder frames;
+    private final int maxRequestsInFlight;
+    private final NioEventLoop loop;
+    private final Runnable closeListener;
+
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+    private Optional<SessionTimeouts.Tracker> timeouts = Optional.absent();
+    private Optional<SessionTimeouts.Reason> expired = Optional.absent();
+    private Optional<SessionRegistry.Registration> registration = Optional.absent();
+
+    private SelectionKey key;
+    //requests, whose responses did not reach the loop yet
+    private int inFlight = 0;
+    //the client closed its output, the session expired or the last frame is queued
+    private boolean inputDone = false;
+    private boolean finishQueued = false;
+    private boolean finishing = false;
+    private boolean closed = false;
+
+    /**
+     * @param channel               The channel to the client (has to be in non-blocking mode).
+     * @param protocol              The command cycle of the session.
+     * @param charset               The character set for String<->byte conversion.
+     * @param frames                Decoder for the requests.
+     * @param maxRequestsInFlight   Max amount of requests handled at once.
+     * @param loop                  The loop driving this session.
+     * @param closeListener         Called once, when the session is closed.
+     */
+    NioFramedSession(final SocketChannel channel, final FramedProtocol protocol, final Charset charset,
+                     final FrameDecoder frames, final int maxRequestsInFlight, final NioEventLoop loop,
+                     final Runnable closeListener) {
+        checkArgument(maxRequestsInFlight > 0, "Max requests in flight have to be positive.");
+        this.channel = checkNotNull(channel, "Channel cannot be null.");
+        this.io = channel;
+        this.protocol = checkNotNull(protocol, "Protocol cannot be null.").withOutput(new FramedProtocol.Output() {
+            @Override
+            public void send(final ByteBuffer frame) {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResponse(frame);
+                    }
+                });
+            }
+        });
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.frames = checkNotNull(frames, "Decoder cannot be null.");
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        this.loop = checkNotNull(loop, "Loop cannot be null.");
+        this.closeListener = checkNotNull(closeListener, "Close listener cannot be null.");
+    }
+
+    /**
+     * Report the session's traffic to the metrics (the commands are reported by the protocol).
+     *
+     * @param metrics   The metrics of the server.
+     * @return          this
+     */
+    NioFramedSession withMetrics(final SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        return this;
+    }
+
+    /**
+     * Close the session, if it exceeds one of the timeouts. The tracker is closed by the close listener.
+     *
+     * @param timeouts  Tracker of the session's timeouts, its handshake is done.
+     * @return          this
+     */
+    NioFramedSession withTimeouts(final SessionTimeouts.Tracker timeouts) {
+        this.timeouts = Optional.of(checkNotNull(timeouts, "Timeouts cannot be null."));
+        protocol.withTimeouts(timeouts);
+        return this;
+    }
+
+    /**
+     * Send messages pushed to the session as {@link FrameStatus#PUSH} frames. The registration is closed by the close
+     * listener.
+     *
+     * @param registration  Registration of the session, it was registered with the connection.
+     * @return              this
+     */
+    NioFramedSession withRegistration(final SessionRegistry.Registration registration) {
+        this.registration = Optional.of(checkNotNull(registration, "Registration cannot be null."));
+        return this;
+    }
+
+    /**
+     * Encrypt the session with TLS.
+     *
+     * @param tls   TLS channel on the session's channel, its handshake is complete.
+     * @return      this
+     */
+    NioFramedSession withTls(final TlsChannel tls) {
+        this.tls = Optional.of(checkNotNull(tls, "TLS channel cannot be null."));
+        this.io = tls;
+        return this;
+    }
+
+    /**
+     * Register the session to its loop. Has to be called by the loop thread.
+     *
+     * @throws IOException
+     */
+    void start() throws IOException {
+        key = loop.register(channel, SelectionKey.OP_READ, this);
+        if(timeouts.isPresent()) {
+            timeouts.get().withTarget(new SessionTimeouts.Target() {
+                @Override
+                public void expire(final SessionTimeouts.Reason reason) {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onExpired(reason);
+                        }
+                    });
+                }
+
+                @Override
+                public void abort() {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            });
+        }
+        if(registration.isPresent()) {
+            registration.get().activate(new PushQueue.Consumer() {
+                @Override
+                public void wakeUp() {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPushed();
+                        }
+                    });
+                }
+
+                @Override
+                public void overflow() {
+                    LOGGER.info("Push queue of session {} overflowed, closing session.", registration.get().getId());
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            });
+        }
+        //the TLS channel may hold requests sent with the preamble
+        drive();
+    }
+
+    @Override
+    public void onReady(final SelectionKey key) throws IOException {
+        if(key.isReadable() && isReading()) {
+            read();
+        }
+        drive();
+    }
+
+    private void read() throws IOException {
+        final int read = frames.fill(io);
+        if(read < 0) {
+            inputDone = true;
+            return;
+        }
+        metrics.bytesRead(read);
+    }
+
+    /*
+     * Write pending output and dispatch buffered requests, until the session has to wait for the client or the
+     * responses in flight.
+     */
+    private void drive() throws IOException {
+        try {
+            while(!closed) {
+                flush();
+                if(!isReading()) {
+                    break;
+                }
+                if(!frames.next()) {
+                    //a TLS record may hold more input than the decoder took, the selector does not report it
+                    if(!hasBufferedInput()) {
+                        break;
+                    }
+                    read();
+                    continue;
+                }
+                if(!protocol.handle(frames.id(), frames.payload())) {
+                    //the escape sequence
+                    close();
+                    return;
+                }
+                inFlight++;
+            }
+        } catch(FrameTooLongException e) {
+            //the requests in flight are not answered
+            protocol.close();
+            inputDone = true;
+            finishQueued = true;
+            finishing = true;
+            outbound.add(Frames.encode(0, FrameStatus.CLOSING,
+                    SocketeerSession.frameTooLong(e.getMaxFrameLength(), charset)));
+            flush();
+        } catch(RateLimitExceededException e) {
+            //the protocol is closed already
+            inputDone = true;
+            finishQueued = true;
+            finishing = true;
+            outbound.add(Frames.encode(0, FrameStatus.CLOSING, SessionProtocol.rateLimitDisconnect(charset)));
+            flush();
+        } catch(ProtocolException e) {
+            LOGGER.debug("Client sent an invalid frame.", e);
+            close();
+            return;
+        }
+        if(closed) {
+            return;
+        }
+        if(inputDone && inFlight == 0 && !finishQueued) {
+            //the last responses were handed to the loop before, so the session finishes after them
+            finishQueued = true;
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+        if(finishing && !hasOutput()) {
+            close();
+            return;
+        }
+        updateInterest();
+    }
+
+    private void finish() {
+        if(closed) {
+            return;
+        }
+        if(expired.isPresent()) {
+            outbound.add(Frames.encode(0, FrameStatus.CLOSING, expired.get().message(charset)));
+        }
+        finishing = true;
+        driveQuietly();
+    }
+
+    private void onResponse(final ByteBuffer frame) {
+        if(closed) {
+            return;
+        }
+        inFlight--;
+        outbound.add(frame);
+        driveQuietly();
+    }
+
+    private void onPushed() {
+        if(closed) {
+            return;
+        }
+        driveQuietly();
+    }
+
+    /*
+     * The session stops reading, the requests in flight are answered before the reason is sent. The session is
+     * aborted, if this takes too long.
+     */
+    private void onExpired(final SessionTimeouts.Reason reason) {
+        if(closed) {
+            return;
+        }
+        expired = Optional.of(reason);
+        inputDone = true;
+        if(registration.isPresent()) {
+            registration.get().closing();
+        }
+        driveQuietly();
+    }
+
+    private void driveQuietly() {
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        if(tls.isPresent() && !tls.get().flush()) {
+            return;
+        }
+        while(!outbound.isEmpty() || takePushed()) {
+            final ByteBuffer head = outbound.peek();
+            metrics.bytesWritten(io.write(head));
+            if(head.hasRemaining()) {
+                return;
+            }
+            outbound.poll();
+        }
+    }
+
+    /*
+     * Pushed messages are not sent to a closing session.
+     */
+    private boolean takePushed() {
+        if(!registration.isPresent() || expired.isPresent() || finishing) {
+            return false;
+        }
+        final byte[] message = registration.get().getPushes().poll();
+        if(message == null) {
+            return false;
+        }
+        outbound.add(Frames.encode(0, FrameStatus.PUSH, message));
+        return true;
+    }
+
+    /*
+     * The next request is read only, if the session can handle it and its responses are written.
+     */
+    private boolean isReading() {
+        return !inputDone && inFlight < maxRequestsInFlight && !hasOutput();
+    }
+
+    private void updateInterest() {
+        if(!key.isValid()) {
+            return;
+        }
+        key.interestOps(hasOutput() ? SelectionKey.OP_WRITE : isReading() ? SelectionKey.OP_READ : 0);
+    }
+
+    /*
+     * Output queued by the session or encrypted output the channel did not take yet.
+     */
+    private boolean hasOutput() {
+        return !outbound.isEmpty() || tls.isPresent() && tls.get().hasPendingOutput();
+    }
+
+    private boolean hasBufferedInput() {
+        return tls.isPresent() && tls.get().hasBufferedInput();
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        if(key != null) {
+            key.cancel();
+        }
+        try {
+            io.close();
+        } catch(IOException e) {
+            LOGGER.warn("Could not close session properly.", e);
+        }
+        protocol.close();
+        closeListener.run();
+    }
+}
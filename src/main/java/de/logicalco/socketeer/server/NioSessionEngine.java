@@ -0,0 +1,531 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.Frames;
+import de.logicalco.socketeer.utils.LineDecoder;
+import de.logicalco.socketeer.utils.TelnetDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Non-blocking alternative to the thread-per-session model of {@link SocketeerServer}.
+ * Connections are accepted by the calling thread (further endpoints of the server by acceptor threads) and then
+ * distributed round-robin to a fixed number of
+ * {@link NioEventLoop}s. The TLS handshake and the security handshake (if any) still run blocking on the worker pool,
+ * as the {@link SecurityHandler} contract works on streams, afterwards the session is driven by its event loop and only
+ * occupies a worker thread while a command is handled.
+ * <br/>
+ * Unless an endpoint speaks {@link WireProtocol#TEXT}, the preamble of a framed client is read on the worker pool as
+ * well, a framed session is driven by a {@link NioFramedSession}.
+ */
+class NioSessionEngine implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioSessionEngine.class);
+
+    private static final ThreadFactory LOOP_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-nio-%d").setDaemon(true).build();
+
+    private final SocketeerServer server;
+    private final ExecutorService workerPool;
+    private final Admissions admissions;
+    private final NioEventLoop[] loops;
+    private final SocketeerMetrics metrics;
+    //pending sessions are started by the thread closing a session, not only by the acceptor
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    //channels of the endpoints, closed when the engine stops accepting
+    private final List<Closeable> listening = new CopyOnWriteArrayList<>();
+    private volatile Boolean accepting = Boolean.TRUE;
+
+    /**
+     * @param server            The server providing the configuration of the sessions.
+     * @param eventLoops        Number of selector threads.
+     * @param workerPool        Pool running TLS and security handshakes and command handlers.
+     * @param admissions        Admission control, a session is released, when it is closed.
+     * @throws IOException      If the selectors cannot be opened.
+     */
+    NioSessionEngine(final SocketeerServer server, final Integer eventLoops, final ExecutorService workerPool,
+                     final Admissions admissions) throws IOException {
+        checkArgument(eventLoops > 0, "Event loops have to be positive.");
+        this.server = checkNotNull(server, "Server cannot be null.");
+        this.workerPool = checkNotNull(workerPool, "Worker pool cannot be null.");
+        this.admissions = checkNotNull(admissions, "Admissions cannot be null.");
+        this.metrics = server.getMetrics();
+        this.loops = new NioEventLoop[eventLoops];
+        for(int i = 0; i < eventLoops; i++) {
+            loops[i] = new NioEventLoop();
+        }
+    }
+
+    /**
+     * Bind the endpoints of the server, start the event loops and accept connections until the engine stops accepting.
+     * The port is served by the calling thread, further endpoints by acceptor threads of the server. The event loops
+     * keep running the sessions, until the engine is closed.
+     *
+     * @throws IOException
+     * @throws InterruptedException If interrupted while waiting for a session to end.
+     */
+    void run() throws IOException, InterruptedException {
+        if(!accepting) {
+            return;
+        }
+        final List<Listener> listeners = server.getListeners();
+        final List<ServerSocketChannel> channels = new ArrayList<>();
+        try {
+            for(final Listener listener : listeners) {
+                channels.add(bind(listener));
+            }
+        } catch(IOException e) {
+            closeListening();
+            throw e;
+        }
+        for(final NioEventLoop loop : loops) {
+            LOOP_THREAD_FACTORY.newThread(loop).start();
+        }
+        for(int i = 1; i < channels.size(); i++) {
+            final ServerSocketChannel channel = channels.get(i);
+            final Listener listener = listeners.get(i);
+            server.startAcceptor(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        accept(channel, listener);
+                    } catch(Exception e) {
+                        if(accepting) {
+                            LOGGER.error("Listener crashed!", e);
+                        } else {
+                            LOGGER.debug("Listener stopped.", e);
+                        }
+                    } finally {
+                        closeQuietly(channel);
+                    }
+                }
+            });
+        }
+        try {
+            accept(channels.get(0), listeners.get(0));
+        } finally {
+            if(accepting) {
+                //the acceptor crashed, the sessions are not drained
+                close();
+            } else {
+                //the engine may have stopped accepting, before the channels were opened
+                closeListening();
+            }
+        }
+    }
+
+    private ServerSocketChannel bind(final Listener listener) throws IOException {
+        final ServerSocketChannel channel = listener.bind(server);
+        listening.add(new Closeable() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    channel.close();
+                } finally {
+                    listener.unbound();
+                }
+            }
+        });
+        return channel;
+    }
+
+    private void accept(final ServerSocketChannel serverChannel, final Listener listener)
+            throws IOException, InterruptedException {
+        try {
+            while(accepting) {
+                if(!server.isRejectWhenBusy()) {
+                    admissions.awaitCapacity();
+                }
+                final SocketChannel channel = serverChannel.accept();
+                metrics.connectionAccepted();
+                admit(channel, listener.isUnixDomain() ? new UnixDomainSocket(channel) : channel.socket(),
+                        listener.getProtocol());
+            }
+        } catch(ClosedChannelException e) {
+            LOGGER.debug("Server channel closed.");
+        }
+    }
+
+    /*
+     * The socket of a Unix domain socket's channel is an adapter, it has neither TCP options nor TLS.
+     */
+    private void admit(final SocketChannel channel, final Socket socket, final WireProtocol protocol) {
+        final InetAddress address = socket.getInetAddress();
+        final Admissions.Decision decision = admissions.admit(address, new Admissions.Connection() {
+            @Override
+            public void start() {
+                accepted(channel, socket, address, protocol);
+            }
+
+            @Override
+            public void close() {
+                closeQuietly(channel);
+            }
+        });
+        if(!decision.isAdmitted()) {
+            //the channel is still in blocking mode, the message fits into the empty send buffer
+            LOGGER.debug("Rejected connection from {} ({}).", address, decision);
+            //a TLS client cannot read the message before the handshake
+            if(!isTls(socket)) {
+                try {
+                    channel.write(ByteBuffer.wrap(server.getBusyMessage()));
+                } catch(IOException e) {
+                    LOGGER.debug("Could not send busy message.", e);
+                }
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    private void accepted(final SocketChannel channel, final Socket socket, final InetAddress address,
+                          final WireProtocol protocol) {
+        //a session counts as active as long as it holds its admission
+        metrics.sessionOpened();
+        server.configure(socket);
+        final NioEventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        final LineDecoder decoder = server.newLineDecoder();
+        final SessionRegistry.Registration registration = server.getSessionRegistry()
+                .register((InetSocketAddress) socket.getRemoteSocketAddress());
+        final SessionTimeouts.Tracker tracker = server.getSessionTimeouts().track(new SessionTimeouts.Target() {
+            @Override
+            public void expire(SessionTimeouts.Reason reason) {
+                registration.closing();
+                //the handshake reads the end of the stream, the reason is sent instead of the deny message
+                try {
+                    channel.shutdownInput();
+                } catch(IOException e) {
+                    abort();
+                }
+            }
+
+            @Override
+            public void abort() {
+                closeQuietly(channel);
+            }
+        }, server.getSecurityHandler().isPresent() || isTls(socket) || protocol != WireProtocol.TEXT);
+        final Optional<TlsChannel> tls;
+        if(isTls(socket)) {
+            final SSLEngine engine = server.getSslContext().get().createSSLEngine();
+            engine.setUseClientMode(false);
+            tls = Optional.of(new TlsChannel(channel, engine));
+        } else {
+            tls = Optional.absent();
+        }
+        if(!server.getSecurityHandler().isPresent() && !tls.isPresent() && protocol == WireProtocol.TEXT) {
+            startSession(channel, tls, address, tracker, registration, loop, decoder);
+            return;
+        }
+        metrics.sessionQueued();
+        try {
+            workerPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.sessionDequeued();
+                    handshake(channel, socket, tls, protocol, address, tracker, registration, loop, decoder);
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            LOGGER.warn("Worker pool rejected handshake, closing connection.");
+            metrics.sessionDequeued();
+            metrics.connectionRejected();
+            release(channel, address, tracker, registration);
+        }
+    }
+
+    /*
+     * The channel is still in blocking mode here, so the streams of its socket (or of its TLS channel) can be handed to
+     * the security handler. Input is read through the session's decoder, so bytes read ahead are not lost.
+     */
+    private void handshake(final SocketChannel channel, final Socket socket, final Optional<TlsChannel> tls,
+                           final WireProtocol protocol, final InetAddress address,
+                           final SessionTimeouts.Tracker tracker, final SessionRegistry.Registration registration,
+                           final NioEventLoop loop, final LineDecoder decoder) {
+        try {
+            if(tls.isPresent()) {
+                tls.get().handshake();
+            }
+            if(protocol != WireProtocol.TEXT && detectFramed(channel, tls, protocol, decoder)) {
+                //the session does not read lines
+                decoder.release();
+                handshakeFramed(channel, socket, tls, address, tracker, registration, loop);
+                return;
+            }
+            if(!server.getSecurityHandler().isPresent()) {
+                tracker.handshakeDone();
+                startSession(channel, tls, address, tracker, registration, loop, decoder);
+                return;
+            }
+            final InputStream in = decoder.asInputStream(MeteredStreams.metered(tls.isPresent()
+                    ? Channels.newInputStream(tls.get()) : socket.getInputStream(), metrics));
+            final OutputStream out = MeteredStreams.metered(tls.isPresent()
+                    ? Channels.newOutputStream(tls.get()) : socket.getOutputStream(), metrics);
+            if(decoder.getTelnet().isPresent()) {
+                //replaced by the session, when it is started
+                decoder.getTelnet().get().withReplies(new TelnetDecoder.Replies() {
+                    @Override
+                    public void send(byte[] reply) {
+                        try {
+                            out.write(reply);
+                        } catch(IOException e) {
+                            LOGGER.warn("Could not write to client.", e);
+                        }
+                    }
+                });
+            }
+            final SecurityHandler securityHandler = server.getSecurityHandler().get();
+            final boolean authenticated = securityHandler.handle(
+                    (InetSocketAddress) socket.getRemoteSocketAddress(), in,
+                    SocketeerSession.negotiating(decoder, out));
+            metrics.authenticated(authenticated);
+            if(!authenticated) {
+                out.write(tracker.getExpired().isPresent() ? tracker.getExpired().get().message(server.getCharset())
+                        : securityHandler.getDenyMessage());
+                release(channel, address, tracker, registration);
+                return;
+            }
+            tracker.handshakeDone();
+            startSession(channel, tls, address, tracker, registration, loop, decoder);
+        } catch(SSLException e) {
+            //e.g. the client does not speak TLS or does not trust the server
+            LOGGER.debug("TLS handshake failed.", e);
+            release(channel, address, tracker, registration);
+        } catch(ProtocolException e) {
+            LOGGER.debug("Client did not open the framed protocol.", e);
+            release(channel, address, tracker, registration);
+        } catch(Exception e) {
+            if(tracker.getExpired().isPresent()) {
+                LOGGER.debug("Expired handshake failed.", e);
+            } else {
+                LOGGER.error("Session crashed!", e);
+            }
+            release(channel, address, tracker, registration);
+        }
+    }
+
+    /*
+     * Read the preamble of a framed client (the channel is in blocking mode). With AUTO the client has to send it
+     * within the detection timeout, the bytes of a text client are handed to the decoder.
+     */
+    private boolean detectFramed(final SocketChannel channel, final Optional<TlsChannel> tls,
+                                 final WireProtocol protocol, final LineDecoder decoder) throws IOException {
+        if(protocol == WireProtocol.AUTO && !awaitInput(channel, tls, server.getProtocolDetectionMillis())) {
+            return false;
+        }
+        final ByteChannel io = tls.isPresent() ? tls.get() : channel;
+        final ByteBuffer read = ByteBuffer.allocate(Frames.PREAMBLE_LENGTH);
+        while(read.hasRemaining() && Frames.isPreamble(read.array(), 0, read.position())) {
+            final int n = io.read(read);
+            if(n < 0) {
+                break;
+            }
+            metrics.bytesRead(n);
+        }
+        if(!read.hasRemaining() && Frames.isPreamble(read.array(), 0, read.position())) {
+            return true;
+        }
+        if(protocol == WireProtocol.FRAMED) {
+            throw new ProtocolException("Invalid preamble.");
+        }
+        if(read.position() > 0) {
+            decoder.fill(new ByteArrayInputStream(read.array(), 0, read.position()));
+        }
+        return false;
+    }
+
+    /*
+     * The blocking channel has no read timeout, a selector waits for the first input instead.
+     */
+    private static boolean awaitInput(final SocketChannel channel, final Optional<TlsChannel> tls, final long millis)
+            throws IOException {
+        //the first records may have been read along with the handshake
+        if(tls.isPresent() && tls.get().hasBufferedRecords()) {
+            return true;
+        }
+        channel.configureBlocking(false);
+        try(final Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            return selector.select(millis) > 0;
+        } finally {
+            //the key is deregistered, when the selector is closed
+            channel.configureBlocking(true);
+        }
+    }
+
+    /*
+     * The security handshake (if any) runs on the raw streams, the preamble acknowledges it, before the session starts.
+     */
+    private void handshakeFramed(final SocketChannel channel, final Socket socket, final Optional<TlsChannel> tls,
+                                 final InetAddress address, final SessionTimeouts.Tracker tracker,
+                                 final SessionRegistry.Registration registration, final NioEventLoop loop)
+            throws IOException {
+        final OutputStream out = MeteredStreams.metered(tls.isPresent()
+                ? Channels.newOutputStream(tls.get()) : socket.getOutputStream(), metrics);
+        if(server.getSecurityHandler().isPresent()) {
+            final InputStream in = MeteredStreams.metered(tls.isPresent()
+                    ? Channels.newInputStream(tls.get()) : socket.getInputStream(), metrics);
+            final SecurityHandler securityHandler = server.getSecurityHandler().get();
+            final boolean authenticated = securityHandler.handle(
+                    (InetSocketAddress) socket.getRemoteSocketAddress(), in, out);
+            metrics.authenticated(authenticated);
+            if(!authenticated) {
+                if(!tracker.getExpired().isPresent()) {
+                    out.write(securityHandler.getDenyMessage());
+                }
+                release(channel, address, tracker, registration);
+                return;
+            }
+        }
+        tracker.handshakeDone();
+        out.write(Frames.preamble());
+        try {
+            channel.configureBlocking(false);
+        } catch(IOException e) {
+            LOGGER.error("Could not switch channel to non-blocking mode.", e);
+            release(channel, address, tracker, registration);
+            return;
+        }
+        final NioFramedSession session = new NioFramedSession(channel, server.newFramedProtocol(workerPool, address),
+                server.getCharset(), new FrameDecoder(server.getMaxFrameLength()), server.getMaxRequestsInFlight(),
+                loop, closeListener(address, tracker, registration))
+                .withMetrics(metrics).withTimeouts(tracker).withRegistration(registration);
+        if(tls.isPresent()) {
+            session.withTls(tls.get());
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.start();
+                } catch(Exception e) {
+                    LOGGER.error("Session crashed!", e);
+                    session.close();
+                }
+            }
+        });
+    }
+
+    private void startSession(final SocketChannel channel, final Optional<TlsChannel> tls, final InetAddress address,
+                              final SessionTimeouts.Tracker tracker, final SessionRegistry.Registration registration,
+                              final NioEventLoop loop, final LineDecoder decoder) {
+        try {
+            channel.configureBlocking(false);
+        } catch(IOException e) {
+            LOGGER.error("Could not switch channel to non-blocking mode.", e);
+            release(channel, address, tracker, registration);
+            return;
+        }
+        final NioSocketeerSession session = new NioSocketeerSession(channel, server.newSessionProtocol(address),
+                server.getCharset(), decoder, workerPool, loop, closeListener(address, tracker, registration))
+                .withMetrics(metrics).withTimeouts(tracker).withRegistration(registration)
+                .withResponseChunkSize(server.getResponseChunkSize());
+        if(tls.isPresent()) {
+            session.withTls(tls.get());
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    session.start();
+                } catch(Exception e) {
+                    LOGGER.error("Session crashed!", e);
+                    session.close();
+                }
+            }
+        });
+    }
+
+    private Runnable closeListener(final InetAddress address, final SessionTimeouts.Tracker tracker,
+                                   final SessionRegistry.Registration registration) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                tracker.close();
+                registration.close();
+                metrics.sessionClosed();
+                admissions.release(address);
+            }
+        };
+    }
+
+    /**
+     * Stop accepting connections and release the port, the running sessions are not affected.
+     */
+    void stopAccepting() {
+        accepting = Boolean.FALSE;
+        closeListening();
+    }
+
+    /**
+     * Stop accepting connections and shut down the event loops, which close all their sessions.
+     */
+    @Override
+    public void close() {
+        stopAccepting();
+        for(final NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    private void closeListening() {
+        for(final Closeable closeable : listening) {
+            closeQuietly(closeable);
+        }
+    }
+
+    private boolean isTls(final Socket socket) {
+        return server.getSslContext().isPresent() && !(socket instanceof UnixDomainSocket);
+    }
+
+    /*
+     * Close a connection, that did not make it to a session and give back its admission.
+     */
+    private void release(final SocketChannel channel, final InetAddress address,
+                         final SessionTimeouts.Tracker tracker, final SessionRegistry.Registration registration) {
+        tracker.close();
+        registration.close();
+        closeQuietly(channel);
+        metrics.sessionClosed();
+        admissions.release(address);
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch(IOException e) {
+            LOGGER.warn("Could not close connection properly.", e);
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.LineDecoder;
+import de.logicalco.socketeer.utils.LineTooLongException;
+import de.logicalco.socketeer.utils.TelnetDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A session for communication with the client driven by a {@link NioEventLoop}.
+ * The prompt/read/handle/write cycle of {@link SocketeerSession} is implemented as a state machine, so an idle session
+ * does not occupy a thread. Only the command handler is called on the handler executor, the session does not read
+ * further input while a command is handled or its response is written, so commands are answered in order. A pipelined
+ * session hands all complete lines already buffered to the handler executor at once.
+ * <br/>
+ * Pushed messages are taken from the session's {@link PushQueue} only, when the pending output is written, so a slow
+ * client does not make the session buffer them.
+ * <br/>
+ * A streamed response is handed to the loop in chunks, the handler waits, while {@link #MAX_STREAMED_CHUNKS} chunks
+ * are not written yet.
+ * <br/>
+ * While the session has a {@link Subscription}, it reads the input even if output is pending, so the client can
+ * interrupt a subscription it does not keep up with.
+ * <br/>
+ * A TLS session reads and writes through a {@link TlsChannel}, its handshake is complete, when the session starts.
+ */
+class NioSocketeerSession implements NioEventLoop.Handler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioSocketeerSession.class);
+
+    /**
+     * Max amount of chunks of a streamed response queued for writing.
+     */
+    static final int MAX_STREAMED_CHUNKS = 4;
+
+    private enum State {
+        /**
+         * Waiting for a complete line.
+         */
+        READING,
+        /**
+         * A command is handled by the handler executor.
+         */
+        HANDLING,
+        /**
+         * Updates of a subscription are sent, the input is only checked for an interrupt.
+         */
+        SUBSCRIBED,
+        /**
+         * Pending output is written, afterwards the session is closed.
+         */
+        CLOSING,
+        CLOSED
+    }
+
+    private final SocketChannel channel;
+    //the channel or the TLS channel on top of it
+    private ByteChannel io;
+    private Optional<TlsChannel> tls = Optional.absent();
+    private final SessionProtocol protocol;
+    private final Charset charset;
+    private final LineDecoder decoder;
+    private final Executor handlerExecutor;
+    private final NioEventLoop loop;
+    private final Runnable closeListener;
+
+    private final ResponseBuffer response;
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+    //the chunks of a streamed response in the outbound queue
+    private final Deque<ByteBuffer> streamed = new ArrayDeque<>();
+    private final Semaphore streamPermits = new Semaphore(MAX_STREAMED_CHUNKS);
+    //the update of the subscription in the outbound queue
+    private Optional<ByteBuffer> update = Optional.absent();
+    private Optional<Subscription> updated = Optional.absent();
+
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+    private Optional<SessionTimeouts.Tracker> timeouts = Optional.absent();
+    private Optional<SessionTimeouts.Reason> expired = Optional.absent();
+    private Optional<SessionRegistry.Registration> registration = Optional.absent();
+
+    private SelectionKey key;
+    private State state = State.READING;
+    //the handler still reads the decoder, when the session is closed
+    private boolean releaseWhenHandled = false;
+    //the reason is queued behind the pending responses of an expired session
+    private boolean expiredQueued = false;
+    private boolean expiredSent = false;
+    //read by the handler thread streaming a response
+    private volatile boolean closed = false;
+
+    /**
+     * @param channel           The channel to the client (has to be in non-blocking mode).
+     * @param protocol          The command cycle of the session.
+     * @param charset           The character set for String<->byte conversion.
+     * @param decoder           Decoder for the input, it is released when the session is closed.
+     * @param handlerExecutor   Executor calling the command handler.
+     * @param loop              The loop driving this session.
+     * @param closeListener     Called once, when the session is closed.
+     */
+    NioSocketeerSession(final SocketChannel channel, final SessionProtocol protocol, final Charset charset,
+                        final LineDecoder decoder, final Executor handlerExecutor, final NioEventLoop loop,
+                        final Runnable closeListener) {
+        this.channel = checkNotNull(channel, "Channel cannot be null.");
+        this.io = channel;
+        this.protocol = checkNotNull(protocol, "Protocol cannot be null.").withOutput(new PendingResponses.Output() {
+            @Override
+            public void write(final byte[] bytes) {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResponse(bytes);
+                    }
+                });
+            }
+        });
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.decoder = checkNotNull(decoder, "Decoder cannot be null.");
+        this.handlerExecutor = checkNotNull(handlerExecutor, "Handler executor cannot be null.");
+        this.loop = checkNotNull(loop, "Loop cannot be null.");
+        this.closeListener = checkNotNull(closeListener, "Close listener cannot be null.");
+        this.response = new ResponseBuffer(charset).subscribingTo(protocol);
+        protocol.withUpdates(new Subscription.Output() {
+            @Override
+            public void send(final Subscription subscription, final ResponseBuffer update) {
+                final ByteBuffer bytes = update.asByteBuffer();
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onUpdate(subscription, bytes);
+                    }
+                });
+            }
+
+            @Override
+            public void cancelled(final Subscription subscription) {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCancelled(subscription);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Report the session's traffic to the metrics (the commands are reported by the protocol).
+     *
+     * @param metrics   The metrics of the server.
+     * @return          this
+     */
+    NioSocketeerSession withMetrics(final SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        return this;
+    }
+
+    /**
+     * Close the session, if it exceeds one of the timeouts. The tracker is closed by the close listener.
+     *
+     * @param timeouts  Tracker of the session's timeouts, it was started with the connection.
+     * @return          this
+     */
+    NioSocketeerSession withTimeouts(final SessionTimeouts.Tracker timeouts) {
+        this.timeouts = Optional.of(checkNotNull(timeouts, "Timeouts cannot be null."));
+        return this;
+    }
+
+    /**
+     * Take messages pushed to the session. The registration is closed by the close listener.
+     *
+     * @param registration  Registration of the session, it was registered with the connection.
+     * @return              this
+     */
+    NioSocketeerSession withRegistration(final SessionRegistry.Registration registration) {
+        this.registration = Optional.of(checkNotNull(registration, "Registration cannot be null."));
+        return this;
+    }
+
+    /**
+     * Encrypt the session with TLS.
+     *
+     * @param tls   TLS channel on the session's channel, its handshake is complete.
+     * @return      this
+     */
+    NioSocketeerSession withTls(final TlsChannel tls) {
+        this.tls = Optional.of(checkNotNull(tls, "TLS channel cannot be null."));
+        this.io = tls;
+        return this;
+    }
+
+    /**
+     * Stream big responses to the client in chunks (by default a response is written at once).
+     *
+     * @param chunkSize Max amount of bytes of a response buffered by the handler.
+     * @return          this
+     */
+    NioSocketeerSession withResponseChunkSize(final int chunkSize) {
+        response.streamingTo(new ResponseBuffer.Sink() {
+            @Override
+            public void send(final ResponseBuffer buffer) throws IOException {
+                stream(buffer);
+            }
+        }, chunkSize);
+        return this;
+    }
+
+    /**
+     * Register the session to its loop and send the opener and the first prompt. Has to be called by the loop thread.
+     *
+     * @throws IOException
+     */
+    void start() throws IOException {
+        key = loop.register(channel, SelectionKey.OP_READ, this);
+        if(timeouts.isPresent()) {
+            timeouts.get().withTarget(new SessionTimeouts.Target() {
+                @Override
+                public void expire(final SessionTimeouts.Reason reason) {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onExpired(reason);
+                        }
+                    });
+                }
+
+                @Override
+                public void abort() {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            });
+        }
+        if(decoder.getTelnet().isPresent()) {
+            //the decoder is filled by the loop, so the replies are queued like responses
+            decoder.getTelnet().get().withReplies(new TelnetDecoder.Replies() {
+                @Override
+                public void send(byte[] reply) {
+                    outbound.add(ByteBuffer.wrap(reply));
+                }
+            });
+        }
+        protocol.greet(response);
+        outbound.add(response.asByteBuffer());
+        if(registration.isPresent()) {
+            registration.get().activate(new PushQueue.Consumer() {
+                @Override
+                public void wakeUp() {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPushed();
+                        }
+                    });
+                }
+
+                @Override
+                public void overflow() {
+                    LOGGER.info("Push queue of session {} overflowed, closing session.", registration.get().getId());
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            });
+        }
+        //the security handshake may have read ahead
+        drive();
+    }
+
+    @Override
+    public void onReady(final SelectionKey key) throws IOException {
+        if(key.isReadable() && (state == State.READING && !hasOutput() || state == State.SUBSCRIBED) && !read()) {
+            return;
+        }
+        drive();
+    }
+
+    /*
+     * @return  false if the client closed the connection.
+     */
+    private boolean read() throws IOException {
+        do {
+            final int read = decoder.fill(io);
+            if(read < 0) {
+                close();
+                return false;
+            }
+            metrics.bytesRead(read);
+            if(state == State.SUBSCRIBED) {
+                watch();
+            }
+        } while(state == State.SUBSCRIBED && hasBufferedInput());
+        return true;
+    }
+
+    /*
+     * Write pending output and dispatch buffered lines, until the session has to wait for the client or the handler.
+     * The next line is not dispatched before the output of the previous one is written, so the response buffer can
+     * be reused and a slow client does not make the session buffer unbounded output.
+     */
+    private void drive() throws IOException {
+        try {
+            while(state != State.CLOSED) {
+                flush();
+                if(state != State.READING || hasOutput()) {
+                    break;
+                }
+                if(!decoder.next()) {
+                    //a TLS record may hold more input than the decoder took, the selector does not report it
+                    if(!hasBufferedInput() || !read()) {
+                        break;
+                    }
+                    continue;
+                }
+                dispatch();
+            }
+        } catch(LineTooLongException e) {
+            outbound.add(ByteBuffer.wrap(SocketeerSession.lineTooLong(decoder, charset)));
+            state = State.CLOSING;
+            flush();
+        }
+        if(state == State.CLOSING && !hasOutput()) {
+            if(!expired.isPresent() || expiredSent) {
+                close();
+            } else if(!expiredQueued && !protocol.hasPendingResponses()) {
+                //all responses completed so far were handed to the loop before, so the reason follows them
+                expiredQueued = true;
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendExpired();
+                    }
+                });
+            }
+        }
+        updateInterest();
+    }
+
+    private void dispatch() {
+        //the decoder is not touched by the loop until the command (or the batch of pipelined commands) is handled
+        state = State.HANDLING;
+        if(timeouts.isPresent()) {
+            timeouts.get().handling(true);
+        }
+        try {
+            handlerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handle();
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            LOGGER.warn("Handler executor rejected command, closing session.");
+            close();
+        }
+    }
+
+    /*
+     * Called by the handler executor.
+     */
+    private void handle() {
+        try {
+            response.reset();
+            final boolean alive = protocol.handle(decoder, response);
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onHandled(alive);
+                }
+            });
+        } catch(Exception e) {
+            if(e instanceof UncheckedIOException) {
+                //the client went away, while a response was streamed
+                LOGGER.debug("Could not stream response.", e);
+            } else {
+                LOGGER.error("Session crashed!", e);
+            }
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(state == State.HANDLING) {
+                        //the handler is done with the decoder
+                        state = State.CLOSING;
+                        close();
+                    } else {
+                        onHandled(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private void onHandled(final boolean alive) {
+        if(state != State.HANDLING) {
+            if(releaseWhenHandled) {
+                releaseWhenHandled = false;
+                decoder.release();
+            }
+            return;
+        }
+        //the responses and the prompts are written at once
+        if(!response.isEmpty()) {
+            outbound.add(response.asByteBuffer());
+        }
+        state = alive && !expired.isPresent() ? State.READING : State.CLOSING;
+        if(state == State.READING && protocol.startSubscription()) {
+            //the session is not idle, while it sends updates
+            state = State.SUBSCRIBED;
+            watch();
+        } else if(timeouts.isPresent()) {
+            timeouts.get().handling(false);
+        }
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    /*
+     * Called by the handler thread, it waits until the loop has written enough of the previous chunks.
+     */
+    private void stream(final ResponseBuffer buffer) throws IOException {
+        if(loop.inEventLoop()) {
+            //a big opener, the loop cannot wait for itself
+            outbound.add(ByteBuffer.wrap(buffer.toByteArray()));
+            return;
+        }
+        try {
+            streamPermits.acquire();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming response.");
+        }
+        if(closed) {
+            streamPermits.release();
+            throw new IOException("Session closed.");
+        }
+        final ByteBuffer chunk = ByteBuffer.wrap(buffer.toByteArray());
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                onChunk(chunk);
+            }
+        });
+    }
+
+    private void onChunk(final ByteBuffer chunk) {
+        if(state == State.CLOSED) {
+            return;
+        }
+        streamed.add(chunk);
+        outbound.add(chunk);
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    /*
+     * Check the input for an interrupt or the escape sequence.
+     */
+    private void watch() {
+        final ResponseBuffer prompt = new ResponseBuffer(charset);
+        final boolean alive = protocol.watch(decoder, prompt);
+        if(!prompt.isEmpty()) {
+            outbound.add(prompt.asByteBuffer());
+        }
+        if(!alive) {
+            state = State.CLOSING;
+        } else if(!protocol.isSubscribed()) {
+            state = State.READING;
+            if(timeouts.isPresent()) {
+                timeouts.get().handling(false);
+            }
+        }
+    }
+
+    private void onUpdate(final Subscription subscription, final ByteBuffer bytes) {
+        if(state != State.SUBSCRIBED || subscription.isCancelled()) {
+            return;
+        }
+        update = Optional.of(bytes);
+        updated = Optional.of(subscription);
+        outbound.add(bytes);
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    /*
+     * The application cancelled the subscription, the session may have noticed it already.
+     */
+    private void onCancelled(final Subscription subscription) {
+        if(state == State.CLOSING || state == State.CLOSED) {
+            return;
+        }
+        outbound.add(ByteBuffer.wrap(subscription.getPrompt()));
+        if(state == State.SUBSCRIBED && !protocol.isSubscribed()) {
+            state = State.READING;
+            if(timeouts.isPresent()) {
+                timeouts.get().handling(false);
+            }
+        }
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    /*
+     * A response of an asynchronous command handler completed after the prompt was sent.
+     */
+    private void onResponse(final byte[] bytes) {
+        if(state == State.CLOSED) {
+            return;
+        }
+        outbound.add(ByteBuffer.wrap(bytes));
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    private void onPushed() {
+        if(state == State.CLOSED) {
+            return;
+        }
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    /*
+     * The reason is sent after the pending output, a command still handled and the pending responses of an
+     * asynchronous command handler are answered before. The session is aborted, if this takes too long.
+     */
+    private void onExpired(final SessionTimeouts.Reason reason) {
+        if(state == State.CLOSED) {
+            return;
+        }
+        expired = Optional.of(reason);
+        if(registration.isPresent()) {
+            registration.get().closing();
+        }
+        if(state == State.HANDLING) {
+            return;
+        }
+        state = State.CLOSING;
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    private void sendExpired() {
+        if(state == State.CLOSED) {
+            return;
+        }
+        outbound.add(ByteBuffer.wrap(expired.get().message(charset)));
+        expiredSent = true;
+        try {
+            drive();
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        if(tls.isPresent() && !tls.get().flush()) {
+            return;
+        }
+        while(!outbound.isEmpty() || takePushed()) {
+            final ByteBuffer head = outbound.peek();
+            metrics.bytesWritten(io.write(head));
+            if(head.hasRemaining()) {
+                return;
+            }
+            outbound.poll();
+            if(streamed.peek() == head) {
+                streamed.poll();
+                streamPermits.release();
+            } else if(update.isPresent() && update.get() == head) {
+                update = Optional.absent();
+                updated.get().sent();
+            }
+        }
+    }
+
+    /*
+     * Pushed messages are not sent to a closing session or in the middle of a (streamed) response.
+     */
+    private boolean takePushed() {
+        if(!registration.isPresent() || state != State.READING && state != State.SUBSCRIBED) {
+            return false;
+        }
+        final byte[] message = registration.get().getPushes().poll();
+        if(message == null) {
+            return false;
+        }
+        outbound.add(ByteBuffer.wrap(message));
+        return true;
+    }
+
+    private void updateInterest() {
+        if(state == State.CLOSED || !key.isValid()) {
+            return;
+        }
+        if(state == State.SUBSCRIBED) {
+            key.interestOps(hasOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            return;
+        }
+        key.interestOps(!hasOutput()
+                ? (state == State.READING ? SelectionKey.OP_READ : 0)
+                : SelectionKey.OP_WRITE);
+    }
+
+    /*
+     * Output queued by the session or encrypted output the channel did not take yet.
+     */
+    private boolean hasOutput() {
+        return !outbound.isEmpty() || tls.isPresent() && tls.get().hasPendingOutput();
+    }
+
+    private boolean hasBufferedInput() {
+        return tls.isPresent() && tls.get().hasBufferedInput();
+    }
+
+    @Override
+    public void close() {
+        if(state == State.CLOSED) {
+            return;
+        }
+        releaseWhenHandled = state == State.HANDLING;
+        state = State.CLOSED;
+        //a handler waiting to stream a chunk fails
+        closed = true;
+        streamPermits.release();
+        if(key != null) {
+            key.cancel();
+        }
+        try {
+            io.close();
+        } catch(IOException e) {
+            LOGGER.warn("Could not close session properly.", e);
+        }
+        protocol.close();
+        if(!releaseWhenHandled) {
+            decoder.release();
+        }
+        closeListener.run();
+    }
+}
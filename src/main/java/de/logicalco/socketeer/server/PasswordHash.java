@@ -0,0 +1,167 @@
+package de.logicalco.socketeer.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.Console;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A salted PBKDF2 (HMAC-SHA256) hash of a password, as kept by a {@link CredentialStore}. Its text form is
+ * <pre>
+ *     pbkdf2-sha256$iterations$salt$hash
+ * </pre>
+ * with salt and hash in base64. A hash for a credential file is printed by
+ * <pre>
+ *     java -cp socketeer.jar de.logicalco.socketeer.server.PasswordHash
+ * </pre>
+ * which reads the password from the console.
+ */
+public final class PasswordHash {
+
+    /**
+     * Iterations of a new hash, a verification takes about 100ms on current hardware.
+     */
+    public static final int DEFAULT_ITERATIONS = 310000;
+
+    private static final String ALGORITHM = "pbkdf2-sha256";
+    private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    private PasswordHash(final int iterations, final byte[] salt, final byte[] hash) {
+        this.iterations = iterations;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    /**
+     * @param password  The password.
+     * @return          Hash of the password with a random salt and {@link #DEFAULT_ITERATIONS}.
+     */
+    public static PasswordHash create(final char[] password) {
+        return create(password, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param password      The password.
+     * @param iterations    Iterations of PBKDF2, the more the slower a brute force attack (and every verification).
+     * @return              Hash of the password with a random salt.
+     */
+    public static PasswordHash create(final char[] password, final int iterations) {
+        checkNotNull(password, "Password cannot be null.");
+        checkArgument(iterations > 0, "Iterations have to be positive.");
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new PasswordHash(iterations, salt, derive(password, salt, iterations, HASH_LENGTH));
+    }
+
+    /**
+     * @param encoded   Text form of a hash.
+     * @return          The hash.
+     * @throws IllegalArgumentException If the text is not a valid hash.
+     */
+    public static PasswordHash parse(final String encoded) {
+        final String[] parts = checkNotNull(encoded, "Hash cannot be null.").split("\\$");
+        checkArgument(parts.length == 4 && ALGORITHM.equals(parts[0]), "Not a %s hash.", ALGORITHM);
+        final int iterations;
+        try {
+            iterations = Integer.parseInt(parts[1]);
+        } catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid iterations.", e);
+        }
+        checkArgument(iterations > 0, "Iterations have to be positive.");
+        final byte[] salt = Base64.getDecoder().decode(parts[2]);
+        final byte[] hash = Base64.getDecoder().decode(parts[3]);
+        checkArgument(salt.length > 0 && hash.length > 0, "Salt and hash cannot be empty.");
+        return new PasswordHash(iterations, salt, hash);
+    }
+
+    /**
+     * Verify a password in constant time (for passwords of any content, the time depends on the iterations only).
+     *
+     * @param password  The password.
+     * @return          true if the password matches.
+     */
+    public boolean verify(final char[] password) {
+        checkNotNull(password, "Password cannot be null.");
+        return MessageDigest.isEqual(hash, derive(password, salt, iterations, hash.length));
+    }
+
+    /**
+     * @return  Text form of the hash.
+     */
+    public String encode() {
+        return ALGORITHM + "$" + iterations + "$" + Base64.getEncoder().encodeToString(salt) + "$"
+                + Base64.getEncoder().encodeToString(hash);
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof PasswordHash)) {
+            return false;
+        }
+        final PasswordHash other = (PasswordHash) o;
+        return iterations == other.iterations && Arrays.equals(salt, other.salt) && Arrays.equals(hash, other.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(salt) + Arrays.hashCode(hash);
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+    private static byte[] derive(final char[] password, final byte[] salt, final int iterations, final int length) {
+        final PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+        } catch(GeneralSecurityException e) {
+            //every JDK provides PBKDF2WithHmacSHA256
+            throw new IllegalStateException("Could not hash password.", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Print the hash of a password read from the console.
+     *
+     * @param args  Optional iterations.
+     */
+    public static void main(final String[] args) {
+        final Console console = System.console();
+        if(console == null) {
+            System.err.println("No console available.");
+            System.exit(1);
+        }
+        final char[] password = console.readPassword("password : ");
+        try {
+            System.out.println(create(password, args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS)
+                    .encode());
+        } finally {
+            Arrays.fill(password, ' ');
+        }
+    }
+}
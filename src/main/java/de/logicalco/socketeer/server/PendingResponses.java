@@ -0,0 +1,234 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The responses of an {@link AsyncCommandHandler} pending for one session. A response is sent together with the
+ * following prompt, when it and all responses of earlier commands are complete, so the client gets the responses in
+ * the order of its commands. Pending responses are cancelled when they time out or the session is closed.
+ * <b>Note</b> : The responses are sent by the thread completing them, this class is thread-safe.
+ */
+final class PendingResponses {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PendingResponses.class);
+
+    private static final byte[] NOTHING = new byte[0];
+
+    /**
+     * Sends completed responses to the client.
+     */
+    interface Output {
+        /**
+         * Send bytes to the client. Calls are made in the order of the responses, but possibly by different threads.
+         * Empty responses are skipped, only if the last pending response is empty, an empty array is passed, so the
+         * session learns, that no response is pending anymore.
+         *
+         * @param bytes Response followed by the prompt.
+         */
+        void write(byte[] bytes);
+    }
+
+    private final Output output;
+    private final byte[] timedOut;
+    private final byte[] failed;
+    private final Deque<Pending> queue = new ArrayDeque<>();
+    private Optional<ScheduledExecutorService> timer = Optional.absent();
+    private long timeoutMillis;
+    private boolean closed = false;
+
+    /**
+     * @param output    Output for responses completed after the prompt was sent.
+     * @param charset   Charset for String to byte conversion.
+     */
+    PendingResponses(final Output output, final Charset charset) {
+        this.output = checkNotNull(output, "Output cannot be null.");
+        checkNotNull(charset, "Charset cannot be null.");
+        this.timedOut = "Command timed out.\n".getBytes(charset);
+        this.failed = "Command failed.\n".getBytes(charset);
+    }
+
+    /**
+     * Cancel responses, that are not complete within a timeout.
+     *
+     * @param timer             Timer for the timeouts.
+     * @param timeoutMillis     Timeout in milliseconds.
+     * @return                  this
+     */
+    PendingResponses withTimeout(final ScheduledExecutorService timer, final Long timeoutMillis) {
+        checkArgument(checkNotNull(timeoutMillis, "Timeout cannot be null.") > 0, "Timeout has to be positive.");
+        this.timer = Optional.of(checkNotNull(timer, "Timer cannot be null."));
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Add the response of a command. If it is complete already and no earlier response is pending, it is written to
+     * the response buffer at once. Otherwise only the prompt is written and the response is sent via the output later.
+     *
+     * @param stage     The response.
+     * @param response  Buffer for the session's current response.
+     * @param prompt    The prompt following the response.
+     */
+    void add(final CompletionStage<Optional<byte[]>> stage, final ResponseBuffer response, final byte[] prompt) {
+        final CompletableFuture<Optional<byte[]>> future = checkNotNull(stage, "Response cannot be null.")
+                .toCompletableFuture();
+        final Pending pending;
+        synchronized(this) {
+            if(closed) {
+                future.cancel(true);
+                return;
+            }
+            if(queue.isEmpty() && future.isDone()) {
+                response.write(result(future));
+                response.write(prompt);
+                return;
+            }
+            pending = new Pending(future, prompt);
+            queue.add(pending);
+            if(timer.isPresent()) {
+                pending.timeout = Optional.<ScheduledFuture<?>>of(timer.get().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        expire(pending);
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS));
+            }
+        }
+        response.write(prompt);
+        future.whenComplete(new BiConsumer<Optional<byte[]>, Throwable>() {
+            @Override
+            public void accept(Optional<byte[]> result, Throwable failure) {
+                complete(pending, result(future));
+            }
+        });
+    }
+
+    /**
+     * @return  true if no response is pending.
+     */
+    synchronized boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Wait until no response is pending (or the responses are closed). All responses completed before are passed to
+     * the output, when this returns.
+     *
+     * @param millis    Max time to wait.
+     * @return          true if no response is pending.
+     * @throws InterruptedException
+     */
+    synchronized boolean awaitEmpty(final long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = millis;
+        while(!queue.isEmpty() && remaining > 0) {
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        return queue.isEmpty();
+    }
+
+    /**
+     * Cancel all pending responses, nothing is sent afterwards.
+     */
+    void close() {
+        final Pending[] cancelled;
+        synchronized(this) {
+            closed = true;
+            cancelled = queue.toArray(new Pending[queue.size()]);
+            queue.clear();
+            notifyAll();
+        }
+        for(final Pending pending : cancelled) {
+            pending.cancelTimeout();
+            pending.future.cancel(true);
+        }
+    }
+
+    private synchronized void complete(final Pending pending, final byte[] result) {
+        if(pending.result == null) {
+            pending.result = result;
+            pending.cancelTimeout();
+            send();
+        }
+    }
+
+    private synchronized void expire(final Pending pending) {
+        if(pending.result == null) {
+            //the result is set first, so the cancellation is not taken for an empty response
+            pending.result = timedOut;
+            pending.future.cancel(true);
+            send();
+        }
+    }
+
+    /*
+     * Send the completed responses at the head of the queue.
+     */
+    private void send() {
+        boolean skipped = false;
+        while(!closed && !queue.isEmpty() && queue.peek().result != null) {
+            final Pending head = queue.poll();
+            skipped = head.result.length == 0;
+            if(!skipped) {
+                final byte[] bytes = Arrays.copyOf(head.result, head.result.length + head.prompt.length);
+                System.arraycopy(head.prompt, 0, bytes, head.result.length, head.prompt.length);
+                output.write(bytes);
+            }
+        }
+        if(queue.isEmpty()) {
+            if(skipped) {
+                output.write(NOTHING);
+            }
+            notifyAll();
+        }
+    }
+
+    private byte[] result(final CompletableFuture<Optional<byte[]>> future) {
+        try {
+            final Optional<byte[]> result = future.join();
+            return result.isPresent() ? result.get() : NOTHING;
+        } catch(CancellationException e) {
+            return NOTHING;
+        } catch(Exception e) {
+            LOGGER.warn("Command failed.", e);
+            return failed;
+        }
+    }
+
+    private static final class Pending {
+
+        private final CompletableFuture<Optional<byte[]>> future;
+        private final byte[] prompt;
+        private Optional<ScheduledFuture<?>> timeout = Optional.absent();
+        private byte[] result;
+
+        private Pending(CompletableFuture<Optional<byte[]>> future, byte[] prompt) {
+            this.future = future;
+            this.prompt = prompt;
+        }
+
+        private void cancelTimeout() {
+            if(timeout.isPresent()) {
+                timeout.get().cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * Whether a session handles pipelined commands in batches. A pipelined session handles all complete lines, that were
+ * read at once, in order and sends their responses with a single write, instead of one write per command. This way
+ * a client sending many commands without waiting for the prompt needs much less round trips and system calls.
+ */
+public enum Pipelining {
+    /**
+     * Each response is written on its own (default).
+     */
+    DISABLED,
+    /**
+     * A session switches to pipelining, when the client sends {@link #COMMAND}.
+     */
+    NEGOTIATED,
+    /**
+     * All sessions are pipelined from the start.
+     */
+    ENABLED;
+
+    /**
+     * The command a client sends to enable pipelining for its session, if pipelining is {@link #NEGOTIATED} (it is
+     * acknowledged as well, if pipelining is {@link #ENABLED}).
+     */
+    public static final String COMMAND = "#pipeline";
+}
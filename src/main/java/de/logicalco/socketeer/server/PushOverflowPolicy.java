@@ -0,0 +1,16 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * What happens, if a message is pushed to a session, whose push queue is full (the client does not read fast enough).
+ * The queue is bounded either way, so a slow client never blocks the thread pushing the message.
+ */
+public enum PushOverflowPolicy {
+    /**
+     * The oldest queued message is dropped in favour of the new one (default).
+     */
+    DROP_OLDEST,
+    /**
+     * The session is closed.
+     */
+    DISCONNECT
+}
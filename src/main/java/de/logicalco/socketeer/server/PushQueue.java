@@ -0,0 +1,132 @@
+package de.logicalco.socketeer.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The bounded queue of messages pushed to one session. Any thread may push, the session takes the messages, when its
+ * pending output is written, so a slow client only fills its own queue. The consumer is woken up by the first message
+ * after it found the queue empty, so at most one consumer takes messages at a time and they are sent in order.
+ * <br/>
+ * Pushes are rare compared to commands, so a simple monitor guards the queue.
+ */
+final class PushQueue {
+
+    /**
+     * The session taking the messages.
+     */
+    interface Consumer {
+
+        /**
+         * Messages are queued, take them via {@link #poll()} until it returns null. Must not block.
+         */
+        void wakeUp();
+
+        /**
+         * The queue overflowed and the policy is {@link PushOverflowPolicy#DISCONNECT}. Must not block.
+         */
+        void overflow();
+    }
+
+    private final int capacity;
+    private final PushOverflowPolicy policy;
+    private final Queue<byte[]> messages = new ArrayDeque<>();
+    private Consumer consumer;
+    private boolean consuming = false;
+    private boolean closed = false;
+    private long dropped = 0;
+
+    /**
+     * @param capacity  Max amount of queued messages.
+     * @param policy    What happens, if the queue is full.
+     */
+    PushQueue(final int capacity, final PushOverflowPolicy policy) {
+        checkArgument(capacity > 0, "Capacity has to be positive.");
+        this.capacity = capacity;
+        this.policy = checkNotNull(policy, "Policy cannot be null.");
+    }
+
+    /**
+     * Start delivering the messages, messages pushed before are dropped.
+     *
+     * @param consumer  The session taking the messages.
+     */
+    synchronized void open(final Consumer consumer) {
+        this.consumer = checkNotNull(consumer, "Consumer cannot be null.");
+    }
+
+    /**
+     * Queue a message.
+     *
+     * @param message   The message, it is not copied.
+     * @return          false if the queue is not open, closed or overflowed.
+     */
+    boolean push(final byte[] message) {
+        checkNotNull(message, "Message cannot be null.");
+        final Consumer target;
+        final boolean overflowed;
+        final boolean wakeUp;
+        synchronized(this) {
+            if(consumer == null || closed) {
+                return false;
+            }
+            target = consumer;
+            overflowed = messages.size() >= capacity && policy == PushOverflowPolicy.DISCONNECT;
+            if(overflowed) {
+                closeQueue();
+            } else {
+                if(messages.size() >= capacity) {
+                    messages.poll();
+                    dropped++;
+                }
+                messages.add(message);
+            }
+            wakeUp = !overflowed && !consuming;
+            consuming = consuming || wakeUp;
+        }
+        if(overflowed) {
+            target.overflow();
+        } else if(wakeUp) {
+            target.wakeUp();
+        }
+        return !overflowed;
+    }
+
+    /**
+     * @return  The next message, null if there is none (the consumer is woken up by the next push).
+     */
+    synchronized byte[] poll() {
+        final byte[] message = messages.poll();
+        consuming = message != null;
+        return message;
+    }
+
+    /**
+     * Drop the queued messages and reject further pushes.
+     */
+    synchronized void close() {
+        closeQueue();
+    }
+
+    /**
+     * @return  Number of queued messages.
+     */
+    synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * @return  Number of messages dropped, because the queue was full.
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    private void closeQueue() {
+        closed = true;
+        messages.clear();
+    }
+}
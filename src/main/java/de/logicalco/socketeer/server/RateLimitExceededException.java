@@ -0,0 +1,16 @@
+package de.logicalco.socketeer.server;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link FramedProtocol}, if a request exceeds a limit of the {@link RateLimiter} and its policy is
+ * {@link RateLimitPolicy#DISCONNECT}. The session sends the reason and closes.
+ */
+final class RateLimitExceededException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    RateLimitExceededException() {
+        super("Rate limit exceeded.");
+    }
+}
@@ -0,0 +1,20 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * What happens to a command exceeding a limit of the {@link RateLimiter}.
+ */
+public enum RateLimitPolicy {
+    /**
+     * The command is handled, when the limit allows it. Meanwhile the session does not read further input, so the
+     * client is slowed down by TCP flow control.
+     */
+    DELAY,
+    /**
+     * The command is not handled, the client is told, that the rate limit is exceeded.
+     */
+    REJECT,
+    /**
+     * The session is closed.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,379 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import de.logicalco.socketeer.utils.TokenBucket;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the rate of the commands, so a misbehaving client cannot flood the server and starve the application. A
+ * command is checked against the limit of its session, the limit of its remote address (shared by all sessions of the
+ * address) and the limit of its name (shared by all sessions). Each limit allows a rate of commands per second and a
+ * burst of commands at once, what happens to a command exceeding a limit is set by the {@link RateLimitPolicy}.
+ * <br/>
+ * The name of a command is everything up to the first space (after leading spaces), as for the {@link CommandRouter}.
+ * The escape sequence and the command enabling the pipelining are never limited.
+ * <br/>
+ * Example :
+ * <pre>
+ *     final RateLimiter limiter = new RateLimiter(RateLimitPolicy.DELAY, StandardCharsets.UTF_8)
+ *             .withSessionLimit(50.0, 20)
+ *             .withCommandLimit("deploy", 0.1, 1);
+ *     server.withRateLimiter(limiter);
+ * </pre>
+ * The limits and the policy can be changed while the server is running, they apply to the next command at once. Each
+ * limit is a lock-free {@link TokenBucket}, so the sessions do not contend for a lock.
+ */
+public final class RateLimiter {
+
+    /**
+     * A command was not handled.
+     */
+    static final long REJECTED = -1L;
+
+    /**
+     * A command was not handled, the session has to be closed.
+     */
+    static final long DISCONNECTED = -2L;
+
+    /*
+     * More buckets of remote addresses are dropped, when they are full.
+     */
+    private static final int MAX_ADDRESSES = 1024;
+
+    private static final byte SPACE = ' ';
+
+    private static final class Limit {
+
+        private final long interval;
+        private final long window;
+
+        private Limit(final Double commandsPerSecond, final Integer burst) {
+            checkArgument(checkNotNull(commandsPerSecond, "Commands per second cannot be null.") > 0,
+                    "Commands per second have to be positive.");
+            checkArgument(checkNotNull(burst, "Burst cannot be null.") > 0, "Burst has to be positive.");
+            this.interval = Math.max(1L, Math.round(TimeUnit.SECONDS.toNanos(1) / commandsPerSecond));
+            checkArgument(burst <= Long.MAX_VALUE / 4 / interval, "Burst is too big for the rate.");
+            this.window = interval * burst;
+        }
+    }
+
+    private static final class CommandLimit {
+
+        private final String name;
+        private final byte[] bytes;
+        private final Limit limit;
+        //kept, when the limit of the command is changed
+        private final TokenBucket bucket;
+
+        private CommandLimit(final String name, final byte[] bytes, final Limit limit, final TokenBucket bucket) {
+            this.name = name;
+            this.bytes = bytes;
+            this.limit = limit;
+            this.bucket = bucket;
+        }
+
+        private boolean matches(final ByteBuffer command, final int start, final int end) {
+            if(end - start != bytes.length) {
+                return false;
+            }
+            for(int i = 0; i < bytes.length; i++) {
+                if(command.get(start + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Charset charset;
+    private final Ticker ticker;
+
+    private volatile RateLimitPolicy policy;
+    private volatile Optional<Limit> sessionLimit = Optional.absent();
+    private volatile Optional<Limit> addressLimit = Optional.absent();
+    //replaced with every change, so lookups need no lock
+    private volatile CommandLimit[] commandLimits = new CommandLimit[0];
+
+    private final ConcurrentMap<InetAddress, TokenBucket> addresses = new ConcurrentHashMap<>();
+    //size of the buckets of remote addresses, at which the full ones are dropped
+    private volatile int sweepAt = MAX_ADDRESSES;
+
+    /**
+     * @param policy    What happens to a command exceeding a limit.
+     * @param charset   Charset of the command names.
+     */
+    public RateLimiter(final RateLimitPolicy policy, final Charset charset) {
+        this(policy, charset, Ticker.systemTicker());
+    }
+
+    /**
+     * @param policy    What happens to a command exceeding a limit.
+     * @param charset   Charset of the command names.
+     * @param ticker    Time source of the buckets.
+     */
+    RateLimiter(final RateLimitPolicy policy, final Charset charset, final Ticker ticker) {
+        this.policy = checkNotNull(policy, "Policy cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.ticker = checkNotNull(ticker, "Ticker cannot be null.");
+    }
+
+    /**
+     * @param policy    What happens to a command exceeding a limit.
+     * @return          this
+     */
+    public RateLimiter withPolicy(final RateLimitPolicy policy) {
+        this.policy = checkNotNull(policy, "Policy cannot be null.");
+        return this;
+    }
+
+    /**
+     * Limit the commands of each session.
+     *
+     * @param commandsPerSecond Commands per second.
+     * @param burst             Max amount of commands at once.
+     * @return                  this
+     */
+    public RateLimiter withSessionLimit(final Double commandsPerSecond, final Integer burst) {
+        this.sessionLimit = Optional.of(new Limit(commandsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limit the commands of all sessions of a remote address.
+     *
+     * @param commandsPerSecond Commands per second.
+     * @param burst             Max amount of commands at once.
+     * @return                  this
+     */
+    public RateLimiter withAddressLimit(final Double commandsPerSecond, final Integer burst) {
+        this.addressLimit = Optional.of(new Limit(commandsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limit a command of all sessions, an existing limit of the command is replaced.
+     *
+     * @param name              Name of the command, it must neither be empty nor contain spaces.
+     * @param commandsPerSecond Commands per second.
+     * @param burst             Max amount of commands at once.
+     * @return                  this
+     */
+    public synchronized RateLimiter withCommandLimit(final String name, final Double commandsPerSecond,
+                                                     final Integer burst) {
+        checkArgument(!checkNotNull(name, "Name cannot be null.").isEmpty(), "Name cannot be empty.");
+        checkArgument(name.indexOf(SPACE) < 0, "Name cannot contain spaces.");
+        final Limit limit = new Limit(commandsPerSecond, burst);
+        final CommandLimit[] limits = commandLimits;
+        for(int i = 0; i < limits.length; i++) {
+            if(limits[i].name.equals(name)) {
+                final CommandLimit[] changed = limits.clone();
+                changed[i] = new CommandLimit(name, limits[i].bytes, limit, limits[i].bucket);
+                commandLimits = changed;
+                return this;
+            }
+        }
+        final CommandLimit[] added = Arrays.copyOf(limits, limits.length + 1);
+        added[limits.length] = new CommandLimit(name, name.getBytes(charset), limit, new TokenBucket(ticker.read()));
+        commandLimits = added;
+        return this;
+    }
+
+    /**
+     * Remove the limit of the sessions.
+     *
+     * @return  this
+     */
+    public RateLimiter withoutSessionLimit() {
+        this.sessionLimit = Optional.absent();
+        return this;
+    }
+
+    /**
+     * Remove the limit of the remote addresses.
+     *
+     * @return  this
+     */
+    public RateLimiter withoutAddressLimit() {
+        this.addressLimit = Optional.absent();
+        addresses.clear();
+        sweepAt = MAX_ADDRESSES;
+        return this;
+    }
+
+    /**
+     * Remove the limit of a command, if any.
+     *
+     * @param name  Name of the command.
+     * @return      this
+     */
+    public synchronized RateLimiter withoutCommandLimit(final String name) {
+        checkNotNull(name, "Name cannot be null.");
+        final CommandLimit[] limits = commandLimits;
+        for(int i = 0; i < limits.length; i++) {
+            if(limits[i].name.equals(name)) {
+                final CommandLimit[] removed = new CommandLimit[limits.length - 1];
+                System.arraycopy(limits, 0, removed, 0, i);
+                System.arraycopy(limits, i + 1, removed, i, limits.length - i - 1);
+                commandLimits = removed;
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return  What happens to a command exceeding a limit.
+     */
+    public RateLimitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param address   Remote address of a new session.
+     * @param metrics   Metrics to report the limited commands to.
+     * @return          The limits of the session.
+     */
+    SessionLimits open(final InetAddress address, final SocketeerMetrics metrics) {
+        return new SessionLimits(checkNotNull(address, "Address cannot be null."),
+                checkNotNull(metrics, "Metrics cannot be null."));
+    }
+
+    /**
+     * The limits applying to the commands of one session.
+     * <b>Note</b> : The commands of a session are checked one after another, the buckets are shared with the other
+     * sessions.
+     */
+    final class SessionLimits {
+
+        private final InetAddress address;
+        private final SocketeerMetrics metrics;
+        private final TokenBucket bucket;
+
+        private SessionLimits(final InetAddress address, final SocketeerMetrics metrics) {
+            this.address = address;
+            this.metrics = metrics;
+            this.bucket = new TokenBucket(ticker.read());
+        }
+
+        /**
+         * Check a command against the limits.
+         *
+         * @param command   The command, its position is not changed.
+         * @return          Nanos the session has to wait, before it handles the command (0 if it may be handled at
+         *                  once), {@link #REJECTED} or {@link #DISCONNECTED} if it must not be handled.
+         */
+        long acquire(final ByteBuffer command) {
+            final RateLimitPolicy policy = RateLimiter.this.policy;
+            final Optional<Limit> sessionLimit = RateLimiter.this.sessionLimit;
+            final Optional<Limit> addressLimit = RateLimiter.this.addressLimit;
+            final CommandLimit commandLimit = find(command);
+            if(!sessionLimit.isPresent() && !addressLimit.isPresent() && commandLimit == null) {
+                return 0;
+            }
+            final long now = ticker.read();
+            final TokenBucket addressBucket = addressLimit.isPresent() ? addressBucket(now) : null;
+            if(policy == RateLimitPolicy.DELAY) {
+                long wait = 0;
+                if(sessionLimit.isPresent()) {
+                    wait = bucket.reserve(now, sessionLimit.get().interval, sessionLimit.get().window);
+                }
+                if(addressBucket != null) {
+                    wait = Math.max(wait, addressBucket.reserve(now, addressLimit.get().interval,
+                            addressLimit.get().window));
+                }
+                if(commandLimit != null) {
+                    wait = Math.max(wait, commandLimit.bucket.reserve(now, commandLimit.limit.interval,
+                            commandLimit.limit.window));
+                }
+                if(wait > 0) {
+                    metrics.rateLimited(policy);
+                }
+                return wait;
+            }
+            //all tokens or none are taken
+            if(sessionLimit.isPresent()
+                    && bucket.tryAcquire(now, sessionLimit.get().interval, sessionLimit.get().window) > 0) {
+                return exceeded(policy);
+            }
+            if(addressBucket != null
+                    && addressBucket.tryAcquire(now, addressLimit.get().interval, addressLimit.get().window) > 0) {
+                if(sessionLimit.isPresent()) {
+                    bucket.release(sessionLimit.get().interval);
+                }
+                return exceeded(policy);
+            }
+            if(commandLimit != null && commandLimit.bucket.tryAcquire(now, commandLimit.limit.interval,
+                    commandLimit.limit.window) > 0) {
+                if(sessionLimit.isPresent()) {
+                    bucket.release(sessionLimit.get().interval);
+                }
+                if(addressBucket != null) {
+                    addressBucket.release(addressLimit.get().interval);
+                }
+                return exceeded(policy);
+            }
+            return 0;
+        }
+
+        private long exceeded(final RateLimitPolicy policy) {
+            metrics.rateLimited(policy);
+            return policy == RateLimitPolicy.DISCONNECT ? DISCONNECTED : REJECTED;
+        }
+
+        private TokenBucket addressBucket(final long now) {
+            final TokenBucket existing = addresses.get(address);
+            if(existing != null) {
+                return existing;
+            }
+            if(addresses.size() >= sweepAt) {
+                //a full bucket is the same as a new one
+                final Iterator<Map.Entry<InetAddress, TokenBucket>> entries = addresses.entrySet().iterator();
+                while(entries.hasNext()) {
+                    if(entries.next().getValue().isFull(now)) {
+                        entries.remove();
+                    }
+                }
+                //many busy addresses are not scanned again with every new one
+                sweepAt = Math.max(MAX_ADDRESSES, 2 * addresses.size());
+            }
+            final TokenBucket created = new TokenBucket(now);
+            final TokenBucket raced = addresses.putIfAbsent(address, created);
+            return raced == null ? created : raced;
+        }
+    }
+
+    private CommandLimit find(final ByteBuffer command) {
+        final CommandLimit[] limits = commandLimits;
+        if(limits.length == 0) {
+            return null;
+        }
+        final int limit = command.limit();
+        int start = command.position();
+        while(start < limit && command.get(start) == SPACE) {
+            start++;
+        }
+        int end = start;
+        while(end < limit && command.get(end) != SPACE) {
+            end++;
+        }
+        for(final CommandLimit commandLimit : limits) {
+            if(commandLimit.matches(command, start, end)) {
+                return commandLimit;
+            }
+        }
+        return null;
+    }
+}
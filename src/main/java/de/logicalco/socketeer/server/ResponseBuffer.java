@@ -0,0 +1,333 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Growable output buffer owned by a session, a {@link ByteBufferCommandHandler} writes its response to it. The buffer
+ * is reused for all commands of a session, so in the steady state writing a response does not allocate.
+ * <br/>
+ * Big responses are streamed : When the content exceeds the chunk size of the session, it is sent to the client and
+ * the buffer is reused, so the first bytes reach the client at once and a response of any size only takes the chunk
+ * size in memory. Writing blocks, while the client does not keep up. {@link #flush()} sends the content at once.
+ * If the client cannot be written to (anymore), the writing methods throw an {@link UncheckedIOException}.
+ * <br/>
+ * A command can start a {@link Subscription}, its updates are sent after the response.
+ * <b>Note</b> : A response buffer is not thread-safe.
+ */
+public final class ResponseBuffer extends OutputStream {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Bigger arrays are dropped by {@link #reset()}, so a single big response does not stick to the session.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * Takes the content of a streamed response.
+     */
+    interface Sink {
+
+        /**
+         * Send the content to the client, the buffer is emptied afterwards. Blocks, while the client does not keep up.
+         *
+         * @param buffer    The buffer, its content is valid until the method returns.
+         * @throws IOException  If the client cannot be written to.
+         */
+        void send(ResponseBuffer buffer) throws IOException;
+    }
+
+    /**
+     * Starts the subscriptions of a session.
+     */
+    interface Subscriber {
+
+        /**
+         * Start a subscription, after the response of the current command.
+         *
+         * @param producer      Producer of the updates.
+         * @param periodMillis  Period of the updates, 0 if they are only requested by the application.
+         * @return              The subscription.
+         */
+        Subscription subscribe(Subscription.Producer producer, long periodMillis);
+    }
+
+    private final CharsetEncoder encoder;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+    private ByteBuffer view = ByteBuffer.wrap(bytes);
+
+    private int size = 0;
+
+    private Optional<Sink> sink = Optional.absent();
+
+    private int chunkSize = Integer.MAX_VALUE;
+
+    private Optional<Subscriber> subscriber = Optional.absent();
+
+    /**
+     * @param charset   Charset for {@link #print(CharSequence)}.
+     */
+    public ResponseBuffer(Charset charset) {
+        this.encoder = checkNotNull(charset, "Charset cannot be null.").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Stream the content to a sink, when it exceeds the chunk size.
+     *
+     * @param sink      Sink of the session.
+     * @param chunkSize Max size of the content kept by the buffer.
+     * @return          this
+     */
+    ResponseBuffer streamingTo(final Sink sink, final int chunkSize) {
+        checkArgument(chunkSize > 0, "Chunk size has to be positive.");
+        this.sink = Optional.of(checkNotNull(sink, "Sink cannot be null."));
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Let the commands start subscriptions.
+     *
+     * @param subscriber    Subscriber of the session.
+     * @return              this
+     */
+    ResponseBuffer subscribingTo(final Subscriber subscriber) {
+        this.subscriber = Optional.of(checkNotNull(subscriber, "Subscriber cannot be null."));
+        return this;
+    }
+
+    /**
+     * Send updates to the client periodically, after the response of the current command. The first update is sent
+     * at once.
+     *
+     * @param producer  Producer of the updates.
+     * @param period    Period of the updates.
+     * @param unit      Unit of the period.
+     * @return          The subscription.
+     * @throws IllegalStateException    If the session does not support subscriptions (e.g. it is handled by an
+     *                                  {@link AsyncCommandHandler}) or the command started a subscription already.
+     */
+    public Subscription subscribe(Subscription.Producer producer, long period, TimeUnit unit) {
+        checkArgument(period > 0, "Period has to be positive.");
+        return subscribe(producer, Math.max(1, checkNotNull(unit, "Unit cannot be null.").toMillis(period)));
+    }
+
+    /**
+     * Send updates to the client, whenever the application requests one via {@link Subscription#update()}, after the
+     * response of the current command. The first update is sent at once.
+     *
+     * @param producer  Producer of the updates.
+     * @return          The subscription.
+     * @throws IllegalStateException    If the session does not support subscriptions (e.g. it is handled by an
+     *                                  {@link AsyncCommandHandler}) or the command started a subscription already.
+     */
+    public Subscription subscribe(Subscription.Producer producer) {
+        return subscribe(producer, 0);
+    }
+
+    private Subscription subscribe(final Subscription.Producer producer, final long periodMillis) {
+        checkNotNull(producer, "Producer cannot be null.");
+        checkState(subscriber.isPresent(), "The session does not support subscriptions.");
+        return subscriber.get().subscribe(producer, periodMillis);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+        spillIfFull();
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(checkNotNull(b, "Bytes cannot be null."), 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        checkNotNull(b, "Bytes cannot be null.");
+        checkPositionIndexes(off, off + len, b.length);
+        int offset = off;
+        int remaining = len;
+        do {
+            final int n = Math.min(remaining, room());
+            ensureCapacity(size + n);
+            System.arraycopy(b, offset, bytes, size, n);
+            size += n;
+            offset += n;
+            remaining -= n;
+            spillIfFull();
+        } while(remaining > 0);
+    }
+
+    /**
+     * Write the remaining bytes of a buffer, its position is moved to its limit.
+     *
+     * @param src   Buffer to write.
+     */
+    public void write(ByteBuffer src) {
+        checkNotNull(src, "Buffer cannot be null.");
+        do {
+            final int n = Math.min(src.remaining(), room());
+            ensureCapacity(size + n);
+            src.get(bytes, size, n);
+            size += n;
+            spillIfFull();
+        } while(src.hasRemaining());
+    }
+
+    /**
+     * Write a text encoded with the session's charset.
+     *
+     * @param text  Text to write.
+     */
+    public void print(CharSequence text) {
+        checkNotNull(text, "Text cannot be null.");
+        final CharBuffer in = CharBuffer.wrap(text);
+        encoder.reset();
+        ensureCapacity(size + (int) (in.remaining() * encoder.averageBytesPerChar()));
+        CoderResult result;
+        do {
+            view.limit(bytes.length).position(size);
+            result = encoder.encode(in, view, true);
+            size = view.position();
+            if(result.isOverflow()) {
+                ensureCapacity(bytes.length + 1);
+            }
+        } while(result.isOverflow());
+        do {
+            view.limit(bytes.length).position(size);
+            result = encoder.flush(view);
+            size = view.position();
+            if(result.isOverflow()) {
+                ensureCapacity(bytes.length + 1);
+            }
+        } while(result.isOverflow());
+        spillIfFull();
+    }
+
+    /**
+     * Write a text encoded with the session's charset followed by a line feed.
+     *
+     * @param text  Text to write.
+     */
+    public void println(CharSequence text) {
+        print(text);
+        write('\n');
+    }
+
+    /**
+     * Send the content to the client at once, e.g. before a command waits for further output. Does nothing, unless
+     * the session streams responses.
+     */
+    @Override
+    public void flush() {
+        if(sink.isPresent() && size > 0) {
+            spill();
+        }
+    }
+
+    /**
+     * @return  Number of bytes written since the last reset (or since the content was streamed to the client).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  true if nothing was written since the last reset.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return  A copy of the written bytes.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Discard the content.
+     */
+    void reset() {
+        size = 0;
+        if(bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+            view = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    /**
+     * Write the content to a stream with a single write call.
+     *
+     * @param out   Stream to write to.
+     * @throws IOException
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * A view of the content, valid until the buffer is written to or reset.
+     *
+     * @return  View from position 0 to the size of the content.
+     */
+    ByteBuffer asByteBuffer() {
+        view.limit(size).position(0);
+        return view;
+    }
+
+    /*
+     * A streaming buffer does not grow beyond the chunk size.
+     */
+    private int room() {
+        return sink.isPresent() ? chunkSize - size : Integer.MAX_VALUE - size;
+    }
+
+    private void spillIfFull() {
+        if(size >= chunkSize && sink.isPresent()) {
+            spill();
+        }
+    }
+
+    private void spill() {
+        try {
+            sink.get().send(this);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not stream response.", e);
+        } finally {
+            //the content is dropped either way, so a handler ignoring the failure does not fill the buffer
+            size = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+            view = ByteBuffer.wrap(bytes);
+        }
+    }
+}
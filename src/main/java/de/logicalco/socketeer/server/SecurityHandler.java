@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.util.Properties;
 
 /**
@@ -21,6 +22,20 @@ public interface SecurityHandler {
      */
     Boolean handle(InputStream in, OutputStream out) throws IOException;
 
+    /**
+     * This method is called by the sessions instead of {@link #handle(InputStream, OutputStream)}, so a handler can
+     * take the client's address into account, e.g. to throttle failed attempts. By default the address is ignored.
+     *
+     * @param remoteAddress Address of the client.
+     * @param in            InputStream to read from.
+     * @param out           OutputStream to write to.
+     * @return              Result of the handshake (true = success, false = failure).
+     * @throws IOException
+     */
+    default Boolean handle(InetSocketAddress remoteAddress, InputStream in, OutputStream out) throws IOException {
+        return handle(in, out);
+    }
+
     /**
      * The deny message to send, if the handshake fails.
      *
@@ -0,0 +1,101 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Factory for the execution strategies a {@link SocketeerServer} can run its sessions with.
+ * The amount of concurrent sessions is limited by the server itself (see {@link SocketeerServer#SocketeerServer}),
+ * so the executors returned here do not have to be bounded.
+ */
+public final class SessionExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionExecutors.class);
+
+    private static final Method VIRTUAL_THREAD_EXECUTOR = lookupVirtualThreadExecutor();
+    private static final boolean VIRTUAL_THREAD_SUPPORTED = probeVirtualThreadExecutor();
+
+    private SessionExecutors() {
+        //avoid instantiation
+    }
+
+    /**
+     * A pool with a fixed number of threads, sessions exceeding the number of threads wait in the pool's queue.
+     * This was the only strategy before and is still the default.
+     *
+     * @param threads   Number of threads.
+     * @return          Executor service.
+     */
+    public static ExecutorService fixedPool(final Integer threads) {
+        checkArgument(checkNotNull(threads, "Threads cannot be null.") > 0, "Threads have to be positive.");
+        return Executors.newFixedThreadPool(threads, threadFactory());
+    }
+
+    /**
+     * One platform thread per session, idle threads are reused.
+     *
+     * @return  Executor service.
+     */
+    public static ExecutorService threadPerSession() {
+        return Executors.newCachedThreadPool(threadFactory());
+    }
+
+    /**
+     * One virtual thread per session, if the running JVM supports virtual threads (Java 21 and later). A session
+     * blocked in a socket read or write does not pin an OS thread then. A command handler blocking within a
+     * synchronized block still pins it (up to Java 23). On older JVMs this falls back to {@link #threadPerSession()}.
+     *
+     * @return  Executor service.
+     */
+    public static ExecutorService virtualThreadPerSession() {
+        if(VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch(Exception e) {
+                LOGGER.warn("Could not create virtual thread executor, falling back to platform threads.", e);
+            }
+        }
+        return threadPerSession();
+    }
+
+    /**
+     * @return  true if {@link #virtualThreadPerSession()} really uses virtual threads on this JVM.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_SUPPORTED;
+    }
+
+    private static ThreadFactory threadFactory() {
+        return new ThreadFactoryBuilder().setNameFormat("socketeer-session-%d").build();
+    }
+
+    private static Method lookupVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch(NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean probeVirtualThreadExecutor() {
+        if(VIRTUAL_THREAD_EXECUTOR == null) {
+            return false;
+        }
+        try {
+            //on Java 19 and 20 the method exists, but fails without --enable-preview
+            ((ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null)).shutdown();
+            return true;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+}
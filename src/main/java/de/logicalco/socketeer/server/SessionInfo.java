@@ -0,0 +1,74 @@
+package de.logicalco.socketeer.server;
+
+import java.net.InetSocketAddress;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Snapshot of a session registered by a {@link SocketeerServer} (see {@link SocketeerServer#getSessions()}).
+ */
+public final class SessionInfo {
+
+    /**
+     * State of a session.
+     */
+    public enum State {
+        /**
+         * The client did not pass the security handshake yet, nothing can be pushed to it.
+         */
+        HANDSHAKE,
+        /**
+         * The session serves commands and receives pushed messages.
+         */
+        ACTIVE,
+        /**
+         * The session expired or the server is stopped, it finishes its command and closes.
+         */
+        CLOSING
+    }
+
+    private final long id;
+    private final InetSocketAddress remoteAddress;
+    private final long startTime;
+    private final State state;
+
+    SessionInfo(final long id, final InetSocketAddress remoteAddress, final long startTime, final State state) {
+        this.id = id;
+        this.remoteAddress = checkNotNull(remoteAddress, "Remote address cannot be null.");
+        this.startTime = startTime;
+        this.state = checkNotNull(state, "State cannot be null.");
+    }
+
+    /**
+     * @return  Id of the session, unique per server.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return  Address of the client.
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * @return  Time the connection was accepted in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return  State of the session, when the snapshot was taken.
+     */
+    public State getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return "Session " + id + " (" + remoteAddress + ", " + state + ")";
+    }
+}
@@ -0,0 +1,422 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.LineDecoder;
+import de.logicalco.socketeer.utils.LineTooLongException;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The command cycle of one session, shared by {@link SocketeerSession} and {@link NioSocketeerSession} : A line read
+ * by the decoder is handled and its response and the following prompt are written to the session's response buffer.
+ * If the session is pipelined, all further complete lines already buffered by the decoder are handled at once, so the
+ * session sends their responses with a single write. The responses of an {@link AsyncCommandHandler} are delivered via
+ * {@link PendingResponses}, if the session provides an output for them.
+ * <br/>
+ * A command can start a {@link Subscription} : The prompt is sent, when it ends, meanwhile the session only checks its
+ * input for an interrupt or the escape sequence (see {@link #watch(LineDecoder, ResponseBuffer)}).
+ * <br/>
+ * With a {@link RateLimiter} a delayed command is handled after the delay by the calling thread (the session thread
+ * or a thread of the handler executor), the session does not read meanwhile. A delay within a batch of pipelined
+ * commands holds back the responses of the batch.
+ * <b>Note</b> : A protocol belongs to one session and is not thread-safe.
+ */
+final class SessionProtocol implements ResponseBuffer.Subscriber {
+
+    /**
+     * A batch of pipelined responses ends, when it exceeds this size, so a single read does not make the session
+     * buffer unbounded output.
+     */
+    static final int MAX_BATCH_SIZE = 32 * 1024;
+
+    private static final byte[] NO_PROMPT = new byte[0];
+
+    private final ByteBufferCommandHandler commandHandler;
+    private final Charset charset;
+    private final Pipelining pipelining;
+    private final Boolean suppressPrompt;
+    private final byte[] prompt;
+    private final byte[] escapeSeq;
+    private final byte[] pipeliningCommand;
+    private final byte[] pipeliningEnabled;
+    private final byte[] rateLimited;
+    private final byte[] rateLimitDisconnect;
+
+    private Optional<AsyncCommandHandler> asyncHandler = Optional.absent();
+    private Optional<PendingResponses> pending = Optional.absent();
+    private Optional<ScheduledExecutorService> timer = Optional.absent();
+    private Long timeoutMillis = 0L;
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+    private Optional<ScheduledExecutorService> scheduler = Optional.absent();
+    private Optional<Subscription.Output> updates = Optional.absent();
+    private Optional<Subscription> subscription = Optional.absent();
+    private Optional<RateLimiter.SessionLimits> limits = Optional.absent();
+    private boolean pipelined;
+
+    /**
+     * @param commandHandler    The handler for command that were read.
+     * @param charset           The character set for String<->byte conversion.
+     * @param pipelining        Whether the session is pipelined.
+     * @param suppressPrompt    If set to true, no prompt is sent while the session is pipelined.
+     */
+    SessionProtocol(final ByteBufferCommandHandler commandHandler, final Charset charset, final Pipelining pipelining,
+                    final Boolean suppressPrompt) {
+        this.commandHandler = checkNotNull(commandHandler, "Command handler cannot be null.");
+        this.charset = checkNotNull(charset, "Charset cannot be null.");
+        this.pipelining = checkNotNull(pipelining, "Pipelining cannot be null.");
+        this.suppressPrompt = checkNotNull(suppressPrompt, "Suppress prompt cannot be null.");
+        this.prompt = SocketeerSession.prompt(commandHandler, charset);
+        this.escapeSeq = commandHandler.getEscapeSeq();
+        this.pipeliningCommand = Pipelining.COMMAND.getBytes(charset);
+        this.pipeliningEnabled = "Pipelining enabled.\n".getBytes(charset);
+        this.rateLimited = rateLimited(charset);
+        this.rateLimitDisconnect = rateLimitDisconnect(charset);
+        this.pipelined = pipelining == Pipelining.ENABLED;
+        if(commandHandler instanceof AsyncCommandHandlerAdapter) {
+            this.asyncHandler = Optional.of(((AsyncCommandHandlerAdapter) commandHandler).getDelegate());
+        }
+    }
+
+    /**
+     * Deliver the responses of an {@link AsyncCommandHandler} asynchronously. Without an output the session waits for
+     * each response.
+     *
+     * @param output    Output for responses completed after the prompt was sent.
+     * @return          this
+     */
+    SessionProtocol withOutput(final PendingResponses.Output output) {
+        if(asyncHandler.isPresent()) {
+            this.pending = Optional.of(new PendingResponses(output, charset));
+            if(timer.isPresent()) {
+                pending.get().withTimeout(timer.get(), timeoutMillis);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Cancel asynchronous responses, that are not complete within a timeout. Has to be called before
+     * {@link #withOutput(PendingResponses.Output)}.
+     *
+     * @param timer             Timer for the timeouts.
+     * @param timeoutMillis     Timeout in milliseconds.
+     * @return                  this
+     */
+    SessionProtocol withCommandTimeout(final ScheduledExecutorService timer, final Long timeoutMillis) {
+        this.timer = Optional.of(checkNotNull(timer, "Timer cannot be null."));
+        this.timeoutMillis = checkNotNull(timeoutMillis, "Timeout cannot be null.");
+        return this;
+    }
+
+    /**
+     * Let the commands start subscriptions, their producers run on the given scheduler.
+     *
+     * @param scheduler The scheduler shared by the sessions of the server.
+     * @return          this
+     */
+    SessionProtocol withSubscriptions(final ScheduledExecutorService scheduler) {
+        this.scheduler = Optional.of(checkNotNull(scheduler, "Scheduler cannot be null."));
+        return this;
+    }
+
+    /**
+     * Send the updates of subscriptions, subscriptions are only supported with an output.
+     *
+     * @param output    Output of the session for the updates.
+     * @return          this
+     */
+    SessionProtocol withUpdates(final Subscription.Output output) {
+        this.updates = Optional.of(checkNotNull(output, "Output cannot be null."));
+        return this;
+    }
+
+    /**
+     * Report the latency of each command to the metrics.
+     *
+     * @param metrics   The metrics of the server.
+     * @return          this
+     */
+    SessionProtocol withMetrics(final SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        return this;
+    }
+
+    /**
+     * Check each command against the limits of the session.
+     *
+     * @param limits    Limits of the session.
+     * @return          this
+     */
+    SessionProtocol withRateLimits(final RateLimiter.SessionLimits limits) {
+        this.limits = Optional.of(checkNotNull(limits, "Limits cannot be null."));
+        return this;
+    }
+
+    /**
+     * Write the opener and the first prompt.
+     *
+     * @param response  Buffer to write to.
+     */
+    void greet(final ResponseBuffer response) {
+        final Optional<byte[]> opener = commandHandler.getOpener();
+        if(opener.isPresent()) {
+            response.write(opener.get());
+        }
+        writePrompt(response);
+    }
+
+    /**
+     * Handle the current line of the decoder and, if the session is pipelined, the following complete lines already
+     * buffered by the decoder.
+     *
+     * @param decoder   Decoder holding the current line.
+     * @param response  Buffer to write the responses to.
+     * @return          false if the session has to be closed, because the escape sequence was sent or a line was too
+     *                  long and the overflow policy is {@link LineDecoder.OverflowPolicy#FAIL}.
+     */
+    boolean handle(final LineDecoder decoder, final ResponseBuffer response) {
+        try {
+            do {
+                if(!handleLine(decoder, response)) {
+                    return false;
+                }
+            } while(pipelined && !subscription.isPresent() && response.size() < MAX_BATCH_SIZE && decoder.next());
+            return true;
+        } catch(LineTooLongException e) {
+            response.write(SocketeerSession.lineTooLong(decoder, charset));
+            return false;
+        }
+    }
+
+    private boolean handleLine(final LineDecoder decoder, final ResponseBuffer response) {
+        if(decoder.lineEquals(escapeSeq)) {
+            close();
+            return false;
+        }
+        final long wait = limit(decoder);
+        if(wait == RateLimiter.DISCONNECTED) {
+            response.write(rateLimitDisconnect);
+            close();
+            return false;
+        }
+        if(wait > 0 && !delay(wait)) {
+            close();
+            return false;
+        }
+        final Optional<byte[]> reply = reply(wait, decoder);
+        if(reply.isPresent() && pending.isPresent()) {
+            //sent in order with the pending responses
+            pending.get().add(CompletableFuture.completedFuture(reply), response, currentPrompt());
+            return true;
+        }
+        if(reply.isPresent()) {
+            response.write(reply.get());
+        } else if(pending.isPresent()) {
+            //the prompt is written by the pending responses
+            pending.get().add(handleAsync(decoder.copyLine()), response, currentPrompt());
+            return true;
+        } else if(metrics == SocketeerMetrics.NONE) {
+            commandHandler.handle(decoder.line(), response);
+        } else {
+            final long start = System.nanoTime();
+            commandHandler.handle(decoder.line(), response);
+            metrics.commandHandled(System.nanoTime() - start);
+        }
+        if(!subscription.isPresent()) {
+            //otherwise the prompt is sent, when the subscription ends
+            writePrompt(response);
+        }
+        return true;
+    }
+
+    /*
+     * The reply of the session itself to the current line, absent if the line is a command.
+     */
+    private Optional<byte[]> reply(final long wait, final LineDecoder decoder) {
+        if(wait == RateLimiter.REJECTED) {
+            return Optional.of(rateLimited);
+        }
+        if(decoder.overflowed() && decoder.getPolicy() == LineDecoder.OverflowPolicy.DISCARD) {
+            return Optional.of(SocketeerSession.lineTooLong(decoder, charset));
+        }
+        if(pipelining != Pipelining.DISABLED && decoder.lineEquals(pipeliningCommand)) {
+            pipelined = true;
+            return Optional.of(pipeliningEnabled);
+        }
+        return Optional.absent();
+    }
+
+    @Override
+    public Subscription subscribe(final Subscription.Producer producer, final long periodMillis) {
+        checkState(scheduler.isPresent() && updates.isPresent() && !asyncHandler.isPresent(),
+                "The session does not support subscriptions.");
+        checkState(!subscription.isPresent(), "The command started a subscription already.");
+        subscription = Optional.of(new Subscription(producer, periodMillis, scheduler.get(), updates.get(),
+                currentPrompt(), charset));
+        return subscription.get();
+    }
+
+    /**
+     * Start the subscription of the last command, after its response was sent.
+     *
+     * @return  true if the session has a subscription.
+     */
+    boolean startSubscription() {
+        if(!isSubscribed()) {
+            return false;
+        }
+        subscription.get().start();
+        return true;
+    }
+
+    /**
+     * @return  true if the session has a subscription, that did not end yet.
+     */
+    boolean isSubscribed() {
+        if(subscription.isPresent() && subscription.get().isCancelled()) {
+            subscription = Optional.absent();
+        }
+        return subscription.isPresent();
+    }
+
+    /**
+     * Check the input of a session with a subscription : An interrupt of the client ends the subscription and the
+     * prompt is written, the escape sequence ends the session. Other lines are ignored.
+     *
+     * @param decoder   Decoder holding the input.
+     * @param response  Buffer to write the prompt to.
+     * @return          false if the session has to be closed.
+     */
+    boolean watch(final LineDecoder decoder, final ResponseBuffer response) {
+        try {
+            if(decoder.interrupted()) {
+                if(subscription.isPresent() && subscription.get().close()) {
+                    response.write(subscription.get().getPrompt());
+                }
+                subscription = Optional.absent();
+                return true;
+            }
+            while(decoder.next()) {
+                if(decoder.lineEquals(escapeSeq)) {
+                    close();
+                    return false;
+                }
+            }
+            return true;
+        } catch(LineTooLongException e) {
+            response.write(SocketeerSession.lineTooLong(decoder, charset));
+            close();
+            return false;
+        }
+    }
+
+    /*
+     * Only the commands for the handler are limited.
+     */
+    private long limit(final LineDecoder decoder) {
+        if(!limits.isPresent() || decoder.overflowed() && decoder.getPolicy() == LineDecoder.OverflowPolicy.DISCARD
+                || pipelining != Pipelining.DISABLED && decoder.lineEquals(pipeliningCommand)) {
+            return 0;
+        }
+        return limits.get().acquire(decoder.line());
+    }
+
+    /*
+     * The session is closed, if it is interrupted meanwhile (e.g. the server is halted).
+     */
+    private static boolean delay(final long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param charset   Charset of the session.
+     * @return          Response to a command rejected by the rate limiter.
+     */
+    static byte[] rateLimited(final Charset charset) {
+        return "Rate limit exceeded.\n".getBytes(charset);
+    }
+
+    /**
+     * @param charset   Charset of the session.
+     * @return          Message to a session closed by the rate limiter.
+     */
+    static byte[] rateLimitDisconnect(final Charset charset) {
+        return "Rate limit exceeded, closing session.\n".getBytes(charset);
+    }
+
+    private CompletionStage<Optional<byte[]>> handleAsync(final byte[] command) {
+        if(metrics == SocketeerMetrics.NONE) {
+            return asyncHandler.get().handle(command);
+        }
+        final long start = System.nanoTime();
+        final CompletionStage<Optional<byte[]>> stage = checkNotNull(asyncHandler.get().handle(command),
+                "Response cannot be null.");
+        stage.whenComplete(new BiConsumer<Optional<byte[]>, Throwable>() {
+            @Override
+            public void accept(Optional<byte[]> result, Throwable failure) {
+                metrics.commandHandled(System.nanoTime() - start);
+            }
+        });
+        return stage;
+    }
+
+    private void writePrompt(final ResponseBuffer response) {
+        response.write(currentPrompt());
+    }
+
+    private byte[] currentPrompt() {
+        return pipelined && suppressPrompt ? NO_PROMPT : prompt;
+    }
+
+    /**
+     * Cancel the pending responses and the subscription, when the session ends.
+     */
+    void close() {
+        if(pending.isPresent()) {
+            pending.get().close();
+        }
+        if(subscription.isPresent()) {
+            subscription.get().close();
+        }
+    }
+
+    /**
+     * @return  true if responses of an {@link AsyncCommandHandler} are pending.
+     */
+    boolean hasPendingResponses() {
+        return pending.isPresent() && !pending.get().isEmpty();
+    }
+
+    /**
+     * Wait until the pending responses of an {@link AsyncCommandHandler} are sent, e.g. before a draining session is
+     * closed.
+     *
+     * @param millis    Max time to wait.
+     * @return          true if no response is pending.
+     * @throws InterruptedException
+     */
+    boolean awaitPendingResponses(final long millis) throws InterruptedException {
+        return !pending.isPresent() || pending.get().awaitEmpty(millis);
+    }
+
+    /**
+     * @return  true if the session is pipelined.
+     */
+    boolean isPipelined() {
+        return pipelined;
+    }
+}
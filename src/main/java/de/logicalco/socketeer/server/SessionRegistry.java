@@ -0,0 +1,150 @@
+package de.logicalco.socketeer.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The sessions of a server, from the accepted connection until the session is closed. Messages can be pushed to single
+ * sessions or broadcast to all of them, each session has its own bounded {@link PushQueue}, so a slow client never
+ * blocks the pushing thread or the other sessions.
+ */
+final class SessionRegistry {
+
+    /**
+     * An empty registry, e.g. before the server is started.
+     */
+    static final SessionRegistry NONE = new SessionRegistry(1, PushOverflowPolicy.DROP_OLDEST);
+
+    private final int queueCapacity;
+    private final PushOverflowPolicy overflowPolicy;
+    private final ConcurrentMap<Long, Registration> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+
+    /**
+     * @param queueCapacity     Max amount of messages queued per session.
+     * @param overflowPolicy    What happens, if the queue of a session is full.
+     */
+    SessionRegistry(final int queueCapacity, final PushOverflowPolicy overflowPolicy) {
+        checkArgument(queueCapacity > 0, "Queue capacity has to be positive.");
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = checkNotNull(overflowPolicy, "Overflow policy cannot be null.");
+    }
+
+    /**
+     * Register an accepted connection. It has to be closed, when the connection is closed.
+     *
+     * @param remoteAddress Address of the client.
+     * @return              The registration of the session, in state {@link SessionInfo.State#HANDSHAKE}.
+     */
+    Registration register(final InetSocketAddress remoteAddress) {
+        final Registration registration = new Registration(nextId.incrementAndGet(),
+                checkNotNull(remoteAddress, "Remote address cannot be null."));
+        sessions.put(registration.id, registration);
+        return registration;
+    }
+
+    /**
+     * @return  Snapshots of all registered sessions.
+     */
+    List<SessionInfo> getSessions() {
+        final List<SessionInfo> infos = new ArrayList<>(sessions.size());
+        for(final Registration registration : sessions.values()) {
+            infos.add(registration.toInfo());
+        }
+        return infos;
+    }
+
+    /**
+     * Push a message to all active sessions.
+     *
+     * @param message   The message, it is shared by the sessions and must not be modified.
+     * @return          Number of sessions the message was queued for.
+     */
+    int broadcast(final byte[] message) {
+        checkNotNull(message, "Message cannot be null.");
+        int queued = 0;
+        for(final Registration registration : sessions.values()) {
+            if(registration.pushes.push(message)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Push a message to one session.
+     *
+     * @param id        Id of the session.
+     * @param message   The message, it must not be modified.
+     * @return          false if there is no such active session or its queue overflowed.
+     */
+    boolean send(final long id, final byte[] message) {
+        checkNotNull(message, "Message cannot be null.");
+        final Registration registration = sessions.get(id);
+        return registration != null && registration.pushes.push(message);
+    }
+
+    /**
+     * A registered session.
+     */
+    final class Registration {
+
+        private final long id;
+        private final InetSocketAddress remoteAddress;
+        private final long startTime = System.currentTimeMillis();
+        private final PushQueue pushes = new PushQueue(queueCapacity, overflowPolicy);
+        private volatile SessionInfo.State state = SessionInfo.State.HANDSHAKE;
+
+        private Registration(final long id, final InetSocketAddress remoteAddress) {
+            this.id = id;
+            this.remoteAddress = remoteAddress;
+        }
+
+        /**
+         * The session passed its handshake and takes pushed messages from now on.
+         *
+         * @param consumer  The session.
+         */
+        void activate(final PushQueue.Consumer consumer) {
+            pushes.open(consumer);
+            if(state == SessionInfo.State.HANDSHAKE) {
+                state = SessionInfo.State.ACTIVE;
+            }
+        }
+
+        /**
+         * The session is closing, further messages are rejected.
+         */
+        void closing() {
+            state = SessionInfo.State.CLOSING;
+            pushes.close();
+        }
+
+        /**
+         * The session is closed.
+         */
+        void close() {
+            pushes.close();
+            sessions.remove(id, this);
+        }
+
+        long getId() {
+            return id;
+        }
+
+        PushQueue getPushes() {
+            return pushes;
+        }
+
+        private SessionInfo toInfo() {
+            return new SessionInfo(id, remoteAddress, startTime, state);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.TimerWheel;
+
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The handshake, idle and lifetime timeouts of the sessions of a server. All timeouts are scheduled on one shared
+ * {@link TimerWheel}, a session holds at most three timeouts and does not reschedule them while it is active : It only
+ * records the time of its last activity, the idle timeout checks it when it expires and is rescheduled for the
+ * remaining time.
+ * <br/>
+ * An expired session is asked to close itself cleanly (sending the reason to the client). If it is still open after a
+ * grace period (e.g. because the client does not read), it is aborted. The same way all sessions are drained, when the
+ * server is stopped (see {@link #drain(long)}).
+ */
+final class SessionTimeouts {
+
+    /**
+     * Sessions without timeouts.
+     */
+    static final SessionTimeouts NONE = new SessionTimeouts(Optional.<TimerWheel>absent(), 0L, 0L, 0L);
+
+    /**
+     * Time an expired session gets to close itself.
+     */
+    static final long GRACE_MILLIS = 1000;
+
+    /**
+     * Why a session expired.
+     */
+    enum Reason {
+        HANDSHAKE("Handshake timed out"),
+        IDLE("Session idle for too long"),
+        LIFETIME("Max session lifetime reached"),
+        SHUTDOWN("Server is shutting down");
+
+        private final String text;
+
+        Reason(final String text) {
+            this.text = text;
+        }
+
+        /**
+         * @param charset   Charset for String to byte conversion.
+         * @return          The message sent to the client.
+         */
+        byte[] message(final Charset charset) {
+            return (text + ", closing session.\n").getBytes(charset);
+        }
+    }
+
+    /**
+     * A session (or a connection still in its handshake) the timeouts apply to.
+     */
+    interface Target {
+
+        /**
+         * Close the session cleanly and send the reason to the client : A command still handled is answered (as well
+         * as the pending responses of an {@link AsyncCommandHandler}), further input is not read anymore. Called once
+         * by the timer thread (or the thread stopping the server), so it must not block.
+         *
+         * @param reason    Why the session expired.
+         */
+        void expire(Reason reason);
+
+        /**
+         * Close the connection at once, the session did not close itself within the grace period.
+         */
+        void abort();
+    }
+
+    private final Optional<TimerWheel> wheel;
+    private final long handshakeMillis;
+    private final long idleMillis;
+    private final long lifetimeMillis;
+    private final Set<Tracker> live = ConcurrentHashMap.newKeySet();
+    private volatile long drainDeadline = 0;
+    private volatile boolean draining = false;
+
+    /**
+     * @param wheel             Wheel to schedule the timeouts on.
+     * @param handshakeMillis   Timeout of the security handshake, 0 for none.
+     * @param idleMillis        Max time without a command, 0 for none.
+     * @param lifetimeMillis    Max lifetime of a session, 0 for none.
+     */
+    SessionTimeouts(final Optional<TimerWheel> wheel, final Long handshakeMillis, final Long idleMillis,
+                    final Long lifetimeMillis) {
+        this.wheel = checkNotNull(wheel, "Wheel cannot be null.");
+        checkArgument(handshakeMillis >= 0 && idleMillis >= 0 && lifetimeMillis >= 0,
+                "Timeouts cannot be negative.");
+        this.handshakeMillis = handshakeMillis;
+        this.idleMillis = idleMillis;
+        this.lifetimeMillis = lifetimeMillis;
+    }
+
+    /**
+     * Start the timeouts of a new session : The lifetime starts now, as well as the handshake timeout, if the session
+     * has a handshake. Otherwise the idle timeout starts at once.
+     *
+     * @param target        The session.
+     * @param handshake     true if the session starts with a security handshake.
+     * @return              The tracker of the session.
+     */
+    Tracker track(final Target target, final boolean handshake) {
+        final Tracker tracker = new Tracker(target);
+        live.add(tracker);
+        if(draining) {
+            //the server was stopped, while the connection was accepted
+            tracker.drain();
+            return tracker;
+        }
+        if(lifetimeMillis > 0) {
+            tracker.lifetime = schedule(tracker.expiring(Reason.LIFETIME), lifetimeMillis);
+        }
+        if(handshake && handshakeMillis > 0) {
+            tracker.handshake = schedule(tracker.expiring(Reason.HANDSHAKE), handshakeMillis);
+        } else {
+            tracker.handshakeDone();
+        }
+        return tracker;
+    }
+
+    /**
+     * Close all sessions cleanly (like expired sessions, see {@link Target#expire(Reason)}), sessions started from now
+     * on are closed at once.
+     *
+     * @param drainMillis   Time the sessions get to close themselves.
+     */
+    void drain(final long drainMillis) {
+        drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        draining = true;
+        for(final Tracker tracker : live) {
+            tracker.drain();
+        }
+    }
+
+    /**
+     * Close all sessions at once.
+     */
+    void abort() {
+        for(final Tracker tracker : live) {
+            if(!tracker.closed) {
+                tracker.target.abort();
+            }
+        }
+    }
+
+    /**
+     * Wait until all sessions are closed.
+     *
+     * @param millis    Max time to wait.
+     * @return          true if all sessions are closed.
+     * @throws InterruptedException
+     */
+    synchronized boolean awaitClosed(final long millis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining = millis;
+        while(!live.isEmpty() && remaining > 0) {
+            wait(remaining);
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        }
+        return live.isEmpty();
+    }
+
+    /**
+     * @return  Number of sessions, that are not closed.
+     */
+    int getLive() {
+        return live.size();
+    }
+
+    private synchronized void closed(final Tracker tracker) {
+        live.remove(tracker);
+        notifyAll();
+    }
+
+    private Optional<TimerWheel.Timeout> schedule(final Runnable task, final long millis) {
+        return wheel.isPresent() ? Optional.of(wheel.get().schedule(task, millis, TimeUnit.MILLISECONDS))
+                : Optional.<TimerWheel.Timeout>absent();
+    }
+
+    /**
+     * The timeouts of one session. The session reports its activity, the timer thread checks it.
+     */
+    final class Tracker {
+
+        private final AtomicReference<Reason> expired = new AtomicReference<>();
+        private volatile Target target;
+        private volatile long abortDeadline = 0;
+        private volatile long lastActivity = System.nanoTime();
+        private volatile boolean busy = false;
+        private volatile boolean closed = false;
+        private volatile Optional<TimerWheel.Timeout> handshake = Optional.absent();
+        private volatile Optional<TimerWheel.Timeout> lifetime = Optional.absent();
+        private volatile Optional<TimerWheel.Timeout> idle = Optional.absent();
+
+        private Tracker(final Target target) {
+            this.target = checkNotNull(target, "Target cannot be null.");
+        }
+
+        /**
+         * Replace the target, e.g. when a connection passes from the handshake to its session.
+         *
+         * @param target    The new target.
+         * @return          this
+         */
+        Tracker withTarget(final Target target) {
+            this.target = checkNotNull(target, "Target cannot be null.");
+            return this;
+        }
+
+        /**
+         * The handshake succeeded, the idle timeout starts.
+         */
+        void handshakeDone() {
+            cancel(handshake);
+            lastActivity = System.nanoTime();
+            if(idleMillis > 0 && !closed) {
+                idle = schedule(idleCheck(), idleMillis);
+            }
+        }
+
+        /**
+         * A command is handled (the session is not idle) or its response was sent (the idle time starts again).
+         *
+         * @param handling  true while a command is handled.
+         */
+        void handling(final boolean handling) {
+            busy = handling;
+            lastActivity = System.nanoTime();
+        }
+
+        /**
+         * @return  Why the session expired, if it did.
+         */
+        Optional<Reason> getExpired() {
+            return Optional.fromNullable(expired.get());
+        }
+
+        /**
+         * @return  Time left until an expired session is aborted, 0 if it did not expire.
+         */
+        long getRemainingMillis() {
+            return expired.get() == null ? 0
+                    : Math.max(0, TimeUnit.NANOSECONDS.toMillis(abortDeadline - System.nanoTime()));
+        }
+
+        /**
+         * The session is closed, its timeouts are cancelled.
+         */
+        void close() {
+            closed = true;
+            cancel(handshake);
+            cancel(lifetime);
+            cancel(idle);
+            closed(this);
+        }
+
+        private Runnable expiring(final Reason reason) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    expire(reason);
+                }
+            };
+        }
+
+        private Runnable idleCheck() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    if(closed) {
+                        return;
+                    }
+                    final long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+                    final long elapsed = System.nanoTime() - lastActivity;
+                    if(!busy && elapsed >= idleNanos) {
+                        expire(Reason.IDLE);
+                        return;
+                    }
+                    final long remaining = busy ? idleNanos : idleNanos - elapsed;
+                    idle = schedule(this, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                }
+            };
+        }
+
+        /*
+         * The server aborts the sessions, that are not closed in time.
+         */
+        private void drain() {
+            expire(Reason.SHUTDOWN, drainDeadline);
+        }
+
+        private void expire(final Reason reason) {
+            if(expire(reason, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS))) {
+                schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!closed) {
+                            target.abort();
+                        }
+                    }
+                }, GRACE_MILLIS);
+            }
+        }
+
+        private boolean expire(final Reason reason, final long abortDeadline) {
+            if(closed || !expired.compareAndSet(null, reason)) {
+                return false;
+            }
+            this.abortDeadline = abortDeadline;
+            cancel(handshake);
+            cancel(lifetime);
+            cancel(idle);
+            target.expire(reason);
+            return true;
+        }
+
+        private void cancel(final Optional<TimerWheel.Timeout> timeout) {
+            if(timeout.isPresent()) {
+                timeout.get().cancel();
+            }
+        }
+    }
+}
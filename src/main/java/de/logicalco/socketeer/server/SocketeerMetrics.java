@@ -0,0 +1,127 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * Receives the events of a server, e.g. to count connections and commands or to measure the latency of the command
+ * handler. {@link DefaultSocketeerMetrics} keeps lock-free counters and a latency histogram, which can be exported via
+ * JMX and shown by a {@link StatsCommand}. Pass an implementation to
+ * {@link SocketeerServer#withMetrics(SocketeerMetrics)}.
+ * <b>Note</b> : The methods are called by the session threads on the hot path, so they have to be thread-safe and
+ * should neither block nor allocate.
+ */
+public interface SocketeerMetrics {
+
+    /**
+     * Does not record anything (default of the server).
+     */
+    SocketeerMetrics NONE = new SocketeerMetrics() {
+        @Override
+        public void connectionAccepted() {
+        }
+
+        @Override
+        public void connectionRejected() {
+        }
+
+        @Override
+        public void sessionQueued() {
+        }
+
+        @Override
+        public void sessionDequeued() {
+        }
+
+        @Override
+        public void sessionOpened() {
+        }
+
+        @Override
+        public void sessionClosed() {
+        }
+
+        @Override
+        public void authenticated(boolean success) {
+        }
+
+        @Override
+        public void bytesRead(int bytes) {
+        }
+
+        @Override
+        public void bytesWritten(int bytes) {
+        }
+
+        @Override
+        public void commandHandled(long nanos) {
+        }
+
+        @Override
+        public void rateLimited(RateLimitPolicy policy) {
+        }
+    };
+
+    /**
+     * A connection was accepted.
+     */
+    void connectionAccepted();
+
+    /**
+     * An accepted connection was closed without a session, because the server could not take it.
+     */
+    void connectionRejected();
+
+    /**
+     * A session (or its security handshake) waits for a thread of the session pool.
+     */
+    void sessionQueued();
+
+    /**
+     * A queued session got its thread or was rejected.
+     */
+    void sessionDequeued();
+
+    /**
+     * A session was started, it counts as active until {@link #sessionClosed()}.
+     */
+    void sessionOpened();
+
+    /**
+     * A session ended.
+     */
+    void sessionClosed();
+
+    /**
+     * The security handshake of a session finished.
+     *
+     * @param success   The result of the {@link SecurityHandler}.
+     */
+    void authenticated(boolean success);
+
+    /**
+     * Bytes were received from a client.
+     *
+     * @param bytes Number of bytes.
+     */
+    void bytesRead(int bytes);
+
+    /**
+     * Bytes were sent to a client.
+     *
+     * @param bytes Number of bytes.
+     */
+    void bytesWritten(int bytes);
+
+    /**
+     * A command was handled.
+     *
+     * @param nanos Time the command handler took (until the response was complete for an
+     *              {@link AsyncCommandHandler}) in nanoseconds.
+     */
+    void commandHandled(long nanos);
+
+    /**
+     * A command exceeded a limit of the {@link RateLimiter}.
+     *
+     * @param policy    What happened to the command.
+     */
+    void rateLimited(RateLimitPolicy policy);
+}
@@ -0,0 +1,98 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * The metrics of a server as exported via JMX by {@link DefaultSocketeerMetrics}.
+ */
+public interface SocketeerMetricsMXBean {
+
+    /**
+     * @return  Number of accepted connections.
+     */
+    long getAcceptedConnections();
+
+    /**
+     * @return  Number of connections closed without a session.
+     */
+    long getRejectedConnections();
+
+    /**
+     * @return  Number of running sessions.
+     */
+    long getActiveSessions();
+
+    /**
+     * @return  Number of sessions waiting for a thread of the session pool.
+     */
+    long getQueuedSessions();
+
+    /**
+     * @return  Number of successful security handshakes.
+     */
+    long getAuthSuccesses();
+
+    /**
+     * @return  Number of failed security handshakes.
+     */
+    long getAuthFailures();
+
+    /**
+     * @return  Number of bytes received from clients.
+     */
+    long getBytesRead();
+
+    /**
+     * @return  Number of bytes sent to clients.
+     */
+    long getBytesWritten();
+
+    /**
+     * @return  Number of handled commands.
+     */
+    long getCommands();
+
+    /**
+     * @return  Number of commands delayed by the rate limiter.
+     */
+    long getDelayedCommands();
+
+    /**
+     * @return  Number of commands rejected by the rate limiter.
+     */
+    long getRejectedCommands();
+
+    /**
+     * @return  Number of sessions closed by the rate limiter.
+     */
+    long getRateLimitDisconnects();
+
+    /**
+     * @return  Commands per second since the previous sample. A new sample is taken, when this is read and the
+     *          previous sample is at least a second old.
+     */
+    double getCommandsPerSecond();
+
+    /**
+     * @return  Mean latency of the command handler in microseconds.
+     */
+    double getLatencyMeanMicros();
+
+    /**
+     * @return  Median latency of the command handler in microseconds.
+     */
+    long getLatencyP50Micros();
+
+    /**
+     * @return  99th percentile of the command handler's latency in microseconds.
+     */
+    long getLatencyP99Micros();
+
+    /**
+     * @return  99.9th percentile of the command handler's latency in microseconds.
+     */
+    long getLatencyP999Micros();
+
+    /**
+     * @return  Max latency of the command handler in microseconds.
+     */
+    long getLatencyMaxMicros();
+}
@@ -1,18 +1,44 @@
 package de.logicalco.socketeer.server;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.logicalco.socketeer.utils.BufferPool;
+import de.logicalco.socketeer.utils.Frames;
+import de.logicalco.socketeer.utils.LineDecoder;
+import de.logicalco.socketeer.utils.TelnetDecoder;
+import de.logicalco.socketeer.utils.TimerWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * The main server listening to a port and waiting for connections to be established.
@@ -25,35 +51,212 @@ public class SocketeerServer implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SocketeerServer.class);
 
-    private Boolean running = Boolean.FALSE;
+    /**
+     * Max amount of idle read buffers kept for new sessions.
+     */
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    /**
+     * Sent to clients rejected by the admission control, unless another message is set.
+     */
+    public static final String DEFAULT_BUSY_MESSAGE = "Server busy, try again later.\n";
+
+    /**
+     * Time the sessions get to finish their commands, when the server is stopped, unless another timeout is set.
+     */
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Max amount of messages queued per session, unless another capacity is set.
+     */
+    public static final int DEFAULT_PUSH_QUEUE_CAPACITY = 64;
+
+    /**
+     * Max amount of bytes of a response buffered per session, unless another chunk size is set.
+     */
+    public static final int DEFAULT_RESPONSE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Time a client of an endpoint with {@link WireProtocol#AUTO} has to send the preamble of the framed protocol,
+     * unless another timeout is set.
+     */
+    public static final long DEFAULT_PROTOCOL_DETECTION_MILLIS = 100;
+
+    /**
+     * Max amount of requests a framed session handles at once, unless another limit is set.
+     */
+    public static final int DEFAULT_MAX_REQUESTS_IN_FLIGHT = 64;
+
+    private static final ThreadFactory PUSH_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-push-%d").setDaemon(true).build();
+
+    private static final ThreadFactory FRAMED_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-framed-%d").setDaemon(true).build();
+
+    private static final ThreadFactory ACCEPTOR_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-acceptor-%d").setDaemon(true).build();
+
+    private static final ThreadFactory SUBSCRIPTION_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-subscription-%d").setDaemon(true).build();
+
+    private static final ThreadFactory SHUTDOWN_THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("socketeer-shutdown-%d").build();
+
+    private volatile Boolean running = Boolean.FALSE;
 
     private final Integer port;
 
-    private final CommandHandler commandHandler;
+    private final ByteBufferCommandHandler commandHandler;
 
     private Optional<SecurityHandler> securityHandler = Optional.absent();
 
-    private final ExecutorService sessionPool;
+    private Optional<SSLContext> sslContext = Optional.absent();
+
+    private ExecutorService sessionPool;
+
+    private final Integer maxSessions;
+
+    private Integer acceptBacklog = 0;
+
+    private Boolean rejectWhenBusy = Boolean.FALSE;
+
+    private Integer maxPendingSessions = 0;
+
+    private Integer maxConnectionsPerAddress = 0;
+
+    private byte[] busyMessage;
+
+    private volatile Optional<Admissions> admissions = Optional.absent();
 
     private final Charset charset;
 
     private final ExecutorService serverExecutor;
 
+    private Integer eventLoops = 0;
+
+    private Integer maxLineLength = LineDecoder.DEFAULT_MAX_LINE_LENGTH;
+
+    private LineDecoder.OverflowPolicy overflowPolicy = LineDecoder.OverflowPolicy.DISCARD;
+
+    private Integer readBufferSize = LineDecoder.DEFAULT_BUFFER_SIZE;
+
+    private BufferPool bufferPool;
+
+    private Boolean tcpNoDelay = Boolean.TRUE;
+
+    private Boolean telnet = Boolean.TRUE;
+
+    private Optional<Integer> receiveBufferSize = Optional.absent();
+
+    private Optional<Integer> sendBufferSize = Optional.absent();
+
+    private Pipelining pipelining = Pipelining.DISABLED;
+
+    private Boolean suppressPrompt = Boolean.FALSE;
+
+    private Optional<ScheduledExecutorService> timer = Optional.absent();
+
+    private Long commandTimeout = 0L;
+
+    private Optional<TimerWheel> timerWheel = Optional.absent();
+
+    private Long handshakeTimeout = 0L;
+
+    private Long idleTimeout = 0L;
+
+    private Long maxSessionLifetime = 0L;
+
+    private volatile SessionTimeouts sessionTimeouts = SessionTimeouts.NONE;
+
+    private Long drainTimeout = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+
+    private Optional<InetAddress> bindAddress = Optional.absent();
+
+    //further endpoints, besides the port
+    private final List<Listener> listeners = new ArrayList<>();
+
+    //listening sockets of the blocking engine, closed when the server is stopped
+    private final List<Closeable> listening = new CopyOnWriteArrayList<>();
+
+    //accept the connections of the further endpoints
+    private final List<Thread> acceptors = new CopyOnWriteArrayList<>();
+
+    private WireProtocol wireProtocol = WireProtocol.TEXT;
+
+    private Long protocolDetectionMillis = DEFAULT_PROTOCOL_DETECTION_MILLIS;
+
+    private Integer maxFrameLength = Frames.DEFAULT_MAX_FRAME_LENGTH;
+
+    private Integer maxRequestsInFlight = DEFAULT_MAX_REQUESTS_IN_FLIGHT;
+
+    private Integer pushQueueCapacity = DEFAULT_PUSH_QUEUE_CAPACITY;
+
+    private Integer responseChunkSize = DEFAULT_RESPONSE_CHUNK_SIZE;
+
+    private PushOverflowPolicy pushOverflowPolicy = PushOverflowPolicy.DROP_OLDEST;
+
+    private volatile SessionRegistry sessionRegistry = SessionRegistry.NONE;
+
+    private volatile Optional<ExecutorService> pushExecutor = Optional.absent();
+
+    //handles the requests of framed sessions of the blocking engine
+    private volatile Optional<ExecutorService> framedExecutor = Optional.absent();
+
+    private volatile Optional<ScheduledExecutorService> subscriptionScheduler = Optional.absent();
+
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+
+    private Optional<RateLimiter> rateLimiter = Optional.absent();
+
+    private volatile Optional<NioSessionEngine> nioEngine = Optional.absent();
+
     /**
      * Create the server.
      *
      * @param port              Port to listen to.
-     * @param maxSessions       Max amount of session that can run at the same time.
+     * @param maxSessions       Max amount of session that can run at the same time. If the limit is reached, further
+     *                          connections are not accepted until a session ends (see {@link #withRejectWhenBusy}).
      * @param commandHandler    Handler implementation to serve the commands.
      * @param charset           Charset for byte to string conversion of commands.
      */
     public SocketeerServer(final Integer port, final Integer maxSessions, final CommandHandler commandHandler,
                            final Charset charset) {
+        this(port, maxSessions, new CommandHandlerAdapter(commandHandler), charset);
+    }
+
+    /**
+     * Create the server with an asynchronous command handler, so slow commands do not block the sessions.
+     *
+     * @param port              Port to listen to.
+     * @param maxSessions       Max amount of session that can run at the same time. If the limit is reached, further
+     *                          connections are not accepted until a session ends (see {@link #withRejectWhenBusy}).
+     * @param commandHandler    Handler implementation to serve the commands.
+     * @param charset           Charset for byte to string conversion of commands.
+     */
+    public SocketeerServer(final Integer port, final Integer maxSessions, final AsyncCommandHandler commandHandler,
+                           final Charset charset) {
+        this(port, maxSessions, new AsyncCommandHandlerAdapter(commandHandler), charset);
+    }
+
+    /**
+     * Create the server with a zero-copy command handler.
+     *
+     * @param port              Port to listen to.
+     * @param maxSessions       Max amount of session that can run at the same time. If the limit is reached, further
+     *                          connections are not accepted until a session ends (see {@link #withRejectWhenBusy}).
+     * @param commandHandler    Handler implementation to serve the commands.
+     * @param charset           Charset for byte to string conversion of commands.
+     */
+    public SocketeerServer(final Integer port, final Integer maxSessions,
+                           final ByteBufferCommandHandler commandHandler, final Charset charset) {
         checkArgument(port > 0, "Port hast to be positive.");
+        checkArgument(maxSessions > 0, "Max sessions have to be positive.");
         this.port = port;
         this.commandHandler = checkNotNull(commandHandler, "Command handler cannot be null.");
         this.charset = checkNotNull(charset, "Charset cannot be null.");
-        this.sessionPool = Executors.newFixedThreadPool(maxSessions);
+        this.sessionPool = SessionExecutors.fixedPool(maxSessions);
+        this.maxSessions = maxSessions;
+        this.busyMessage = DEFAULT_BUSY_MESSAGE.getBytes(charset);
         this.serverExecutor = Executors.newSingleThreadExecutor();
     }
 
@@ -66,6 +269,478 @@ public class SocketeerServer implements Runnable {
         return this;
     }
 
+    /**
+     * Encrypt the connections with TLS. The TLS handshake precedes the security handshake (if any), it is covered by the
+     * handshake timeout. Rejected connections are closed without the busy message, as it cannot be sent before the
+     * handshake.
+     * <br/>
+     * Clients reconnecting within the session timeout of the context resume their TLS session (by a session ticket
+     * with TLS 1.3 or by the session cache of the context), which skips the key exchange and the certificate
+     * verification. See {@link #withTlsSessionCache(Integer, Long, TimeUnit)} to tune the cache.
+     *
+     * @param sslContext    Initialized context holding the server's key.
+     * @return              this.
+     */
+    public SocketeerServer withTls(final SSLContext sslContext) {
+        this.sslContext = Optional.of(checkNotNull(sslContext, "SSL context cannot be null."));
+        return this;
+    }
+
+    /**
+     * Configure the resumption of TLS sessions (by default the JDK's settings, 20480 sessions for 24 hours). The
+     * settings apply to the server's context, see {@link #withTls(SSLContext)}.
+     *
+     * @param size      Max amount of cached sessions, 0 for no limit.
+     * @param timeout   Time a session can be resumed, 0 for no limit.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withTlsSessionCache(final Integer size, final Long timeout, final TimeUnit unit) {
+        checkState(sslContext.isPresent(), "TLS is not configured.");
+        checkArgument(checkNotNull(size, "Size cannot be null.") >= 0, "Size cannot be negative.");
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") >= 0, "Timeout cannot be negative.");
+        checkNotNull(unit, "Unit cannot be null.");
+        final SSLSessionContext sessions = sslContext.get().getServerSessionContext();
+        sessions.setSessionCacheSize(size);
+        sessions.setSessionTimeout((int) Math.min(unit.toSeconds(timeout), Integer.MAX_VALUE));
+        return this;
+    }
+
+    /**
+     * Replace the session pool (by default a fixed pool with one thread per allowed session). The number of
+     * concurrent sessions is still limited by maxSessions, so the executor can be unbounded.
+     * See {@link SessionExecutors} for the provided strategies, e.g. {@link SessionExecutors#virtualThreadPerSession()}
+     * to serve sessions without occupying an OS thread each.
+     *
+     * @param sessionExecutor   The executor running the sessions. It is shut down, when the server is stopped.
+     * @return                  this.
+     */
+    public SocketeerServer withSessionExecutor(final ExecutorService sessionExecutor) {
+        checkNotNull(sessionExecutor, "Session executor cannot be null.");
+        sessionPool.shutdown();
+        this.sessionPool = sessionExecutor;
+        return this;
+    }
+
+    /**
+     * Set the max length of a command line (by default {@link LineDecoder#DEFAULT_MAX_LINE_LENGTH} bytes) and what
+     * happens to longer lines (by default {@link LineDecoder.OverflowPolicy#DISCARD}, the client is told, that the line
+     * was discarded). With {@link LineDecoder.OverflowPolicy#FAIL} the session is closed.
+     *
+     * @param maxLineLength     Max length of a command in bytes.
+     * @param overflowPolicy    What happens to longer lines.
+     * @return                  this.
+     */
+    public SocketeerServer withMaxLineLength(final Integer maxLineLength,
+                                             final LineDecoder.OverflowPolicy overflowPolicy) {
+        checkArgument(checkNotNull(maxLineLength, "Max line length cannot be null.") > 0,
+                "Max line length has to be positive.");
+        this.overflowPolicy = checkNotNull(overflowPolicy, "Overflow policy cannot be null.");
+        this.maxLineLength = maxLineLength;
+        return this;
+    }
+
+    /**
+     * Set the size of the per session buffer the input is read into (by default
+     * {@link LineDecoder#DEFAULT_BUFFER_SIZE} bytes). It is always bigger than the max line length.
+     *
+     * @param readBufferSize    Size of the read buffer in bytes.
+     * @return                  this.
+     */
+    public SocketeerServer withReadBufferSize(final Integer readBufferSize) {
+        checkArgument(checkNotNull(readBufferSize, "Read buffer size cannot be null.") > 0,
+                "Read buffer size has to be positive.");
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    /**
+     * Enable or disable TCP_NODELAY for the client connections (enabled by default). A session writes each response
+     * together with the following prompt in a single write, so there is nothing to gain from Nagle's algorithm, but
+     * delayed acknowledgements of the client can stall responses with Nagle's algorithm enabled.
+     *
+     * @param tcpNoDelay    true to disable Nagle's algorithm.
+     * @return              this.
+     */
+    public SocketeerServer withTcpNoDelay(final Boolean tcpNoDelay) {
+        this.tcpNoDelay = checkNotNull(tcpNoDelay, "TCP no delay cannot be null.");
+        return this;
+    }
+
+    /**
+     * Enable or disable the telnet protocol (enabled by default). With telnet enabled, telnet commands are filtered out
+     * of the input, so they never reach the command handler, and the client's option requests are answered. Disable
+     * it only for clients sending raw bytes (e.g. the byte 255, which starts a telnet command).
+     *
+     * @param telnet    true to decode telnet commands.
+     * @return          this.
+     */
+    public SocketeerServer withTelnet(final Boolean telnet) {
+        this.telnet = checkNotNull(telnet, "Telnet cannot be null.");
+        return this;
+    }
+
+    /**
+     * Set the socket buffer sizes (SO_RCVBUF and SO_SNDBUF) of the client connections, by default the operating
+     * system's defaults are used.
+     *
+     * @param receiveBufferSize     Receive buffer size in bytes.
+     * @param sendBufferSize        Send buffer size in bytes.
+     * @return                      this.
+     */
+    public SocketeerServer withSocketBufferSizes(final Integer receiveBufferSize, final Integer sendBufferSize) {
+        checkArgument(checkNotNull(receiveBufferSize, "Receive buffer size cannot be null.") > 0,
+                "Receive buffer size has to be positive.");
+        checkArgument(checkNotNull(sendBufferSize, "Send buffer size cannot be null.") > 0,
+                "Send buffer size has to be positive.");
+        this.receiveBufferSize = Optional.of(receiveBufferSize);
+        this.sendBufferSize = Optional.of(sendBufferSize);
+        return this;
+    }
+
+    /**
+     * Handle pipelined commands in batches (disabled by default). A pipelined session handles all complete lines read
+     * at once in order and sends their responses with a single write. With {@link Pipelining#NEGOTIATED} a session is
+     * pipelined after the client sent {@link Pipelining#COMMAND}, with {@link Pipelining#ENABLED} all sessions are.
+     *
+     * @param pipelining        Whether sessions are pipelined.
+     * @param suppressPrompt    If set to true, no prompt is sent while a session is pipelined (useful for scripted
+     *                          clients, that do not wait for the prompt anyway).
+     * @return                  this.
+     */
+    public SocketeerServer withPipelining(final Pipelining pipelining, final Boolean suppressPrompt) {
+        this.pipelining = checkNotNull(pipelining, "Pipelining cannot be null.");
+        this.suppressPrompt = checkNotNull(suppressPrompt, "Suppress prompt cannot be null.");
+        return this;
+    }
+
+    /**
+     * Set a timeout for the commands of an {@link AsyncCommandHandler} (by default there is none). If a response is
+     * not complete in time, it is cancelled and the client is told, that the command timed out.
+     *
+     * @param timeout   Timeout per command.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withCommandTimeout(final Long timeout, final TimeUnit unit) {
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") > 0, "Timeout has to be positive.");
+        this.commandTimeout = checkNotNull(unit, "Unit cannot be null.").toMillis(timeout);
+        if(!timer.isPresent()) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                    new ThreadFactoryBuilder().setNameFormat("socketeer-timer-%d").setDaemon(true).build());
+            executor.setRemoveOnCancelPolicy(true);
+            timer = Optional.<ScheduledExecutorService>of(executor);
+        }
+        return this;
+    }
+
+    /**
+     * Close connections, that do not complete the security handshake in time (by default there is no timeout). The
+     * client is told, that the handshake timed out.
+     *
+     * @param timeout   Timeout of the handshake.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withHandshakeTimeout(final Long timeout, final TimeUnit unit) {
+        this.handshakeTimeout = toTimeoutMillis(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Close sessions, that do not send a command in time (by default there is no timeout). The time a command is
+     * handled does not count. The client is told, that the session was idle for too long.
+     *
+     * @param timeout   Max time between the response of a command (or the handshake) and the next command.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withIdleTimeout(final Long timeout, final TimeUnit unit) {
+        this.idleTimeout = toTimeoutMillis(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Close sessions after a max lifetime including the handshake (by default it is unlimited). The client is told,
+     * that the max lifetime was reached.
+     *
+     * @param lifetime  Max lifetime of a session.
+     * @param unit      Unit of the lifetime.
+     * @return          this.
+     */
+    public SocketeerServer withMaxSessionLifetime(final Long lifetime, final TimeUnit unit) {
+        this.maxSessionLifetime = toTimeoutMillis(lifetime, unit);
+        return this;
+    }
+
+    /**
+     * Set the time the sessions get to finish their commands, when the server is stopped gently (by default
+     * {@link #DEFAULT_DRAIN_TIMEOUT_MILLIS}). Sessions still open afterwards are closed at once.
+     *
+     * @param timeout   Drain timeout, 0 to close the sessions at once.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withDrainTimeout(final Long timeout, final TimeUnit unit) {
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") >= 0, "Timeout cannot be negative.");
+        this.drainTimeout = checkNotNull(unit, "Unit cannot be null.").toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set the chunk size of streamed responses (by default {@link #DEFAULT_RESPONSE_CHUNK_SIZE}) : A
+     * {@link ByteBufferCommandHandler} writing a big response to its {@link ResponseBuffer} does not build it in memory,
+     * the session sends each chunk to the client, as soon as it is full. The handler waits, while the client does not
+     * keep up. Smaller responses are sent with a single write together with the following prompt.
+     *
+     * @param chunkSize Max amount of bytes of a response buffered per session.
+     * @return          this.
+     */
+    public SocketeerServer withResponseChunkSize(final Integer chunkSize) {
+        checkArgument(checkNotNull(chunkSize, "Chunk size cannot be null.") > 0, "Chunk size has to be positive.");
+        this.responseChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Bound the messages queued per session by {@link #broadcast(String)} and {@link #send(Long, String)} (by default
+     * {@link #DEFAULT_PUSH_QUEUE_CAPACITY} messages, the oldest is dropped, if a client does not keep up).
+     *
+     * @param capacity  Max amount of messages queued per session.
+     * @param policy    What happens, if the queue of a session is full.
+     * @return          this.
+     */
+    public SocketeerServer withPushQueue(final Integer capacity, final PushOverflowPolicy policy) {
+        checkArgument(checkNotNull(capacity, "Capacity cannot be null.") > 0, "Capacity has to be positive.");
+        this.pushQueueCapacity = capacity;
+        this.pushOverflowPolicy = checkNotNull(policy, "Policy cannot be null.");
+        return this;
+    }
+
+    /*
+     * The session timeouts share one timer wheel, which is created with the first timeout.
+     */
+    private long toTimeoutMillis(final Long timeout, final TimeUnit unit) {
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") > 0, "Timeout has to be positive.");
+        final long millis = checkNotNull(unit, "Unit cannot be null.").toMillis(timeout);
+        if(!timerWheel.isPresent()) {
+            timerWheel = Optional.of(new TimerWheel());
+        }
+        return Math.max(1, millis);
+    }
+
+    /**
+     * Report connections, sessions, traffic and the latency of the command handler to the given metrics (by default
+     * nothing is recorded). See {@link DefaultSocketeerMetrics} for a lock-free implementation, that can be exported
+     * via JMX and shown to clients by a {@link StatsCommand}.
+     *
+     * @param metrics   The metrics to report to.
+     * @return          this.
+     */
+    public SocketeerServer withMetrics(final SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        return this;
+    }
+
+    /**
+     * Limit the rate of commands per session, per remote address and per command name (by default there is no limit).
+     * The limiter can be reconfigured while the server is running, the changes apply to the running sessions.
+     *
+     * @param rateLimiter   The limits and the policy applied, if a limit is exceeded.
+     * @return              this.
+     */
+    public SocketeerServer withRateLimiter(final RateLimiter rateLimiter) {
+        this.rateLimiter = Optional.of(checkNotNull(rateLimiter, "Rate limiter cannot be null."));
+        return this;
+    }
+
+    /**
+     * Set the length of the queue of connections the operating system accepts for the server, before the server gets
+     * to them (by default the system's default, often 50). Connections exceeding it are refused.
+     *
+     * @param acceptBacklog     Max length of the queue.
+     * @return                  this.
+     */
+    public SocketeerServer withAcceptBacklog(final Integer acceptBacklog) {
+        checkArgument(checkNotNull(acceptBacklog, "Accept backlog cannot be null.") > 0,
+                "Accept backlog has to be positive.");
+        this.acceptBacklog = acceptBacklog;
+        return this;
+    }
+
+    /**
+     * Listen on the port only on the given address (by default on all interfaces), e.g. on the loopback address.
+     *
+     * @param bindAddress   Local address of the port.
+     * @return              this.
+     */
+    public SocketeerServer withBindAddress(final InetAddress bindAddress) {
+        this.bindAddress = Optional.of(checkNotNull(bindAddress, "Bind address cannot be null."));
+        return this;
+    }
+
+    /**
+     * Listen on a further TCP endpoint besides the port, e.g. on an address of a management network. The connections
+     * of all endpoints share the sessions and settings of the server (TLS applies to all TCP endpoints).
+     *
+     * @param address   Local address and port.
+     * @return          this.
+     */
+    public SocketeerServer withListener(final InetSocketAddress address) {
+        listeners.add(Listener.tcp(address, Optional.<WireProtocol>absent()));
+        return this;
+    }
+
+    /**
+     * Listen on a further TCP endpoint speaking the given protocol (see {@link #withListener(InetSocketAddress)}).
+     *
+     * @param address   Local address and port.
+     * @param protocol  Protocol of the endpoint.
+     * @return          this.
+     */
+    public SocketeerServer withListener(final InetSocketAddress address, final WireProtocol protocol) {
+        listeners.add(Listener.tcp(address, Optional.of(checkNotNull(protocol, "Protocol cannot be null."))));
+        return this;
+    }
+
+    /**
+     * Listen on a Unix domain socket besides the port, so local tools connect without the overhead of TCP and without
+     * exposing a port. Access is controlled by the permissions of the socket file, its connections are not encrypted
+     * and report the loopback address as remote address (so the per address limit covers all of them). A socket file
+     * left by a previous process is replaced, the file is deleted, when the server is stopped.
+     * <br/>
+     * Unix domain sockets require Java 16, on older versions the endpoint is skipped with a warning.
+     *
+     * @param path  Path of the socket file.
+     * @return      this.
+     */
+    public SocketeerServer withUnixDomainSocket(final Path path) {
+        listeners.add(Listener.unixDomain(path, Optional.<WireProtocol>absent()));
+        return this;
+    }
+
+    /**
+     * Listen on a Unix domain socket speaking the given protocol (see {@link #withUnixDomainSocket(Path)}). A Unix
+     * domain socket cannot detect the protocol, it speaks either lines or frames.
+     *
+     * @param path      Path of the socket file.
+     * @param protocol  {@link WireProtocol#TEXT} or {@link WireProtocol#FRAMED}.
+     * @return          this.
+     */
+    public SocketeerServer withUnixDomainSocket(final Path path, final WireProtocol protocol) {
+        checkArgument(checkNotNull(protocol, "Protocol cannot be null.") != WireProtocol.AUTO,
+                "A Unix domain socket cannot detect the protocol.");
+        listeners.add(Listener.unixDomain(path, Optional.of(protocol)));
+        return this;
+    }
+
+    /**
+     * Set the protocol of the port and of the endpoints without an own protocol (by default
+     * {@link WireProtocol#TEXT}). With {@link WireProtocol#AUTO} the sessions of text clients start after the
+     * detection timeout (see {@link #withProtocolDetection(Long, TimeUnit)}), Unix domain sockets speak
+     * {@link WireProtocol#TEXT} then.
+     * <br/>
+     * A framed client sends the preamble at first (after the TLS handshake), the security handshake (if any) follows
+     * as for text clients, the server acknowledges the preamble, when the session is ready. Its requests are handled
+     * concurrently, each response is sent as soon as it is complete (see {@link #withFraming(Integer, Integer)}).
+     *
+     * @param protocol  The protocol.
+     * @return          this.
+     */
+    public SocketeerServer withWireProtocol(final WireProtocol protocol) {
+        this.wireProtocol = checkNotNull(protocol, "Protocol cannot be null.");
+        return this;
+    }
+
+    /**
+     * Set the time a client of an endpoint with {@link WireProtocol#AUTO} has to send the preamble of the framed
+     * protocol (by default {@link #DEFAULT_PROTOCOL_DETECTION_MILLIS}). Text clients are greeted afterwards.
+     *
+     * @param timeout   Detection timeout.
+     * @param unit      Unit of the timeout.
+     * @return          this.
+     */
+    public SocketeerServer withProtocolDetection(final Long timeout, final TimeUnit unit) {
+        checkArgument(checkNotNull(timeout, "Timeout cannot be null.") > 0, "Timeout has to be positive.");
+        this.protocolDetectionMillis = Math.max(1, checkNotNull(unit, "Unit cannot be null.").toMillis(timeout));
+        return this;
+    }
+
+    /**
+     * Limit the framed sessions (by default requests of {@link Frames#DEFAULT_MAX_FRAME_LENGTH} bytes and
+     * {@link #DEFAULT_MAX_REQUESTS_IN_FLIGHT} requests per session). A session stops reading, while the max amount of
+     * requests is handled, and is closed, if a request exceeds the max length.
+     *
+     * @param maxFrameLength        Max length of the payload of a request in bytes.
+     * @param maxRequestsInFlight   Max amount of requests a session handles at once.
+     * @return                      this.
+     */
+    public SocketeerServer withFraming(final Integer maxFrameLength, final Integer maxRequestsInFlight) {
+        checkArgument(checkNotNull(maxFrameLength, "Max frame length cannot be null.") > 0,
+                "Max frame length has to be positive.");
+        checkArgument(checkNotNull(maxRequestsInFlight, "Max requests in flight cannot be null.") > 0,
+                "Max requests in flight have to be positive.");
+        this.maxFrameLength = maxFrameLength;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        return this;
+    }
+
+    /**
+     * Keep accepting connections, when maxSessions sessions are running. Up to maxPendingSessions connections wait
+     * (without a prompt) and get a session in order, when one ends. Further connections are sent the busy message
+     * and closed at once. By default the server stops accepting, while maxSessions sessions are running, so clients
+     * wait in the accept backlog without any feedback.
+     *
+     * @param maxPendingSessions    Max amount of connections waiting for a session, 0 to reject all of them.
+     * @return                      this.
+     */
+    public SocketeerServer withRejectWhenBusy(final Integer maxPendingSessions) {
+        checkArgument(checkNotNull(maxPendingSessions, "Max pending sessions cannot be null.") >= 0,
+                "Max pending sessions cannot be negative.");
+        this.rejectWhenBusy = Boolean.TRUE;
+        this.maxPendingSessions = maxPendingSessions;
+        return this;
+    }
+
+    /**
+     * Limit the amount of connections (running and waiting sessions) per remote address (unlimited by default).
+     * Further connections of the address are sent the busy message and closed at once.
+     *
+     * @param maxConnectionsPerAddress  Max amount of connections per remote address.
+     * @return                          this.
+     */
+    public SocketeerServer withMaxConnectionsPerAddress(final Integer maxConnectionsPerAddress) {
+        checkArgument(checkNotNull(maxConnectionsPerAddress, "Max connections per address cannot be null.") > 0,
+                "Max connections per address has to be positive.");
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        return this;
+    }
+
+    /**
+     * Set the message sent to rejected connections (by default {@link #DEFAULT_BUSY_MESSAGE}).
+     *
+     * @param busyMessage   The message, encoded with the server's charset.
+     * @return              this.
+     */
+    public SocketeerServer withBusyMessage(final String busyMessage) {
+        this.busyMessage = checkNotNull(busyMessage, "Busy message cannot be null.").getBytes(charset);
+        return this;
+    }
+
+    /**
+     * Serve the sessions with a non-blocking engine instead of one thread per session. The sessions are driven by the
+     * given number of selector threads, a thread of the session pool is only occupied during the TLS and security
+     * handshakes and while a command is handled. This way a lot of mostly idle sessions can be served with few threads.
+     *
+     * @param eventLoops    Number of selector threads (one is enough in most cases).
+     * @return              this.
+     */
+    public SocketeerServer withNonBlockingIo(final Integer eventLoops) {
+        checkArgument(checkNotNull(eventLoops, "Event loops cannot be null.") > 0, "Event loops have to be positive.");
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
     /**
      * Start the server and wait for clients to connect.
      *
@@ -79,36 +754,522 @@ public class SocketeerServer implements Runnable {
     public void run() {
         try {
             running = Boolean.TRUE;
-            final ServerSocket server = new ServerSocket(port);
-            while (running) {
-                final Socket socket = server.accept();
-                final SocketeerSession session = new SocketeerSession(socket, commandHandler, charset);
-                if(securityHandler.isPresent()) {
-                    session.withSecurityHandler(securityHandler.get());
+            bufferPool = new BufferPool(Math.max(readBufferSize, maxLineLength + 1), MAX_POOLED_BUFFERS);
+            //the server tracks its sessions, to drain them when it is stopped
+            sessionTimeouts = new SessionTimeouts(timerWheel, handshakeTimeout, idleTimeout, maxSessionLifetime);
+            sessionRegistry = new SessionRegistry(pushQueueCapacity, pushOverflowPolicy);
+            final Admissions admissions = new Admissions(maxSessions, maxPendingSessions, maxConnectionsPerAddress,
+                    metrics);
+            this.admissions = Optional.of(admissions);
+            //runs the producers of the subscriptions, the threads are started with the first subscription
+            final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                    Runtime.getRuntime().availableProcessors(), SUBSCRIPTION_THREAD_FACTORY);
+            scheduler.setRemoveOnCancelPolicy(true);
+            subscriptionScheduler = Optional.<ScheduledExecutorService>of(scheduler);
+            if(eventLoops > 0) {
+                runNonBlocking(admissions);
+                return;
+            }
+            //writes the pushed messages, so a slow client does not block its session thread
+            pushExecutor = Optional.of(Executors.newCachedThreadPool(PUSH_THREAD_FACTORY));
+            framedExecutor = Optional.of(Executors.newCachedThreadPool(FRAMED_THREAD_FACTORY));
+            try {
+                final List<Acceptor> bound = new ArrayList<>();
+                for(final Listener listener : getListeners()) {
+                    bound.add(bind(listener));
+                }
+                //the port is served by the server thread
+                for(final Acceptor acceptor : bound.subList(1, bound.size())) {
+                    startAcceptor(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                accept(admissions, acceptor);
+                            } catch(Exception e) {
+                                if(running) {
+                                    LOGGER.error("Listener crashed!", e);
+                                } else {
+                                    LOGGER.debug("Listener stopped.", e);
+                                }
+                            }
+                        }
+                    });
                 }
-                sessionPool.submit(session);
+                accept(admissions, bound.get(0));
+            } finally {
+                //the server may have been stopped, before the sockets were bound
+                closeListening();
             }
         } catch(Exception e) {
-            LOGGER.error("Server crashed!",e);
+            if(running) {
+                LOGGER.error("Server crashed!",e);
+            } else {
+                LOGGER.debug("Server stopped.", e);
+            }
+        }
+    }
+
+    /*
+     * Accepts the connections of one endpoint of the blocking engine.
+     */
+    private interface Acceptor {
+        Socket accept() throws IOException;
+
+        WireProtocol getProtocol();
+    }
+
+    /*
+     * A Unix domain socket is served by its channel in blocking mode.
+     */
+    private Acceptor bind(final Listener listener) throws IOException {
+        if(listener.isUnixDomain()) {
+            final ServerSocketChannel channel = listener.bind(this);
+            listening.add(new Closeable() {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        channel.close();
+                    } finally {
+                        listener.unbound();
+                    }
+                }
+            });
+            return new Acceptor() {
+                @Override
+                public Socket accept() throws IOException {
+                    return new UnixDomainSocket(channel.accept());
+                }
+
+                @Override
+                public WireProtocol getProtocol() {
+                    return listener.getProtocol();
+                }
+            };
+        }
+        final ServerSocket server = sslContext.isPresent()
+                ? sslContext.get().getServerSocketFactory().createServerSocket() : new ServerSocket();
+        listening.add(server);
+        configure(server);
+        server.bind(listener.getAddress(), acceptBacklog);
+        return new Acceptor() {
+            @Override
+            public Socket accept() throws IOException {
+                return server.accept();
+            }
+
+            @Override
+            public WireProtocol getProtocol() {
+                return listener.getProtocol();
+            }
+        };
+    }
+
+    private void accept(final Admissions admissions, final Acceptor acceptor) throws IOException,
+            InterruptedException {
+        while (running) {
+            if(!rejectWhenBusy) {
+                admissions.awaitCapacity();
+            }
+            final Socket socket = acceptor.accept();
+            metrics.connectionAccepted();
+            admit(admissions, socket, acceptor.getProtocol());
         }
     }
 
     /**
-     * Stop the server ans shutdown the session pool.
+     * Run the accept loop of a further endpoint, the thread is awaited, when the server is stopped.
      *
-     * @param halt  If set to true the session pool will shutdown by force or gently otherwise.
-     *              Normally you should use halt=true, because otherwise you have to wait for the client to end his
-     *              session before you can shutdown the server.
+     * @param loop  The accept loop.
+     */
+    void startAcceptor(final Runnable loop) {
+        final Thread acceptor = ACCEPTOR_THREAD_FACTORY.newThread(loop);
+        acceptors.add(acceptor);
+        acceptor.start();
+    }
+
+    private void closeListening() {
+        for(final Closeable closeable : listening) {
+            closeQuietly(closeable);
+        }
+    }
+
+    private void admit(final Admissions admissions, final Socket socket, final WireProtocol protocol) {
+        final InetAddress address = socket.getInetAddress();
+        final Admissions.Decision decision = admissions.admit(address, new Admissions.Connection() {
+            @Override
+            public void start() {
+                startSession(admissions, socket, address, protocol);
+            }
+
+            @Override
+            public void close() {
+                closeQuietly(socket);
+            }
+        });
+        if(!decision.isAdmitted()) {
+            LOGGER.debug("Rejected connection from {} ({}).", address, decision);
+            //a TLS socket would run the handshake on the acceptor thread
+            if(!(socket instanceof SSLSocket)) {
+                try {
+                    socket.getOutputStream().write(busyMessage);
+                } catch(IOException e) {
+                    LOGGER.debug("Could not send busy message.", e);
+                }
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    /*
+     * Run the session and give back its admission, when it ends.
      */
-    public void stop(final Boolean halt) {
+    private void startSession(final Admissions admissions, final Socket socket, final InetAddress address,
+                              final WireProtocol protocol) {
+        configure(socket);
+        final SocketeerSession session;
+        try {
+            session = new SocketeerSession(socket, commandHandler, charset)
+                    .withLineDecoder(newLineDecoder())
+                    .withPipelining(pipelining, suppressPrompt)
+                    .withMetrics(metrics)
+                    .withTimeouts(sessionTimeouts)
+                    .withRegistry(sessionRegistry, pushExecutor.get())
+                    .withSubscriptions(subscriptionScheduler.get())
+                    .withResponseChunkSize(responseChunkSize)
+                    .withWireProtocol(protocol, protocolDetectionMillis)
+                    .withFraming(framedExecutor.get(), maxFrameLength, maxRequestsInFlight);
+        } catch(IOException e) {
+            LOGGER.warn("Could not open session, closing connection.", e);
+            closeQuietly(socket);
+            admissions.release(address);
+            return;
+        }
+        if(timer.isPresent()) {
+            session.withCommandTimeout(timer.get(), commandTimeout);
+        }
+        if(securityHandler.isPresent()) {
+            session.withSecurityHandler(securityHandler.get());
+        }
+        if(rateLimiter.isPresent()) {
+            session.withRateLimits(rateLimiter.get().open(address, metrics), subscriptionScheduler.get());
+        }
+        try {
+            sessionPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    metrics.sessionOpened();
+                    try {
+                        session.run();
+                    } finally {
+                        metrics.sessionClosed();
+                        admissions.release(address);
+                    }
+                }
+            });
+        } catch(RejectedExecutionException e) {
+            //the pool is shut down
+            LOGGER.warn("Session pool rejected session, closing connection.");
+            closeQuietly(socket);
+            admissions.release(address);
+        }
+    }
+
+    private static void closeQuietly(final Closeable socket) {
+        try {
+            socket.close();
+        } catch(IOException e) {
+            LOGGER.warn("Could not close connection properly.", e);
+        }
+    }
+
+    private void runNonBlocking(final Admissions admissions) throws IOException, InterruptedException {
+        final NioSessionEngine engine = new NioSessionEngine(this, eventLoops, sessionPool, admissions);
+        nioEngine = Optional.of(engine);
+        if(running) {
+            engine.run();
+        }
+    }
+
+    /**
+     * @return  A line decoder for a new session with a buffer of the server's pool (and a telnet decoder, unless
+     *          telnet is disabled).
+     */
+    LineDecoder newLineDecoder() {
+        final LineDecoder decoder = new LineDecoder(bufferPool, maxLineLength, overflowPolicy);
+        return telnet ? decoder.withTelnet(new TelnetDecoder()) : decoder;
+    }
+
+    /**
+     * @param address   Remote address of the session.
+     * @return          The command cycle for a new session.
+     */
+    SessionProtocol newSessionProtocol(final InetAddress address) {
+        final SessionProtocol protocol = new SessionProtocol(commandHandler, charset, pipelining, suppressPrompt)
+                .withMetrics(metrics);
+        if(subscriptionScheduler.isPresent()) {
+            protocol.withSubscriptions(subscriptionScheduler.get());
+        }
+        if(timer.isPresent()) {
+            protocol.withCommandTimeout(timer.get(), commandTimeout);
+        }
+        if(rateLimiter.isPresent()) {
+            protocol.withRateLimits(rateLimiter.get().open(address, metrics));
+        }
+        return protocol;
+    }
+
+    /**
+     * @param executor  Executor calling the command handler.
+     * @param address   Remote address of the session.
+     * @return          The command cycle for a new framed session, the session sets its output.
+     */
+    FramedProtocol newFramedProtocol(final Executor executor, final InetAddress address) {
+        final FramedProtocol protocol = new FramedProtocol(commandHandler, charset, executor).withMetrics(metrics);
+        if(timer.isPresent()) {
+            protocol.withCommandTimeout(timer.get(), commandTimeout);
+        }
+        if(rateLimiter.isPresent()) {
+            protocol.withRateLimits(rateLimiter.get().open(address, metrics), subscriptionScheduler.get());
+        }
+        return protocol;
+    }
+
+    /**
+     * Apply the receive buffer size to the listening socket, so it is inherited by accepted connections (required for
+     * sizes above 64K).
+     *
+     * @param serverSocket  Unbound server socket.
+     * @throws SocketException
+     */
+    void configure(final ServerSocket serverSocket) throws SocketException {
+        if(receiveBufferSize.isPresent()) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize.get());
+        }
+    }
+
+    /**
+     * Apply the socket options to an accepted connection. Failures are only logged, the connection is usable anyway.
+     *
+     * @param socket    Accepted connection.
+     */
+    void configure(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(tcpNoDelay);
+            if(receiveBufferSize.isPresent()) {
+                socket.setReceiveBufferSize(receiveBufferSize.get());
+            }
+            if(sendBufferSize.isPresent()) {
+                socket.setSendBufferSize(sendBufferSize.get());
+            }
+        } catch(SocketException e) {
+            LOGGER.warn("Could not apply socket options.", e);
+        }
+    }
+
+    /**
+     * @return  The endpoints of the server, the port first. Unix domain sockets are skipped, if the JDK does not
+     *          support them.
+     */
+    List<Listener> getListeners() {
+        final List<Listener> all = new ArrayList<>();
+        all.add(Listener.tcp(bindAddress.isPresent() ? new InetSocketAddress(bindAddress.get(), port)
+                : new InetSocketAddress(port), Optional.of(wireProtocol)));
+        for(final Listener listener : listeners) {
+            if(listener.isUnixDomain() && !UnixDomainSocket.isSupported()) {
+                LOGGER.warn("Unix domain sockets require Java 16, not listening on {}.", listener);
+                continue;
+            }
+            all.add(listener.withDefaultProtocol(wireProtocol));
+        }
+        return all;
+    }
+
+    Optional<SecurityHandler> getSecurityHandler() {
+        return securityHandler;
+    }
+
+    Optional<SSLContext> getSslContext() {
+        return sslContext;
+    }
+
+    Charset getCharset() {
+        return charset;
+    }
+
+    SocketeerMetrics getMetrics() {
+        return metrics;
+    }
+
+    SessionTimeouts getSessionTimeouts() {
+        return sessionTimeouts;
+    }
+
+    Integer getResponseChunkSize() {
+        return responseChunkSize;
+    }
+
+    Long getProtocolDetectionMillis() {
+        return protocolDetectionMillis;
+    }
+
+    Integer getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    Integer getMaxRequestsInFlight() {
+        return maxRequestsInFlight;
+    }
+
+    SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    /**
+     * @return  Snapshots of the sessions of the server, including connections still in the security handshake.
+     */
+    public List<SessionInfo> getSessions() {
+        return sessionRegistry.getSessions();
+    }
+
+    /**
+     * Push a message to all sessions, that passed the security handshake. The message is queued per session and
+     * sent between the responses, this never blocks (see {@link #withPushQueue(Integer, PushOverflowPolicy)}).
+     *
+     * @param message   The message, encoded with the server's charset.
+     * @return          Number of sessions the message was queued for.
+     */
+    public int broadcast(final String message) {
+        return broadcast(checkNotNull(message, "Message cannot be null.").getBytes(charset));
+    }
+
+    /**
+     * Push a message to all sessions, that passed the security handshake (see {@link #broadcast(String)}).
+     *
+     * @param message   The message, it is shared by the sessions and must not be modified afterwards.
+     * @return          Number of sessions the message was queued for.
+     */
+    public int broadcast(final byte[] message) {
+        return sessionRegistry.broadcast(message);
+    }
+
+    /**
+     * Push a message to one session (see {@link #broadcast(String)}).
+     *
+     * @param sessionId Id of the session (see {@link #getSessions()}).
+     * @param message   The message, encoded with the server's charset.
+     * @return          false if the session is not active (anymore) or its push queue overflowed.
+     */
+    public boolean send(final Long sessionId, final String message) {
+        return send(sessionId, checkNotNull(message, "Message cannot be null.").getBytes(charset));
+    }
+
+    /**
+     * Push a message to one session (see {@link #broadcast(String)}).
+     *
+     * @param sessionId Id of the session (see {@link #getSessions()}).
+     * @param message   The message, it must not be modified afterwards.
+     * @return          false if the session is not active (anymore) or its push queue overflowed.
+     */
+    public boolean send(final Long sessionId, final byte[] message) {
+        return sessionRegistry.send(checkNotNull(sessionId, "Session id cannot be null."), message);
+    }
+
+    Integer getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    Boolean isRejectWhenBusy() {
+        return rejectWhenBusy;
+    }
+
+    byte[] getBusyMessage() {
+        return busyMessage;
+    }
+
+    /**
+     * Stop the server : The port is released at once, so a new server can bind it, and the sessions are drained. Each
+     * session finishes the command it is handling and sends the responses still pending, then it tells the client,
+     * that the server is shutting down, and closes. Sessions still open after the drain timeout (see
+     * {@link #withDrainTimeout(Long, TimeUnit)}) are closed at once.
+     *
+     * @param halt  If set to true the sessions are closed at once, otherwise they are drained.
+     * @return      Completes, when all sessions are closed and the threads of the server are stopped.
+     */
+    public CompletableFuture<Void> stop(final Boolean halt) {
         checkNotNull(halt, "Halt cannot be null");
         running = Boolean.FALSE;
-        if(halt) {
-            sessionPool.shutdownNow();
-        } else {
-            sessionPool.shutdown();
+        closeListening();
+        if(nioEngine.isPresent()) {
+            nioEngine.get().stopAccepting();
         }
-        //Interrupt the server thread, to break ServerSocket#accept
+        if(admissions.isPresent()) {
+            admissions.get().close();
+        }
+        //Interrupt the server thread, to break waiting for capacity
         serverExecutor.shutdownNow();
+        //the port is released, when the server thread left accept
+        try {
+            serverExecutor.awaitTermination(SessionTimeouts.GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            for(final Thread acceptor : acceptors) {
+                acceptor.interrupt();
+                acceptor.join(SessionTimeouts.GRACE_MILLIS);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final CompletableFuture<Void> stopped = new CompletableFuture<>();
+        final long drainMillis = halt ? 0 : drainTimeout;
+        SHUTDOWN_THREAD_FACTORY.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain(drainMillis);
+                    stopped.complete(null);
+                } catch(Exception e) {
+                    stopped.completeExceptionally(e);
+                }
+            }
+        }).start();
+        return stopped;
+    }
+
+    /*
+     * Called by the shutdown thread.
+     */
+    private void drain(final long drainMillis) throws InterruptedException {
+        final SessionTimeouts timeouts = sessionTimeouts;
+        //the server did not start any session, if it was not run
+        final boolean started = timeouts != SessionTimeouts.NONE;
+        if(started) {
+            timeouts.drain(drainMillis);
+            if(!timeouts.awaitClosed(drainMillis)) {
+                LOGGER.info("{} sessions not drained in time, closing them.", timeouts.getLive());
+                timeouts.abort();
+            }
+        }
+        if(nioEngine.isPresent()) {
+            nioEngine.get().close();
+        }
+        //sessions blocked in the command handler are interrupted
+        sessionPool.shutdownNow();
+        if(started && !timeouts.awaitClosed(SessionTimeouts.GRACE_MILLIS)) {
+            LOGGER.warn("{} sessions did not close.", timeouts.getLive());
+        }
+        sessionPool.awaitTermination(SessionTimeouts.GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        if(pushExecutor.isPresent()) {
+            pushExecutor.get().shutdownNow();
+        }
+        if(framedExecutor.isPresent()) {
+            framedExecutor.get().shutdownNow();
+        }
+        if(subscriptionScheduler.isPresent()) {
+            subscriptionScheduler.get().shutdownNow();
+        }
+        if(timer.isPresent()) {
+            timer.get().shutdownNow();
+        }
+        if(timerWheel.isPresent()) {
+            timerWheel.get().close();
+        }
     }
 }
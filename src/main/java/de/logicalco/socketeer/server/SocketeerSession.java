@@ -1,29 +1,80 @@
 package de.logicalco.socketeer.server;
 
 import com.google.common.base.Optional;
-import de.logicalco.socketeer.utils.SocketeerUtils;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.FrameStatus;
+import de.logicalco.socketeer.utils.FrameTooLongException;
+import de.logicalco.socketeer.utils.Frames;
+import de.logicalco.socketeer.utils.LineDecoder;
+import de.logicalco.socketeer.utils.LineTooLongException;
+import de.logicalco.socketeer.utils.TelnetDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * A session for communication with the client.
+ * A session for communication with the client. If the connection is a TLS socket, the session runs the TLS handshake
+ * before the security handshake (if any).
+ * <br/>
+ * Unless the session speaks {@link WireProtocol#TEXT}, the client's preamble is read after the TLS handshake. A framed
+ * session reads the requests, while the threads completing them write the responses (see {@link FramedProtocol}).
  */
 class SocketeerSession implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SocketeerSession.class);
 
-    private final InputStream in;
-    private final OutputStream out;
-    private final CommandHandler commandHandler;
+    //a framed session waiting for its responses checks for expiry in between
+    private static final long AWAIT_SLICE_MILLIS = 100L;
+
+    private final Socket connection;
+    private InputStream in;
+    private OutputStream out;
+    private final ByteBufferCommandHandler commandHandler;
+    private final ResponseBuffer response;
     private Optional<SecurityHandler> securityHandler = Optional.absent();
+    private Optional<LineDecoder> lineDecoder = Optional.absent();
     private final Charset charset;
+    private Pipelining pipelining = Pipelining.DISABLED;
+    private Boolean suppressPrompt = Boolean.FALSE;
+    private Optional<ScheduledExecutorService> timer = Optional.absent();
+    private Long commandTimeout = 0L;
+    private SocketeerMetrics metrics = SocketeerMetrics.NONE;
+    private SessionTimeouts timeouts = SessionTimeouts.NONE;
+    private Optional<SessionRegistry> registry = Optional.absent();
+    private Executor pushExecutor;
+    private Optional<ScheduledExecutorService> subscriptionScheduler = Optional.absent();
+    private Integer responseChunkSize = 0;
+    private WireProtocol wireProtocol = WireProtocol.TEXT;
+    private Long detectMillis = 0L;
+    private Executor framedExecutor = MoreExecutors.directExecutor();
+    private Integer maxFrameLength = Frames.DEFAULT_MAX_FRAME_LENGTH;
+    private Integer maxRequestsInFlight = 1;
+    private boolean framed = false;
+    private Optional<RateLimiter.SessionLimits> limits = Optional.absent();
+    private Optional<ScheduledExecutorService> delayer = Optional.absent();
+    //pushed messages are not written in the middle of a streamed response
+    private final Lock responseLock = new ReentrantLock();
+    //unlike a monitor, a lock held during a blocking write does not pin the carrier of a virtual thread
+    private final Lock writeLock = new ReentrantLock();
 
     private Boolean sessionAlive = Boolean.TRUE;
 
@@ -34,40 +85,189 @@ class SocketeerSession implements Runnable {
      * @throws IOException
      */
     SocketeerSession(final Socket connection, final CommandHandler commandHandler, final Charset charset) throws IOException {
-        checkNotNull(connection, "Connection cannot be null.");
+        this(connection, new CommandHandlerAdapter(commandHandler), charset);
+    }
+
+    /**
+     * @param connection        The socket-connection to the client.
+     * @param commandHandler    The zero-copy handler for command that were read.
+     * @param charset           The caharcter set for String<->byte conversion.
+     * @throws IOException
+     */
+    SocketeerSession(final Socket connection, final ByteBufferCommandHandler commandHandler, final Charset charset)
+            throws IOException {
+        this.connection = checkNotNull(connection, "Connection cannot be null.");
         this.in = connection.getInputStream();
         this.out = connection.getOutputStream();
         this.charset = checkNotNull(charset, "Charset cannot be null.");
         this.commandHandler = checkNotNull(commandHandler, "Command handler cannot be null.");
+        this.response = new ResponseBuffer(charset);
     }
 
     @Override
     public void run() {
+        final LineDecoder decoder = lineDecoder.isPresent() ? lineDecoder.get()
+                : new LineDecoder(LineDecoder.DEFAULT_MAX_LINE_LENGTH, LineDecoder.OverflowPolicy.DISCARD);
+        SessionProtocol protocol = null;
+        final Optional<SessionRegistry.Registration> registration = registry.isPresent()
+                ? Optional.of(registry.get().register((InetSocketAddress) connection.getRemoteSocketAddress()))
+                : Optional.<SessionRegistry.Registration>absent();
+        final SessionTimeouts.Tracker tracker = timeouts.track(new SessionTimeouts.Target() {
+            @Override
+            public void expire(SessionTimeouts.Reason reason) {
+                if(registration.isPresent()) {
+                    registration.get().closing();
+                }
+                //the session reads the end of the stream, sends the reason and closes itself
+                try {
+                    connection.shutdownInput();
+                } catch(IOException | UnsupportedOperationException e) {
+                    abort();
+                }
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    connection.close();
+                } catch(IOException e) {
+                    LOGGER.warn("Could not close session properly.", e);
+                }
+            }
+        }, securityHandler.isPresent() || connection instanceof SSLSocket || wireProtocol != WireProtocol.TEXT);
         try {
-            if(securityHandler.isPresent() && !securityHandler.get().handle(in, out)) {
-                out.write(securityHandler.get().getDenyMessage());
-                return;
+            if(connection instanceof SSLSocket) {
+                ((SSLSocket) connection).startHandshake();
+                if(!securityHandler.isPresent() && wireProtocol == WireProtocol.TEXT) {
+                    tracker.handshakeDone();
+                }
+            }
+            if(decoder.getTelnet().isPresent()) {
+                decoder.getTelnet().get().withReplies(new TelnetDecoder.Replies() {
+                    @Override
+                    public void send(byte[] reply) {
+                        writeQuietly(reply);
+                    }
+                });
+            }
+            if(wireProtocol != WireProtocol.TEXT) {
+                if(detectFramed(decoder)) {
+                    serveFramed(registration, tracker);
+                    return;
+                }
+                if(!securityHandler.isPresent()) {
+                    tracker.handshakeDone();
+                }
             }
-            final Optional<byte[]> opener = commandHandler.getOpener();
-            if(opener.isPresent()) {
-                out.write(opener.get());
+            if(securityHandler.isPresent()) {
+                final boolean authenticated = securityHandler.get().handle(
+                        (InetSocketAddress) connection.getRemoteSocketAddress(), decoder.asInputStream(in),
+                        negotiating(decoder, out));
+                metrics.authenticated(authenticated);
+                if(!authenticated) {
+                    if(!tracker.getExpired().isPresent()) {
+                        out.write(securityHandler.get().getDenyMessage());
+                    }
+                    return;
+                }
+                tracker.handshakeDone();
+            }
+            //opener and prompt are sent with a single write, as well as each response and the following prompt
+            protocol = new SessionProtocol(commandHandler, charset, pipelining, suppressPrompt).withMetrics(metrics);
+            if(timer.isPresent()) {
+                protocol.withCommandTimeout(timer.get(), commandTimeout);
+            }
+            if(limits.isPresent()) {
+                protocol.withRateLimits(limits.get());
+            }
+            protocol.withOutput(new PendingResponses.Output() {
+                @Override
+                public void write(byte[] bytes) {
+                    writeQuietly(bytes);
+                }
+            });
+            if(subscriptionScheduler.isPresent() && pushExecutor != null) {
+                protocol.withSubscriptions(subscriptionScheduler.get()).withUpdates(updates());
+                response.subscribingTo(protocol);
+            }
+            if(responseChunkSize > 0) {
+                response.streamingTo(new ResponseBuffer.Sink() {
+                    @Override
+                    public void send(ResponseBuffer buffer) throws IOException {
+                        write(buffer);
+                    }
+                }, responseChunkSize);
+            }
+            response.reset();
+            protocol.greet(response);
+            write(response);
+            if(registration.isPresent()) {
+                activate(registration.get());
             }
             while(sessionAlive) {
-                out.write(commandHandler.getAppName());
-                out.write("> ".getBytes(charset));
-                final byte[] command = SocketeerUtils.readLineUnicode(in);
-                if(command == null || Arrays.equals(commandHandler.getEscapeSeq(), command)) {
+                if(protocol.isSubscribed()) {
+                    sessionAlive = decoder.fill(in) >= 0 && watch(decoder, protocol, tracker);
+                    continue;
+                }
+                if(!decoder.readLine(in)) {
                     sessionAlive = Boolean.FALSE;
-                } else {
-                    final Optional<byte[]> response = commandHandler.handle(command);
-                    if(response.isPresent()) {
-                        out.write(response.get());
+                    continue;
+                }
+                tracker.handling(true);
+                responseLock.lock();
+                try {
+                    response.reset();
+                    sessionAlive = protocol.handle(decoder, response);
+                    if(!response.isEmpty()) {
+                        write(response);
                     }
+                } finally {
+                    responseLock.unlock();
+                }
+                if(sessionAlive && protocol.startSubscription()) {
+                    //the session is not idle, while it sends updates
+                    sessionAlive = watch(decoder, protocol, tracker);
+                } else {
+                    tracker.handling(false);
                 }
             }
+        } catch(LineTooLongException e) {
+            writeQuietly(lineTooLong(decoder, charset));
+        } catch(UncheckedIOException e) {
+            //the client went away, while a response was streamed
+            LOGGER.debug("Could not stream response.", e);
+        } catch(SSLException e) {
+            //e.g. the client does not speak TLS or does not trust the server
+            LOGGER.debug("TLS connection failed.", e);
+        } catch(ProtocolException e) {
+            LOGGER.debug("Client did not open the framed protocol.", e);
         } catch(Exception e) {
-            LOGGER.error("Session crashed!",e);
+            if(tracker.getExpired().isPresent()) {
+                LOGGER.debug("Expired session failed.", e);
+            } else {
+                LOGGER.error("Session crashed!",e);
+            }
         } finally {
+            if(tracker.getExpired().isPresent()) {
+                awaitPendingResponses(protocol, tracker);
+            }
+            if(protocol != null) {
+                protocol.close();
+            }
+            if(tracker.getExpired().isPresent() && !framed) {
+                //an update still written by the push executor is sent before
+                responseLock.lock();
+                try {
+                    writeQuietly(tracker.getExpired().get().message(charset));
+                } finally {
+                    responseLock.unlock();
+                }
+            }
+            tracker.close();
+            if(registration.isPresent()) {
+                registration.get().close();
+            }
+            decoder.release();
             try {
                 in.close();
                 out.close();
@@ -77,6 +277,249 @@ class SocketeerSession implements Runnable {
         }
     }
 
+    /*
+     * Pushed messages are written by the push executor, so a slow client does not block the session thread (or the
+     * pushing thread). At most one task writes the messages of a session at a time.
+     */
+    private void activate(final SessionRegistry.Registration registration) {
+        final PushQueue pushes = registration.getPushes();
+        registration.activate(new PushQueue.Consumer() {
+            @Override
+            public void wakeUp() {
+                try {
+                    pushExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            byte[] message;
+                            while((message = pushes.poll()) != null) {
+                                responseLock.lock();
+                                try {
+                                    if(framed) {
+                                        writeQuietly(Frames.encode(0, FrameStatus.PUSH, message));
+                                    } else {
+                                        writeQuietly(message);
+                                    }
+                                } finally {
+                                    responseLock.unlock();
+                                }
+                            }
+                        }
+                    });
+                } catch(RejectedExecutionException e) {
+                    LOGGER.debug("Push executor rejected messages, the server is stopped.");
+                }
+            }
+
+            @Override
+            public void overflow() {
+                LOGGER.info("Push queue of session {} overflowed, closing session.", registration.getId());
+                try {
+                    connection.close();
+                } catch(IOException e) {
+                    LOGGER.warn("Could not close session properly.", e);
+                }
+            }
+        });
+    }
+
+    /*
+     * Read the preamble of a framed client. With AUTO the client has to send it within the detection timeout, the bytes
+     * of a text client are handed to the decoder.
+     */
+    private boolean detectFramed(final LineDecoder decoder) throws IOException {
+        final byte[] read = new byte[Frames.PREAMBLE_LENGTH];
+        int length = 0;
+        if(wireProtocol == WireProtocol.AUTO) {
+            final int soTimeout = connection.getSoTimeout();
+            connection.setSoTimeout((int) Math.max(1, Math.min(detectMillis, Integer.MAX_VALUE)));
+            try {
+                length = Math.max(0, in.read(read, 0, 1));
+            } catch(SocketTimeoutException e) {
+                return false;
+            } finally {
+                connection.setSoTimeout(soTimeout);
+            }
+        }
+        while(length < read.length && Frames.isPreamble(read, 0, length)) {
+            final int n = in.read(read, length, read.length - length);
+            if(n < 0) {
+                break;
+            }
+            length += n;
+        }
+        if(length == read.length && Frames.isPreamble(read, 0, length)) {
+            return true;
+        }
+        if(wireProtocol == WireProtocol.FRAMED) {
+            throw new ProtocolException("Invalid preamble.");
+        }
+        if(length > 0) {
+            decoder.fill(new ByteArrayInputStream(read, 0, length));
+        }
+        return false;
+    }
+
+    /*
+     * The security handshake (if any) runs on the raw streams, the preamble acknowledges it. The session thread reads
+     * the requests, until the client closes its output, then it waits for the responses in flight.
+     */
+    private void serveFramed(final Optional<SessionRegistry.Registration> registration,
+                             final SessionTimeouts.Tracker tracker) throws IOException, InterruptedException {
+        framed = true;
+        if(securityHandler.isPresent()) {
+            final boolean authenticated = securityHandler.get().handle(
+                    (InetSocketAddress) connection.getRemoteSocketAddress(), in, out);
+            metrics.authenticated(authenticated);
+            if(!authenticated) {
+                if(!tracker.getExpired().isPresent()) {
+                    out.write(securityHandler.get().getDenyMessage());
+                }
+                return;
+            }
+        }
+        tracker.handshakeDone();
+        final FramedProtocol protocol = new FramedProtocol(commandHandler, charset, framedExecutor)
+                .withOutput(new FramedProtocol.Output() {
+                    @Override
+                    public void send(ByteBuffer frame) {
+                        writeQuietly(frame);
+                    }
+                }).withMetrics(metrics).withTimeouts(tracker);
+        if(timer.isPresent()) {
+            protocol.withCommandTimeout(timer.get(), commandTimeout);
+        }
+        if(limits.isPresent()) {
+            protocol.withRateLimits(limits.get(), delayer.get());
+        }
+        final FrameDecoder frames = new FrameDecoder(maxFrameLength);
+        try {
+            writeLock.lock();
+            try {
+                out.write(Frames.preamble());
+            } finally {
+                writeLock.unlock();
+            }
+            if(registration.isPresent()) {
+                activate(registration.get());
+            }
+            while(frames.readFrame(in)) {
+                if(!protocol.handle(frames.id(), frames.payload())) {
+                    return;
+                }
+                protocol.awaitCapacity(maxRequestsInFlight);
+            }
+            awaitAnswered(protocol, tracker);
+        } catch(FrameTooLongException e) {
+            writeQuietly(Frames.encode(0, FrameStatus.CLOSING, frameTooLong(e.getMaxFrameLength(), charset)));
+        } catch(RateLimitExceededException e) {
+            writeQuietly(Frames.encode(0, FrameStatus.CLOSING, SessionProtocol.rateLimitDisconnect(charset)));
+        } finally {
+            protocol.close();
+            if(tracker.getExpired().isPresent()) {
+                writeQuietly(Frames.encode(0, FrameStatus.CLOSING, tracker.getExpired().get().message(charset)));
+            }
+        }
+    }
+
+    /*
+     * The client closed its output (or the session expired), the requests in flight are answered before the session
+     * is closed. An expired session waits until it would be aborted.
+     */
+    private static void awaitAnswered(final FramedProtocol protocol, final SessionTimeouts.Tracker tracker)
+            throws InterruptedException {
+        while(!tracker.getExpired().isPresent()) {
+            if(protocol.awaitIdle(AWAIT_SLICE_MILLIS)) {
+                return;
+            }
+        }
+        protocol.awaitIdle(tracker.getRemainingMillis());
+    }
+
+    /*
+     * Check the input of a session with a subscription, the prompt is written, if the client interrupted.
+     */
+    private boolean watch(final LineDecoder decoder, final SessionProtocol protocol,
+                          final SessionTimeouts.Tracker tracker) throws IOException {
+        final boolean alive;
+        responseLock.lock();
+        try {
+            response.reset();
+            alive = protocol.watch(decoder, response);
+            if(!response.isEmpty()) {
+                write(response);
+            }
+        } finally {
+            responseLock.unlock();
+        }
+        if(!protocol.isSubscribed()) {
+            tracker.handling(false);
+        }
+        return alive;
+    }
+
+    /*
+     * The updates of a subscription are written by the push executor, like pushed messages.
+     */
+    private Subscription.Output updates() {
+        return new Subscription.Output() {
+            @Override
+            public void send(final Subscription subscription, final ResponseBuffer update) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseLock.lock();
+                        try {
+                            //no update follows the prompt of an interrupted subscription
+                            if(!subscription.isCancelled()) {
+                                writeQuietly(update);
+                            }
+                        } finally {
+                            responseLock.unlock();
+                        }
+                        subscription.sent();
+                    }
+                });
+            }
+
+            @Override
+            public void cancelled(final Subscription subscription) {
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        responseLock.lock();
+                        try {
+                            writeQuietly(subscription.getPrompt());
+                        } finally {
+                            responseLock.unlock();
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private void execute(final Runnable task) {
+        try {
+            pushExecutor.execute(task);
+        } catch(RejectedExecutionException e) {
+            LOGGER.debug("Push executor rejected update, the server is stopped.");
+        }
+    }
+
+    /*
+     * An expired session sends the responses still pending before the reason, until it is aborted.
+     */
+    private static void awaitPendingResponses(final SessionProtocol protocol, final SessionTimeouts.Tracker tracker) {
+        if(protocol == null) {
+            return;
+        }
+        try {
+            protocol.awaitPendingResponses(tracker.getRemainingMillis());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Use a security handler to enable a security handshake before starting a session.
      *
@@ -88,6 +531,243 @@ class SocketeerSession implements Runnable {
         return this;
     }
 
+    /**
+     * Use a line decoder (by default a decoder with its own buffer is created).
+     *
+     * @param lineDecoder   Decoder for the input, it is released when the session ends.
+     * @return              this
+     */
+    SocketeerSession withLineDecoder(LineDecoder lineDecoder) {
+        this.lineDecoder = Optional.of(checkNotNull(lineDecoder, "Line decoder cannot be null."));
+        return this;
+    }
+
+    /**
+     * Handle pipelined commands in batches (disabled by default).
+     *
+     * @param pipelining        Whether the session is pipelined.
+     * @param suppressPrompt    If set to true, no prompt is sent while the session is pipelined.
+     * @return                  this
+     */
+    SocketeerSession withPipelining(Pipelining pipelining, Boolean suppressPrompt) {
+        this.pipelining = checkNotNull(pipelining, "Pipelining cannot be null.");
+        this.suppressPrompt = checkNotNull(suppressPrompt, "Suppress prompt cannot be null.");
+        return this;
+    }
+
+    /**
+     * Cancel the responses of an {@link AsyncCommandHandler}, that are not complete within a timeout.
+     *
+     * @param timer             Timer for the timeouts.
+     * @param commandTimeout    Timeout in milliseconds.
+     * @return                  this
+     */
+    SocketeerSession withCommandTimeout(ScheduledExecutorService timer, Long commandTimeout) {
+        this.timer = Optional.of(checkNotNull(timer, "Timer cannot be null."));
+        this.commandTimeout = checkNotNull(commandTimeout, "Command timeout cannot be null.");
+        return this;
+    }
+
+    /**
+     * Close the session, if it exceeds one of the timeouts.
+     *
+     * @param timeouts  The timeouts of the server.
+     * @return          this
+     */
+    SocketeerSession withTimeouts(SessionTimeouts timeouts) {
+        this.timeouts = checkNotNull(timeouts, "Timeouts cannot be null.");
+        return this;
+    }
+
+    /**
+     * Stream big responses to the client in chunks (by default a response is written at once).
+     *
+     * @param chunkSize Max amount of bytes of a response buffered by the session.
+     * @return          this
+     */
+    SocketeerSession withResponseChunkSize(Integer chunkSize) {
+        checkArgument(checkNotNull(chunkSize, "Chunk size cannot be null.") > 0, "Chunk size has to be positive.");
+        this.responseChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Register the session, so messages can be pushed to it.
+     *
+     * @param registry      The sessions of the server.
+     * @param pushExecutor  Executor writing the pushed messages.
+     * @return              this
+     */
+    SocketeerSession withRegistry(SessionRegistry registry, Executor pushExecutor) {
+        this.registry = Optional.of(checkNotNull(registry, "Registry cannot be null."));
+        this.pushExecutor = checkNotNull(pushExecutor, "Push executor cannot be null.");
+        return this;
+    }
+
+    /**
+     * Let the commands start subscriptions. Requires a registry (see {@link #withRegistry(SessionRegistry, Executor)}),
+     * the updates are written by the push executor.
+     *
+     * @param scheduler The scheduler running the producers of all sessions.
+     * @return          this
+     */
+    SocketeerSession withSubscriptions(ScheduledExecutorService scheduler) {
+        this.subscriptionScheduler = Optional.of(checkNotNull(scheduler, "Scheduler cannot be null."));
+        return this;
+    }
+
+    /**
+     * Speak the given protocol (by default {@link WireProtocol#TEXT}).
+     *
+     * @param wireProtocol  The protocol of the endpoint.
+     * @param detectMillis  Time a client of {@link WireProtocol#AUTO} has to send the preamble.
+     * @return              this
+     */
+    SocketeerSession withWireProtocol(WireProtocol wireProtocol, Long detectMillis) {
+        this.wireProtocol = checkNotNull(wireProtocol, "Wire protocol cannot be null.");
+        this.detectMillis = checkNotNull(detectMillis, "Detection timeout cannot be null.");
+        return this;
+    }
+
+    /**
+     * Handle the requests of a framed session concurrently (by default one after the other).
+     *
+     * @param executor              Executor calling the command handler.
+     * @param maxFrameLength        Max length of a request, the session is closed, if it is exceeded.
+     * @param maxRequestsInFlight   Max amount of requests handled at once, the session stops reading meanwhile.
+     * @return                      this
+     */
+    SocketeerSession withFraming(Executor executor, Integer maxFrameLength, Integer maxRequestsInFlight) {
+        this.framedExecutor = checkNotNull(executor, "Executor cannot be null.");
+        checkArgument(checkNotNull(maxFrameLength, "Max frame length cannot be null.") > 0,
+                "Max frame length has to be positive.");
+        checkArgument(checkNotNull(maxRequestsInFlight, "Max requests in flight cannot be null.") > 0,
+                "Max requests in flight have to be positive.");
+        this.maxFrameLength = maxFrameLength;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        return this;
+    }
+
+    /**
+     * Check the commands against rate limits.
+     *
+     * @param limits    Limits of the session.
+     * @param delayer   Scheduler starting delayed framed requests.
+     * @return          this
+     */
+    SocketeerSession withRateLimits(RateLimiter.SessionLimits limits, ScheduledExecutorService delayer) {
+        this.limits = Optional.of(checkNotNull(limits, "Limits cannot be null."));
+        this.delayer = Optional.of(checkNotNull(delayer, "Delayer cannot be null."));
+        return this;
+    }
+
+    /**
+     * Report the session's traffic and commands to the metrics.
+     *
+     * @param metrics   The metrics of the server.
+     * @return          this
+     */
+    SocketeerSession withMetrics(SocketeerMetrics metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+        this.in = MeteredStreams.metered(in, metrics);
+        this.out = MeteredStreams.metered(out, metrics);
+        return this;
+    }
+
+    /*
+     * The session thread and the threads completing asynchronous responses share the stream.
+     */
+    private void write(final ResponseBuffer buffer) throws IOException {
+        writeLock.lock();
+        try {
+            buffer.writeTo(out);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeQuietly(final ResponseBuffer buffer) {
+        writeLock.lock();
+        try {
+            buffer.writeTo(out);
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeQuietly(final ByteBuffer frame) {
+        writeQuietly(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    private void writeQuietly(final byte[] bytes) {
+        writeQuietly(bytes, 0, bytes.length);
+    }
+
+    private void writeQuietly(final byte[] bytes, final int offset, final int length) {
+        //failures are only logged, the session notices a broken connection when reading
+        writeLock.lock();
+        try {
+            out.write(bytes, offset, length);
+        } catch(IOException e) {
+            LOGGER.warn("Could not write to client.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * The stream the security handler writes to : If the session decodes telnet commands, the handler's requests are
+     * registered, so the client's answers are not answered again.
+     *
+     * @param decoder   Decoder of the session.
+     * @param out       Stream to the client.
+     * @return          Stream for the security handler.
+     */
+    static OutputStream negotiating(final LineDecoder decoder, final OutputStream out) {
+        return decoder.getTelnet().isPresent() ? decoder.getTelnet().get().negotiating(out) : out;
+    }
+
+    /**
+     * Encode the prompt once per session.
+     *
+     * @param commandHandler    Handler providing the application's name.
+     * @param charset           Charset for String to byte conversion.
+     * @return                  The application's name followed by '> '.
+     */
+    static byte[] prompt(final ByteBufferCommandHandler commandHandler, final Charset charset) {
+        final byte[] appName = commandHandler.getAppName();
+        final byte[] suffix = "> ".getBytes(charset);
+        final byte[] prompt = Arrays.copyOf(appName, appName.length + suffix.length);
+        System.arraycopy(suffix, 0, prompt, appName.length, suffix.length);
+        return prompt;
+    }
+
+    /**
+     * The message sent to the client, if a line exceeded the max line length.
+     *
+     * @param decoder   The decoder, that read the line.
+     * @param charset   Charset for String to byte conversion.
+     * @return          Message as byte array.
+     */
+    static byte[] lineTooLong(final LineDecoder decoder, final Charset charset) {
+        final String action = decoder.getPolicy() == LineDecoder.OverflowPolicy.FAIL ? "closing session" : "discarded";
+        return String.format("Line exceeds %d bytes, %s.\n", decoder.getMaxLineLength(), action).getBytes(charset);
+    }
+
+    /**
+     * The reason sent to a framed client, before its session is closed, because a request exceeded the max frame
+     * length.
+     *
+     * @param maxFrameLength    The max frame length.
+     * @param charset           Charset for String to byte conversion.
+     * @return                  Message as byte array.
+     */
+    static byte[] frameTooLong(final int maxFrameLength, final Charset charset) {
+        return String.format("Frame exceeds %d bytes, closing session.\n", maxFrameLength).getBytes(charset);
+    }
+
     private void writeException(final Exception e) {
         try(final PrintWriter writer = new PrintWriter(out)) {
             e.printStackTrace(writer);
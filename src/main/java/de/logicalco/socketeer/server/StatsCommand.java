@@ -0,0 +1,60 @@
+package de.logicalco.socketeer.server;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Built-in command showing the metrics of the server to a client. It can be mounted into a {@link CommandRouter} :
+ * <pre>
+ *     router.withCommand("stats", "Shows the server metrics.", new StatsCommand(metrics));
+ * </pre>
+ * or called by any other command handler via {@link #format()} :
+ * <pre>
+ *     if("stats".equals(command)) {
+ *         return SocketeerUtils.respond(stats.format(), charset, true);
+ *     }
+ * </pre>
+ */
+public class StatsCommand implements CommandRouter.Command {
+
+    private final SocketeerMetricsMXBean metrics;
+
+    /**
+     * @param metrics   The metrics to show, e.g. {@link DefaultSocketeerMetrics}.
+     */
+    public StatsCommand(final SocketeerMetricsMXBean metrics) {
+        this.metrics = checkNotNull(metrics, "Metrics cannot be null.");
+    }
+
+    @Override
+    public void handle(final ByteBuffer arguments, final ResponseBuffer response) {
+        response.print(format());
+    }
+
+    /**
+     * @return  The metrics, one per line.
+     */
+    public String format() {
+        return String.format(Locale.ROOT,
+                "connections accepted : %d\n"
+                        + "connections rejected : %d\n"
+                        + "sessions active      : %d\n"
+                        + "sessions queued      : %d\n"
+                        + "auth successes       : %d\n"
+                        + "auth failures        : %d\n"
+                        + "bytes read           : %d\n"
+                        + "bytes written        : %d\n"
+                        + "commands             : %d\n"
+                        + "commands/s           : %.1f\n"
+                        + "rate limited         : delayed %d, rejected %d, disconnected %d\n"
+                        + "latency (us)         : mean %.1f, p50 %d, p99 %d, p99.9 %d, max %d\n",
+                metrics.getAcceptedConnections(), metrics.getRejectedConnections(), metrics.getActiveSessions(),
+                metrics.getQueuedSessions(), metrics.getAuthSuccesses(), metrics.getAuthFailures(),
+                metrics.getBytesRead(), metrics.getBytesWritten(), metrics.getCommands(),
+                metrics.getCommandsPerSecond(), metrics.getDelayedCommands(), metrics.getRejectedCommands(),
+                metrics.getRateLimitDisconnects(), metrics.getLatencyMeanMicros(), metrics.getLatencyP50Micros(),
+                metrics.getLatencyP99Micros(), metrics.getLatencyP999Micros(), metrics.getLatencyMaxMicros());
+    }
+}
@@ -0,0 +1,234 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A live subscription of a session, e.g. to watch a metric or to tail a log : A command starts it via
+ * {@link ResponseBuffer#subscribe(Producer, long, TimeUnit)} or {@link ResponseBuffer#subscribe(Producer)}, the session
+ * then sends the updates of the producer after the command's response, until the client interrupts (Ctrl-C, telnet IP
+ * or BREAK) and gets its prompt back, or sends the escape sequence.
+ * <br/>
+ * The producers of all sessions run on one shared scheduler of the server. Updates are coalesced : A session has at
+ * most one update in flight, updates requested meanwhile (by the period or by {@link #update()}) are produced once,
+ * when the previous update is written. So a slow client receives the latest state instead of an unbounded backlog.
+ * <br/>
+ * Example :
+ * <pre>
+ *     router.withCommand("watch", "Shows the number of sessions every second.", new CommandRouter.Command() {
+ *         public void handle(ByteBuffer arguments, ResponseBuffer response) {
+ *             response.subscribe(new Subscription.Producer() {
+ *                 public void produce(ResponseBuffer update) {
+ *                     update.println("Sessions : " + server.getSessions().size());
+ *                 }
+ *             }, 1, TimeUnit.SECONDS);
+ *         }
+ *     });
+ * </pre>
+ */
+public final class Subscription {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Subscription.class);
+
+    /**
+     * Produces the updates of a subscription.
+     */
+    public interface Producer {
+        /**
+         * Write the current state (e.g. the value of a metric or the lines added to a log since the last update).
+         * Called by the shared scheduler, never concurrently for one subscription, so it must not block. Nothing is
+         * sent, if nothing is written.
+         *
+         * @param update    Buffer for the update.
+         */
+        void produce(ResponseBuffer update);
+    }
+
+    /**
+     * Sends the updates to the client.
+     */
+    interface Output {
+
+        /**
+         * Send an update after the pending output of the session and call {@link #sent()}, when it is written. Must
+         * not block.
+         *
+         * @param subscription  The subscription.
+         * @param update        The update, its content is valid until {@link #sent()} is called.
+         */
+        void send(Subscription subscription, ResponseBuffer update);
+
+        /**
+         * The subscription was cancelled by the application (or its producer failed), the session sends the prompt
+         * and handles commands again. Must not block.
+         *
+         * @param subscription  The subscription.
+         */
+        void cancelled(Subscription subscription);
+    }
+
+    private final Producer producer;
+    private final long periodMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Output output;
+    private final byte[] prompt;
+    private final ResponseBuffer update;
+    //an update is produced or written
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile Optional<ScheduledFuture<?>> periodic = Optional.absent();
+
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    /**
+     * @param producer      Producer of the updates.
+     * @param periodMillis  Period of the updates, 0 if they are only requested by {@link #update()}.
+     * @param scheduler     The shared scheduler running the producers.
+     * @param output        Output of the session.
+     * @param prompt        Prompt sent, when the subscription ends.
+     * @param charset       Charset of the updates.
+     */
+    Subscription(final Producer producer, final long periodMillis, final ScheduledExecutorService scheduler,
+                 final Output output, final byte[] prompt, final Charset charset) {
+        checkArgument(periodMillis >= 0, "Period cannot be negative.");
+        this.producer = checkNotNull(producer, "Producer cannot be null.");
+        this.periodMillis = periodMillis;
+        this.scheduler = checkNotNull(scheduler, "Scheduler cannot be null.");
+        this.output = checkNotNull(output, "Output cannot be null.");
+        this.prompt = checkNotNull(prompt, "Prompt cannot be null.");
+        this.update = new ResponseBuffer(charset);
+    }
+
+    /**
+     * Request an update, e.g. when an event occurred. Requests are coalesced, while an update is pending.
+     */
+    public void update() {
+        dirty.set(true);
+        deliverLater();
+    }
+
+    /**
+     * End the subscription, the session sends the prompt and handles commands again.
+     */
+    public void cancel() {
+        if(close()) {
+            output.cancelled(this);
+        }
+    }
+
+    /**
+     * @return  true if the subscription ended.
+     */
+    public boolean isCancelled() {
+        return closed.get();
+    }
+
+    /**
+     * Start the updates, after the response of the command is sent. The first update is produced at once.
+     */
+    void start() {
+        if(periodMillis == 0) {
+            update();
+            return;
+        }
+        try {
+            periodic = Optional.<ScheduledFuture<?>>of(scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    update();
+                }
+            }, 0, periodMillis, TimeUnit.MILLISECONDS));
+        } catch(RejectedExecutionException e) {
+            LOGGER.debug("Scheduler rejected subscription, the server is stopped.");
+        }
+        if(closed.get()) {
+            //closed while it was scheduled
+            cancelPeriodic();
+        }
+    }
+
+    /**
+     * The last update was written to the client.
+     */
+    void sent() {
+        busy.set(false);
+        deliverLater();
+    }
+
+    /**
+     * End the subscription without notifying the session, e.g. when the client interrupted it.
+     *
+     * @return  false if it ended before.
+     */
+    boolean close() {
+        if(!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelPeriodic();
+        return true;
+    }
+
+    /**
+     * @return  The prompt sent, when the subscription ends.
+     */
+    byte[] getPrompt() {
+        return prompt;
+    }
+
+    /*
+     * A request arriving while an update is busy is delivered by sent().
+     */
+    private void deliverLater() {
+        if(closed.get() || !dirty.get() || !busy.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.execute(deliver);
+        } catch(RejectedExecutionException e) {
+            LOGGER.debug("Scheduler rejected update, the server is stopped.");
+        }
+    }
+
+    private void deliver() {
+        if(closed.get()) {
+            return;
+        }
+        dirty.set(false);
+        update.reset();
+        try {
+            producer.produce(update);
+        } catch(RuntimeException e) {
+            LOGGER.error("Producer failed, cancelling subscription.", e);
+            cancel();
+            return;
+        }
+        if(update.isEmpty()) {
+            sent();
+            return;
+        }
+        output.send(this, update);
+    }
+
+    private void cancelPeriodic() {
+        if(periodic.isPresent()) {
+            periodic.get().cancel(false);
+        }
+    }
+}
@@ -2,25 +2,22 @@ package de.logicalco.socketeer.server;
 
 import de.logicalco.socketeer.utils.SocketeerUtils;
 import de.logicalco.socketeer.utils.Telnet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.security.MessageDigest;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A very simple SecurityHadler with a username/password authentication writing and expecting telnet commands for
- * communication with the client.
+ * communication with the client. The answers of the client to the telnet commands are skipped while reading the
+ * password and, after the handshake, by the session's {@link de.logicalco.socketeer.utils.TelnetDecoder}.
  */
 public class TelnetPasswordUsernameSecurityHandler implements SecurityHandler {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(TelnetPasswordUsernameSecurityHandler.class);
-
     private final byte[] user;
 
     private final byte[] password;
@@ -42,29 +39,34 @@ public class TelnetPasswordUsernameSecurityHandler implements SecurityHandler {
     public Boolean handle(InputStream in, OutputStream out) throws IOException {
         checkNotNull(in, "Input stream cannot be null.");
         checkNotNull(out, "Output stream cannot be null.");
-        out.write("user : ".getBytes(charset));
-        final byte[] user = SocketeerUtils.readLineUnicode(in);
-        out.write("password : ".getBytes(charset));
-        out.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.WILL, Telnet.ECHO));
-        readClientAnswer(in);
-        final byte[] pass = SocketeerUtils.readLineUnicode(in);
-        out.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.WONT, Telnet.ECHO));
-        readClientAnswer(in);
-        out.write((byte) 10);
-        return Arrays.equals(this.user, user) && Arrays.equals(this.password, pass);
-    }
-
-    private void readClientAnswer(InputStream in) throws IOException {
-        checkNotNull(in, "Input stream cannot be null.");
-        final int[] cmds = new int[3];
-        for(int i=0; i<3;i++) {
-            cmds[i] = in.read();
-        }
-        LOGGER.debug(String.format("Client returned : '%s'.", Telnet.cmdChainToString(cmds)));
+        final byte[] user = readUser(in, out, charset);
+        final byte[] pass = readPassword(in, out, charset);
+        //constant-time, so the response time does not tell how many bytes matched
+        final boolean userMatches = MessageDigest.isEqual(this.user, user);
+        return MessageDigest.isEqual(this.password, pass) & userMatches;
     }
 
     @Override
     public byte[] getDenyMessage() {
         return "Authetication failed!\n".getBytes(charset);
     }
+
+    static byte[] readUser(final InputStream in, final OutputStream out, final Charset charset) throws IOException {
+        out.write("user : ".getBytes(charset));
+        return SocketeerUtils.readLineUnicode(in);
+    }
+
+    /*
+     * The client is asked not to echo the password.
+     */
+    static byte[] readPassword(final InputStream in, final OutputStream out, final Charset charset)
+            throws IOException {
+        out.write("password : ".getBytes(charset));
+        //the client's answers are telnet commands, that are not part of the lines read
+        Telnet.writeNegotiation(out, Telnet.WILL, Telnet.ECHO.getCode());
+        final byte[] pass = SocketeerUtils.readLineUnicode(in);
+        Telnet.writeNegotiation(out, Telnet.WONT, Telnet.ECHO.getCode());
+        out.write((byte) 10);
+        return pass;
+    }
 }
@@ -0,0 +1,277 @@
+package de.logicalco.socketeer.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A TLS connection on a socket channel, the records are encrypted and decrypted by an {@link SSLEngine}. The channel
+ * may be blocking (e.g. while a worker thread runs the handshake, see {@link #handshake()}) or non-blocking (driven by
+ * an event loop). Messages of the engine after the handshake (e.g. session tickets or key updates) are exchanged, while
+ * the channel is read or written.
+ * <br/>
+ * A non-blocking channel may not take all encrypted output at once, the rest is kept until the next write or
+ * {@link #flush()}, so the owner has to wait for the channel to become writable, while {@link #hasPendingOutput()}.
+ * A record may hold more input than the reader's buffer takes, the rest is kept until the next read, while
+ * {@link #hasBufferedInput()} (the selector does not report it).
+ * <b>Note</b> : A TLS channel is not thread-safe.
+ */
+final class TlsChannel implements ByteChannel {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TlsChannel.class);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    //records read from the channel, in write mode
+    private ByteBuffer netIn;
+    //encrypted output not written yet, in read mode
+    private ByteBuffer netOut;
+    //decrypted input not read yet, in read mode
+    private ByteBuffer appIn;
+
+    /**
+     * @param channel   The connection.
+     * @param engine    Engine of the connection in server mode, the handshake was not started yet.
+     */
+    TlsChannel(final SocketChannel channel, final SSLEngine engine) {
+        this.channel = checkNotNull(channel, "Channel cannot be null.");
+        this.engine = checkNotNull(engine, "Engine cannot be null.");
+        final int packetSize = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.netOut = ByteBuffer.allocate(packetSize);
+        netOut.flip();
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        appIn.flip();
+    }
+
+    /**
+     * Run the handshake, the channel has to be in blocking mode.
+     *
+     * @throws IOException  If the handshake fails or the client closes the connection.
+     */
+    void handshake() throws IOException {
+        engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while(status != SSLEngineResult.HandshakeStatus.FINISHED
+                && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+            if(status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                if(unwrap() < 0) {
+                    throw new EOFException("Connection closed during TLS handshake.");
+                }
+            } else {
+                proceed();
+            }
+            status = engine.getHandshakeStatus();
+        }
+        flush();
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        while(!appIn.hasRemaining()) {
+            final int unwrapped = unwrap();
+            if(unwrapped <= 0) {
+                return unwrapped;
+            }
+        }
+        final int n = Math.min(appIn.remaining(), dst.remaining());
+        final int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        return n;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if(!flush()) {
+            return 0;
+        }
+        final int start = src.position();
+        while(src.hasRemaining()) {
+            final SSLEngineResult result = wrap(src);
+            if(result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            //the engine waits for input of the client (or the channel is full)
+            if(result.bytesConsumed() == 0 || !flush()) {
+                break;
+            }
+        }
+        return src.position() - start;
+    }
+
+    /**
+     * Write the encrypted output kept by the channel.
+     *
+     * @return  true if all output is written.
+     * @throws IOException
+     */
+    boolean flush() throws IOException {
+        while(netOut.hasRemaining()) {
+            if(channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  true if encrypted output is waiting for the channel.
+     */
+    boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    /**
+     * @return  true if decrypted input is waiting for the next read.
+     */
+    boolean hasBufferedInput() {
+        return appIn.hasRemaining();
+    }
+
+    /**
+     * @return  true if decrypted input or records read along with the handshake are waiting for the next read.
+     */
+    boolean hasBufferedRecords() {
+        return appIn.hasRemaining() || netIn.position() > 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Send the close notification (as far as the channel takes it) and close the channel.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            wrap(EMPTY);
+            flush();
+        } catch(IOException e) {
+            LOGGER.debug("Could not send TLS close notification.", e);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /*
+     * @return  -1 at the end of the stream, 0 if the channel has no complete record, 1 if a record was unwrapped.
+     */
+    private int unwrap() throws IOException {
+        while(true) {
+            netIn.flip();
+            appIn.compact();
+            final SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+                netIn.compact();
+            }
+            switch(result.getStatus()) {
+                case OK:
+                    proceed();
+                    return 1;
+                case CLOSED:
+                    return -1;
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize(), true);
+                    break;
+                default:
+                    //a record is incomplete
+                    if(!netIn.hasRemaining()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize(), false);
+                    }
+                    final int read = channel.read(netIn);
+                    if(read < 0) {
+                        closeInbound();
+                        return -1;
+                    }
+                    if(read == 0) {
+                        return 0;
+                    }
+            }
+        }
+    }
+
+    private SSLEngineResult wrap(final ByteBuffer src) throws IOException {
+        netOut.compact();
+        try {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            while(result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut.flip();
+                netOut = grow(netOut, engine.getSession().getPacketBufferSize(), true);
+                netOut.compact();
+                result = engine.wrap(src, netOut);
+            }
+            return result;
+        } finally {
+            netOut.flip();
+            proceedTasks();
+        }
+    }
+
+    /*
+     * Run the tasks of the engine and send the handshake messages it wants to send.
+     */
+    private void proceed() throws IOException {
+        proceedTasks();
+        while(engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            if(wrap(EMPTY).getStatus() == SSLEngineResult.Status.CLOSED) {
+                break;
+            }
+        }
+        flush();
+    }
+
+    private void proceedTasks() {
+        Runnable task;
+        while((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeInbound() {
+        try {
+            engine.closeInbound();
+        } catch(SSLException e) {
+            //the client did not send a close notification
+            LOGGER.debug("TLS connection closed without notification.", e);
+        }
+    }
+
+    /*
+     * A bigger buffer with the same content and mode (the content of a buffer in write mode is up to the position).
+     */
+    private static ByteBuffer grow(final ByteBuffer buffer, final int size, final boolean readMode) {
+        final ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + size);
+        final ByteBuffer content = buffer.duplicate();
+        if(!readMode) {
+            content.flip();
+        }
+        grown.put(content);
+        if(readMode) {
+            grown.flip();
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,258 @@
+package de.logicalco.socketeer.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A connection accepted on a Unix domain socket, presented as a {@link Socket}, so the sessions serve it like a TCP
+ * connection. The channel of a Unix domain socket has no socket of its own.
+ * <br/>
+ * Unix domain socket channels exist since Java 16, they are opened by reflection, so the server still runs on older
+ * versions (see {@link #isSupported()}). A client of a Unix domain socket has no address, its sessions report the
+ * loopback address with port 0.
+ * <b>Note</b> : TCP options do not apply, the buffer sizes are set on the channel.
+ */
+final class UnixDomainSocket extends Socket {
+
+    /**
+     * Address reported for clients of a Unix domain socket.
+     */
+    static final InetSocketAddress LOCAL_CLIENT = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+
+    /**
+     * @param channel   Accepted channel in blocking mode.
+     */
+    UnixDomainSocket(final SocketChannel channel) {
+        this.channel = checkNotNull(channel, "Channel cannot be null.");
+        //the streams of Channels.newInputStream/newOutputStream would lock each other out of the channel
+        this.in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if(len == 0) {
+                    return 0;
+                }
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                //like the streams of a socket
+                channel.close();
+            }
+        };
+        this.out = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * @return  true if the JDK supports Unix domain socket channels (Java 16+).
+     */
+    static boolean isSupported() {
+        try {
+            unixFamily();
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Bind a Unix domain socket. A socket file left by a previous process is replaced, other files are not touched.
+     *
+     * @param path          Path of the socket file.
+     * @param backlog       Max amount of pending connections, 0 for the default.
+     * @return              The bound channel in blocking mode.
+     * @throws IOException  If the socket cannot be bound or the JDK does not support Unix domain sockets.
+     */
+    static ServerSocketChannel bind(final Path path, final int backlog) throws IOException {
+        checkNotNull(path, "Path cannot be null.");
+        if(Files.exists(path, LinkOption.NOFOLLOW_LINKS)
+                && Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+            Files.delete(path);
+        }
+        final ServerSocketChannel channel = (ServerSocketChannel) invoke(ServerSocketChannel.class.getName(), "open",
+                ProtocolFamily.class, unixFamily());
+        try {
+            channel.bind(address(path), backlog);
+            return channel;
+        } catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param channel   Accepted channel.
+     * @return          true if the channel is a connection of a Unix domain socket.
+     */
+    static boolean isUnixDomain(final SocketChannel channel) {
+        try {
+            return !(channel.getLocalAddress() instanceof InetSocketAddress);
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    private static ProtocolFamily unixFamily() throws IOException {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Unix domain sockets require Java 16.", e);
+        }
+    }
+
+    private static SocketAddress address(final Path path) throws IOException {
+        return (SocketAddress) invoke("java.net.UnixDomainSocketAddress", "of", Path.class, path);
+    }
+
+    /*
+     * Call a static factory of the JDK, that does not exist before Java 16.
+     */
+    private static Object invoke(final String className, final String name, final Class<?> parameterType,
+                                 final Object argument) throws IOException {
+        final Method method;
+        try {
+            method = Class.forName(className).getMethod(name, parameterType);
+        } catch(ClassNotFoundException | NoSuchMethodException e) {
+            throw new IOException("Unix domain sockets require Java 16.", e);
+        }
+        try {
+            return method.invoke(null, argument);
+        } catch(InvocationTargetException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not open Unix domain socket.", e.getCause());
+        } catch(IllegalAccessException e) {
+            throw new IOException("Could not open Unix domain socket.", e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return LOCAL_CLIENT;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return LOCAL_CLIENT.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return 0;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    @Override
+    public void shutdownInput() throws IOException {
+        channel.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public void setTcpNoDelay(final boolean on) {
+        //no TCP
+    }
+
+    @Override
+    public void setReceiveBufferSize(final int size) throws SocketException {
+        setOption(StandardSocketOptions.SO_RCVBUF, size);
+    }
+
+    @Override
+    public void setSendBufferSize(final int size) throws SocketException {
+        setOption(StandardSocketOptions.SO_SNDBUF, size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "UnixDomainSocket[" + channel + "]";
+    }
+
+    private void setOption(final SocketOption<Integer> option, final int value) throws SocketException {
+        try {
+            channel.setOption(option, value);
+        } catch(IOException e) {
+            final SocketException failure = new SocketException("Could not set " + option + ".");
+            failure.initCause(e);
+            throw failure;
+        }
+    }
+}
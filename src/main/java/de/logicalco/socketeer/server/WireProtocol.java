@@ -0,0 +1,24 @@
+package de.logicalco.socketeer.server;
+
+/**
+ * The protocol spoken on an endpoint of the server. Besides the line based protocol for humans (and telnet) the server
+ * speaks a framed protocol for machine clients (see {@link de.logicalco.socketeer.utils.Frames}) : Commands and
+ * responses are binary payloads of any length and a client can send many commands at once over one connection, each
+ * response is sent as soon as its command is done.
+ */
+public enum WireProtocol {
+    /**
+     * Lines and prompts (default).
+     */
+    TEXT,
+    /**
+     * Frames only, a client has to open the session with the preamble.
+     */
+    FRAMED,
+    /**
+     * Frames, if the client sends the preamble at once, otherwise lines. The server waits for the preamble up to the
+     * detection timeout, before it greets a text client (see
+     * {@link SocketeerServer#withProtocolDetection(Long, java.util.concurrent.TimeUnit)}).
+     */
+    AUTO
+}
@@ -0,0 +1,55 @@
+package de.logicalco.socketeer.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A simple thread-safe pool of equally sized byte arrays, so short living sessions do not allocate new read buffers.
+ * The pool is bounded, arrays released to a full pool are left to the garbage collector.
+ */
+public final class BufferPool {
+
+    private final int bufferSize;
+
+    private final BlockingQueue<byte[]> buffers;
+
+    /**
+     * @param bufferSize    Size of the pooled arrays.
+     * @param maxPooled     Max amount of idle arrays kept by the pool.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        checkArgument(bufferSize > 0, "Buffer size has to be positive.");
+        checkArgument(maxPooled > 0, "Max pooled has to be positive.");
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * @return  A pooled array or a new one, if the pool is empty.
+     */
+    public byte[] acquire() {
+        final byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Give back an array, that was acquired before. The array must not be used afterwards.
+     *
+     * @param buffer    Array to give back.
+     */
+    public void release(byte[] buffer) {
+        checkNotNull(buffer, "Buffer cannot be null.");
+        checkArgument(buffer.length == bufferSize, "Buffer was not acquired from this pool.");
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return  Size of the pooled arrays.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -0,0 +1,231 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Reusable decoder of the frames of one connection (see {@link Frames}). Input is read in bulk into a single buffer
+ * and split into frames in place, the payload of a frame is handed out as a slice of the buffer (see
+ * {@link #payload()}). The buffer grows with the biggest frame up to the max frame length.
+ * <br/>
+ * Typical usage :
+ * <pre>
+ *     while(decoder.readFrame(in)) {
+ *         handle(decoder.id(), decoder.status(), decoder.payload());
+ *     }
+ * </pre>
+ * For non-blocking sources call {@link #fill(ReadableByteChannel)} and then {@link #next()} until it returns false.
+ * <b>Note</b> : A decoder is not thread-safe, the current frame is only valid until the next call to {@link #next()}.
+ */
+public final class FrameDecoder {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final int maxFrameLength;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private ByteBuffer fillView = ByteBuffer.wrap(buffer);
+    private ByteBuffer payloadView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+
+    /*
+     * Bytes read but not decoded yet : [start, end)
+     */
+    private int start = 0;
+    private int end = 0;
+
+    private int id = 0;
+    private FrameStatus status = FrameStatus.OK;
+    private int payloadOffset = 0;
+    private int payloadLength = 0;
+
+    /**
+     * @param maxFrameLength    Max length of the payload of a frame in bytes.
+     */
+    public FrameDecoder(int maxFrameLength) {
+        checkArgument(maxFrameLength > 0, "Max frame length has to be positive.");
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Decode the next complete frame of the buffered input.
+     *
+     * @return  true if a frame is available, false if more input is needed.
+     * @throws FrameTooLongException    If the payload of the frame exceeds the max frame length.
+     * @throws ProtocolException        If the input is not a valid frame.
+     */
+    public boolean next() throws IOException {
+        if(end - start < 4) {
+            return false;
+        }
+        final int length = getInt(start);
+        if(length < Frames.HEADER_LENGTH - 4) {
+            throw new ProtocolException(String.format("Invalid frame length %d.", length));
+        }
+        if(length - (Frames.HEADER_LENGTH - 4) > maxFrameLength) {
+            throw new FrameTooLongException(maxFrameLength);
+        }
+        if(end - start < length + 4) {
+            ensureCapacity(length + 4);
+            return false;
+        }
+        final Optional<FrameStatus> status = FrameStatus.byCode(buffer[start + 8] & 0xFF);
+        if(!status.isPresent()) {
+            throw new ProtocolException(String.format("Invalid frame status %d.", buffer[start + 8] & 0xFF));
+        }
+        this.id = getInt(start + 4);
+        this.status = status.get();
+        this.payloadOffset = start + Frames.HEADER_LENGTH;
+        this.payloadLength = length - (Frames.HEADER_LENGTH - 4);
+        start += length + 4;
+        return true;
+    }
+
+    /**
+     * Read from a blocking stream until a complete frame is available.
+     *
+     * @param in    Stream to read from.
+     * @return      true if a frame is available, false if the end of the stream was reached.
+     * @throws EOFException If the stream ended within a frame.
+     * @throws IOException
+     */
+    public boolean readFrame(InputStream in) throws IOException {
+        checkNotNull(in, "Input stream cannot be null.");
+        while(!next()) {
+            if(fill(in) < 0) {
+                if(end > start) {
+                    throw new EOFException("Stream ended within a frame.");
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read as many bytes as available from the stream with a single read call. Only call this, if {@link #next()}
+     * returned false.
+     *
+     * @param in    Stream to read from.
+     * @return      Number of bytes read or -1 at the end of the stream.
+     * @throws IOException
+     */
+    public int fill(InputStream in) throws IOException {
+        makeRoom();
+        final int read = in.read(buffer, end, buffer.length - end);
+        if(read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * Read as many bytes as available from the channel with a single read call. Only call this, if {@link #next()}
+     * returned false.
+     *
+     * @param channel   Channel to read from (blocking or non-blocking).
+     * @return          Number of bytes read or -1 at the end of the stream.
+     * @throws IOException
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+        fillView.limit(buffer.length).position(end);
+        final int read = channel.read(fillView);
+        if(read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * @return  true if input is buffered, that is not decoded yet.
+     */
+    public boolean hasBufferedInput() {
+        return end > start;
+    }
+
+    /**
+     * @return  Request id of the current frame.
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * @return  Status of the current frame.
+     */
+    public FrameStatus status() {
+        return status;
+    }
+
+    /**
+     * A read-only view of the payload of the current frame. The view is reused, its position and limit frame the
+     * payload.
+     *
+     * @return  View of the payload.
+     */
+    public ByteBuffer payload() {
+        payloadView.clear();
+        payloadView.position(payloadOffset);
+        payloadView.limit(payloadOffset + payloadLength);
+        return payloadView;
+    }
+
+    /**
+     * @return  A copy of the payload of the current frame.
+     */
+    public byte[] copyPayload() {
+        return Arrays.copyOfRange(buffer, payloadOffset, payloadOffset + payloadLength);
+    }
+
+    /**
+     * @return  The max length of the payload of a frame in bytes.
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    private int getInt(final int offset) {
+        return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8
+                | buffer[offset + 3] & 0xFF;
+    }
+
+    /*
+     * Move the undecoded bytes to the start of the buffer, if the buffer is full or empty.
+     */
+    private void makeRoom() {
+        if(start == end) {
+            start = 0;
+            end = 0;
+        } else if(end == buffer.length) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+    }
+
+    private void ensureCapacity(final int frameLength) {
+        if(frameLength <= buffer.length - start) {
+            return;
+        }
+        final byte[] grown = frameLength <= buffer.length ? buffer
+                : new byte[(int) Math.min(Math.max(frameLength, 2L * buffer.length),
+                        (long) maxFrameLength + Frames.HEADER_LENGTH)];
+        System.arraycopy(buffer, start, grown, 0, end - start);
+        end -= start;
+        start = 0;
+        if(grown != buffer) {
+            buffer = grown;
+            fillView = ByteBuffer.wrap(buffer);
+            payloadView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+        }
+    }
+}
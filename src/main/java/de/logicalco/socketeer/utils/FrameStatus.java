@@ -0,0 +1,53 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+
+/**
+ * Status of a frame of the framed protocol (see {@link Frames}). A client sends its requests with {@link #OK}, the
+ * server answers each request with one of the other values and sends unsolicited frames with request id 0.
+ */
+public enum FrameStatus {
+    /**
+     * A request of the client or the response to it.
+     */
+    OK(0),
+    /**
+     * The command failed, the payload holds the message.
+     */
+    FAILED(1),
+    /**
+     * The command did not complete within the command timeout.
+     */
+    TIMED_OUT(2),
+    /**
+     * A message pushed by the application (request id 0).
+     */
+    PUSH(3),
+    /**
+     * The server closes the session, the payload holds the reason (request id 0). It is the last frame of a session.
+     */
+    CLOSING(4);
+
+    private static final FrameStatus[] BY_CODE = values();
+
+    private final int code;
+
+    FrameStatus(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return  The code of the status on the wire.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param code  Code of a status.
+     * @return      The status or Optional#absent, if the code is unknown.
+     */
+    public static Optional<FrameStatus> byCode(final int code) {
+        return code >= 0 && code < BY_CODE.length ? Optional.of(BY_CODE[code]) : Optional.<FrameStatus>absent();
+    }
+}
@@ -0,0 +1,28 @@
+package de.logicalco.socketeer.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link FrameDecoder}, if the payload of a frame exceeds the max frame length.
+ */
+public class FrameTooLongException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxFrameLength;
+
+    /**
+     * @param maxFrameLength    The max frame length, that was exceeded.
+     */
+    public FrameTooLongException(int maxFrameLength) {
+        super(String.format("Frame exceeds %d bytes.", maxFrameLength));
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * @return  The max frame length, that was exceeded.
+     */
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+}
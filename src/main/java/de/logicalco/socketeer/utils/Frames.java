@@ -0,0 +1,121 @@
+package de.logicalco.socketeer.utils;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * The framed protocol, an alternative to the line based protocol for machine clients. A frame carries a request id, a
+ * status and a binary payload of any content :
+ * <pre>
+ *     +----------+----------+--------+-------------------+
+ *     | length   | id       | status | payload           |
+ *     | 4 bytes  | 4 bytes  | 1 byte | length - 5 bytes  |
+ *     +----------+----------+--------+-------------------+
+ * </pre>
+ * The integers are big-endian, the length counts the bytes following it. A client opens the framed protocol by
+ * sending the {@link #preamble()}, the server acknowledges it with the preamble as well, when the session is ready.
+ * Afterwards the client sends requests (the payload is the command) with ids of its choice and the server answers each
+ * of them with a frame of the same id, as soon as its command is done. So the client can send many requests at once
+ * and get the responses in any order.
+ * <br/>
+ * Use {@link FrameDecoder} to split the input into frames.
+ */
+public final class Frames {
+
+    /**
+     * Bytes of a frame in front of the payload.
+     */
+    public static final int HEADER_LENGTH = 9;
+
+    /**
+     * Default max length of the payload of a frame (1MB).
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024 * 1024;
+
+    /*
+     * A text client does not send a zero byte first.
+     */
+    private static final byte[] PREAMBLE = new byte[] {0, 'S', 'K', 'T', 1};
+
+    /**
+     * Length of the preamble.
+     */
+    public static final int PREAMBLE_LENGTH = PREAMBLE.length;
+
+    private Frames() {
+    }
+
+    /**
+     * @return  The bytes opening the framed protocol (version 1).
+     */
+    public static byte[] preamble() {
+        return PREAMBLE.clone();
+    }
+
+    /**
+     * @param bytes     Bytes to check.
+     * @param offset    Offset of the bytes.
+     * @param length    Amount of bytes to check.
+     * @return          true if the bytes are (a prefix of) the preamble.
+     */
+    public static boolean isPreamble(final byte[] bytes, final int offset, final int length) {
+        checkNotNull(bytes, "Bytes cannot be null.");
+        checkPositionIndexes(offset, offset + length, bytes.length);
+        if(length > PREAMBLE.length) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(bytes[offset + i] != PREAMBLE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param id        Request id.
+     * @param status    Status of the frame.
+     * @param payload   The payload.
+     * @return          The frame (a buffer backed by an array, positioned at its start).
+     */
+    public static ByteBuffer encode(final int id, final FrameStatus status, final byte[] payload) {
+        return encode(id, status, checkNotNull(payload, "Payload cannot be null."), 0, payload.length);
+    }
+
+    /**
+     * @param id        Request id.
+     * @param status    Status of the frame.
+     * @param payload   The payload, the bytes between position and limit (the buffer is not modified).
+     * @return          The frame (a buffer backed by an array, positioned at its start).
+     */
+    public static ByteBuffer encode(final int id, final FrameStatus status, final ByteBuffer payload) {
+        checkNotNull(status, "Status cannot be null.");
+        checkNotNull(payload, "Payload cannot be null.");
+        final ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.remaining());
+        frame.putInt(payload.remaining() + HEADER_LENGTH - 4).putInt(id).put((byte) status.getCode())
+                .put(payload.duplicate());
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * @param id        Request id.
+     * @param status    Status of the frame.
+     * @param payload   Array holding the payload.
+     * @param offset    Offset of the payload.
+     * @param length    Length of the payload.
+     * @return          The frame (a buffer backed by an array, positioned at its start).
+     */
+    public static ByteBuffer encode(final int id, final FrameStatus status, final byte[] payload, final int offset,
+                                    final int length) {
+        checkNotNull(status, "Status cannot be null.");
+        checkNotNull(payload, "Payload cannot be null.");
+        checkPositionIndexes(offset, offset + length, payload.length);
+        final ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + length);
+        frame.putInt(length + HEADER_LENGTH - 4).putInt(id).put((byte) status.getCode()).put(payload, offset, length);
+        frame.flip();
+        return frame;
+    }
+}
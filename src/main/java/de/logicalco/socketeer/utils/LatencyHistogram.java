@@ -0,0 +1,125 @@
+package de.logicalco.socketeer.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A lock-free histogram of non-negative values (e.g. latencies in nanoseconds) with logarithmic buckets, like the
+ * HdrHistogram : Every power of two is divided into {@value #SUB_BUCKETS} linear buckets, so a recorded value is
+ * off by less than 1/{@value #SUB_BUCKETS} of its magnitude, and the whole range of long values fits into less than
+ * a thousand buckets. Recording a value is a single atomic increment, the percentiles are computed on demand.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    /**
+     * Record a value, negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        final long recorded = Math.max(value, 0);
+        counts.incrementAndGet(index(recorded));
+        count.increment();
+        sum.add(recorded);
+        max.accumulate(recorded);
+    }
+
+    /**
+     * @return  Number of recorded values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return  Mean of the recorded values or 0, if there are none.
+     */
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return  The largest recorded value or 0, if there are none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The value below or equal to which the given percentage of the recorded values lies. The result is the upper
+     * bound of the bucket the percentile falls into, but never above the largest recorded value.
+     *
+     * @param percentile    Percentile between 0 and 100.
+     * @return              The value at the percentile or 0, if there are no values.
+     */
+    public long getValueAtPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "Percentile has to be between 0 and 100.");
+        //the counts of the buckets are read one after another, so their total is taken from the same reads
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Bucket of a value : values below {@link #SUB_BUCKETS} have a bucket of their own, above the bucket is given by
+     * the highest bit (the power of two) and the {@link #SUB_BUCKET_BITS} bits following it.
+     */
+    static int index(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return  The largest value falling into the bucket.
+     */
+    static long highestValue(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,455 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Reusable line decoder for one session. Input is read in bulk into a single buffer and split into lines in place, with
+ * the semantics of {@link SocketeerUtils#readLineUnicode(InputStream)} : a line ends with the unicode character 10, the
+ * characters 0 and 13 are not part of the line. Neither is Ctrl-C (the character 3), an interrupt is only noticed via
+ * {@link #interrupted()}. A line is handed out as a slice of the internal buffer (see
+ * {@link #array()}, {@link #lineOffset()}, {@link #lineLength()} or {@link #line()}), so decoding does not allocate.
+ * <br/>
+ * Typical usage :
+ * <pre>
+ *     while(decoder.readLine(in)) {
+ *         handle(decoder.array(), decoder.lineOffset(), decoder.lineLength());
+ *     }
+ * </pre>
+ * For non-blocking sources call {@link #fill(ReadableByteChannel)} and then {@link #next()} until it returns false.
+ * With a {@link TelnetDecoder} telnet commands are filtered out of the input as it is read (see
+ * {@link #withTelnet(TelnetDecoder)}).
+ * <b>Note</b> : A decoder is not thread-safe, the current line is only valid until the next call to {@link #next()}.
+ */
+public final class LineDecoder {
+
+    /**
+     * What happens to lines exceeding the max line length.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The behaviour of {@link SocketeerUtils#readLineUnicode(InputStream, int)} : The first bytes are returned as
+         * a line and the remaining bytes as the next line(s).
+         */
+        SPLIT,
+        /**
+         * The line is cut at the max line length, the remaining bytes up to the line feed are dropped.
+         */
+        TRUNCATE,
+        /**
+         * The whole line is dropped, an empty line is returned instead.
+         */
+        DISCARD,
+        /**
+         * A {@link LineTooLongException} is thrown by {@link #next()}, the remaining bytes up to the line feed are
+         * dropped, if the decoder is used further on.
+         */
+        FAIL
+    }
+
+    /**
+     * The max line length of {@link SocketeerUtils#readLineUnicode(InputStream)}.
+     */
+    public static final int DEFAULT_MAX_LINE_LENGTH = 255;
+
+    /**
+     * Default size of the read buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private static final byte UNC = 0;
+    private static final byte ULF = 10;
+    private static final byte UCR = 13;
+    private static final byte ETX = 3;
+
+    private final Optional<BufferPool> pool;
+    private final int maxLineLength;
+    private final OverflowPolicy policy;
+    private byte[] buffer;
+    private final ByteBuffer fillView;
+    private final ByteBuffer lineView;
+    private Optional<TelnetDecoder> telnet = Optional.absent();
+
+    /*
+     * Bytes of the line under construction (already stripped) : [lineStart, lineEnd)
+     * Bytes read but not scanned yet : [scan, end)
+     */
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int scan = 0;
+    private int end = 0;
+    private boolean skipping = false;
+
+    private int lineOffset = 0;
+    private int lineLength = 0;
+    private boolean overflowed = false;
+
+    /**
+     * Create a decoder with an own buffer of {@link #DEFAULT_BUFFER_SIZE} bytes (or more, if the max line length
+     * requires it).
+     *
+     * @param maxLineLength     Max length of a line in bytes (without line feed).
+     * @param policy            What to do with lines exceeding the max line length.
+     */
+    public LineDecoder(int maxLineLength, OverflowPolicy policy) {
+        this(new byte[Math.max(DEFAULT_BUFFER_SIZE, maxLineLength + 1)], Optional.<BufferPool>absent(),
+                maxLineLength, policy);
+    }
+
+    /**
+     * Create a decoder using a buffer of the given pool. The buffer is given back by {@link #release()}.
+     *
+     * @param pool              Pool to take the buffer from, its buffers have to be bigger than the max line length.
+     * @param maxLineLength     Max length of a line in bytes (without line feed).
+     * @param policy            What to do with lines exceeding the max line length.
+     */
+    public LineDecoder(BufferPool pool, int maxLineLength, OverflowPolicy policy) {
+        this(checkNotNull(pool, "Pool cannot be null.").acquire(), Optional.of(pool), maxLineLength, policy);
+    }
+
+    private LineDecoder(byte[] buffer, Optional<BufferPool> pool, int maxLineLength, OverflowPolicy policy) {
+        checkArgument(maxLineLength > 0, "Max line length has to be positive.");
+        checkArgument(buffer.length > maxLineLength, "Buffer has to be bigger than the max line length.");
+        this.buffer = buffer;
+        this.pool = pool;
+        this.maxLineLength = maxLineLength;
+        this.policy = checkNotNull(policy, "Policy cannot be null.");
+        this.fillView = ByteBuffer.wrap(buffer);
+        this.lineView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+    }
+
+    /**
+     * Filter telnet commands out of the input. Has to be set before the first read.
+     *
+     * @param telnet    Decoder for the telnet commands of the session.
+     * @return          this
+     */
+    public LineDecoder withTelnet(TelnetDecoder telnet) {
+        this.telnet = Optional.of(checkNotNull(telnet, "Telnet decoder cannot be null."));
+        return this;
+    }
+
+    /**
+     * @return  The decoder for the telnet commands, if any.
+     */
+    public Optional<TelnetDecoder> getTelnet() {
+        return telnet;
+    }
+
+    /**
+     * Scan the buffered input for the next complete line.
+     *
+     * @return  true if a line is available, false if more input is needed.
+     * @throws LineTooLongException If the line exceeds the max line length and the policy is
+     *                              {@link OverflowPolicy#FAIL}.
+     */
+    public boolean next() throws LineTooLongException {
+        final byte[] bytes = buffer;
+        final int limit = end;
+        int read = scan;
+        int write = lineEnd;
+        while(read < limit) {
+            final byte b = bytes[read++];
+            if(b == ULF) {
+                return complete(write, read, false);
+            }
+            if(b == UNC || b == UCR || b == ETX || skipping) {
+                continue;
+            }
+            if(write - lineStart == maxLineLength) {
+                skipping = true;
+                if(policy == OverflowPolicy.FAIL) {
+                    lineEnd = write;
+                    scan = read;
+                    throw new LineTooLongException(maxLineLength);
+                }
+                continue;
+            }
+            bytes[write++] = b;
+            if(policy == OverflowPolicy.SPLIT && write - lineStart == maxLineLength) {
+                return complete(write, read, true);
+            }
+        }
+        lineEnd = write;
+        scan = read;
+        return false;
+    }
+
+    /*
+     * The flag of the previous line is replaced, only a line split at the max length or with skipped bytes overflowed.
+     */
+    private boolean complete(int write, int read, boolean split) {
+        lineOffset = lineStart;
+        lineLength = skipping && policy != OverflowPolicy.TRUNCATE ? 0 : write - lineStart;
+        overflowed = split || skipping;
+        skipping = false;
+        lineStart = read;
+        lineEnd = read;
+        scan = read;
+        return true;
+    }
+
+    /**
+     * Check the input read since the last call to {@link #next()} for an interrupt of the client : Ctrl-C or, with a
+     * {@link TelnetDecoder}, IAC IP or IAC BREAK. The input up to the (last) interrupt is discarded, the rest is kept.
+     *
+     * @return  true if the client interrupted.
+     */
+    public boolean interrupted() {
+        for(int i = end - 1; i >= scan; i--) {
+            if(buffer[i] == ETX) {
+                lineEnd = lineStart;
+                skipping = false;
+                System.arraycopy(buffer, i + 1, buffer, lineStart, end - i - 1);
+                scan = lineStart;
+                end = lineStart + end - i - 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read from a blocking stream until a complete line is available.
+     * At the end of the stream an incomplete last line is returned as well.
+     *
+     * @param in    Stream to read from.
+     * @return      true if a line is available, false if the end of the stream was reached.
+     * @throws IOException
+     */
+    public boolean readLine(InputStream in) throws IOException {
+        checkNotNull(in, "Input stream cannot be null.");
+        while(!next()) {
+            if(fill(in) < 0) {
+                return finish();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Complete an incomplete last line, when the end of the input was reached.
+     *
+     * @return  true if there was an incomplete line, that is available now.
+     */
+    public boolean finish() {
+        if(lineEnd > lineStart || skipping) {
+            return complete(lineEnd, scan, false);
+        }
+        return false;
+    }
+
+    /**
+     * Read as many bytes as available from the stream with a single read call. Only call this, if {@link #next()}
+     * returned false.
+     *
+     * @param in    Stream to read from.
+     * @return      Number of bytes read (including telnet commands) or -1 at the end of the stream.
+     * @throws IOException
+     */
+    public int fill(InputStream in) throws IOException {
+        makeRoom();
+        final int read = in.read(buffer, end, buffer.length - end);
+        if(read > 0) {
+            filled(read);
+        }
+        return read;
+    }
+
+    /**
+     * Read as many bytes as available from the channel with a single read call. Only call this, if {@link #next()}
+     * returned false.
+     *
+     * @param channel   Channel to read from (blocking or non-blocking).
+     * @return          Number of bytes read (including telnet commands) or -1 at the end of the stream.
+     * @throws IOException
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        makeRoom();
+        fillView.limit(buffer.length).position(end);
+        final int read = channel.read(fillView);
+        if(read > 0) {
+            filled(read);
+        }
+        return read;
+    }
+
+    private void filled(int read) {
+        end += telnet.isPresent() ? telnet.get().decode(buffer, end, read) : read;
+    }
+
+    /*
+     * Move the incomplete line and the unscanned bytes to the start of the buffer, if the buffer is full or empty.
+     */
+    private void makeRoom() {
+        final int pending = lineEnd - lineStart;
+        final int unscanned = end - scan;
+        if(pending + unscanned > 0 && end < buffer.length) {
+            return;
+        }
+        System.arraycopy(buffer, lineStart, buffer, 0, pending);
+        System.arraycopy(buffer, scan, buffer, pending, unscanned);
+        lineStart = 0;
+        lineEnd = pending;
+        scan = pending;
+        end = pending + unscanned;
+    }
+
+    /**
+     * @return  The buffer holding the current line.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * @return  Offset of the current line in {@link #array()}.
+     */
+    public int lineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * @return  Length of the current line in bytes.
+     */
+    public int lineLength() {
+        return lineLength;
+    }
+
+    /**
+     * @return  true if the current line exceeded the max line length and was handled according to the policy.
+     */
+    public boolean overflowed() {
+        return overflowed;
+    }
+
+    /**
+     * A read-only view of the current line. The view is reused, its position and limit frame the current line.
+     *
+     * @return  View of the current line.
+     */
+    public ByteBuffer line() {
+        lineView.clear();
+        lineView.position(lineOffset);
+        lineView.limit(lineOffset + lineLength);
+        return lineView;
+    }
+
+    /**
+     * @return  A copy of the current line.
+     */
+    public byte[] copyLine() {
+        return Arrays.copyOfRange(buffer, lineOffset, lineOffset + lineLength);
+    }
+
+    /**
+     * Compare the current line with some bytes without copying it.
+     *
+     * @param bytes     Bytes to compare with.
+     * @return          true if the current line equals the bytes.
+     */
+    public boolean lineEquals(byte[] bytes) {
+        checkNotNull(bytes, "Bytes cannot be null.");
+        if(bytes.length != lineLength) {
+            return false;
+        }
+        for(int i = 0; i < lineLength; i++) {
+            if(bytes[i] != buffer[lineOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  The max length of a line in bytes.
+     */
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * @return  The policy for lines exceeding the max line length.
+     */
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * A stream reading the raw bytes (not split into lines) through the buffer of this decoder. Bytes read ahead by
+     * the stream stay in the buffer and are decoded by the next call to {@link #next()}. This way a blocking
+     * {@link de.logicalco.socketeer.server.SecurityHandler} can share the buffer with the session.
+     * The stream must not be used while a line is incomplete. Closing the stream closes the source.
+     *
+     * @param source    Stream to read from.
+     * @return          Buffered stream.
+     */
+    public InputStream asInputStream(final InputStream source) {
+        checkNotNull(source, "Source cannot be null.");
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if(!ensureBuffered(source)) {
+                    return -1;
+                }
+                return buffer[scan++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                checkNotNull(b, "Array cannot be null.");
+                if(len == 0) {
+                    return 0;
+                }
+                if(!ensureBuffered(source)) {
+                    return -1;
+                }
+                final int read = Math.min(len, end - scan);
+                System.arraycopy(buffer, scan, b, off, read);
+                scan += read;
+                return read;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return end - scan + source.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                source.close();
+            }
+        };
+    }
+
+    private boolean ensureBuffered(InputStream source) throws IOException {
+        checkState(lineEnd == lineStart && !skipping, "Decoder holds an incomplete line.");
+        while(scan == end) {
+            lineStart = scan;
+            lineEnd = scan;
+            if(fill(source) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give back the buffer to the pool (if any). The decoder must not be used afterwards.
+     */
+    public void release() {
+        if(pool.isPresent() && buffer != null) {
+            pool.get().release(buffer);
+        }
+        buffer = null;
+    }
+}
@@ -0,0 +1,28 @@
+package de.logicalco.socketeer.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link LineDecoder} with {@link LineDecoder.OverflowPolicy#FAIL}, if a line exceeds the max line length.
+ */
+public class LineTooLongException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxLineLength;
+
+    /**
+     * @param maxLineLength The max line length, that was exceeded.
+     */
+    public LineTooLongException(int maxLineLength) {
+        super(String.format("Line exceeds %d bytes.", maxLineLength));
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * @return  The max line length, that was exceeded.
+     */
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+}
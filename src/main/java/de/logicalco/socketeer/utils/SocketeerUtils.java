@@ -28,6 +28,10 @@ public class SocketeerUtils {
      * unicode carriage return
      */
     private static final int UCR = 13;
+    /**
+     * end of text (Ctrl-C, as well as the telnet interrupt decoded by the {@link TelnetDecoder})
+     */
+    private static final int ETX = 3;
     /**
      * end of stream
      */
@@ -39,8 +43,10 @@ public class SocketeerUtils {
 
     /**
      * Read a line from a inout stream - all bytes until the unicode character 10 was detected, the stream end was
-     * reached or the buffer is full). The unicode character 0 and the carraige return (13) is ignored and will not be
-     * stored in the result array.
+     * reached or the buffer is full). The unicode character 0, the carraige return (13) and Ctrl-C (3) are ignored and
+     * will not be stored in the result array, neither are telnet commands (see {@link TelnetDecoder}).
+     * <b>Note</b> : The stream is read byte by byte, so nothing beyond the line is consumed. For reading a sequence of
+     * lines from a socket use a {@link LineDecoder}, which reads in bulk and does not allocate per line.
      * @param in            InoutStream to read from.
      * @param bufferSize    Size of the internal read buffer.
      * @return              Byte array with the payload read.
@@ -51,16 +57,26 @@ public class SocketeerUtils {
         checkArgument(bufferSize > 0, "Buffer site has to be positive.");
         int byteRead = -100;
         final byte[] buffer = new byte[bufferSize];
+        final TelnetDecoder telnet = new TelnetDecoder();
         int index = 0;
         while(index < bufferSize - 1) {
             byteRead = in.read();
-            if(byteRead == EOS || byteRead == ULF) {
+            if(byteRead == EOS) {
+                break;
+            }
+            buffer[index] = (byte) byteRead;
+            if(telnet.decode(buffer, index, 1) == 0) {
+                //part of a telnet command
+                continue;
+            }
+            //the decoded byte, e.g. Ctrl-C for IAC IP
+            final int decoded = toUnsignedInt(buffer[index]);
+            if(decoded == ULF) {
                 break;
             }
-            if(byteRead == UNC || byteRead == UCR) {
+            if(decoded == UNC || decoded == UCR || decoded == ETX) {
                 continue;
             }
-            buffer[index] = toSignedByte(byteRead);
             index++;
         }
         return Arrays.copyOfRange(buffer, 0, index);
@@ -4,24 +4,38 @@ import com.google.common.base.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 
 /**
- * Enum holding telnet commands and methods to with with them.
+ * Enum holding the telnet commands (RFC 854) and options (RFC 855 and following) and methods to work with them.
+ * The values are looked up by code in a table and the negotiation frames (IAC, verb and option) are encoded once, so
+ * neither decoding nor encoding allocates. Use {@link TelnetDecoder} to filter telnet commands out of the input.
  */
 public enum Telnet {
 
+    BINARY(0, "BINARY"),
     ECHO(1, "ECHO"),
+    SGA(3, "SUPPRESS-GO-AHEAD"),
+    STATUS(5, "STATUS"),
+    TIMING_MARK(6, "TIMING-MARK"),
+    TTYPE(24, "TERMINAL-TYPE"),
+    NAWS(31, "NAWS"),
+    TSPEED(32, "TERMINAL-SPEED"),
+    LFLOW(33, "REMOTE-FLOW-CONTROL"),
+    LINEMODE(34, "LINEMODE"),
+    NEW_ENVIRON(39, "NEW-ENVIRON"),
     EOF(236, "EOF"),
     SUSP(237, "SUSP"),
     ABORT(238, "ABORT"),
     EOR(239, "EOR"),
     SE(240, "SE"),
     NOP(241, "NOP"),
-    // TODO what is 242?
+    DM(242, "DM"),
     BREAK(243, "BREAK"),
     IP(244, "IP"),
     AO(245, "AO"),
@@ -38,8 +52,20 @@ public enum Telnet {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Telnet.class);
 
-    private int code;
-    private String command;
+    /*
+     * Optional per code, so a lookup neither scans nor allocates.
+     */
+    private static final Optional<Telnet>[] BY_CODE = byCode();
+
+    /*
+     * The negotiation frames IAC WILL/WONT/DO/DONT option, all encoded at class initialization (3K), so they are safely
+     * published to all threads. Index is verb offset * 256 + option.
+     */
+    private static final byte[][] FRAMES = frames();
+
+    private final int code;
+    private final byte value;
+    private final String command;
 
     /*
      * @param code      The numeric code, representing the telnet command character.
@@ -47,16 +73,37 @@ public enum Telnet {
      */
     private Telnet(int code, String command) {
         this.code = code;
+        this.value = (byte) code;
         this.command = command;
     }
 
+    @SuppressWarnings("unchecked")
+    private static Optional<Telnet>[] byCode() {
+        final Optional<Telnet>[] table = new Optional[256];
+        for(int i = 0; i < table.length; i++) {
+            table[i] = Optional.absent();
+        }
+        for(final Telnet telnet : values()) {
+            table[telnet.code] = Optional.of(telnet);
+        }
+        return table;
+    }
+
+    private static byte[][] frames() {
+        final byte[][] frames = new byte[4 * 256][];
+        for(int i = 0; i < frames.length; i++) {
+            frames[i] = new byte[]{IAC.value, (byte) (WILL.code + i / 256), (byte) (i % 256)};
+        }
+        return frames;
+    }
+
     /**
      * Get the command character as (signed) byte.
      *
      * @return  Byte representation of the command character.
      */
     public byte getByte() {
-        return SocketeerUtils.toSignedByte(code);
+        return value;
     }
 
     /**
@@ -84,16 +131,12 @@ public enum Telnet {
      * @return      Telnet value.
      */
     public static Optional<Telnet> forCode(int code) {
-        for(final Telnet cmd : Telnet.values()) {
-            if(cmd.getCode() == code) {
-                return Optional.of(cmd);
-            }
-        }
-        return Optional.absent();
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : Optional.<Telnet>absent();
     }
 
     /**
      * Build a command sequence returned in bytes from some Telnet values.
+     * For negotiations use {@link #writeNegotiation(OutputStream, Telnet, int)}, which does not allocate.
      *
      * @param cmds  Telnet values to build bytewiese command chain.
      * @return      Bytewiese command chain.
@@ -104,11 +147,38 @@ public enum Telnet {
         for(int i=0;i<cmds.length;i++) {
             final Telnet cmd = cmds[i];
             checkNotNull(cmd, "Command cannot be null.");
-            bytes[i] = cmd.getByte();
+            bytes[i] = cmd.value;
         }
         return bytes;
     }
 
+    /**
+     * Write the negotiation IAC verb option with a single write call.
+     *
+     * @param out       Stream to write to.
+     * @param verb      {@link #WILL}, {@link #WONT}, {@link #DO} or {@link #DONT}.
+     * @param option    The option code.
+     * @throws IOException
+     */
+    public static void writeNegotiation(OutputStream out, Telnet verb, int option) throws IOException {
+        checkNotNull(out, "Output stream cannot be null.");
+        checkNotNull(verb, "Verb cannot be null.");
+        out.write(negotiation(verb.code, option));
+    }
+
+    /**
+     * The cached frame of a negotiation, it is shared and must not be modified.
+     *
+     * @param verb      Code of WILL, WONT, DO or DONT.
+     * @param option    The option code.
+     * @return          IAC verb option.
+     */
+    static byte[] negotiation(int verb, int option) {
+        checkArgument(verb >= WILL.code && verb <= DONT.code, "Verb has to be WILL, WONT, DO or DONT.");
+        checkArgument(option >= 0 && option <= 255, "Option has to be between 0 and 255.");
+        return FRAMES[(verb - WILL.code) * 256 + option];
+    }
+
     /**
      * Read a command code chain an return a Telnet array.
      *
@@ -123,29 +193,30 @@ public enum Telnet {
             if(cmd.isPresent()) {
                 cmds[i] = cmd.get();
             } else {
-                LOGGER.warn(String.format("Found no telnet command for code '%d'", codes[i]));
+                LOGGER.warn("Found no telnet command for code '{}'", codes[i]);
             }
         }
         return cmds;
     }
 
     /**
-     * Create a string representing a command chain for a better readability.
+     * Create a string representing a command chain for a better readability. Unknown codes are shown as numbers.
+     * Only call this for logging, if the log level is enabled.
      *
      * @param codes Commans codes.
      * @return      String representation of the given commans codes.
      */
     public static String cmdChainToString(int...codes) {
         checkNotNull(codes, "Codes cannot be null.");
-        final Telnet[] cmds = readCmdChain(codes);
-        final StringWriter writer = new StringWriter();
-        for(int i=0; i<cmds.length;i++) {
-            writer.append(cmds[i].getCommand());
-            if(i < cmds.length-1) {
-                writer.append(" ");
+        final StringBuilder builder = new StringBuilder();
+        for(int i=0; i<codes.length;i++) {
+            final Optional<Telnet> cmd = forCode(codes[i]);
+            builder.append(cmd.isPresent() ? cmd.get().command : String.valueOf(codes[i]));
+            if(i < codes.length-1) {
+                builder.append(' ');
             }
         }
-        return writer.toString();
+        return builder.toString();
     }
 
 }
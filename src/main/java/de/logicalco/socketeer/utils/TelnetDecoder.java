@@ -0,0 +1,378 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Streaming telnet decoder for one session. Telnet commands (IAC sequences including the subnegotiations
+ * IAC SB ... IAC SE) are filtered out of the input as it arrives, a command may be split across any number of reads.
+ * An escaped IAC (IAC IAC) is kept as data byte 255, an interrupt (IAC IP or IAC BREAK) is passed on as Ctrl-C (data
+ * byte 3), like a terminal does.
+ * <br/>
+ * The decoder keeps the state of the options on both sides of the connection : An option is enabled locally, if the
+ * server agreed to the client's DO (or the client acknowledged the server's WILL), and remotely, if the server agreed
+ * to the client's WILL (or the client acknowledged the server's DO). Requests of the client are answered via
+ * {@link #withReplies(Replies)}, {@link Telnet#SGA} is accepted on both sides, {@link Telnet#NAWS} remotely, all other
+ * options are refused. A request changing nothing is not answered, so negotiations cannot loop. Requests of the
+ * server have to be written through {@link #negotiating(OutputStream)}, so the client's answer is not taken as a
+ * request.
+ * <br/>
+ * Typical usage :
+ * <pre>
+ *     final int read = in.read(buffer, offset, length);
+ *     final int data = decoder.decode(buffer, offset, read);
+ *     handle(buffer, offset, data);
+ * </pre>
+ * <b>Note</b> : A decoder is not thread-safe.
+ */
+public final class TelnetDecoder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TelnetDecoder.class);
+
+    /**
+     * Sends the answers to the client's requests.
+     */
+    public interface Replies {
+        /**
+         * Send a reply to the client.
+         *
+         * @param reply The telnet command (IAC, verb and option), the array is shared and must not be modified.
+         */
+        void send(byte[] reply);
+    }
+
+    private static final int IAC = Telnet.IAC.getCode();
+    private static final int WILL = Telnet.WILL.getCode();
+    private static final int WONT = Telnet.WONT.getCode();
+    private static final int DO = Telnet.DO.getCode();
+    private static final int DONT = Telnet.DONT.getCode();
+    private static final int SB = Telnet.SB.getCode();
+    private static final int SE = Telnet.SE.getCode();
+    private static final int IP = Telnet.IP.getCode();
+    private static final int BREAK = Telnet.BREAK.getCode();
+    private static final byte CTRL_C = 3;
+
+    /**
+     * Longer subnegotiations are cut, the options handled need only a few bytes.
+     */
+    private static final int MAX_SUBNEGOTIATION = 32;
+
+    private enum State {
+        DATA,
+        /**
+         * After IAC.
+         */
+        COMMAND,
+        /**
+         * After IAC WILL/WONT/DO/DONT.
+         */
+        OPTION,
+        /**
+         * After IAC SB.
+         */
+        SUBNEGOTIATION_OPTION,
+        SUBNEGOTIATION,
+        /**
+         * After IAC within a subnegotiation.
+         */
+        SUBNEGOTIATION_COMMAND
+    }
+
+    //one bit per option code
+    private final long[] local = new long[4];
+    private final long[] remote = new long[4];
+    private final long[] localRequested = new long[4];
+    private final long[] remoteRequested = new long[4];
+    private final long[] localAccepted = new long[4];
+    private final long[] remoteAccepted = new long[4];
+
+    private Optional<Replies> replies = Optional.absent();
+    private State state = State.DATA;
+    private int verb;
+    private int subnegotiationOption;
+    private byte[] subnegotiation;
+    private int subnegotiationLength;
+    private int windowWidth = 0;
+    private int windowHeight = 0;
+
+    public TelnetDecoder() {
+        set(localAccepted, Telnet.SGA.getCode(), true);
+        set(remoteAccepted, Telnet.SGA.getCode(), true);
+        set(remoteAccepted, Telnet.NAWS.getCode(), true);
+    }
+
+    /**
+     * Answer the client's requests (by default requests are not answered, the decoder only filters the input).
+     *
+     * @param replies   Sends the replies, it is called while decoding.
+     * @return          this
+     */
+    public TelnetDecoder withReplies(Replies replies) {
+        this.replies = Optional.of(checkNotNull(replies, "Replies cannot be null."));
+        return this;
+    }
+
+    /**
+     * Filter the telnet commands out of the given bytes in place. The data bytes are moved to the start of the range.
+     *
+     * @param bytes     Array holding the input.
+     * @param offset    Offset of the input.
+     * @param length    Number of input bytes.
+     * @return          Number of data bytes, that are left at the offset.
+     */
+    public int decode(byte[] bytes, int offset, int length) {
+        checkNotNull(bytes, "Bytes cannot be null.");
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= bytes.length, "Range out of bounds.");
+        final int limit = offset + length;
+        int read = offset;
+        if(state == State.DATA) {
+            //nothing to move up to the first command
+            while(read < limit && bytes[read] != (byte) IAC) {
+                read++;
+            }
+            if(read == limit) {
+                return length;
+            }
+        }
+        int write = read;
+        for(; read < limit; read++) {
+            final int b = bytes[read] & 0xFF;
+            switch(state) {
+                case DATA:
+                    if(b == IAC) {
+                        state = State.COMMAND;
+                    } else {
+                        bytes[write++] = (byte) b;
+                    }
+                    break;
+                case COMMAND:
+                    if(b == IAC) {
+                        bytes[write++] = (byte) b;
+                        state = State.DATA;
+                    } else if(b >= WILL && b <= DONT) {
+                        verb = b;
+                        state = State.OPTION;
+                    } else if(b == SB) {
+                        state = State.SUBNEGOTIATION_OPTION;
+                    } else if(b == IP || b == BREAK) {
+                        bytes[write++] = CTRL_C;
+                        state = State.DATA;
+                    } else {
+                        //NOP, GA, AO, ... are dropped
+                        if(LOGGER.isDebugEnabled()) {
+                            LOGGER.debug("Client sent 'IAC {}'.", name(b));
+                        }
+                        state = State.DATA;
+                    }
+                    break;
+                case OPTION:
+                    negotiate(verb, b);
+                    state = State.DATA;
+                    break;
+                case SUBNEGOTIATION_OPTION:
+                    subnegotiationOption = b;
+                    subnegotiationLength = 0;
+                    state = State.SUBNEGOTIATION;
+                    break;
+                case SUBNEGOTIATION:
+                    if(b == IAC) {
+                        state = State.SUBNEGOTIATION_COMMAND;
+                    } else {
+                        append(b);
+                    }
+                    break;
+                case SUBNEGOTIATION_COMMAND:
+                    if(b == IAC) {
+                        append(b);
+                        state = State.SUBNEGOTIATION;
+                    } else {
+                        subnegotiated();
+                        if(b == SE) {
+                            state = State.DATA;
+                        } else {
+                            //SE is missing, the byte is handled as command
+                            state = State.COMMAND;
+                            read--;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state " + state);
+            }
+        }
+        return write - offset;
+    }
+
+    /**
+     * A stream registering the server's requests (IAC WILL/WONT/DO/DONT option) written through it, so the client's
+     * answers are taken as acknowledgements and are not answered.
+     *
+     * @param out   Stream to the client.
+     * @return      Stream writing through to the given stream.
+     */
+    public OutputStream negotiating(final OutputStream out) {
+        checkNotNull(out, "Output stream cannot be null.");
+        return new FilterOutputStream(out) {
+
+            //0 : data, 1 : after IAC, verb : after IAC and verb
+            private int sent = 0;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                register(b & 0xFF);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                for(int i = off; i < off + len; i++) {
+                    register(b[i] & 0xFF);
+                }
+            }
+
+            private void register(int b) {
+                if(sent == 0) {
+                    sent = b == IAC ? 1 : 0;
+                } else if(sent == 1) {
+                    sent = b >= WILL && b <= DONT ? b : 0;
+                } else {
+                    requested(sent, b);
+                    sent = 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * Register a request of the server, that was sent to the client without {@link #negotiating(OutputStream)}.
+     *
+     * @param verb      {@link Telnet#WILL}, {@link Telnet#WONT}, {@link Telnet#DO} or {@link Telnet#DONT}.
+     * @param option    The option code.
+     */
+    public void requested(Telnet verb, int option) {
+        checkNotNull(verb, "Verb cannot be null.");
+        checkArgument(verb.getCode() >= WILL && verb.getCode() <= DONT, "Verb has to be WILL, WONT, DO or DONT.");
+        requested(verb.getCode(), option);
+    }
+
+    private void requested(int verb, int option) {
+        checkOption(option);
+        set(verb == WILL || verb == WONT ? localRequested : remoteRequested, option, true);
+    }
+
+    /**
+     * @param option    The option code.
+     * @return          true if the server performs the option.
+     */
+    public boolean isEnabledLocally(int option) {
+        checkOption(option);
+        return isSet(local, option);
+    }
+
+    /**
+     * @param option    The option code.
+     * @return          true if the client performs the option.
+     */
+    public boolean isEnabledRemotely(int option) {
+        checkOption(option);
+        return isSet(remote, option);
+    }
+
+    /**
+     * @return  Width of the client's window in characters, 0 if the client did not send it (see {@link Telnet#NAWS}).
+     */
+    public int getWindowWidth() {
+        return windowWidth;
+    }
+
+    /**
+     * @return  Height of the client's window in lines, 0 if the client did not send it (see {@link Telnet#NAWS}).
+     */
+    public int getWindowHeight() {
+        return windowHeight;
+    }
+
+    /*
+     * WILL/WONT are about the client's side, DO/DONT about the server's side. An answer to a request of the server
+     * sets the state without reply, a request of the client is answered, if it changes the state.
+     */
+    private void negotiate(int verb, int option) {
+        if(LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Client sent 'IAC {} {}'.", name(verb), name(option));
+        }
+        final boolean remoteSide = verb == WILL || verb == WONT;
+        final long[] enabled = remoteSide ? remote : local;
+        final long[] requested = remoteSide ? remoteRequested : localRequested;
+        final boolean enable = verb == WILL || verb == DO;
+        if(isSet(requested, option)) {
+            set(requested, option, false);
+            set(enabled, option, enable);
+            return;
+        }
+        if(isSet(enabled, option) == enable) {
+            return;
+        }
+        final boolean accepted = !enable || isSet(remoteSide ? remoteAccepted : localAccepted, option);
+        if(accepted) {
+            set(enabled, option, enable);
+        }
+        final boolean agree = accepted == enable;
+        reply(remoteSide ? (agree ? DO : DONT) : (agree ? WILL : WONT), option);
+    }
+
+    private void reply(int verb, int option) {
+        if(replies.isPresent()) {
+            replies.get().send(Telnet.negotiation(verb, option));
+        }
+    }
+
+    private void append(int b) {
+        if(subnegotiation == null) {
+            subnegotiation = new byte[MAX_SUBNEGOTIATION];
+        }
+        if(subnegotiationLength < MAX_SUBNEGOTIATION) {
+            subnegotiation[subnegotiationLength++] = (byte) b;
+        }
+    }
+
+    private void subnegotiated() {
+        if(subnegotiationOption == Telnet.NAWS.getCode() && subnegotiationLength >= 4) {
+            windowWidth = (subnegotiation[0] & 0xFF) << 8 | subnegotiation[1] & 0xFF;
+            windowHeight = (subnegotiation[2] & 0xFF) << 8 | subnegotiation[3] & 0xFF;
+            LOGGER.debug("Client window is {}x{}.", windowWidth, windowHeight);
+        }
+    }
+
+    private static void checkOption(int option) {
+        checkArgument(option >= 0 && option <= 255, "Option has to be between 0 and 255.");
+    }
+
+    /*
+     * Only for logging, the code itself if it is unknown.
+     */
+    private static String name(int code) {
+        final Optional<Telnet> telnet = Telnet.forCode(code);
+        return telnet.isPresent() ? telnet.get().getCommand() : String.valueOf(code);
+    }
+
+    private static boolean isSet(long[] bits, int option) {
+        return (bits[option >>> 6] & 1L << option) != 0;
+    }
+
+    private static void set(long[] bits, int option, boolean value) {
+        if(value) {
+            bits[option >>> 6] |= 1L << option;
+        } else {
+            bits[option >>> 6] &= ~(1L << option);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package de.logicalco.socketeer.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hashed timer wheel for a lot of coarse timeouts (e.g. one per session), that are usually cancelled before they
+ * expire. Scheduling and cancelling are O(1) and do not take a lock : New timeouts are handed to the timer thread via
+ * a lock-free queue, cancelled timeouts are only marked and dropped, when the thread passes their bucket. The thread
+ * advances the wheel by one bucket per tick, so timeouts expire up to one tick late.
+ * <br/>
+ * The tasks are run by the timer thread, so they have to be short (e.g. hand the work over to another thread).
+ * The thread is started with the first timeout.
+ */
+public final class TimerWheel implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+    /**
+     * A scheduled task.
+     */
+    public interface Timeout {
+
+        /**
+         * Cancel the task, if it did not run yet.
+         *
+         * @return  true if the task will not run, false if it ran already or was cancelled before.
+         */
+        boolean cancel();
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final int NEW = 0;
+    private static final int STARTED = 1;
+    private static final int CLOSED = 2;
+
+    private static final class Entry implements Timeout {
+
+        private final Runnable task;
+        //nanos since the start of the wheel
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+
+        private Entry(final Runnable task, final long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        private boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Entry>[] buckets;
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger workerState = new AtomicInteger(NEW);
+    private final Thread worker;
+
+    private volatile long startTime;
+    private long tick = 0;
+
+    /**
+     * A wheel with a tick of 100ms and 512 buckets.
+     */
+    public TimerWheel() {
+        this(100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param tick          Duration of a tick, the precision of the timeouts.
+     * @param unit          Unit of the tick.
+     * @param bucketCount   Number of buckets, rounded up to a power of two. Timeouts exceeding bucketCount ticks
+     *                      are passed more than once by the timer thread.
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(final long tick, final TimeUnit unit, final int bucketCount) {
+        checkArgument(tick > 0, "Tick has to be positive.");
+        checkNotNull(unit, "Unit cannot be null.");
+        checkArgument(bucketCount > 0 && bucketCount <= 1 << 16, "Bucket count has to be between 1 and 65536.");
+        this.tickNanos = unit.toNanos(tick);
+        final int size = bucketCount == 1 ? 1 : Integer.highestOneBit(bucketCount - 1) << 1;
+        this.mask = size - 1;
+        this.buckets = new Queue[size];
+        for(int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.worker = new ThreadFactoryBuilder().setNameFormat("socketeer-timer-wheel-%d").setDaemon(true).build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                });
+    }
+
+    /**
+     * Run a task once after a delay. If the wheel is closed, the task never runs.
+     *
+     * @param task  Task to run by the timer thread.
+     * @param delay Delay of the task.
+     * @param unit  Unit of the delay.
+     * @return      The timeout, to cancel it.
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        checkNotNull(task, "Task cannot be null.");
+        checkNotNull(unit, "Unit cannot be null.");
+        if(!start()) {
+            return new Entry(task, 0);
+        }
+        final Entry entry = new Entry(task, System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay)));
+        added.add(entry);
+        return entry;
+    }
+
+    /**
+     * Stop the timer thread, the tasks still pending do not run anymore.
+     */
+    @Override
+    public void close() {
+        if(workerState.getAndSet(CLOSED) == STARTED) {
+            worker.interrupt();
+        }
+        added.clear();
+    }
+
+    /**
+     * @return  Number of buckets.
+     */
+    int getBucketCount() {
+        return buckets.length;
+    }
+
+    /*
+     * @return  false if the wheel is closed.
+     */
+    private boolean start() {
+        if(workerState.get() == NEW && workerState.compareAndSet(NEW, STARTED)) {
+            startTime = System.nanoTime();
+            worker.start();
+        }
+        //the thread starting the wheel may not have set the start time yet
+        while(startTime == 0 && workerState.get() == STARTED) {
+            Thread.yield();
+        }
+        return workerState.get() == STARTED;
+    }
+
+    private void work() {
+        while(workerState.get() == STARTED) {
+            final long deadline = (tick + 1) * tickNanos;
+            final long sleep = deadline - (System.nanoTime() - startTime);
+            if(sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch(InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+            transferAdded();
+            expire(buckets[(int) (tick & mask)], deadline);
+            tick++;
+        }
+        for(final Queue<Entry> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    private void transferAdded() {
+        Entry entry;
+        while((entry = added.poll()) != null) {
+            if(entry.isCancelled()) {
+                continue;
+            }
+            final long due = entry.deadline / tickNanos;
+            entry.rounds = (due - tick) / buckets.length;
+            //overdue timeouts expire with the current tick
+            buckets[(int) (Math.max(due, tick) & mask)].add(entry);
+        }
+    }
+
+    private void expire(final Queue<Entry> bucket, final long deadline) {
+        final Iterator<Entry> entries = bucket.iterator();
+        while(entries.hasNext()) {
+            final Entry entry = entries.next();
+            if(entry.isCancelled()) {
+                entries.remove();
+            } else if(entry.rounds <= 0 && entry.deadline <= deadline) {
+                entries.remove();
+                if(entry.state.compareAndSet(PENDING, EXPIRED)) {
+                    run(entry.task);
+                }
+            } else {
+                entry.rounds--;
+            }
+        }
+    }
+
+    private static void run(final Runnable task) {
+        try {
+            task.run();
+        } catch(Exception e) {
+            LOGGER.error("Timer task failed!", e);
+        }
+    }
+}
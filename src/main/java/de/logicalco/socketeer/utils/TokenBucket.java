@@ -0,0 +1,82 @@
+package de.logicalco.socketeer.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as generic cell rate algorithm : Instead of a token count, that has to be
+ * refilled, the bucket only keeps the time, at which it would be full again. Taking a token moves this time by one
+ * interval, a token is available, as long as the time is less than a burst of intervals ahead. So the state is a
+ * single long, which is updated by compare-and-set.
+ * <br/>
+ * The rate is passed to every call, so it can be changed at any time without resetting the bucket. All times are
+ * nanos of the same clock (e.g. {@link System#nanoTime()}).
+ */
+public final class TokenBucket {
+
+    //time at which the bucket is full again
+    private final AtomicLong full;
+
+    /**
+     * @param now   Current time, the bucket starts full.
+     */
+    public TokenBucket(final long now) {
+        this.full = new AtomicLong(now);
+    }
+
+    /**
+     * Take a token, if one is available.
+     *
+     * @param now       Current time.
+     * @param interval  Nanos per token.
+     * @param window    Nanos of the burst (the max amount of tokens times the interval).
+     * @return          0 if a token was taken, otherwise the nanos until a token is available.
+     */
+    public long tryAcquire(final long now, final long interval, final long window) {
+        while(true) {
+            final long current = full.get();
+            final long next = Math.max(current, now) + interval;
+            final long wait = next - now - window;
+            if(wait > 0) {
+                return wait;
+            }
+            if(full.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Take a token, possibly in advance : The caller has to wait until the token is due.
+     *
+     * @param now       Current time.
+     * @param interval  Nanos per token.
+     * @param window    Nanos of the burst (the max amount of tokens times the interval).
+     * @return          Nanos until the token is due, 0 if it is available at once.
+     */
+    public long reserve(final long now, final long interval, final long window) {
+        while(true) {
+            final long current = full.get();
+            final long next = Math.max(current, now) + interval;
+            if(full.compareAndSet(current, next)) {
+                return Math.max(0, next - now - window);
+            }
+        }
+    }
+
+    /**
+     * Give back a token, e.g. if the caller could not take the token of another bucket.
+     *
+     * @param interval  Nanos per token.
+     */
+    public void release(final long interval) {
+        full.addAndGet(-interval);
+    }
+
+    /**
+     * @param now   Current time.
+     * @return      true if the bucket is full, so it can be replaced by a new one.
+     */
+    public boolean isFull(final long now) {
+        return full.get() - now <= 0;
+    }
+}
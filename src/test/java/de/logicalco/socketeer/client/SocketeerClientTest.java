@@ -0,0 +1,481 @@
+package de.logicalco.socketeer.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.server.AsyncCommandHandler;
+import de.logicalco.socketeer.server.CommandHandler;
+import de.logicalco.socketeer.server.SessionTestSupport;
+import de.logicalco.socketeer.server.SocketeerServer;
+import de.logicalco.socketeer.server.TelnetPasswordUsernameSecurityHandler;
+import de.logicalco.socketeer.server.WireProtocol;
+import de.logicalco.socketeer.utils.FrameStatus;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test class for 'SocketeerClient'.
+ */
+public class SocketeerClientTest {
+
+    /*
+     * Echoes every command, 'hold' is answered with 'released', when the test completes the held response, 'fail'
+     * fails. The prompt is 'app> '.
+     */
+    private static final class Handler implements AsyncCommandHandler {
+
+        private final CompletableFuture<Optional<byte[]>> held = new CompletableFuture<>();
+
+        @Override
+        public Optional<byte[]> getOpener() {
+            return Optional.of("Welcome\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public byte[] getAppName() {
+            return "app".getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public CompletionStage<Optional<byte[]>> handle(final byte[] command) {
+            final String cmd = new String(command, StandardCharsets.UTF_8);
+            if("hold".equals(cmd)) {
+                return held;
+            }
+            if("fail".equals(cmd)) {
+                throw new IllegalStateException("Failed on purpose.");
+            }
+            return CompletableFuture.completedFuture(Optional.of((cmd + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public byte[] getEscapeSeq() {
+            return "exit".getBytes(StandardCharsets.UTF_8);
+        }
+
+        void release() {
+            held.complete(Optional.of("released\n".getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = NullPointerException.class)
+    public void testInvalidCreation(InetSocketAddress address, String appName, Charset charset) {
+        new SocketeerClient(address, appName, charset);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        final InetSocketAddress address = new InetSocketAddress("localhost", 8080);
+        return new Object[][] {
+                //address is null
+                {null, "app", StandardCharsets.UTF_8},
+                //app name is null
+                {address, null, StandardCharsets.UTF_8},
+                //charset is null
+                {address, "app", null}
+        };
+    }
+
+    @Test(dataProvider = "invalidPoolProvider",
+            expectedExceptions = {IllegalArgumentException.class, NullPointerException.class})
+    public void testWithPoolNegative(Integer maxConnections, Integer maxPipelined) {
+        client(8080).withPool(maxConnections, maxPipelined);
+    }
+
+    @DataProvider
+    public Object[][] invalidPoolProvider() {
+        return new Object[][] {
+                //max connections is null
+                {null, 1},
+                //max connections is 0
+                {0, 1},
+                //max pipelined is null
+                {1, null},
+                //max pipelined is negative
+                {1, -1}
+        };
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWithTimeoutNegative() {
+        client(8080).withTimeout(0L, TimeUnit.SECONDS);
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testExecute(Boolean framing) throws Exception {
+        final int port = freePort();
+        final Handler handler = new Handler();
+        final SocketeerServer server = server(port, handler, framing)
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8));
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing).withCredentials("user", "pass");
+        try {
+            assertEquals(client.execute("ping"), "ping\n");
+            assertEquals(client.submit("pong").get(5, TimeUnit.SECONDS), "pong\n");
+            assertEquals(client.execute(new byte[] {'a', 'b'}), new byte[] {'a', 'b', '\n'});
+            //the connection is kept
+            assertEquals(client.getOpenConnections(), 1);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testAuthenticationFailed(Boolean framing) throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), framing)
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8));
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing).withCredentials("user", "wrong");
+        try {
+            client.execute("ping");
+            fail("The login was denied.");
+        } catch(IOException e) {
+            assertEquals(client.getOpenConnections(), 0);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testConcurrentPipelining(Boolean framing) throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), framing);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing).withPool(2, 8);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for(int t = 0; t < 4; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final List<CompletableFuture<String>> responses = new ArrayList<>();
+                        for(int i = 0; i < 100; i++) {
+                            responses.add(client.submit(thread + "-" + i));
+                        }
+                        //each response belongs to its command
+                        for(int i = 0; i < 100; i++) {
+                            assertEquals(responses.get(i).get(5, TimeUnit.SECONDS), thread + "-" + i + "\n");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(final Future<Void> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+            assertTrue(client.getOpenConnections() <= 2);
+        } finally {
+            executor.shutdownNow();
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testPoolLimit(Boolean framing) throws Exception {
+        final int port = freePort();
+        final Handler handler = new Handler();
+        final SocketeerServer server = server(port, handler, framing);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing).withPool(1, 2)
+                .withTimeout(200L, TimeUnit.MILLISECONDS);
+        try {
+            final CompletableFuture<String> first = client.submit("hold");
+            final CompletableFuture<String> second = client.submit("hold");
+            //both slots are taken
+            try {
+                client.submit("ping").get(5, TimeUnit.SECONDS);
+                fail("No connection was available.");
+            } catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof SocketTimeoutException);
+            }
+            handler.release();
+            assertEquals(first.get(5, TimeUnit.SECONDS), "released\n");
+            assertEquals(second.get(5, TimeUnit.SECONDS), "released\n");
+            assertEquals(client.execute("ping"), "ping\n");
+            assertEquals(client.getOpenConnections(), 1);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        final int port = freePort();
+        final Handler handler = new Handler();
+        final SocketeerServer server = server(port, handler, true);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = client(port).withFraming().withPool(1, 2);
+        try {
+            final CompletableFuture<String> held = client.submit("hold");
+            //the framed server answers the second command first
+            assertEquals(client.execute("ping"), "ping\n");
+            assertFalse(held.isDone());
+            handler.release();
+            assertEquals(held.get(5, TimeUnit.SECONDS), "released\n");
+            assertEquals(client.getOpenConnections(), 1);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test
+    public void testCommandFailed() throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), true);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = client(port).withFraming();
+        try {
+            try {
+                client.execute("fail");
+                fail("The command failed.");
+            } catch(CommandFailedException e) {
+                assertEquals(e.getStatus(), FrameStatus.FAILED);
+                assertFalse(e.isTimedOut());
+            }
+            //the connection is still usable
+            assertEquals(client.execute("ping"), "ping\n");
+            assertEquals(client.getOpenConnections(), 1);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test
+    public void testPush() throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), true);
+        server.start();
+        awaitServer(port);
+        final AtomicReference<String> pushed = new AtomicReference<>();
+        final CountDownLatch received = new CountDownLatch(1);
+        final SocketeerClient client = client(port).withFraming().withPushListener(new PushListener() {
+            @Override
+            public void pushed(final byte[] message) {
+                pushed.set(new String(message, StandardCharsets.UTF_8));
+                received.countDown();
+            }
+        });
+        try {
+            assertEquals(client.execute("ping"), "ping\n");
+            assertEquals(server.broadcast("news\n"), 1);
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(pushed.get(), "news\n");
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testServerStopped(Boolean framing) throws Exception {
+        final int port = freePort();
+        final Handler handler = new Handler();
+        final SocketeerServer server = server(port, handler, framing);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing);
+        try {
+            final CompletableFuture<String> held = client.submit("hold");
+            assertEquals(client.getOpenConnections(), 1);
+            server.stop(true).get(5, TimeUnit.SECONDS);
+            //the pending response fails with the connection
+            try {
+                held.get(5, TimeUnit.SECONDS);
+                fail("The connection was closed.");
+            } catch(ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertEquals(client.getOpenConnections(), 0);
+        } finally {
+            handler.release();
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        final SocketeerClient client = client(freePort());
+        client.close();
+        try {
+            client.execute("ping");
+            fail("The client is closed.");
+        } catch(IOException e) {
+            assertEquals(e.getMessage(), "Client closed.");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testConfigureAfterUse() throws Exception {
+        final SocketeerClient client = client(freePort());
+        client.close();
+        client.withFraming();
+    }
+
+    @Test(expectedExceptions = ExecutionException.class)
+    public void testLineBreakRejected() throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), false);
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = client(port);
+        try {
+            client.submit("ping\nexit").get(5, TimeUnit.SECONDS);
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "protocolProvider")
+    public void testTls(Boolean framing) throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), framing)
+                .withTls(SessionTestSupport.serverTlsContext())
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8));
+        server.start();
+        awaitServer(port);
+        final SocketeerClient client = configure(client(port), framing)
+                .withTls(SessionTestSupport.clientTlsContext()).withCredentials("user", "pass");
+        try {
+            assertEquals(client.execute("ping"), "ping\n");
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @Test
+    public void testTlsHostnameMismatch() throws Exception {
+        final int port = freePort();
+        final SocketeerServer server = server(port, new Handler(), false).withTls(SessionTestSupport.serverTlsContext());
+        server.start();
+        awaitServer(port);
+        //the certificate is trusted, but issued for 'localhost'
+        final SocketeerClient client = new SocketeerClient(new InetSocketAddress("127.0.0.1", port), "app",
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.clientTlsContext());
+        try {
+            client.execute("ping");
+            fail("The certificate does not match the host.");
+        } catch(SSLHandshakeException e) {
+            //expected
+        } finally {
+            client.close();
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] protocolProvider() {
+        return new Object[][] {
+                {false},
+                {true}
+        };
+    }
+
+    private static SocketeerClient client(final int port) {
+        return new SocketeerClient(new InetSocketAddress("localhost", port), "app", StandardCharsets.UTF_8);
+    }
+
+    private static SocketeerClient configure(final SocketeerClient client, final boolean framing) {
+        return framing ? client.withFraming() : client;
+    }
+
+    /*
+     * The line based protocol needs each response before the following prompt, so the session waits for the held
+     * response.
+     */
+    private static SocketeerServer server(final int port, final Handler handler, final boolean framing) {
+        if(framing) {
+            return new SocketeerServer(port, 5, handler, StandardCharsets.UTF_8)
+                    .withWireProtocol(WireProtocol.FRAMED);
+        }
+        return new SocketeerServer(port, 5, new CommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return handler.getOpener();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return handler.getAppName();
+            }
+
+            @Override
+            public Optional<byte[]> handle(final byte[] command) {
+                try {
+                    return handler.handle(command).toCompletableFuture().get();
+                } catch(InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return handler.getEscapeSeq();
+            }
+        }, StandardCharsets.UTF_8);
+    }
+
+    private static int freePort() throws IOException {
+        try(final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /*
+     * The server binds asynchronously, the client does not retry to connect.
+     */
+    private static void awaitServer(final int port) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch(ConnectException e) {
+                if(i == 50) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Test class for 'Admissions'.
+ */
+public class AdmissionsTest {
+
+    private static final InetAddress FIRST = InetAddress.getLoopbackAddress();
+    private static final InetAddress SECOND = address(10, 0, 0, 2);
+
+    @Test
+    public void testQueueAndReject() {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final Admissions admissions = new Admissions(1, 1, 0, metrics);
+        final List<String> events = new ArrayList<>();
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("a", events)), Admissions.Decision.STARTED);
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("b", events)), Admissions.Decision.QUEUED);
+        assertEquals(admissions.admit(SECOND, new RecordingConnection("c", events)), Admissions.Decision.BUSY);
+        assertEquals(events, list("start a"));
+        assertEquals(metrics.getQueuedSessions(), 1);
+        assertEquals(metrics.getRejectedConnections(), 1);
+        //the pending session takes over the admission
+        admissions.release(FIRST);
+        assertEquals(events, list("start a", "start b"));
+        assertEquals(admissions.getActive(), 1);
+        assertEquals(admissions.getPending(), 0);
+        assertEquals(metrics.getQueuedSessions(), 0);
+        admissions.release(FIRST);
+        assertEquals(admissions.getActive(), 0);
+    }
+
+    @Test
+    public void testAddressLimit() {
+        final Admissions admissions = new Admissions(5, 0, 2, SocketeerMetrics.NONE);
+        final List<String> events = new ArrayList<>();
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("a", events)), Admissions.Decision.STARTED);
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("b", events)), Admissions.Decision.STARTED);
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("c", events)),
+                Admissions.Decision.ADDRESS_LIMIT);
+        assertEquals(admissions.admit(SECOND, new RecordingConnection("d", events)), Admissions.Decision.STARTED);
+        admissions.release(FIRST);
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("e", events)), Admissions.Decision.STARTED);
+        assertEquals(events, list("start a", "start b", "start d", "start e"));
+    }
+
+    @Test
+    public void testClose() throws InterruptedException {
+        final Admissions admissions = new Admissions(1, 2, 0, SocketeerMetrics.NONE);
+        final List<String> events = new ArrayList<>();
+        admissions.admit(FIRST, new RecordingConnection("a", events));
+        admissions.admit(FIRST, new RecordingConnection("b", events));
+        admissions.close();
+        assertEquals(events, list("start a", "close b"));
+        assertEquals(admissions.admit(FIRST, new RecordingConnection("c", events)), Admissions.Decision.BUSY);
+        //does not block anymore
+        admissions.awaitCapacity();
+        admissions.release(FIRST);
+        assertEquals(admissions.getActive(), 0);
+    }
+
+    @Test(timeOut = 5000)
+    public void testAwaitCapacity() throws Exception {
+        final Admissions admissions = new Admissions(1, 0, 0, SocketeerMetrics.NONE);
+        admissions.admit(FIRST, new RecordingConnection("a", new ArrayList<String>()));
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch(InterruptedException e) {
+                    return;
+                }
+                admissions.release(FIRST);
+            }
+        });
+        releaser.start();
+        admissions.awaitCapacity();
+        assertEquals(admissions.getActive(), 0);
+        releaser.join();
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCreation(int maxSessions, int maxPending, int maxPerAddress, SocketeerMetrics metrics) {
+        new Admissions(maxSessions, maxPending, maxPerAddress, metrics);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {0, 0, 0, SocketeerMetrics.NONE},
+                {1, -1, 0, SocketeerMetrics.NONE},
+                {1, 0, -1, SocketeerMetrics.NONE},
+                {1, 0, 0, null}
+        };
+    }
+
+    private static List<String> list(final String... events) {
+        final List<String> list = new ArrayList<>();
+        for(final String event : events) {
+            list.add(event);
+        }
+        return list;
+    }
+
+    private static InetAddress address(final int... bytes) {
+        try {
+            return InetAddress.getByAddress(new byte[]{(byte) bytes[0], (byte) bytes[1], (byte) bytes[2],
+                    (byte) bytes[3]});
+        } catch(Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class RecordingConnection implements Admissions.Connection {
+
+        private final String name;
+        private final List<String> events;
+
+        private RecordingConnection(final String name, final List<String> events) {
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        public void start() {
+            events.add("start " + name);
+        }
+
+        @Override
+        public void close() {
+            events.add("close " + name);
+        }
+    }
+}
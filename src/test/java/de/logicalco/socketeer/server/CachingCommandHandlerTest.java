@@ -0,0 +1,294 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test class for 'CachingCommandHandler'.
+ */
+public class CachingCommandHandlerTest {
+
+    private FakeTicker ticker;
+    private CountingHandler delegate;
+
+    @BeforeMethod
+    public void setUp() {
+        ticker = new FakeTicker();
+        delegate = new CountingHandler();
+    }
+
+    @Test
+    public void testCachedUntilExpired() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("status", 1L, TimeUnit.SECONDS);
+        assertEquals(handle(handler, "status"), "status 1\n");
+        ticker.nanos = TimeUnit.MILLISECONDS.toNanos(999);
+        assertEquals(handle(handler, "status"), "status 1\n");
+        ticker.nanos = TimeUnit.SECONDS.toNanos(1);
+        assertEquals(handle(handler, "status"), "status 2\n");
+        assertEquals(handler.getHits(), 1);
+        assertEquals(handler.getMisses(), 2);
+        assertEquals(handler.getSize(), 1);
+    }
+
+    @Test
+    public void testOtherCommandsAreNotCached() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("status", 1L, TimeUnit.SECONDS);
+        assertEquals(handle(handler, "ping"), "ping 1\n");
+        assertEquals(handle(handler, "ping"), "ping 2\n");
+        assertEquals(handle(handler, "statusx"), "statusx 3\n");
+        assertEquals(handler.getHits(), 0);
+        assertEquals(handler.getMisses(), 0);
+        assertEquals(handler.getSize(), 0);
+    }
+
+    @Test
+    public void testCommandsWithArguments() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("config", 1L, TimeUnit.SECONDS)
+                .withCacheable("config show", 10L, TimeUnit.SECONDS);
+        //each command is cached on its own
+        assertEquals(handle(handler, "config show a"), "config show a 1\n");
+        assertEquals(handle(handler, "config show b"), "config show b 2\n");
+        assertEquals(handle(handler, "config show a"), "config show a 1\n");
+        assertEquals(handle(handler, "  config list"), "  config list 3\n");
+        //the longest rule applies
+        ticker.nanos = TimeUnit.SECONDS.toNanos(5);
+        assertEquals(handle(handler, "config show a"), "config show a 1\n");
+        assertEquals(handle(handler, "  config list"), "  config list 4\n");
+    }
+
+    @Test
+    public void testAbsentResponse() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("quiet", 1L, TimeUnit.SECONDS);
+        assertFalse(handler.handle(bytes("quiet")).isPresent());
+        assertFalse(handler.handle(bytes("quiet")).isPresent());
+        assertEquals(delegate.calls.get(), 1);
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("fail", 1L, TimeUnit.SECONDS);
+        try {
+            handler.handle(bytes("fail"));
+            fail("The failure has to be passed on.");
+        } catch(IllegalStateException e) {
+            assertEquals(e.getMessage(), "fail 1");
+        }
+        try {
+            handler.handle(bytes("fail"));
+            fail("The failure has to be passed on.");
+        } catch(IllegalStateException e) {
+            assertEquals(e.getMessage(), "fail 2");
+        }
+        assertEquals(handler.getSize(), 0);
+    }
+
+    @Test
+    public void testEviction() {
+        //each entry weighs 64 bytes plus its command and response
+        final CachingCommandHandler handler = handler(1000L).withCacheable("get", 1L, TimeUnit.HOURS);
+        for(int i = 0; i < 100; i++) {
+            handle(handler, "get " + i);
+        }
+        assertTrue(handler.getSize() < 100, "Size " + handler.getSize());
+        assertEquals(handler.getEvictions(), 100 - handler.getSize());
+        //the most recent entry is kept
+        assertEquals(handle(handler, "get 99"), "get 99 100\n");
+    }
+
+    @Test
+    public void testInvalidate() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("config show", 1L, TimeUnit.HOURS)
+                .withCacheable("status", 1L, TimeUnit.HOURS);
+        handle(handler, "config show");
+        handle(handler, "config show a");
+        handle(handler, "status");
+        handler.invalidate("config show");
+        assertEquals(handler.getSize(), 1);
+        assertEquals(handle(handler, "config show a"), "config show a 4\n");
+        assertEquals(handle(handler, "status"), "status 3\n");
+        handler.invalidateAll();
+        assertEquals(handler.getSize(), 0);
+        assertEquals(handle(handler, "status"), "status 5\n");
+        //invalidation does not count as eviction
+        assertEquals(handler.getEvictions(), 0);
+    }
+
+    @Test
+    public void testChangeRules() {
+        final CachingCommandHandler handler = handler(1024L).withCacheable("status", 1L, TimeUnit.SECONDS);
+        handle(handler, "status");
+        //a changed time applies to new responses
+        handler.withCacheable("status", 10L, TimeUnit.SECONDS);
+        ticker.nanos = TimeUnit.SECONDS.toNanos(2);
+        assertEquals(handle(handler, "status"), "status 2\n");
+        ticker.nanos = TimeUnit.SECONDS.toNanos(5);
+        assertEquals(handle(handler, "status"), "status 2\n");
+        handler.withoutCacheable("status").withoutCacheable("unknown");
+        assertEquals(handler.getSize(), 0);
+        assertEquals(handle(handler, "status"), "status 3\n");
+        assertEquals(handle(handler, "status"), "status 4\n");
+    }
+
+    @Test(timeOut = 10000)
+    public void testSingleFlight() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingHandler slow = new CountingHandler() {
+            @Override
+            public Optional<byte[]> handle(byte[] command) {
+                try {
+                    release.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.handle(command);
+            }
+        };
+        final CachingCommandHandler handler = new CachingCommandHandler(slow, StandardCharsets.UTF_8, 1024L, ticker)
+                .withCacheable("status", 1L, TimeUnit.SECONDS);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> responses = new ArrayList<>();
+            for(int i = 0; i < 8; i++) {
+                responses.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return handle(handler, "status");
+                    }
+                }));
+            }
+            //give all threads the time to wait for the first
+            Thread.sleep(100);
+            release.countDown();
+            for(final Future<String> response : responses) {
+                assertEquals(response.get(), "status 1\n");
+            }
+            assertEquals(slow.calls.get(), 1);
+            assertEquals(handler.getMisses(), 1);
+            assertEquals(handler.getHits(), 7);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDelegation() {
+        final CachingCommandHandler handler = handler(1024L);
+        assertEquals(handler.getAppName(), bytes("app"));
+        assertEquals(handler.getEscapeSeq(), bytes("exit"));
+        assertFalse(handler.getOpener().isPresent());
+        assertEquals(handler.getDelegate(), delegate);
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCreation(CommandHandler delegate, Charset charset, Long maxBytes) {
+        new CachingCommandHandler(delegate, charset, maxBytes);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {null, StandardCharsets.UTF_8, 1L},
+                {new CountingHandler(), null, 1L},
+                {new CountingHandler(), StandardCharsets.UTF_8, null},
+                {new CountingHandler(), StandardCharsets.UTF_8, 0L}
+        };
+    }
+
+    @Test(dataProvider = "invalidRulesProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidRule(String command, Long ttl, TimeUnit unit) {
+        handler(1024L).withCacheable(command, ttl, unit);
+    }
+
+    @DataProvider
+    public Object[][] invalidRulesProvider() {
+        return new Object[][] {
+                {null, 1L, TimeUnit.SECONDS},
+                {"", 1L, TimeUnit.SECONDS},
+                {"  ", 1L, TimeUnit.SECONDS},
+                {" status", 1L, TimeUnit.SECONDS},
+                {"status", null, TimeUnit.SECONDS},
+                {"status", 0L, TimeUnit.SECONDS},
+                {"status", 1L, null}
+        };
+    }
+
+    private CachingCommandHandler handler(final Long maxBytes) {
+        return new CachingCommandHandler(delegate, StandardCharsets.UTF_8, maxBytes, ticker);
+    }
+
+    private static String handle(final CommandHandler handler, final String command) {
+        return new String(handler.handle(bytes(command)).get(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(final String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Answers with the command and the number of the call, 'quiet' without a response, 'fail' with an exception.
+     */
+    private static class CountingHandler implements CommandHandler {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Optional<byte[]> getOpener() {
+            return Optional.absent();
+        }
+
+        @Override
+        public byte[] getAppName() {
+            return bytes("app");
+        }
+
+        @Override
+        public Optional<byte[]> handle(byte[] command) {
+            final int call = calls.incrementAndGet();
+            final String line = new String(command, StandardCharsets.UTF_8);
+            if("quiet".equals(line)) {
+                return Optional.absent();
+            }
+            if("fail".equals(line)) {
+                throw new IllegalStateException("fail " + call);
+            }
+            return Optional.of(bytes(line + " " + call + "\n"));
+        }
+
+        @Override
+        public byte[] getEscapeSeq() {
+            return bytes("exit");
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.testng.annotations.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test class for 'CommandHandlerAdapter'.
+ */
+public class CommandHandlerAdapterTest {
+
+    @Test
+    public void testHandle() {
+        final CommandHandlerAdapter adapter = new CommandHandlerAdapter(SessionTestSupport.PING_HANDLER);
+        final ResponseBuffer response = new ResponseBuffer(StandardCharsets.UTF_8);
+        final ByteBuffer line = ByteBuffer.wrap("xxpingxx".getBytes(StandardCharsets.UTF_8), 2, 4).asReadOnlyBuffer();
+        adapter.handle(line, response);
+        assertEquals(new String(response.toByteArray(), StandardCharsets.UTF_8), "pong\n");
+        response.reset();
+        adapter.handle(ByteBuffer.wrap("act".getBytes(StandardCharsets.UTF_8)), response);
+        assertTrue(response.isEmpty());
+    }
+
+    @Test
+    public void testDelegation() {
+        final CommandHandler handler = mock(CommandHandler.class);
+        when(handler.getOpener()).thenReturn(Optional.of(new byte[]{1}));
+        when(handler.getAppName()).thenReturn(new byte[]{2});
+        when(handler.getEscapeSeq()).thenReturn(new byte[]{3});
+        final CommandHandlerAdapter adapter = new CommandHandlerAdapter(handler);
+        assertEquals(adapter.getOpener().get(), new byte[]{1});
+        assertEquals(adapter.getAppName(), new byte[]{2});
+        assertEquals(adapter.getEscapeSeq(), new byte[]{3});
+        assertEquals(adapter.getDelegate(), handler);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testInvalidCreation() {
+        new CommandHandlerAdapter(null);
+    }
+}
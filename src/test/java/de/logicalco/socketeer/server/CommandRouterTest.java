@@ -0,0 +1,123 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test class for 'CommandRouter'.
+ */
+public class CommandRouterTest {
+
+    private CommandRouter router;
+
+    @BeforeMethod
+    public void setUp() {
+        router = new CommandRouter("app", "exit", StandardCharsets.UTF_8)
+                .withCommand("echo", "Echoes the arguments.", new CommandRouter.Command() {
+                    @Override
+                    public void handle(ByteBuffer arguments, ResponseBuffer response) {
+                        response.write(arguments);
+                        response.write('\n');
+                    }
+                })
+                .withCommand("start", "Starts.", reply("started"))
+                .withCommand("stat", "Short status.", reply("ok"))
+                .withCommand("status", "Long status.", reply("all ok"))
+                .withCommand("stop", "Stops.", reply("stopped"));
+    }
+
+    @Test(dataProvider = "commandsProvider")
+    public void testHandle(String command, String expected) {
+        assertEquals(handle(command), expected);
+    }
+
+    @DataProvider
+    public Object[][] commandsProvider() {
+        return new Object[][] {
+                {"echo hello world", "hello world\n"},
+                {"echo   spaced ", "spaced \n"},
+                {"echo", "\n"},
+                //unique prefixes
+                {"e hi", "hi\n"},
+                {"star", "started\n"},
+                {"sto", "stopped\n"},
+                //an exact match wins over longer commands
+                {"stat", "ok\n"},
+                {"statu", "all ok\n"},
+                {"sta", "Ambiguous command 'sta' : start stat status\n"},
+                {"st", "Ambiguous command 'st' : start stat status stop\n"},
+                {"starting", "Unknown command 'starting', try 'help'.\n"},
+                {"x y", "Unknown command 'x', try 'help'.\n"},
+                {"", ""},
+                {"  echo x", "x\n"},
+                {"  ", ""},
+                {"help e", "echo - Echoes the arguments.\n"},
+                {"help x", "Unknown command 'x'.\n"},
+                {"h", "echo - Echoes the arguments.\nhelp - Lists the commands or describes the given command.\n"
+                        + "start - Starts.\nstat - Short status.\nstatus - Long status.\nstop - Stops.\n"}
+        };
+    }
+
+    @Test
+    public void testArgumentsAreASliceOfTheLine() {
+        final byte[] line = "xxecho abcxx".getBytes(StandardCharsets.UTF_8);
+        final ResponseBuffer response = new ResponseBuffer(StandardCharsets.UTF_8);
+        router.handle(ByteBuffer.wrap(line, 2, 8).asReadOnlyBuffer(), response);
+        assertEquals(new String(response.toByteArray(), StandardCharsets.UTF_8), "abc\n");
+    }
+
+    @Test
+    public void testReplaceCommand() {
+        router.withCommand("help", "Custom help.", reply("no help"))
+                .withCommand("stop", "Stops now.", reply("stopped now"));
+        assertEquals(handle("help"), "no help\n");
+        assertEquals(handle("sto"), "stopped now\n");
+    }
+
+    @Test
+    public void testMetadata() {
+        assertEquals(router.getAppName(), "app".getBytes(StandardCharsets.UTF_8));
+        assertEquals(router.getEscapeSeq(), "exit".getBytes(StandardCharsets.UTF_8));
+        assertEquals(router.getOpener().isPresent(), false);
+        assertEquals(router.withOpener("Welcome\n").getOpener().get(), "Welcome\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(dataProvider = "invalidCommandsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCommand(String name, String description, CommandRouter.Command command) {
+        router.withCommand(name, description, command);
+    }
+
+    @DataProvider
+    public Object[][] invalidCommandsProvider() {
+        final CommandRouter.Command command = reply("x");
+        return new Object[][] {
+                {null, "", command},
+                {"", "", command},
+                {"two words", "", command},
+                {"name", null, command},
+                {"name", "", null}
+        };
+    }
+
+    private String handle(String command) {
+        final ResponseBuffer response = new ResponseBuffer(StandardCharsets.UTF_8);
+        router.handle(ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer(), response);
+        return new String(response.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static CommandRouter.Command reply(final String text) {
+        return new CommandRouter.Command() {
+            @Override
+            public void handle(ByteBuffer arguments, ResponseBuffer response) {
+                response.println(text);
+            }
+        };
+    }
+}
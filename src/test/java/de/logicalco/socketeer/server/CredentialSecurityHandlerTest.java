@@ -0,0 +1,176 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'CredentialSecurityHandler'.
+ */
+public class CredentialSecurityHandlerTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress(InetAddress.getLoopbackAddress(), 40000);
+    private static final InetSocketAddress OTHER_CLIENT = new InetSocketAddress("127.0.0.2", 40000);
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = NullPointerException.class)
+    public void testInvalidCreation(CredentialStore store, Charset charset) {
+        new CredentialSecurityHandler(store, charset);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {null, StandardCharsets.UTF_8},
+                {new InMemoryCredentialStore(), null}
+        };
+    }
+
+    @Test(dataProvider = "credentialsProvider")
+    public void testHandle(String user, String password, Boolean expected) throws IOException {
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store(), StandardCharsets.UTF_8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(handler.handle(CLIENT, input(user, password), out), expected);
+        final String written = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(written.startsWith("user : password : "), written);
+    }
+
+    @DataProvider
+    public Object[][] credentialsProvider() {
+        return new Object[][] {
+                {"alice", "secret", Boolean.TRUE},
+                {"bob", "pässwörd", Boolean.TRUE},
+                {"alice", "Secret", Boolean.FALSE},
+                {"alice", "", Boolean.FALSE},
+                {"bob", "secret", Boolean.FALSE},
+                {"carol", "secret", Boolean.FALSE},
+                {"", "", Boolean.FALSE}
+        };
+    }
+
+    @Test
+    public void testThrottling() throws IOException {
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store(), StandardCharsets.UTF_8)
+                .withThrottling(2, 1L, TimeUnit.HOURS);
+        assertFalse(handler.handle(CLIENT, input("alice", "wrong"), new ByteArrayOutputStream()));
+        //a success resets the failures
+        assertTrue(handler.handle(CLIENT, input("alice", "secret"), new ByteArrayOutputStream()));
+        assertFalse(handler.handle(CLIENT, input("alice", "wrong"), new ByteArrayOutputStream()));
+        assertFalse(handler.handle(CLIENT, input("carol", "wrong"), new ByteArrayOutputStream()));
+        //denied without asking for credentials
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(handler.handle(CLIENT, input("alice", "secret"), out));
+        assertEquals(out.size(), 0);
+        //other addresses are not affected
+        assertTrue(handler.handle(OTHER_CLIENT, input("alice", "secret"), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testThrottlingWindow() throws Exception {
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store(), StandardCharsets.UTF_8)
+                .withThrottling(1, 100L, TimeUnit.MILLISECONDS);
+        assertFalse(handler.handle(CLIENT, input("alice", "wrong"), new ByteArrayOutputStream()));
+        assertFalse(handler.handle(CLIENT, input("alice", "secret"), new ByteArrayOutputStream()));
+        Thread.sleep(150);
+        assertTrue(handler.handle(CLIENT, input("alice", "secret"), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testCache() {
+        final InMemoryCredentialStore store = new InMemoryCredentialStore()
+                .withUser("alice", PasswordHash.create("secret".toCharArray(), 200000));
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store, StandardCharsets.UTF_8)
+                .withCache(10, 1L, TimeUnit.HOURS);
+        long start = System.nanoTime();
+        assertTrue(handler.verify("alice", "secret".toCharArray()));
+        final long derived = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(int i = 0; i < 10; i++) {
+            assertTrue(handler.verify("alice", "secret".toCharArray()));
+        }
+        //ten cached verifications are faster than one key derivation
+        final long cached = System.nanoTime() - start;
+        assertTrue(cached < derived, cached + " >= " + derived);
+        assertFalse(handler.verify("alice", "wrong".toCharArray()));
+        //a changed password is verified against the new hash
+        store.withUser("alice", PasswordHash.create("changed".toCharArray(), 1000));
+        assertFalse(handler.verify("alice", "secret".toCharArray()));
+        assertTrue(handler.verify("alice", "changed".toCharArray()));
+        store.remove("alice");
+        assertFalse(handler.verify("alice", "changed".toCharArray()));
+    }
+
+    @Test
+    public void testUnknownUserIterations() {
+        final InMemoryCredentialStore store = new InMemoryCredentialStore()
+                .withUser("alice", PasswordHash.create("secret".toCharArray(), 1000));
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store, StandardCharsets.UTF_8);
+        assertFalse(handler.verify("carol", "secret".toCharArray()));
+        //an unknown user takes as long as a known one
+        assertEquals(handler.unknownUser().getIterations(), 1000);
+        store.withUser("bob", PasswordHash.create("secret".toCharArray(), 2000));
+        assertEquals(handler.unknownUser().getIterations(), 2000);
+        store.remove("alice");
+        store.remove("bob");
+        assertEquals(handler.unknownUser().getIterations(), PasswordHash.DEFAULT_ITERATIONS);
+    }
+
+    @Test
+    public void testHandleWithoutAddress() throws IOException {
+        final CredentialSecurityHandler handler = new CredentialSecurityHandler(store(), StandardCharsets.UTF_8)
+                .withThrottling(1, 1L, TimeUnit.HOURS);
+        assertFalse(handler.handle(input("alice", "wrong"), new ByteArrayOutputStream()));
+        assertTrue(handler.handle(input("alice", "secret"), new ByteArrayOutputStream()));
+    }
+
+    @Test(dataProvider = "invalidCacheProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testWithCacheNegative(Integer maxSize, Long ttl, TimeUnit unit) {
+        new CredentialSecurityHandler(store(), StandardCharsets.UTF_8).withCache(maxSize, ttl, unit);
+    }
+
+    @DataProvider
+    public Object[][] invalidCacheProvider() {
+        return new Object[][] {
+                {null, 1L, TimeUnit.SECONDS},
+                {0, 1L, TimeUnit.SECONDS},
+                {10, 0L, TimeUnit.SECONDS},
+                {10, 1L, null}
+        };
+    }
+
+    @Test(dataProvider = "invalidCacheProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testWithThrottlingNegative(Integer maxFailures, Long window, TimeUnit unit) {
+        new CredentialSecurityHandler(store(), StandardCharsets.UTF_8).withThrottling(maxFailures, window, unit);
+    }
+
+    @Test
+    public void testInMemoryStore() {
+        final InMemoryCredentialStore store = new InMemoryCredentialStore().withUser("alice", "secret");
+        assertTrue(store.lookup("alice").get().verify("secret".toCharArray()));
+        assertEquals(store.lookup("bob"), Optional.absent());
+    }
+
+    private static InMemoryCredentialStore store() {
+        return new InMemoryCredentialStore()
+                .withUser("alice", PasswordHash.create("secret".toCharArray(), 1000))
+                .withUser("bob", PasswordHash.create("pässwörd".toCharArray(), 1000));
+    }
+
+    private static ByteArrayInputStream input(final String user, final String password) {
+        return new ByteArrayInputStream((user + "\r\n" + password + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,142 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'DefaultSocketeerMetrics'.
+ */
+public class DefaultSocketeerMetricsTest {
+
+    @Test
+    public void testCounters() {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        metrics.connectionAccepted();
+        metrics.connectionAccepted();
+        metrics.connectionRejected();
+        metrics.sessionQueued();
+        metrics.sessionQueued();
+        metrics.sessionDequeued();
+        metrics.sessionOpened();
+        metrics.sessionOpened();
+        metrics.sessionClosed();
+        metrics.authenticated(true);
+        metrics.authenticated(false);
+        metrics.authenticated(false);
+        metrics.bytesRead(10);
+        metrics.bytesWritten(20);
+        metrics.bytesWritten(5);
+        metrics.commandHandled(TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.commandHandled(TimeUnit.MICROSECONDS.toNanos(300));
+        assertEquals(metrics.getAcceptedConnections(), 2);
+        assertEquals(metrics.getRejectedConnections(), 1);
+        assertEquals(metrics.getQueuedSessions(), 1);
+        assertEquals(metrics.getActiveSessions(), 1);
+        assertEquals(metrics.getAuthSuccesses(), 1);
+        assertEquals(metrics.getAuthFailures(), 2);
+        assertEquals(metrics.getBytesRead(), 10);
+        assertEquals(metrics.getBytesWritten(), 25);
+        assertEquals(metrics.getCommands(), 2);
+        assertEquals(metrics.getLatencyMeanMicros(), 200.0);
+        assertTrue(metrics.getLatencyP50Micros() >= 100 && metrics.getLatencyP50Micros() < 107);
+        assertEquals(metrics.getLatencyMaxMicros(), 300);
+        assertEquals(metrics.getLatencyP999Micros(), 300);
+    }
+
+    @Test
+    public void testRateLimited() {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        metrics.rateLimited(RateLimitPolicy.DELAY);
+        metrics.rateLimited(RateLimitPolicy.REJECT);
+        metrics.rateLimited(RateLimitPolicy.REJECT);
+        metrics.rateLimited(RateLimitPolicy.DISCONNECT);
+        assertEquals(metrics.getDelayedCommands(), 1);
+        assertEquals(metrics.getRejectedCommands(), 2);
+        assertEquals(metrics.getRateLimitDisconnects(), 1);
+        final String stats = new StatsCommand(metrics).format();
+        assertTrue(stats.contains("rate limited         : delayed 1, rejected 2, disconnected 1\n"), stats);
+    }
+
+    @Test
+    public void testCommandsPerSecond() {
+        final FakeTicker ticker = new FakeTicker();
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics(ticker);
+        for(int i = 0; i < 50; i++) {
+            metrics.commandHandled(1000);
+        }
+        //no sample within the first second
+        ticker.nanos = TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(metrics.getCommandsPerSecond(), 0.0);
+        ticker.nanos = TimeUnit.SECONDS.toNanos(2);
+        assertEquals(metrics.getCommandsPerSecond(), 25.0);
+        //the rate is kept until the next sample
+        for(int i = 0; i < 40; i++) {
+            metrics.commandHandled(1000);
+        }
+        assertEquals(metrics.getCommandsPerSecond(), 25.0);
+        ticker.nanos = TimeUnit.SECONDS.toNanos(6);
+        assertEquals(metrics.getCommandsPerSecond(), 10.0);
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        metrics.connectionAccepted();
+        final ObjectName name = metrics.registerMBean("test-app");
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(name.toString(), "de.logicalco.socketeer:type=SocketeerMetrics,name=test-app");
+            assertEquals(mBeanServer.getAttribute(name, "AcceptedConnections"), 1L);
+            assertEquals(mBeanServer.getAttribute(name, "Commands"), 0L);
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testRegisterMBeanQuotesName() throws Exception {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final ObjectName name = metrics.registerMBean("my app, port=23");
+        try {
+            assertEquals(ObjectName.unquote(name.getKeyProperty("name")), "my app, port=23");
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+
+    @Test
+    public void testStatsCommand() {
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        metrics.connectionAccepted();
+        metrics.commandHandled(TimeUnit.MICROSECONDS.toNanos(2));
+        final String stats = new StatsCommand(metrics).format();
+        assertTrue(stats.startsWith("connections accepted : 1\n"), stats);
+        assertTrue(stats.contains("commands             : 1\n"), stats);
+        assertTrue(stats.endsWith("latency (us)         : mean 2.0, p50 2, p99 2, p99.9 2, max 2\n"), stats);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testStatsCommandNegative() {
+        new StatsCommand(null);
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
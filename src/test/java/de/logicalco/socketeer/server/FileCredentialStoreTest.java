@@ -0,0 +1,115 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'FileCredentialStore'.
+ */
+public class FileCredentialStoreTest {
+
+    private static final PasswordHash ALICE = PasswordHash.create("alice".toCharArray(), 1000);
+    private static final PasswordHash BOB = PasswordHash.create("bob".toCharArray(), 1000);
+
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        file = Files.createTempFile("credentials", ".txt");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testLookup() throws IOException {
+        write("# users\n\nalice:" + ALICE.encode() + "\n  bob:" + BOB.encode() + "  \n");
+        final FileCredentialStore store = new FileCredentialStore(file);
+        assertEquals(store.lookup("alice").get(), ALICE);
+        assertEquals(store.lookup("bob").get(), BOB);
+        assertFalse(store.lookup("carol").isPresent());
+        assertFalse(store.lookup("# users").isPresent());
+        assertEquals(store.getMaxIterations(), 1000);
+    }
+
+    @Test
+    public void testHotReload() throws Exception {
+        write("alice:" + ALICE.encode() + "\n");
+        final FileCredentialStore store = new FileCredentialStore(file).withReloadInterval(0L, TimeUnit.SECONDS);
+        assertFalse(store.lookup("bob").isPresent());
+        //replaced like by a deployment, the size changes
+        replace("alice:" + ALICE.encode() + "\nbob:" + BOB.encode() + "\n");
+        assertEquals(store.lookup("bob").get(), BOB);
+        replace("bob:" + BOB.encode() + "\n");
+        assertFalse(store.lookup("alice").isPresent());
+        assertTrue(store.lookup("bob").isPresent());
+    }
+
+    @Test
+    public void testReloadInterval() throws Exception {
+        write("alice:" + ALICE.encode() + "\n");
+        final FileCredentialStore store = new FileCredentialStore(file).withReloadInterval(1L, TimeUnit.HOURS);
+        replace("alice:" + ALICE.encode() + "\nbob:" + BOB.encode() + "\n");
+        assertFalse(store.lookup("bob").isPresent());
+        store.reload();
+        assertTrue(store.lookup("bob").isPresent());
+    }
+
+    @Test
+    public void testInvalidReloadKeepsCredentials() throws Exception {
+        write("alice:" + ALICE.encode() + "\n");
+        final FileCredentialStore store = new FileCredentialStore(file).withReloadInterval(0L, TimeUnit.SECONDS);
+        replace("alice:" + ALICE.encode() + "\nbob:secret\n");
+        assertTrue(store.lookup("alice").isPresent());
+        assertFalse(store.lookup("bob").isPresent());
+        Files.delete(file);
+        assertTrue(store.lookup("alice").isPresent());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidLine() throws IOException {
+        write("alice\n");
+        new FileCredentialStore(file);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidHash() throws IOException {
+        write("alice:secret\n");
+        new FileCredentialStore(file);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMissingFile() throws IOException {
+        Files.delete(file);
+        new FileCredentialStore(file);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReloadIntervalNegative() throws IOException {
+        new FileCredentialStore(file).withReloadInterval(-1L, TimeUnit.SECONDS);
+    }
+
+    private void write(final String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void replace(final String content) throws IOException {
+        final Path next = Files.createTempFile(file.getParent(), "credentials", ".tmp");
+        Files.write(next, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
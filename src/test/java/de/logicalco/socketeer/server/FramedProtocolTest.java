@@ -0,0 +1,181 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.FrameStatus;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Test class for 'FramedProtocol'.
+ */
+public class FramedProtocolTest {
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final FramedProtocol.Output output = new FramedProtocol.Output() {
+        @Override
+        public void send(ByteBuffer frame) {
+            final FrameDecoder decoder = new FrameDecoder(1024);
+            try {
+                decoder.fill(new ByteArrayInputStream(frame.array(), frame.position(), frame.remaining()));
+                assertTrue(decoder.next());
+            } catch(IOException e) {
+                throw new AssertionError(e);
+            }
+            sent.add(decoder.id() + " " + decoder.status() + " "
+                    + new String(decoder.copyPayload(), StandardCharsets.UTF_8));
+        }
+    };
+
+    @BeforeMethod
+    public void setUp() {
+        sent.clear();
+    }
+
+    @Test
+    public void testSyncHandler() throws InterruptedException, RateLimitExceededException {
+        final FramedProtocol protocol = new FramedProtocol(SessionTestSupport.ECHO_HANDLER, StandardCharsets.UTF_8,
+                MoreExecutors.directExecutor()).withOutput(output);
+        assertTrue(protocol.handle(7, command("hello")));
+        assertTrue(protocol.handle(8, command("")));
+        assertEquals(sent.size(), 2);
+        assertEquals(sent.get(0), "7 OK hello\n");
+        assertEquals(sent.get(1), "8 OK \n");
+        assertEquals(protocol.getInFlight(), 0);
+        assertTrue(protocol.awaitIdle(0));
+    }
+
+    @Test
+    public void testFailingHandler() throws RateLimitExceededException {
+        final FramedProtocol protocol = new FramedProtocol(new CommandHandlerAdapter(new CommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return Optional.absent();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return "app".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public Optional<byte[]> handle(byte[] command) {
+                throw new IllegalStateException("broken");
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return "exit".getBytes(StandardCharsets.UTF_8);
+            }
+        }), StandardCharsets.UTF_8, MoreExecutors.directExecutor()).withOutput(output);
+        assertTrue(protocol.handle(1, command("ping")));
+        assertEquals(sent, Arrays.asList("1 FAILED Command failed.\n"));
+    }
+
+    @Test
+    public void testAsyncResponsesOutOfOrder() throws InterruptedException, RateLimitExceededException {
+        final List<CompletableFuture<Optional<byte[]>>> responses = new CopyOnWriteArrayList<>();
+        final FramedProtocol protocol = new FramedProtocol(new AsyncCommandHandlerAdapter(asyncHandler(responses)),
+                StandardCharsets.UTF_8, MoreExecutors.directExecutor()).withOutput(output);
+        assertTrue(protocol.handle(1, command("first")));
+        assertTrue(protocol.handle(2, command("second")));
+        assertEquals(protocol.getInFlight(), 2);
+        assertFalse(protocol.awaitIdle(10));
+        responses.get(1).complete(Optional.of("two".getBytes(StandardCharsets.UTF_8)));
+        responses.get(0).completeExceptionally(new IllegalStateException("broken"));
+        assertEquals(sent, Arrays.asList("2 OK two", "1 FAILED Command failed.\n"));
+        assertTrue(protocol.awaitIdle(0));
+        //the capacity is available at once
+        protocol.awaitCapacity(1);
+    }
+
+    @Test
+    public void testCommandTimeout() throws InterruptedException, RateLimitExceededException {
+        final List<CompletableFuture<Optional<byte[]>>> responses = new CopyOnWriteArrayList<>();
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final FramedProtocol protocol = new FramedProtocol(
+                    new AsyncCommandHandlerAdapter(asyncHandler(responses)), StandardCharsets.UTF_8,
+                    MoreExecutors.directExecutor()).withOutput(output).withCommandTimeout(timer, 50L);
+            assertTrue(protocol.handle(3, command("hang")));
+            assertTrue(protocol.awaitIdle(5000));
+            assertEquals(sent, Arrays.asList("3 TIMED_OUT Command timed out.\n"));
+            //cancelled by the timer after the response was sent
+            for(int i = 0; i < 100 && !responses.get(0).isCancelled(); i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(responses.get(0).isCancelled());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEscapeSeqClosesProtocol() throws RateLimitExceededException {
+        final List<CompletableFuture<Optional<byte[]>>> responses = new CopyOnWriteArrayList<>();
+        final FramedProtocol protocol = new FramedProtocol(new AsyncCommandHandlerAdapter(asyncHandler(responses)),
+                StandardCharsets.UTF_8, MoreExecutors.directExecutor()).withOutput(output);
+        assertTrue(protocol.handle(1, command("hang")));
+        assertFalse(protocol.handle(2, command("exit")));
+        //the pending response is cancelled, nothing is sent after the escape sequence
+        assertTrue(responses.get(0).isCancelled());
+        assertTrue(sent.isEmpty());
+        assertFalse(protocol.handle(3, command("late")));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testHandleWithoutOutput() throws RateLimitExceededException {
+        new FramedProtocol(SessionTestSupport.ECHO_HANDLER, StandardCharsets.UTF_8, MoreExecutors.directExecutor())
+                .handle(1, command("hello"));
+    }
+
+    private static ByteBuffer command(final String command) {
+        return ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Every command is answered by completing its future.
+     */
+    private static AsyncCommandHandler asyncHandler(final List<CompletableFuture<Optional<byte[]>>> responses) {
+        return new AsyncCommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return Optional.absent();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return "app".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public CompletionStage<Optional<byte[]>> handle(byte[] command) {
+                final CompletableFuture<Optional<byte[]>> response = new CompletableFuture<>();
+                responses.add(response);
+                return response;
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return "exit".getBytes(StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for 'NioEventLoop'.
+ */
+public class NioEventLoopTest {
+
+    @Test
+    public void testShutdownRunsQueuedTasks() throws IOException {
+        final NioEventLoop loop = new NioEventLoop();
+        final AtomicInteger closed = new AtomicInteger();
+        try(final SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            //queued like the start of a session, when the loop is shut down
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loop.register(channel, SelectionKey.OP_READ, new ClosingHandler(closed));
+                    } catch(IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            loop.shutdown();
+            loop.run();
+            //the task registered the channel, which was closed with the loop
+            assertEquals(closed.get(), 1);
+        }
+    }
+
+    @Test
+    public void testTaskAfterShutdown() throws IOException {
+        final NioEventLoop loop = new NioEventLoop();
+        loop.shutdown();
+        loop.run();
+        final boolean[] failed = new boolean[1];
+        try(final SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loop.register(channel, SelectionKey.OP_READ, new ClosingHandler(new AtomicInteger()));
+                    } catch(ClosedSelectorException | IOException e) {
+                        //the task can release its resources at once
+                        failed[0] = true;
+                    }
+                }
+            });
+            assertTrue(failed[0]);
+        }
+    }
+
+    private static final class ClosingHandler implements NioEventLoop.Handler {
+
+        private final AtomicInteger closed;
+
+        private ClosingHandler(final AtomicInteger closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            //nothing to read in the tests
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.logicalco.socketeer.server;
+
+import de.logicalco.socketeer.utils.Telnet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static de.logicalco.socketeer.server.SessionTestSupport.connect;
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'NioSessionEngine'.
+ */
+public class NioSessionEngineTest {
+
+    private SocketeerServer server;
+    private int port;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        port = SessionTestSupport.freePort();
+        server = new SocketeerServer(port, 10, SessionTestSupport.PING_HANDLER, StandardCharsets.UTF_8)
+                .withSessionExecutor(SessionExecutors.fixedPool(1))
+                .withNonBlockingIo(1);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        server.stop(true);
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            assertEquals(readUntil(in, "app> "), "Welcome\napp> ");
+            out.write("ping\r\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            out.write("act\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "app> ");
+            out.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void testPipelinedInput() throws Exception {
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "app> ");
+            socket.getOutputStream().write("ping\nping\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void testNegotiatedPipelining() throws Exception {
+        server.withPipelining(Pipelining.NEGOTIATED, Boolean.TRUE).start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "app> ");
+            socket.getOutputStream().write("#pipeline\nping\nact\nping\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "pong\npong\n"), "Pipelining enabled.\npong\npong\n");
+            assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void testAsyncCommandTimeout() throws Exception {
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        final SocketeerServer asyncServer = new SocketeerServer(port, 10, handler, StandardCharsets.UTF_8)
+                .withNonBlockingIo(1)
+                .withCommandTimeout(100L, TimeUnit.MILLISECONDS);
+        asyncServer.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            assertEquals(readUntil(in, "app> "), "app> ");
+            socket.getOutputStream().write("hang\nping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "pong\napp> "), "app> app> Command timed out.\napp> pong\napp> ");
+            assertTrue(handler.getHanging().get(0).isCancelled());
+        } finally {
+            asyncServer.stop(true);
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdleSessionsDoNotBlockOthers() throws Exception {
+        server.start();
+        try(final Socket idle1 = connect(port); final Socket idle2 = connect(port); final Socket active = connect(port)) {
+            readUntil(idle1.getInputStream(), "app> ");
+            readUntil(idle2.getInputStream(), "app> ");
+            final InputStream in = active.getInputStream();
+            readUntil(in, "app> ");
+            active.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+        }
+    }
+
+    @Test
+    public void testSecurityHandler() throws Exception {
+        server.withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8));
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            readUntil(in, "user : ");
+            out.write("user\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "password : ");
+            out.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.DO, Telnet.ECHO));
+            out.write("pass\n".getBytes(StandardCharsets.UTF_8));
+            out.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.DONT, Telnet.ECHO));
+            assertEquals(readUntil(in, "app> ").endsWith("Welcome\napp> "), true);
+        }
+    }
+
+    @Test
+    public void testByteBufferCommandHandler() throws Exception {
+        server = new SocketeerServer(port, 10, SessionTestSupport.ECHO_HANDLER, StandardCharsets.UTF_8)
+                .withNonBlockingIo(1);
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            assertEquals(readUntil(in, "echo> "), "echo> ");
+            socket.getOutputStream().write("hello\nworld\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "echo> "), "hello\necho> ");
+            assertEquals(readUntil(in, "echo> "), "world\necho> ");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'PasswordHash'.
+ */
+public class PasswordHashTest {
+
+    @Test
+    public void testVerify() {
+        final PasswordHash hash = PasswordHash.create("secret".toCharArray(), 1000);
+        assertTrue(hash.verify("secret".toCharArray()));
+        assertFalse(hash.verify("Secret".toCharArray()));
+        assertFalse(hash.verify("secret ".toCharArray()));
+        assertFalse(hash.verify(new char[0]));
+    }
+
+    @Test
+    public void testSalted() {
+        final PasswordHash first = PasswordHash.create("secret".toCharArray(), 1000);
+        final PasswordHash second = PasswordHash.create("secret".toCharArray(), 1000);
+        assertNotEquals(first, second);
+        assertNotEquals(first.encode(), second.encode());
+    }
+
+    @Test
+    public void testEncodeAndParse() {
+        final PasswordHash hash = PasswordHash.create("secret".toCharArray(), 1000);
+        assertTrue(hash.encode().startsWith("pbkdf2-sha256$1000$"));
+        final PasswordHash parsed = PasswordHash.parse(hash.encode());
+        assertEquals(parsed, hash);
+        assertEquals(parsed.hashCode(), hash.hashCode());
+        assertEquals(parsed.getIterations(), 1000);
+        assertTrue(parsed.verify("secret".toCharArray()));
+    }
+
+    @Test
+    public void testDefaultIterations() {
+        assertEquals(PasswordHash.create("secret".toCharArray()).getIterations(), PasswordHash.DEFAULT_ITERATIONS);
+    }
+
+    @Test(dataProvider = "invalidHashProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testParseNegative(String encoded) {
+        PasswordHash.parse(encoded);
+    }
+
+    @DataProvider
+    public Object[][] invalidHashProvider() {
+        return new Object[][] {
+                {null},
+                {""},
+                {"secret"},
+                {"md5$1000$c2FsdA==$aGFzaA=="},
+                {"pbkdf2-sha256$x$c2FsdA==$aGFzaA=="},
+                {"pbkdf2-sha256$0$c2FsdA==$aGFzaA=="},
+                {"pbkdf2-sha256$1000$c2FsdA==$"},
+                {"pbkdf2-sha256$1000$!!!$aGFzaA=="},
+                {"pbkdf2-sha256$1000$c2FsdA==$aGFzaA==$x"}
+        };
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCreateNegative() {
+        PasswordHash.create("secret".toCharArray(), 0);
+    }
+}
@@ -0,0 +1,156 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'PendingResponses'.
+ */
+public class PendingResponsesTest {
+
+    private static final byte[] PROMPT = bytes("> ");
+
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private PendingResponses pending;
+    private ResponseBuffer response;
+
+    @BeforeMethod
+    public void setUp() {
+        sent.clear();
+        response = new ResponseBuffer(StandardCharsets.UTF_8);
+        pending = new PendingResponses(new PendingResponses.Output() {
+            @Override
+            public void write(byte[] bytes) {
+                sent.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }, StandardCharsets.UTF_8);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        pending.close();
+    }
+
+    @Test
+    public void testCompletedResponseIsWrittenAtOnce() {
+        pending.add(CompletableFuture.completedFuture(Optional.of(bytes("done\n"))), response, PROMPT);
+        assertEquals(text(response), "done\n> ");
+        assertTrue(pending.isEmpty());
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testResponsesAreSentInOrder() {
+        final CompletableFuture<Optional<byte[]>> slow = new CompletableFuture<>();
+        final CompletableFuture<Optional<byte[]>> fast = new CompletableFuture<>();
+        pending.add(slow, response, PROMPT);
+        //a completed response has to wait for the pending one
+        pending.add(CompletableFuture.completedFuture(Optional.of(bytes("second\n"))), response, PROMPT);
+        pending.add(fast, response, PROMPT);
+        assertEquals(text(response), "> > > ");
+        fast.complete(Optional.of(bytes("third\n")));
+        assertTrue(sent.isEmpty());
+        slow.complete(Optional.of(bytes("first\n")));
+        assertEquals(sent, Arrays.asList("first\n> ", "second\n> ", "third\n> "));
+        assertTrue(pending.isEmpty());
+    }
+
+    @Test
+    public void testEmptyAndFailedResponses() {
+        final CompletableFuture<Optional<byte[]>> empty = new CompletableFuture<>();
+        final CompletableFuture<Optional<byte[]>> failed = new CompletableFuture<>();
+        pending.add(empty, response, PROMPT);
+        pending.add(failed, response, PROMPT);
+        empty.complete(Optional.<byte[]>absent());
+        failed.completeExceptionally(new IllegalStateException("test"));
+        assertEquals(sent, Arrays.asList("Command failed.\n> "));
+    }
+
+    @Test
+    public void testEmptyLastResponse() {
+        final CompletableFuture<Optional<byte[]>> first = new CompletableFuture<>();
+        final CompletableFuture<Optional<byte[]>> empty = new CompletableFuture<>();
+        pending.add(first, response, PROMPT);
+        pending.add(empty, response, PROMPT);
+        empty.complete(Optional.<byte[]>absent());
+        first.complete(Optional.of("first\n".getBytes(StandardCharsets.UTF_8)));
+        //the empty array tells the session, that no response is pending anymore
+        assertEquals(sent, Arrays.asList("first\n> ", ""));
+    }
+
+    @Test
+    public void testAwaitEmpty() throws InterruptedException {
+        assertTrue(pending.awaitEmpty(0));
+        final CompletableFuture<Optional<byte[]>> slow = new CompletableFuture<>();
+        pending.add(slow, response, PROMPT);
+        assertFalse(pending.awaitEmpty(10));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                slow.complete(Optional.of("slow\n".getBytes(StandardCharsets.UTF_8)));
+            }
+        }).start();
+        assertTrue(pending.awaitEmpty(5000));
+        assertEquals(sent, Arrays.asList("slow\n> "));
+    }
+
+    @Test
+    public void testTimeout() throws InterruptedException {
+        final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1);
+        try {
+            final CountDownLatch sentLatch = new CountDownLatch(1);
+            final PendingResponses timed = new PendingResponses(new PendingResponses.Output() {
+                @Override
+                public void write(byte[] bytes) {
+                    sent.add(new String(bytes, StandardCharsets.UTF_8));
+                    sentLatch.countDown();
+                }
+            }, StandardCharsets.UTF_8).withTimeout(timer, 50L);
+            final CompletableFuture<Optional<byte[]>> never = new CompletableFuture<>();
+            timed.add(never, response, PROMPT);
+            assertTrue(sentLatch.await(5, TimeUnit.SECONDS));
+            assertEquals(sent, Arrays.asList("Command timed out.\n> "));
+            assertTrue(never.isCancelled());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCloseCancels() {
+        final CompletableFuture<Optional<byte[]>> first = new CompletableFuture<>();
+        pending.add(first, response, PROMPT);
+        pending.close();
+        assertTrue(first.isCancelled());
+        assertTrue(pending.isEmpty());
+        //nothing is sent or accepted after closing
+        final CompletableFuture<Optional<byte[]>> second = new CompletableFuture<>();
+        pending.add(second, response, PROMPT);
+        assertTrue(second.isCancelled());
+        assertTrue(sent.isEmpty());
+    }
+
+    private static String text(ResponseBuffer buffer) {
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package de.logicalco.socketeer.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static de.logicalco.socketeer.server.SessionTestSupport.connect;
+import static org.testng.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A local client sends 100k commands without waiting for the responses, the throughput with and without pipelining is
+ * logged for both session engines.
+ */
+@Test(groups = "benchmark")
+public class PipeliningThroughputTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipeliningThroughputTest.class);
+
+    private static final int COMMANDS = 100000;
+
+    @Test(dataProvider = "modesProvider")
+    public void testThroughput(Boolean nonBlocking, Pipelining pipelining) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 1, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withPipelining(pipelining, Boolean.TRUE);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final long start = System.nanoTime();
+            final AtomicReference<IOException> failure = new AtomicReference<>();
+            final Thread writer = write(socket.getOutputStream(), failure);
+            final int responses = countResponses(socket.getInputStream());
+            final long nanos = System.nanoTime() - start;
+            writer.join(5000);
+            assertEquals(failure.get(), null);
+            assertEquals(responses, COMMANDS);
+            LOGGER.info(String.format("%s, pipelining %s : %,.0f commands/s.", nonBlocking ? "non-blocking" : "blocking",
+                    pipelining, COMMANDS * 1e9 / nanos));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] modesProvider() {
+        return new Object[][] {
+                {Boolean.FALSE, Pipelining.DISABLED},
+                {Boolean.FALSE, Pipelining.ENABLED},
+                {Boolean.TRUE, Pipelining.DISABLED},
+                {Boolean.TRUE, Pipelining.ENABLED}
+        };
+    }
+
+    /*
+     * Write all commands from another thread, so the client does not deadlock with the server on full socket buffers.
+     */
+    private static Thread write(final OutputStream socketOut, final AtomicReference<IOException> failure) {
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final OutputStream out = new BufferedOutputStream(socketOut, 8192);
+                    final byte[] ping = "ping\n".getBytes(StandardCharsets.UTF_8);
+                    for(int i = 0; i < COMMANDS; i++) {
+                        out.write(ping);
+                    }
+                    out.write("exit\n".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                } catch(IOException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        writer.start();
+        return writer;
+    }
+
+    /*
+     * Count the responses until the server closes the session.
+     */
+    private static int countResponses(final InputStream socketIn) throws IOException {
+        final InputStream in = new BufferedInputStream(socketIn, 8192);
+        final byte[] pong = "pong\n".getBytes(StandardCharsets.UTF_8);
+        int matched = 0;
+        int responses = 0;
+        for(int b = in.read(); b != -1; b = in.read()) {
+            matched = b == pong[matched] ? matched + 1 : (b == pong[0] ? 1 : 0);
+            if(matched == pong.length) {
+                responses++;
+                matched = 0;
+            }
+        }
+        return responses;
+    }
+}
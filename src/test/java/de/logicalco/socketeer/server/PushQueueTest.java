@@ -0,0 +1,118 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'PushQueue'.
+ */
+public class PushQueueTest {
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCreation(int capacity, PushOverflowPolicy policy) {
+        new PushQueue(capacity, policy);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {0, PushOverflowPolicy.DROP_OLDEST},
+                {1, null}
+        };
+    }
+
+    @Test
+    public void testNotOpen() {
+        final PushQueue queue = new PushQueue(2, PushOverflowPolicy.DROP_OLDEST);
+        assertFalse(queue.push(bytes("a")));
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testWakeUp() {
+        final PushQueue queue = new PushQueue(4, PushOverflowPolicy.DROP_OLDEST);
+        final RecordingConsumer consumer = new RecordingConsumer();
+        queue.open(consumer);
+        assertTrue(queue.push(bytes("a")));
+        assertTrue(queue.push(bytes("b")));
+        //the consumer is woken up once, until it finds the queue empty
+        assertEquals(consumer.events, Arrays.asList("wakeUp"));
+        assertEquals(text(queue.poll()), "a");
+        assertEquals(text(queue.poll()), "b");
+        assertNull(queue.poll());
+        queue.push(bytes("c"));
+        assertEquals(consumer.events, Arrays.asList("wakeUp", "wakeUp"));
+    }
+
+    @Test
+    public void testDropOldest() {
+        final PushQueue queue = new PushQueue(2, PushOverflowPolicy.DROP_OLDEST);
+        queue.open(new RecordingConsumer());
+        queue.push(bytes("a"));
+        queue.push(bytes("b"));
+        assertTrue(queue.push(bytes("c")));
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.getDropped(), 1);
+        assertEquals(text(queue.poll()), "b");
+        assertEquals(text(queue.poll()), "c");
+    }
+
+    @Test
+    public void testDisconnect() {
+        final PushQueue queue = new PushQueue(2, PushOverflowPolicy.DISCONNECT);
+        final RecordingConsumer consumer = new RecordingConsumer();
+        queue.open(consumer);
+        queue.push(bytes("a"));
+        queue.push(bytes("b"));
+        assertFalse(queue.push(bytes("c")));
+        assertEquals(consumer.events, Arrays.asList("wakeUp", "overflow"));
+        assertEquals(queue.size(), 0);
+        //the queue stays closed
+        assertFalse(queue.push(bytes("d")));
+        assertEquals(consumer.events, Arrays.asList("wakeUp", "overflow"));
+    }
+
+    @Test
+    public void testClose() {
+        final PushQueue queue = new PushQueue(2, PushOverflowPolicy.DROP_OLDEST);
+        queue.open(new RecordingConsumer());
+        queue.push(bytes("a"));
+        queue.close();
+        assertNull(queue.poll());
+        assertFalse(queue.push(bytes("b")));
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(final byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class RecordingConsumer implements PushQueue.Consumer {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void wakeUp() {
+            events.add("wakeUp");
+        }
+
+        @Override
+        public void overflow() {
+            events.add("overflow");
+        }
+    }
+}
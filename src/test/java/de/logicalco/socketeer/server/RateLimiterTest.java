@@ -0,0 +1,231 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Ticker;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Test class for 'RateLimiter'.
+ */
+public class RateLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private FakeTicker ticker;
+    private DefaultSocketeerMetrics metrics;
+    private InetAddress first;
+    private InetAddress second;
+
+    @BeforeMethod
+    public void setUp() throws UnknownHostException {
+        ticker = new FakeTicker();
+        metrics = new DefaultSocketeerMetrics();
+        first = InetAddress.getByAddress(new byte[] {10, 0, 0, 1});
+        second = InetAddress.getByAddress(new byte[] {10, 0, 0, 2});
+    }
+
+    @Test
+    public void testNoLimits() {
+        final RateLimiter.SessionLimits session = limiter(RateLimitPolicy.REJECT).open(first, metrics);
+        for(int i = 0; i < 100; i++) {
+            assertEquals(session.acquire(command("ping")), 0);
+        }
+        assertEquals(metrics.getRejectedCommands(), 0);
+    }
+
+    @Test
+    public void testSessionLimit() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withSessionLimit(10.0, 2);
+        final RateLimiter.SessionLimits session = limiter.open(first, metrics);
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("ping")), RateLimiter.REJECTED);
+        //each session has a bucket of its own
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+        ticker.nanos = 100 * MILLIS;
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("ping")), RateLimiter.REJECTED);
+        assertEquals(metrics.getRejectedCommands(), 2);
+    }
+
+    @Test
+    public void testAddressLimit() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withAddressLimit(10.0, 2);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+        //the sessions of an address share the bucket
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), RateLimiter.REJECTED);
+        assertEquals(limiter.open(second, metrics).acquire(command("ping")), 0);
+    }
+
+    @Test
+    public void testCommandLimit() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withCommandLimit("deploy", 1.0, 1);
+        final RateLimiter.SessionLimits session = limiter.open(first, metrics);
+        assertEquals(session.acquire(command("deploy app")), 0);
+        //all sessions share the bucket of the command
+        assertEquals(limiter.open(second, metrics).acquire(command("  deploy other")), RateLimiter.REJECTED);
+        assertEquals(session.acquire(command("deploy")), RateLimiter.REJECTED);
+        //the name has to match exactly
+        assertEquals(session.acquire(command("deployed")), 0);
+        assertEquals(session.acquire(command("status")), 0);
+        ticker.nanos = 1000 * MILLIS;
+        assertEquals(session.acquire(command("deploy")), 0);
+    }
+
+    @Test
+    public void testCommandPositionUnchanged() {
+        final RateLimiter.SessionLimits session = limiter(RateLimitPolicy.REJECT).withCommandLimit("deploy", 1.0, 1)
+                .open(first, metrics);
+        final ByteBuffer command = ByteBuffer.wrap("xx deploy".getBytes(StandardCharsets.UTF_8));
+        command.position(3);
+        assertEquals(session.acquire(command), 0);
+        assertEquals(command.position(), 3);
+        assertEquals(session.acquire(command), RateLimiter.REJECTED);
+    }
+
+    @Test
+    public void testDelay() {
+        final RateLimiter.SessionLimits session = limiter(RateLimitPolicy.DELAY).withSessionLimit(10.0, 1)
+                .withCommandLimit("deploy", 5.0, 1).open(first, metrics);
+        assertEquals(session.acquire(command("ping")), 0);
+        //the tokens are reserved, so the waits add up
+        assertEquals(session.acquire(command("ping")), 100 * MILLIS);
+        assertEquals(session.acquire(command("ping")), 200 * MILLIS);
+        ticker.nanos = 300 * MILLIS;
+        assertEquals(session.acquire(command("ping")), 0);
+        //the longest wait applies
+        assertEquals(session.acquire(command("deploy")), 100 * MILLIS);
+        assertEquals(session.acquire(command("deploy")), 200 * MILLIS);
+        assertEquals(metrics.getDelayedCommands(), 4);
+        assertEquals(metrics.getRejectedCommands(), 0);
+    }
+
+    @Test
+    public void testDisconnect() {
+        final RateLimiter.SessionLimits session = limiter(RateLimitPolicy.DISCONNECT).withSessionLimit(1.0, 1)
+                .open(first, metrics);
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("ping")), RateLimiter.DISCONNECTED);
+        assertEquals(metrics.getRateLimitDisconnects(), 1);
+    }
+
+    @Test
+    public void testRejectTakesAllTokensOrNone() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withSessionLimit(1.0, 1)
+                .withAddressLimit(1.0, 2).withCommandLimit("deploy", 1.0, 1);
+        assertEquals(limiter.open(second, metrics).acquire(command("deploy")), 0);
+        final RateLimiter.SessionLimits session = limiter.open(first, metrics);
+        assertEquals(session.acquire(command("deploy")), RateLimiter.REJECTED);
+        //the tokens of the session and the address were given back
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), RateLimiter.REJECTED);
+    }
+
+    @Test
+    public void testChangeAtRuntime() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withSessionLimit(1.0, 1)
+                .withCommandLimit("deploy", 1.0, 1);
+        final RateLimiter.SessionLimits session = limiter.open(first, metrics);
+        assertEquals(session.acquire(command("deploy")), 0);
+        assertEquals(session.acquire(command("ping")), RateLimiter.REJECTED);
+        limiter.withPolicy(RateLimitPolicy.DISCONNECT);
+        assertEquals(limiter.getPolicy(), RateLimitPolicy.DISCONNECT);
+        assertEquals(session.acquire(command("ping")), RateLimiter.DISCONNECTED);
+        limiter.withoutSessionLimit();
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("deploy")), RateLimiter.DISCONNECTED);
+        //a changed limit keeps the bucket of the command
+        limiter.withCommandLimit("deploy", 1.0, 2);
+        assertEquals(session.acquire(command("deploy")), 0);
+        assertEquals(session.acquire(command("deploy")), RateLimiter.DISCONNECTED);
+        limiter.withoutCommandLimit("deploy").withoutCommandLimit("unknown");
+        assertEquals(session.acquire(command("deploy")), 0);
+    }
+
+    @Test
+    public void testWithoutAddressLimit() {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withAddressLimit(1.0, 1);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), RateLimiter.REJECTED);
+        //a new limit starts with full buckets
+        limiter.withoutAddressLimit().withAddressLimit(1.0, 1);
+        assertEquals(limiter.open(first, metrics).acquire(command("ping")), 0);
+    }
+
+    @Test
+    public void testManyAddresses() throws UnknownHostException {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT).withAddressLimit(0.1, 1);
+        final RateLimiter.SessionLimits session = limiter.open(first, metrics);
+        assertEquals(session.acquire(command("ping")), 0);
+        for(int i = 0; i < 3000; i++) {
+            final InetAddress address = InetAddress.getByAddress(new byte[] {10, 1, (byte) (i >> 8), (byte) i});
+            ticker.nanos += MILLIS;
+            assertEquals(limiter.open(address, metrics).acquire(command("ping")), 0);
+        }
+        //only full buckets are dropped
+        assertEquals(session.acquire(command("ping")), RateLimiter.REJECTED);
+        ticker.nanos = 10000 * MILLIS;
+        assertEquals(session.acquire(command("ping")), 0);
+        assertEquals(session.acquire(command("ping")), RateLimiter.REJECTED);
+    }
+
+    @Test(dataProvider = "invalidLimitsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidLimits(String name, Double commandsPerSecond, Integer burst) {
+        final RateLimiter limiter = limiter(RateLimitPolicy.REJECT);
+        if(name == null) {
+            limiter.withSessionLimit(commandsPerSecond, burst);
+        } else {
+            limiter.withCommandLimit(name, commandsPerSecond, burst);
+        }
+    }
+
+    @DataProvider
+    public Object[][] invalidLimitsProvider() {
+        return new Object[][] {
+                {null, null, 1},
+                {null, 0.0, 1},
+                {null, -1.0, 1},
+                {null, 1.0, null},
+                {null, 1.0, 0},
+                {null, 1e-9, Integer.MAX_VALUE},
+                {"", 1.0, 1},
+                {"two words", 1.0, 1},
+                {"deploy", 0.0, 1}
+        };
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testInvalidPolicy() {
+        new RateLimiter(null, StandardCharsets.UTF_8);
+    }
+
+    private RateLimiter limiter(final RateLimitPolicy policy) {
+        return new RateLimiter(policy, StandardCharsets.UTF_8, ticker);
+    }
+
+    private static ByteBuffer command(final String command) {
+        return ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
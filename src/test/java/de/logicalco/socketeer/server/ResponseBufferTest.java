@@ -0,0 +1,140 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Test class for 'ResponseBuffer'.
+ */
+public class ResponseBufferTest {
+
+    @Test
+    public void testWrite() throws IOException {
+        final ResponseBuffer buffer = new ResponseBuffer(StandardCharsets.UTF_8);
+        assertTrue(buffer.isEmpty());
+        buffer.write('a');
+        buffer.write("bc".getBytes(StandardCharsets.UTF_8));
+        buffer.write("xdex".getBytes(StandardCharsets.UTF_8), 1, 2);
+        buffer.write(ByteBuffer.wrap("f".getBytes(StandardCharsets.UTF_8)));
+        buffer.println("g");
+        assertEquals(new String(buffer.toByteArray(), StandardCharsets.UTF_8), "abcdefg\n");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        assertEquals(out.toByteArray(), buffer.toByteArray());
+        assertEquals(buffer.asByteBuffer().remaining(), buffer.size());
+        buffer.reset();
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test(dataProvider = "printProvider")
+    public void testPrint(Charset charset, String text) {
+        final ResponseBuffer buffer = new ResponseBuffer(charset);
+        buffer.print(text);
+        assertEquals(buffer.toByteArray(), text.getBytes(charset));
+    }
+
+    @DataProvider
+    public Object[][] printProvider() {
+        final char[] longText = new char[10000];
+        Arrays.fill(longText, 'ä');
+        return new Object[][] {
+                {StandardCharsets.UTF_8, ""},
+                {StandardCharsets.UTF_8, "Grüße"},
+                {StandardCharsets.UTF_16, "Grüße"},
+                {StandardCharsets.US_ASCII, "Grüße"},
+                {StandardCharsets.UTF_8, new String(longText)}
+        };
+    }
+
+    @Test
+    public void testGrowAndShrink() {
+        final ResponseBuffer buffer = new ResponseBuffer(StandardCharsets.UTF_8);
+        final byte[] big = new byte[100 * 1024];
+        Arrays.fill(big, (byte) 7);
+        buffer.write(big);
+        assertEquals(buffer.toByteArray(), big);
+        buffer.reset();
+        buffer.write(1);
+        assertEquals(buffer.toByteArray(), new byte[]{1});
+    }
+
+    @Test
+    public void testStreaming() {
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        final int[] chunks = new int[1];
+        final ResponseBuffer buffer = new ResponseBuffer(StandardCharsets.UTF_8).streamingTo(
+                new ResponseBuffer.Sink() {
+                    @Override
+                    public void send(ResponseBuffer content) throws IOException {
+                        assertTrue(content.size() <= 1024);
+                        content.writeTo(streamed);
+                        chunks[0]++;
+                    }
+                }, 1024);
+        final byte[] big = new byte[10 * 1000];
+        Arrays.fill(big, (byte) 7);
+        //a big write is split into chunks, the buffer does not grow beyond the chunk size
+        buffer.write(big);
+        assertEquals(chunks[0], 9);
+        assertEquals(buffer.size(), 10 * 1000 - 9 * 1024);
+        buffer.write(ByteBuffer.wrap(big));
+        buffer.println("end");
+        assertTrue(buffer.size() < 1024);
+        buffer.flush();
+        assertTrue(buffer.isEmpty());
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(big, 0, big.length);
+        expected.write(big, 0, big.length);
+        expected.write("end\n".getBytes(StandardCharsets.UTF_8), 0, 4);
+        assertEquals(streamed.toByteArray(), expected.toByteArray());
+    }
+
+    @Test
+    public void testStreamingFailure() {
+        final ResponseBuffer buffer = new ResponseBuffer(StandardCharsets.UTF_8).streamingTo(
+                new ResponseBuffer.Sink() {
+                    @Override
+                    public void send(ResponseBuffer content) throws IOException {
+                        throw new IOException("test");
+                    }
+                }, 16);
+        try {
+            buffer.write(new byte[32]);
+            fail("The failure of the sink has to be passed to the handler.");
+        } catch(UncheckedIOException e) {
+            assertEquals(e.getCause().getMessage(), "test");
+        }
+        //the content is dropped
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testFlushWithoutStreaming() {
+        final ResponseBuffer buffer = new ResponseBuffer(StandardCharsets.UTF_8);
+        buffer.println("kept");
+        buffer.flush();
+        assertEquals(buffer.size(), 5);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testWriteOutOfBounds() {
+        new ResponseBuffer(StandardCharsets.UTF_8).write(new byte[2], 1, 2);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testInvalidCreation() {
+        new ResponseBuffer(null);
+    }
+}
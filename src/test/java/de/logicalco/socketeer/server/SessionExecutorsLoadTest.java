@@ -0,0 +1,100 @@
+package de.logicalco.socketeer.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static de.logicalco.socketeer.server.SessionTestSupport.connect;
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Load test opening thousands of idle sessions with the different session execution strategies and comparing the
+ * number of live threads and the used heap. Not part of the default build, run it with :
+ * <pre>mvn test -Dgroups=load -DexcludedTestGroups=none</pre>
+ */
+@Test(groups = "load")
+public class SessionExecutorsLoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionExecutorsLoadTest.class);
+
+    private static final int SESSIONS = 2000;
+
+    private enum Strategy {
+        FIXED_POOL, VIRTUAL_THREADS, NON_BLOCKING
+    }
+
+    @DataProvider
+    public Object[][] strategyProvider() {
+        return new Object[][] {
+                {Strategy.FIXED_POOL},
+                {Strategy.VIRTUAL_THREADS},
+                {Strategy.NON_BLOCKING}
+        };
+    }
+
+    @Test(dataProvider = "strategyProvider")
+    public void testIdleSessions(Strategy strategy) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, SESSIONS, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8);
+        final ExecutorService executor = strategy == Strategy.VIRTUAL_THREADS
+                ? SessionExecutors.virtualThreadPerSession() : SessionExecutors.fixedPool(SESSIONS);
+        server.withSessionExecutor(executor);
+        if(strategy == Strategy.NON_BLOCKING) {
+            server.withNonBlockingIo(1);
+        }
+        final int threadsBefore = settledThreadCount();
+        final long heapBefore = usedHeap();
+        final List<Socket> clients = new ArrayList<>(SESSIONS);
+        try {
+            server.start();
+            for(int i = 0; i < SESSIONS; i++) {
+                final Socket client = connect(port);
+                clients.add(client);
+                //session is running, when the prompt arrives
+                readUntil(client.getInputStream(), "app> ");
+            }
+            final int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+            final long heap = usedHeap() - heapBefore;
+            LOGGER.info(String.format("%s (virtual threads supported : %b) : %d idle sessions, %d threads, %d KiB heap.",
+                    strategy, SessionExecutors.isVirtualThreadSupported(), SESSIONS, threads, heap / 1024));
+            if(strategy == Strategy.NON_BLOCKING
+                    || (strategy == Strategy.VIRTUAL_THREADS && SessionExecutors.isVirtualThreadSupported())) {
+                assertTrue(threads < SESSIONS / 10, "Idle sessions should not occupy a platform thread each.");
+            }
+        } finally {
+            for(final Socket client : clients) {
+                client.close();
+            }
+            server.stop(true);
+        }
+    }
+
+    /*
+     * Sessions of a previous run need some time to notice their closed sockets.
+     */
+    private static int settledThreadCount() throws InterruptedException {
+        int previous = -1;
+        int current = ManagementFactory.getThreadMXBean().getThreadCount();
+        for(int i = 0; i < 100 && current != previous; i++) {
+            Thread.sleep(200);
+            previous = current;
+            current = ManagementFactory.getThreadMXBean().getThreadCount();
+        }
+        return current;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
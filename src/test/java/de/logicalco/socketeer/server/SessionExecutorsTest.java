@@ -0,0 +1,54 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for 'SessionExecutors'.
+ */
+public class SessionExecutorsTest {
+
+    @Test(dataProvider = "invalidThreadsProvider", expectedExceptions = {IllegalArgumentException.class, NullPointerException.class})
+    public void testInvalidFixedPool(Integer threads) {
+        SessionExecutors.fixedPool(threads);
+    }
+
+    @DataProvider
+    public Object[][] invalidThreadsProvider() {
+        return new Object[][] {
+                {null},
+                {0},
+                {-3}
+        };
+    }
+
+    @Test(dataProvider = "executorProvider")
+    public void testExecutorRunsTasks(ExecutorService executor) throws Exception {
+        try {
+            assertEquals(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "done";
+                }
+            }).get(5, TimeUnit.SECONDS), "done");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @DataProvider
+    public Object[][] executorProvider() {
+        return new Object[][] {
+                {SessionExecutors.fixedPool(2)},
+                {SessionExecutors.threadPerSession()},
+                //falls back to platform threads on JVMs without virtual threads
+                {SessionExecutors.virtualThreadPerSession()}
+        };
+    }
+}
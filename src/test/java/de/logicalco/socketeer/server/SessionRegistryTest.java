@@ -0,0 +1,68 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'SessionRegistry'.
+ */
+public class SessionRegistryTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("localhost", 4711);
+    private static final byte[] MESSAGE = "news\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final PushQueue.Consumer CONSUMER = new PushQueue.Consumer() {
+        @Override
+        public void wakeUp() {
+        }
+
+        @Override
+        public void overflow() {
+        }
+    };
+
+    @Test
+    public void testRegister() {
+        final SessionRegistry registry = new SessionRegistry(4, PushOverflowPolicy.DROP_OLDEST);
+        final SessionRegistry.Registration first = registry.register(CLIENT);
+        final SessionRegistry.Registration second = registry.register(CLIENT);
+        assertTrue(first.getId() != second.getId());
+        first.activate(CONSUMER);
+        final List<SessionInfo> sessions = registry.getSessions();
+        assertEquals(sessions.size(), 2);
+        for(final SessionInfo info : sessions) {
+            assertEquals(info.getRemoteAddress(), CLIENT);
+            assertEquals(info.getState(), info.getId() == first.getId() ? SessionInfo.State.ACTIVE
+                    : SessionInfo.State.HANDSHAKE);
+        }
+        first.closing();
+        second.close();
+        assertEquals(registry.getSessions().size(), 1);
+        assertEquals(registry.getSessions().get(0).getState(), SessionInfo.State.CLOSING);
+    }
+
+    @Test
+    public void testBroadcastAndSend() {
+        final SessionRegistry registry = new SessionRegistry(4, PushOverflowPolicy.DROP_OLDEST);
+        final SessionRegistry.Registration active = registry.register(CLIENT);
+        final SessionRegistry.Registration handshake = registry.register(CLIENT);
+        active.activate(CONSUMER);
+        //sessions in the handshake do not get messages
+        assertEquals(registry.broadcast(MESSAGE), 1);
+        assertEquals(active.getPushes().size(), 1);
+        assertEquals(handshake.getPushes().size(), 0);
+        assertTrue(registry.send(active.getId(), MESSAGE));
+        assertFalse(registry.send(handshake.getId(), MESSAGE));
+        assertFalse(registry.send(-1, MESSAGE));
+        active.close();
+        assertFalse(registry.send(active.getId(), MESSAGE));
+        assertEquals(registry.broadcast(MESSAGE), 0);
+    }
+}
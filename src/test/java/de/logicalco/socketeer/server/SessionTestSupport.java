@@ -0,0 +1,371 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.FrameStatus;
+import de.logicalco.socketeer.utils.Frames;
+import de.logicalco.socketeer.utils.SocketeerUtils;
+import org.testng.SkipException;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers for tests talking to a running server over loopback sockets.
+ */
+public final class SessionTestSupport {
+
+    private static final char[] KEY_STORE_PASSWORD = "socketeer".toCharArray();
+
+    private static KeyStore keyStore;
+
+    /**
+     * Answers 'ping' with 'pong', everything else without a response. The prompt is 'app> ', the escape sequence
+     * 'exit'.
+     */
+    static final CommandHandler PING_HANDLER = new CommandHandler() {
+        @Override
+        public Optional<byte[]> getOpener() {
+            return SocketeerUtils.respondUTF8("Welcome", true);
+        }
+
+        @Override
+        public byte[] getAppName() {
+            return SocketeerUtils.respondUTF8("app", false).get();
+        }
+
+        @Override
+        public Optional<byte[]> handle(byte[] command) {
+            final String cmd = new String(command, StandardCharsets.UTF_8);
+            return "ping".equals(cmd) ? SocketeerUtils.respondUTF8("pong", true) : Optional.<byte[]>absent();
+        }
+
+        @Override
+        public byte[] getEscapeSeq() {
+            return SocketeerUtils.respondUTF8("exit", false).get();
+        }
+    };
+
+    /**
+     * Zero-copy handler echoing every command. The prompt is 'echo> ', the escape sequence 'exit'.
+     */
+    static final ByteBufferCommandHandler ECHO_HANDLER = new ByteBufferCommandHandler() {
+        @Override
+        public Optional<byte[]> getOpener() {
+            return Optional.absent();
+        }
+
+        @Override
+        public byte[] getAppName() {
+            return SocketeerUtils.respondUTF8("echo", false).get();
+        }
+
+        @Override
+        public void handle(ByteBuffer command, ResponseBuffer response) {
+            response.write(command);
+            response.write('\n');
+        }
+
+        @Override
+        public byte[] getEscapeSeq() {
+            return SocketeerUtils.respondUTF8("exit", false).get();
+        }
+    };
+
+    /**
+     * Asynchronous handler : 'ping' is answered at once with 'pong', 'slow' after 200ms with 'done', 'hang' never.
+     * The prompt is 'app> ', the escape sequence 'exit'.
+     */
+    static final class AsyncHandler implements AsyncCommandHandler {
+
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private final List<CompletableFuture<Optional<byte[]>>> hanging = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Optional<byte[]> getOpener() {
+            return Optional.absent();
+        }
+
+        @Override
+        public byte[] getAppName() {
+            return SocketeerUtils.respondUTF8("app", false).get();
+        }
+
+        @Override
+        public CompletionStage<Optional<byte[]>> handle(byte[] command) {
+            final String cmd = new String(command, StandardCharsets.UTF_8);
+            final CompletableFuture<Optional<byte[]>> response = new CompletableFuture<>();
+            if("ping".equals(cmd)) {
+                response.complete(SocketeerUtils.respondUTF8("pong", true));
+            } else if("slow".equals(cmd)) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        response.complete(SocketeerUtils.respondUTF8("done", true));
+                    }
+                }, 200, TimeUnit.MILLISECONDS);
+            } else {
+                hanging.add(response);
+            }
+            return response;
+        }
+
+        @Override
+        public byte[] getEscapeSeq() {
+            return SocketeerUtils.respondUTF8("exit", false).get();
+        }
+
+        /**
+         * @return  The responses of 'hang' commands.
+         */
+        List<CompletableFuture<Optional<byte[]>>> getHanging() {
+            return hanging;
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    private SessionTestSupport() {
+        //avoid instantiation
+    }
+
+    static int freePort() throws IOException {
+        try(final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /*
+     * The server binds asynchronously, so retry until it accepts connections.
+     */
+    static Socket connect(final int port) throws Exception {
+        for(int i = 0; ; i++) {
+            try {
+                final Socket socket = new Socket("localhost", port);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch(ConnectException e) {
+                if(i == 50) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /*
+     * The client of a Unix domain socket is opened by reflection as well, so the tests compile for Java 8.
+     */
+    static SocketChannel connectUnixDomain(final Path path) throws Exception {
+        final SocketAddress address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", Path.class).invoke(null, path);
+        for(int i = 0; ; i++) {
+            //a channel failing to connect is closed
+            final SocketChannel channel = (SocketChannel) SocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+            try {
+                channel.connect(address);
+                return channel;
+            } catch(IOException e) {
+                channel.close();
+                //the server binds asynchronously
+                if(i == 50) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * @return  Context holding a self-signed key of 'localhost'.
+     */
+    public static SSLContext serverTlsContext() throws Exception {
+        final KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore(), KEY_STORE_PASSWORD);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * @return  Context trusting the key of {@link #serverTlsContext()}, its sessions are resumed by further connections.
+     */
+    public static SSLContext clientTlsContext() throws Exception {
+        final TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore());
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trust.getTrustManagers(), null);
+        return context;
+    }
+
+    /*
+     * Connect and run the TLS handshake, by default with the latest protocol both sides support. The test is skipped,
+     * if the JDK does not support a given protocol (e.g. TLSv1.3 before Java 8u261).
+     */
+    static SSLSocket connectTls(final SSLContext context, final int port, final String... protocols)
+            throws Exception {
+        for(final String protocol : protocols) {
+            if(!Arrays.asList(context.getSupportedSSLParameters().getProtocols()).contains(protocol)) {
+                throw new SkipException(protocol + " is not supported by this JDK.");
+            }
+        }
+        final Socket socket = connect(port);
+        //the handshake messages are not delayed
+        socket.setTcpNoDelay(true);
+        final SSLSocket tls = (SSLSocket) context.getSocketFactory().createSocket(socket, "localhost", port, true);
+        if(protocols.length > 0) {
+            tls.setEnabledProtocols(protocols);
+        }
+        tls.startHandshake();
+        return tls;
+    }
+
+    /*
+     * Generated once by the keytool of the running JDK (with options the keytool of Java 8 understands).
+     */
+    private static synchronized KeyStore keyStore() throws Exception {
+        if(keyStore != null) {
+            return keyStore;
+        }
+        final File file = File.createTempFile("socketeer", ".p12");
+        final File log = File.createTempFile("socketeer", ".log");
+        try {
+            file.delete();
+            final Process keytool = new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin/keytool").getPath(), "-genkeypair",
+                    "-alias", "localhost", "-keyalg", "EC", "-keysize", "256", "-dname", "CN=localhost",
+                    "-validity", "1", "-storetype", "PKCS12", "-keystore", file.getPath(),
+                    "-storepass", new String(KEY_STORE_PASSWORD), "-keypass", new String(KEY_STORE_PASSWORD))
+                    .redirectErrorStream(true).redirectOutput(log).start();
+            if(!keytool.waitFor(30, TimeUnit.SECONDS) || keytool.exitValue() != 0) {
+                throw new IllegalStateException("Could not generate key store : "
+                        + new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8));
+            }
+            final KeyStore store = KeyStore.getInstance("PKCS12");
+            try(final InputStream in = new FileInputStream(file)) {
+                store.load(in, KEY_STORE_PASSWORD);
+            }
+            keyStore = store;
+            return store;
+        } finally {
+            file.delete();
+            log.delete();
+        }
+    }
+
+    /**
+     * Open the framed protocol and wait for the server's acknowledgement.
+     *
+     * @param socket    Connection to the server.
+     * @throws IOException  If the server does not acknowledge the preamble.
+     */
+    static void openFramed(final Socket socket) throws IOException {
+        socket.getOutputStream().write(Frames.preamble());
+        final byte[] ack = new byte[Frames.PREAMBLE_LENGTH];
+        int read = 0;
+        while(read < ack.length) {
+            final int n = socket.getInputStream().read(ack, read, ack.length - read);
+            if(n < 0) {
+                break;
+            }
+            read += n;
+        }
+        if(!Arrays.equals(ack, Frames.preamble())) {
+            throw new IOException("Preamble not acknowledged.");
+        }
+    }
+
+    static void writeFrame(final OutputStream out, final int id, final String command) throws IOException {
+        final ByteBuffer frame = Frames.encode(id, FrameStatus.OK, command.getBytes(StandardCharsets.UTF_8));
+        out.write(frame.array(), frame.position(), frame.remaining());
+    }
+
+    static String readUntil(final InputStream in, final String terminator) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        while(!new String(buffer.toByteArray(), StandardCharsets.UTF_8).endsWith(terminator)) {
+            final int b = in.read();
+            if(b == -1) {
+                break;
+            }
+            buffer.write(b);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Socket wrapper counting the write calls to the output stream of an accepted connection. The output stream of
+     * a socket is unbuffered, so each write call is a system call.
+     */
+    static final class CountingSocket extends Socket {
+
+        private final Socket delegate;
+        private final AtomicInteger writes = new AtomicInteger();
+
+        CountingSocket(final Socket delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return delegate.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return new FilterOutputStream(delegate.getOutputStream()) {
+                @Override
+                public void write(int b) throws IOException {
+                    writes.incrementAndGet();
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    writes.incrementAndGet();
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            delegate.close();
+        }
+
+        int getWrites() {
+            return writes.get();
+        }
+    }
+}
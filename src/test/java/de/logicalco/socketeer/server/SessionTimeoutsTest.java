@@ -0,0 +1,165 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.TimerWheel;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'SessionTimeouts'.
+ */
+public class SessionTimeoutsTest {
+
+    private TimerWheel wheel;
+
+    @BeforeMethod
+    public void setUp() {
+        wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 64);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        wheel.close();
+    }
+
+    @Test
+    public void testHandshakeTimeout() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = timeouts(50, 0, 0).track(target, true);
+        Thread.sleep(150);
+        assertEquals(tracker.getExpired(), Optional.of(SessionTimeouts.Reason.HANDSHAKE));
+        //the session did not close itself in the grace period
+        Thread.sleep(SessionTimeouts.GRACE_MILLIS + 100);
+        assertEquals(target.events.toString(), "[HANDSHAKE, abort]");
+    }
+
+    @Test
+    public void testHandshakeDone() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = timeouts(50, 0, 0).track(target, true);
+        tracker.handshakeDone();
+        Thread.sleep(150);
+        assertFalse(tracker.getExpired().isPresent());
+        assertTrue(target.events.isEmpty());
+    }
+
+    @Test
+    public void testIdleTimeout() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = timeouts(0, 100, 0).track(target, false);
+        //activity postpones the timeout
+        for(int i = 0; i < 5; i++) {
+            Thread.sleep(40);
+            tracker.handling(true);
+            tracker.handling(false);
+        }
+        assertFalse(tracker.getExpired().isPresent());
+        Thread.sleep(250);
+        assertEquals(tracker.getExpired(), Optional.of(SessionTimeouts.Reason.IDLE));
+        tracker.close();
+        Thread.sleep(SessionTimeouts.GRACE_MILLIS + 100);
+        //closed in time, so it is not aborted
+        assertEquals(target.events.toString(), "[IDLE]");
+    }
+
+    @Test
+    public void testBusySessionIsNotIdle() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = timeouts(0, 50, 0).track(target, false);
+        tracker.handling(true);
+        Thread.sleep(200);
+        assertFalse(tracker.getExpired().isPresent());
+        tracker.close();
+    }
+
+    @Test
+    public void testLifetime() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = timeouts(0, 0, 80).track(target, false);
+        tracker.handling(true);
+        Thread.sleep(200);
+        assertEquals(tracker.getExpired(), Optional.of(SessionTimeouts.Reason.LIFETIME));
+        tracker.close();
+        assertEquals(target.events.toString(), "[LIFETIME]");
+    }
+
+    @Test
+    public void testNone() throws InterruptedException {
+        final RecordingTarget target = new RecordingTarget();
+        final SessionTimeouts.Tracker tracker = SessionTimeouts.NONE.track(target, true);
+        tracker.handshakeDone();
+        Thread.sleep(50);
+        assertFalse(tracker.getExpired().isPresent());
+        tracker.close();
+    }
+
+    @Test
+    public void testDrain() throws InterruptedException {
+        final SessionTimeouts timeouts = timeouts(0, 50, 0);
+        final RecordingTarget closing = new RecordingTarget();
+        final RecordingTarget hanging = new RecordingTarget();
+        final SessionTimeouts.Tracker closingTracker = timeouts.track(closing, false);
+        timeouts.track(hanging, false);
+        timeouts.drain(1000);
+        assertTrue(closingTracker.getRemainingMillis() > 500);
+        closingTracker.close();
+        assertFalse(timeouts.awaitClosed(50));
+        assertEquals(timeouts.getLive(), 1);
+        //sessions started while draining are drained at once
+        final RecordingTarget late = new RecordingTarget();
+        assertEquals(timeouts.track(late, true).getExpired(), Optional.of(SessionTimeouts.Reason.SHUTDOWN));
+        timeouts.abort();
+        assertEquals(closing.events.toString(), "[SHUTDOWN]");
+        assertEquals(hanging.events.toString(), "[SHUTDOWN, abort]");
+        assertEquals(late.events.toString(), "[SHUTDOWN, abort]");
+    }
+
+    @Test
+    public void testAwaitClosed() throws InterruptedException {
+        final SessionTimeouts timeouts = timeouts(0, 0, 0);
+        final SessionTimeouts.Tracker tracker = timeouts.track(new RecordingTarget(), false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tracker.close();
+            }
+        }).start();
+        assertTrue(timeouts.awaitClosed(5000));
+        assertEquals(timeouts.getLive(), 0);
+    }
+
+    @Test
+    public void testMessage() {
+        assertEquals(new String(SessionTimeouts.Reason.IDLE.message(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                "Session idle for too long, closing session.\n");
+    }
+
+    private SessionTimeouts timeouts(final long handshake, final long idle, final long lifetime) {
+        return new SessionTimeouts(Optional.of(wheel), handshake, idle, lifetime);
+    }
+
+    private static final class RecordingTarget implements SessionTimeouts.Target {
+
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void expire(SessionTimeouts.Reason reason) {
+            events.add(reason.name());
+        }
+
+        @Override
+        public void abort() {
+            events.add("abort");
+        }
+    }
+}
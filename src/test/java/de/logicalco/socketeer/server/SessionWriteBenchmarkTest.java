@@ -0,0 +1,114 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import de.logicalco.socketeer.utils.SocketeerUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares the write calls (system calls, and with TCP_NODELAY TCP segments) per command of the session loop before
+ * write coalescing (response, application name and prompt written separately on a socket with Nagle's algorithm)
+ * with the current session. Not part of the default build, run it with :
+ * <pre>mvn test -Dgroups=benchmark -DexcludedTestGroups=none</pre>
+ */
+@Test(groups = "benchmark")
+public class SessionWriteBenchmarkTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionWriteBenchmarkTest.class);
+
+    //the loop before coalescing stalls about 40ms per command on delayed acknowledgements
+    private static final int COMMANDS = 200;
+
+    @Test
+    public void testWritesPerCommand() throws Exception {
+        run("before", false, new Session() {
+            @Override
+            public void run(Socket connection) throws IOException {
+                legacySession(connection, SessionTestSupport.PING_HANDLER);
+            }
+        });
+        run("after", true, new Session() {
+            @Override
+            public void run(Socket connection) throws IOException {
+                new SocketeerSession(connection, SessionTestSupport.PING_HANDLER, StandardCharsets.UTF_8).run();
+            }
+        });
+    }
+
+    private interface Session {
+        void run(Socket connection) throws IOException;
+    }
+
+    private void run(final String name, final boolean tcpNoDelay, final Session session) throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Socket accepted = server.accept();
+            accepted.setTcpNoDelay(tcpNoDelay);
+            final SessionTestSupport.CountingSocket connection = new SessionTestSupport.CountingSocket(accepted);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        session.run(connection);
+                    } catch(IOException e) {
+                        LOGGER.warn("Session failed.", e);
+                    }
+                }
+            });
+            thread.start();
+            final InputStream in = client.getInputStream();
+            final OutputStream out = client.getOutputStream();
+            final byte[] ping = "ping\n".getBytes(StandardCharsets.UTF_8);
+            readUntil(in, "app> ");
+            final int writesBefore = connection.getWrites();
+            final long start = System.nanoTime();
+            for(int i = 0; i < COMMANDS; i++) {
+                out.write(ping);
+                readUntil(in, "app> ");
+            }
+            final long nanos = System.nanoTime() - start;
+            final double writes = (connection.getWrites() - writesBefore) / (double) COMMANDS;
+            out.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            thread.join(5000);
+            LOGGER.info(String.format("%s : %.2f writes per command, %.1f us per round trip (TCP_NODELAY=%b).",
+                    name, writes, nanos / 1000.0 / COMMANDS, tcpNoDelay));
+        }
+    }
+
+    /*
+     * The session loop before write coalescing.
+     */
+    private static void legacySession(final Socket connection, final CommandHandler commandHandler)
+            throws IOException {
+        final InputStream in = connection.getInputStream();
+        final OutputStream out = connection.getOutputStream();
+        final Optional<byte[]> opener = commandHandler.getOpener();
+        if(opener.isPresent()) {
+            out.write(opener.get());
+        }
+        while(true) {
+            out.write(commandHandler.getAppName());
+            out.write("> ".getBytes(StandardCharsets.UTF_8));
+            final byte[] command = SocketeerUtils.readLineUnicode(in);
+            if(Arrays.equals(commandHandler.getEscapeSeq(), command)) {
+                break;
+            }
+            final Optional<byte[]> response = commandHandler.handle(command);
+            if(response.isPresent()) {
+                out.write(response.get());
+            }
+        }
+        connection.close();
+    }
+}
@@ -1,11 +1,46 @@
 package de.logicalco.socketeer.server;
 
+import static de.logicalco.socketeer.server.SessionTestSupport.connect;
+import static de.logicalco.socketeer.server.SessionTestSupport.connectTls;
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
 import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import de.logicalco.socketeer.utils.FrameDecoder;
+import de.logicalco.socketeer.utils.Frames;
+import de.logicalco.socketeer.utils.Telnet;
+import org.testng.SkipException;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Test class for 'SocketeerServer'.
@@ -46,4 +81,1249 @@ public class SocketeerServerTest {
         new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withSecurityHandler(null);
     }
 
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithSessionExecutorNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withSessionExecutor(null);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithPipeliningNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withPipelining(Pipelining.ENABLED, null);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithMetricsNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withMetrics(null);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithRateLimiterNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withRateLimiter(null);
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testMetrics(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8)
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8))
+                .withMetrics(metrics);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            readUntil(in, "user : ");
+            sent.write("user\n".getBytes(StandardCharsets.UTF_8));
+            out.write(sent.toByteArray());
+            readUntil(in, "password : ");
+            final int userLength = sent.size();
+            sent.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.DO, Telnet.ECHO));
+            sent.write("pass\n".getBytes(StandardCharsets.UTF_8));
+            sent.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.DONT, Telnet.ECHO));
+            sent.write("ping\nping\nexit\n".getBytes(StandardCharsets.UTF_8));
+            out.write(sent.toByteArray(), userLength, sent.size() - userLength);
+            //everything the server wrote is read until the session is closed
+            int received = "user : ".length() + "password : ".length();
+            while(in.read() != -1) {
+                received++;
+            }
+            awaitClosedSessions(metrics);
+            assertEquals(metrics.getAcceptedConnections(), 1);
+            assertEquals(metrics.getRejectedConnections(), 0);
+            assertEquals(metrics.getQueuedSessions(), 0);
+            assertEquals(metrics.getAuthSuccesses(), 1);
+            assertEquals(metrics.getAuthFailures(), 0);
+            assertEquals(metrics.getCommands(), 2);
+            assertEquals(metrics.getBytesRead(), sent.size());
+            assertEquals(metrics.getBytesWritten(), received);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testTelnetNegotiation(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            sent.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.WILL, Telnet.NAWS, Telnet.IAC, Telnet.WILL,
+                    Telnet.LINEMODE));
+            sent.write("hel".getBytes(StandardCharsets.UTF_8));
+            sent.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.IP));
+            sent.write("lo\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().write(sent.toByteArray());
+            //the options are answered before the command, which does not contain the telnet commands
+            final String expected = new String(Telnet.buildCmdChain(Telnet.IAC, Telnet.DO, Telnet.NAWS, Telnet.IAC,
+                    Telnet.DONT, Telnet.LINEMODE), StandardCharsets.ISO_8859_1) + "hello\necho> ";
+            assertEquals(new String(readBytes(in, expected.length()), StandardCharsets.ISO_8859_1), expected);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test
+    public void testWithTelnetDisabled() throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.ISO_8859_1).withTelnet(false);
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            socket.getOutputStream().write(new byte[]{'a', (byte) 255, (byte) 241, '\n'});
+            assertEquals(readBytes(in, 4), new byte[]{'a', (byte) 255, (byte) 241, '\n'});
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithTelnetNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withTelnet(null);
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testRejectWhenBusy(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final SocketeerServer server = new SocketeerServer(port, 1, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withRejectWhenBusy(1).withAcceptBacklog(10).withMetrics(metrics);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket first = connect(port)) {
+            readUntil(first.getInputStream(), "echo> ");
+            try(final Socket second = connect(port); final Socket third = connect(port)) {
+                //the third connection is rejected at once, the second one waits
+                assertEquals(readUntil(third.getInputStream(), "\n"), SocketeerServer.DEFAULT_BUSY_MESSAGE);
+                assertEquals(third.getInputStream().read(), -1);
+                assertEquals(metrics.getQueuedSessions(), 1);
+                assertEquals(metrics.getRejectedConnections(), 1);
+                first.getOutputStream().write("exit\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals(readUntil(second.getInputStream(), "echo> "), "echo> ");
+                assertEquals(metrics.getQueuedSessions(), 0);
+            }
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testMaxConnectionsPerAddress(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withMaxConnectionsPerAddress(1).withBusyMessage("Too many connections.\n");
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket first = connect(port)) {
+            readUntil(first.getInputStream(), "echo> ");
+            try(final Socket second = connect(port)) {
+                assertEquals(readUntil(second.getInputStream(), "\n"), "Too many connections.\n");
+                assertEquals(second.getInputStream().read(), -1);
+            }
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testPipelining(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withPipelining(Pipelining.ENABLED, Boolean.TRUE);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            //all commands at once, without waiting for the responses
+            socket.getOutputStream().write((Strings.repeat("ping\n", 1000) + "exit\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            final ByteArrayOutputStream responses = new ByteArrayOutputStream();
+            final InputStream in = socket.getInputStream();
+            for(int b = in.read(); b != -1; b = in.read()) {
+                responses.write(b);
+            }
+            assertEquals(new String(responses.toByteArray(), StandardCharsets.UTF_8),
+                    "Welcome\n" + Strings.repeat("pong\n", 1000));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testRateLimit(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final RateLimiter limiter = new RateLimiter(RateLimitPolicy.REJECT, StandardCharsets.UTF_8)
+                .withSessionLimit(0.1, 2);
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withRateLimiter(limiter).withMetrics(metrics);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            readUntil(in, "echo> ");
+            out.write("a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "echo> "), "a\necho> ");
+            assertEquals(readUntil(in, "echo> "), "b\necho> ");
+            assertEquals(readUntil(in, "echo> "), "Rate limit exceeded.\necho> ");
+            //the policy applies to the running session
+            limiter.withPolicy(RateLimitPolicy.DISCONNECT);
+            out.write("d\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "\n"), "Rate limit exceeded, closing session.\n");
+            assertEquals(in.read(), -1);
+            assertEquals(metrics.getRejectedCommands(), 1);
+            assertEquals(metrics.getRateLimitDisconnects(), 1);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testRateLimitDelay(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withRateLimiter(new RateLimiter(RateLimitPolicy.DELAY,
+                StandardCharsets.UTF_8).withSessionLimit(10.0, 1));
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            final long start = System.nanoTime();
+            socket.getOutputStream().write("a\nb\nc\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "echo> "), "a\necho> ");
+            assertEquals(readUntil(in, "echo> "), "b\necho> ");
+            assertEquals(readUntil(in, "echo> "), "c\necho> ");
+            //two commands waited for a token (100ms each)
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "invalidAdmissionProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testAdmissionControlNegative(Integer backlog, Integer maxPending, Integer maxPerAddress,
+                                             String busyMessage) {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withAcceptBacklog(backlog)
+                .withRejectWhenBusy(maxPending)
+                .withMaxConnectionsPerAddress(maxPerAddress)
+                .withBusyMessage(busyMessage);
+    }
+
+    @DataProvider
+    public Object[][] invalidAdmissionProvider() {
+        return new Object[][] {
+                {null, 0, 1, "busy"},
+                {0, 0, 1, "busy"},
+                {10, null, 1, "busy"},
+                {10, -1, 1, "busy"},
+                {10, 0, null, "busy"},
+                {10, 0, 0, "busy"},
+                {10, 0, 1, null}
+        };
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testIdleTimeout(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withIdleTimeout(300L, TimeUnit.MILLISECONDS);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            //commands keep the session alive
+            for(int i = 0; i < 3; i++) {
+                Thread.sleep(150);
+                socket.getOutputStream().write("hello\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals(readUntil(in, "echo> "), "hello\necho> ");
+            }
+            assertEquals(readUntil(in, "\n"), "Session idle for too long, closing session.\n");
+            assertEquals(in.read(), -1);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testHandshakeTimeout(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8)
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8))
+                .withHandshakeTimeout(200L, TimeUnit.MILLISECONDS);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "user : ");
+            //the deny message is replaced by the reason
+            final String received = readUntil(in, "session.\n");
+            assertEquals(received.endsWith("\nHandshake timed out, closing session.\n"), true, received);
+            assertEquals(received.contains("Authetication failed!"), false, received);
+            assertEquals(in.read(), -1);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testMaxSessionLifetime(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8)
+                .withIdleTimeout(10L, TimeUnit.SECONDS)
+                .withMaxSessionLifetime(300L, TimeUnit.MILLISECONDS);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            assertEquals(readUntil(in, "\n"), "Max session lifetime reached, closing session.\n");
+            assertEquals(in.read(), -1);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "invalidTimeoutProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testTimeoutsNegative(Long timeout, TimeUnit unit) {
+        final SocketeerServer server = new SocketeerServer(8080, 5, mock(CommandHandler.class),
+                StandardCharsets.UTF_8);
+        try {
+            server.withHandshakeTimeout(timeout, unit);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] invalidTimeoutProvider() {
+        return new Object[][] {
+                {null, TimeUnit.SECONDS},
+                {0L, TimeUnit.SECONDS},
+                {-1L, TimeUnit.SECONDS},
+                {1L, null}
+        };
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testStopReleasesPort(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "echo> ");
+            final CompletableFuture<Void> stopped = server.stop(false);
+            //the port is released at once, while the session is drained
+            try(final ServerSocket rebound = new ServerSocket()) {
+                rebound.setReuseAddress(true);
+                rebound.bind(new InetSocketAddress(port));
+            }
+            assertEquals(readUntil(in, "\n"), "Server is shutting down, closing session.\n");
+            assertEquals(in.read(), -1);
+            stopped.get(5, TimeUnit.SECONDS);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testStopDrainsPendingResponses(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        final SocketeerServer server = new SocketeerServer(port, 5, handler, StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "app> ");
+            socket.getOutputStream().write("slow\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "app> ");
+            final CompletableFuture<Void> stopped = server.stop(false);
+            //the response of the slow command is sent before the session is closed
+            assertEquals(readUntil(in, "session.\n"), "done\napp> Server is shutting down, closing session.\n");
+            assertEquals(in.read(), -1);
+            stopped.get(5, TimeUnit.SECONDS);
+        } finally {
+            server.stop(true);
+            handler.shutdown();
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testStopAbortsAfterDrainTimeout(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        final SocketeerServer server = new SocketeerServer(port, 5, handler, StandardCharsets.UTF_8)
+                .withDrainTimeout(200L, TimeUnit.MILLISECONDS);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "app> ");
+            socket.getOutputStream().write("hang\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "app> ");
+            final long start = System.nanoTime();
+            server.stop(false).get(5, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+            //the hanging command is cancelled
+            while(in.read() >= 0) {
+                //skip the reason, if it was sent
+            }
+            assertEquals(handler.getHanging().size(), 1);
+            assertTrue(handler.getHanging().get(0).isCancelled());
+        } finally {
+            server.stop(true);
+            handler.shutdown();
+        }
+    }
+
+    @Test(dataProvider = "invalidDrainTimeoutProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testDrainTimeoutNegative(Long timeout, TimeUnit unit) {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withDrainTimeout(timeout, unit);
+    }
+
+    @DataProvider
+    public Object[][] invalidDrainTimeoutProvider() {
+        return new Object[][] {
+                {null, TimeUnit.SECONDS},
+                {-1L, TimeUnit.SECONDS},
+                {1L, null}
+        };
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testBroadcastAndSend(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket first = connect(port);
+            final Socket second = connect(port)) {
+            readUntil(first.getInputStream(), "echo> ");
+            readUntil(second.getInputStream(), "echo> ");
+            awaitActiveSessions(server, 2);
+            assertEquals(server.broadcast("news\n"), 2);
+            assertEquals(readUntil(first.getInputStream(), "\n"), "news\n");
+            assertEquals(readUntil(second.getInputStream(), "\n"), "news\n");
+            final long firstId = sessionOf(server, first).getId();
+            assertTrue(server.send(firstId, "only you\n"));
+            assertEquals(readUntil(first.getInputStream(), "\n"), "only you\n");
+            //the session keeps serving commands
+            first.getOutputStream().write("hello\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(first.getInputStream(), "echo> "), "hello\necho> ");
+            first.close();
+            for(int i = 0; i < 100 && server.getSessions().size() > 1; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(server.getSessions().size(), 1);
+            assertEquals(server.send(firstId, "gone\n"), false);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testSlowClientDoesNotBlockBroadcast(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withPushQueue(2, PushOverflowPolicy.DISCONNECT);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            readUntil(socket.getInputStream(), "echo> ");
+            awaitActiveSessions(server, 1);
+            //the client does not read, the session is closed, when its queue overflows
+            final byte[] message = new byte[64 * 1024];
+            final long start = System.nanoTime();
+            int broadcasts = 0;
+            while(server.broadcast(message) > 0 && broadcasts < 1000) {
+                broadcasts++;
+            }
+            assertTrue(broadcasts < 1000);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            for(int i = 0; i < 100 && !server.getSessions().isEmpty(); i++) {
+                Thread.sleep(20);
+            }
+            assertTrue(server.getSessions().isEmpty());
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testStreamingResponse(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final CountDownLatch firstLineRead = new CountDownLatch(1);
+        final byte[] line = new byte[1024];
+        Arrays.fill(line, (byte) 'x');
+        line[line.length - 1] = '\n';
+        final int lines = 4 * 1024;
+        final SocketeerServer server = new SocketeerServer(port, 5, new ByteBufferCommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return Optional.absent();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return "dump".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void handle(ByteBuffer command, ResponseBuffer response) {
+                response.println("first");
+                response.flush();
+                try {
+                    //the client gets the first line, before the response is complete
+                    assertTrue(firstLineRead.await(5, TimeUnit.SECONDS));
+                } catch(InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for(int i = 0; i < lines; i++) {
+                    response.write(line);
+                    assertTrue(response.size() < 8 * 1024);
+                }
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return "exit".getBytes(StandardCharsets.UTF_8);
+            }
+        }, StandardCharsets.UTF_8).withResponseChunkSize(8 * 1024);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "dump> ");
+            socket.getOutputStream().write("threads\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "\n"), "first\n");
+            firstLineRead.countDown();
+            final byte[] body = readBytes(in, lines * line.length);
+            for(int i = 0; i < lines; i++) {
+                assertEquals(Arrays.copyOfRange(body, i * line.length, (i + 1) * line.length), line);
+            }
+            assertEquals(readUntil(in, "dump> "), "dump> ");
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "interruptProvider")
+    public void testSubscriptionInterrupted(Boolean nonBlocking, byte[] interrupt) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final AtomicInteger ticks = new AtomicInteger();
+        final SocketeerServer server = new SocketeerServer(port, 5, new CommandRouter("watch", "exit",
+                StandardCharsets.UTF_8).withCommand("ticks", "Counts.", new CommandRouter.Command() {
+            @Override
+            public void handle(ByteBuffer arguments, ResponseBuffer response) {
+                response.println("watching");
+                response.subscribe(new Subscription.Producer() {
+                    @Override
+                    public void produce(ResponseBuffer update) {
+                        update.println("tick " + ticks.incrementAndGet());
+                    }
+                }, 10, TimeUnit.MILLISECONDS);
+            }
+        }), StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            readUntil(in, "watch> ");
+            out.write("ticks\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "\n"), "watching\n");
+            assertEquals(readUntil(in, "\n"), "tick 1\n");
+            assertEquals(readUntil(in, "\n"), "tick 2\n");
+            //other lines are ignored
+            out.write("help\n".getBytes(StandardCharsets.UTF_8));
+            out.write(interrupt);
+            assertTrue(readUntil(in, "watch> ").endsWith("\nwatch> "));
+            //no update follows the prompt
+            out.write("help ticks\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "watch> "), "ticks - Counts.\nwatch> ");
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] interruptProvider() {
+        final byte[] ctrlC = new byte[]{3};
+        final byte[] ip = Telnet.buildCmdChain(Telnet.IAC, Telnet.IP);
+        final byte[] brk = Telnet.buildCmdChain(Telnet.IAC, Telnet.BREAK);
+        return new Object[][] {
+                {Boolean.FALSE, ctrlC},
+                {Boolean.FALSE, ip},
+                {Boolean.TRUE, ctrlC},
+                {Boolean.TRUE, brk}
+        };
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testSubscriptionEvents(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final AtomicReference<String> event = new AtomicReference<>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<>();
+        final SocketeerServer server = new SocketeerServer(port, 5, new CommandRouter("tail", "exit",
+                StandardCharsets.UTF_8).withCommand("tail", "Shows the events.", new CommandRouter.Command() {
+            @Override
+            public void handle(ByteBuffer arguments, ResponseBuffer response) {
+                subscription.set(response.subscribe(new Subscription.Producer() {
+                    @Override
+                    public void produce(ResponseBuffer update) {
+                        final String latest = event.getAndSet(null);
+                        if(latest != null) {
+                            update.println(latest);
+                        }
+                    }
+                }));
+            }
+        }), StandardCharsets.UTF_8);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket first = connect(port);
+            final Socket second = connect(port)) {
+            final InputStream in = first.getInputStream();
+            readUntil(in, "tail> ");
+            first.getOutputStream().write("tail\n".getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < 100 && subscription.get() == null; i++) {
+                Thread.sleep(20);
+            }
+            event.set("started");
+            subscription.get().update();
+            assertEquals(readUntil(in, "\n"), "started\n");
+            //the application ends the subscription
+            subscription.get().cancel();
+            assertEquals(readUntil(in, "tail> "), "tail> ");
+            subscription.set(null);
+            //the escape sequence closes a session with a subscription
+            readUntil(second.getInputStream(), "tail> ");
+            second.getOutputStream().write("tail\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(second.getInputStream().read(), -1);
+            assertTrue(subscription.get().isCancelled());
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testListeners(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final int managementPort = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withBindAddress(InetAddress.getLoopbackAddress())
+                .withListener(new InetSocketAddress(InetAddress.getLoopbackAddress(), managementPort));
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket first = connect(port); final Socket second = connect(managementPort)) {
+            for(final Socket socket : Arrays.asList(first, second)) {
+                final InputStream in = socket.getInputStream();
+                readUntil(in, "app> ");
+                socket.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            }
+            assertEquals(server.getSessions().size(), 2);
+            server.stop(false).get(5, TimeUnit.SECONDS);
+            //both ports are released
+            for(final int released : new int[] {port, managementPort}) {
+                try(final ServerSocket rebound = new ServerSocket()) {
+                    rebound.setReuseAddress(true);
+                    rebound.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), released));
+                }
+            }
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testUnixDomainSocket(Boolean nonBlocking) throws Exception {
+        if(!UnixDomainSocket.isSupported()) {
+            throw new SkipException("Unix domain sockets require Java 16.");
+        }
+        final Path directory = Files.createTempDirectory("socketeer");
+        final Path path = directory.resolve("control.sock");
+        //left by a previous process
+        UnixDomainSocket.bind(path, 0).close();
+        assertTrue(Files.exists(path));
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withUnixDomainSocket(path)
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8))
+                .withTls(SessionTestSupport.serverTlsContext());
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final SocketChannel channel = SessionTestSupport.connectUnixDomain(path)) {
+            //not encrypted, but authenticated
+            final InputStream in = Channels.newInputStream(channel);
+            final OutputStream out = Channels.newOutputStream(channel);
+            readUntil(in, "user : ");
+            out.write("user\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "password : ");
+            out.write("pass\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(readUntil(in, "app> ").endsWith("Welcome\napp> "));
+            out.write("ping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            final SessionInfo session = server.getSessions().get(0);
+            assertEquals(session.getRemoteAddress().getAddress(), InetAddress.getLoopbackAddress());
+            assertEquals(session.getRemoteAddress().getPort(), 0);
+            server.stop(false).get(5, TimeUnit.SECONDS);
+            assertEquals(readUntil(in, "\n"), "Server is shutting down, closing session.\n");
+            assertEquals(in.read(), -1);
+            //the socket file is removed
+            assertFalse(Files.exists(path));
+        } finally {
+            server.stop(true);
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testCredentialThrottling(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withSecurityHandler(new CredentialSecurityHandler(
+                        new InMemoryCredentialStore().withUser("user", PasswordHash.create("pass".toCharArray(), 1000)),
+                        StandardCharsets.UTF_8).withThrottling(1, 1L, TimeUnit.HOURS));
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try {
+            try(final Socket socket = connect(port)) {
+                final InputStream in = socket.getInputStream();
+                readUntil(in, "user : ");
+                socket.getOutputStream().write("user\nwrong\n".getBytes(StandardCharsets.UTF_8));
+                assertTrue(readUntil(in, "failed!\n").endsWith("Authetication failed!\n"));
+            }
+            //the address of the client is throttled
+            try(final Socket socket = connect(port)) {
+                final InputStream in = socket.getInputStream();
+                assertEquals(readUntil(in, "failed!\n"), "Authetication failed!\n");
+                assertEquals(in.read(), -1);
+            }
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "tlsProvider")
+    public void testTls(Boolean nonBlocking, String protocol) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext());
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        final SSLContext client = SessionTestSupport.clientTlsContext();
+        final long created;
+        try(final SSLSocket socket = connectTls(client, port, protocol)) {
+            assertEquals(socket.getSession().getProtocol(), protocol);
+            created = socket.getSession().getCreationTime();
+            final InputStream in = socket.getInputStream();
+            assertEquals(readUntil(in, "app> "), "Welcome\napp> ");
+            //all commands arrive in one record
+            final StringBuilder commands = new StringBuilder();
+            for(int i = 0; i < 100; i++) {
+                commands.append("ping\n");
+            }
+            socket.getOutputStream().write(commands.toString().getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < 100; i++) {
+                assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            }
+        }
+        //the second connection resumes the session of the first one
+        try(final SSLSocket socket = connectTls(client, port, protocol)) {
+            assertEquals(socket.getSession().getCreationTime(), created);
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "app> ");
+            socket.getOutputStream().write("ping\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            assertEquals(in.read(), -1);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] tlsProvider() {
+        return new Object[][] {
+                {Boolean.FALSE, "TLSv1.2"},
+                {Boolean.FALSE, "TLSv1.3"},
+                {Boolean.TRUE, "TLSv1.2"},
+                {Boolean.TRUE, "TLSv1.3"}
+        };
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testTlsWithSecurityHandler(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext())
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8));
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final SSLSocket socket = connectTls(SessionTestSupport.clientTlsContext(), port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            readUntil(in, "user : ");
+            out.write("user\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "password : ");
+            out.write("pass\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(readUntil(in, "app> ").endsWith("Welcome\napp> "));
+            out.write("ping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testTlsStreamingResponse(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, new ByteBufferCommandHandler() {
+            @Override
+            public Optional<byte[]> getOpener() {
+                return Optional.absent();
+            }
+
+            @Override
+            public byte[] getAppName() {
+                return "dump".getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void handle(ByteBuffer command, ResponseBuffer response) {
+                for(int i = 0; i < 1024 * 1024; i++) {
+                    response.write('0' + i % 10);
+                }
+            }
+
+            @Override
+            public byte[] getEscapeSeq() {
+                return "exit".getBytes(StandardCharsets.UTF_8);
+            }
+        }, StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext())
+                .withResponseChunkSize(8 * 1024).withSocketBufferSizes(8 * 1024, 8 * 1024);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final SSLSocket socket = connectTls(SessionTestSupport.clientTlsContext(), port)) {
+            final InputStream in = socket.getInputStream();
+            readUntil(in, "dump> ");
+            socket.getOutputStream().write("dump\n".getBytes(StandardCharsets.UTF_8));
+            //the server waits for the client, while its socket buffer is full
+            Thread.sleep(100);
+            final byte[] body = readBytes(in, 1024 * 1024);
+            for(int i = 0; i < body.length; i++) {
+                assertEquals(body[i], '0' + i % 10);
+            }
+            assertEquals(readUntil(in, "dump> "), "dump> ");
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFramed(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        final SocketeerServer server = new SocketeerServer(port, 5, handler, StandardCharsets.UTF_8)
+                .withWireProtocol(WireProtocol.FRAMED);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            SessionTestSupport.openFramed(socket);
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final FrameDecoder frames = new FrameDecoder(1024);
+            //the slow command does not hold back the second one
+            SessionTestSupport.writeFrame(out, 1, "slow");
+            SessionTestSupport.writeFrame(out, 2, "ping");
+            assertEquals(readFrame(frames, in), "2 OK pong\n");
+            assertEquals(readFrame(frames, in), "1 OK done\n");
+            awaitActiveSessions(server, 1);
+            assertEquals(server.broadcast("news\n"), 1);
+            assertEquals(readFrame(frames, in), "0 PUSH news\n");
+            //the request in flight is answered, before the session is closed
+            SessionTestSupport.writeFrame(out, 3, "slow");
+            socket.shutdownOutput();
+            assertEquals(readFrame(frames, in), "3 OK done\n");
+            assertFalse(frames.readFrame(in));
+        } finally {
+            server.stop(true);
+            handler.shutdown();
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFramedRequiresPreamble(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final DefaultSocketeerMetrics metrics = new DefaultSocketeerMetrics();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withWireProtocol(WireProtocol.FRAMED).withMetrics(metrics);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            socket.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(socket.getInputStream().read(), -1);
+            awaitClosedSessions(metrics);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFrameTooLong(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withWireProtocol(WireProtocol.FRAMED).withFraming(8, 2);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            SessionTestSupport.openFramed(socket);
+            final InputStream in = socket.getInputStream();
+            final FrameDecoder frames = new FrameDecoder(1024);
+            SessionTestSupport.writeFrame(socket.getOutputStream(), 1, "12345678");
+            assertEquals(readFrame(frames, in), "1 OK 12345678\n");
+            SessionTestSupport.writeFrame(socket.getOutputStream(), 2, "123456789");
+            assertEquals(readFrame(frames, in), "0 CLOSING Frame exceeds 8 bytes, closing session.\n");
+            assertFalse(frames.readFrame(in));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFramedRateLimit(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final RateLimiter limiter = new RateLimiter(RateLimitPolicy.REJECT, StandardCharsets.UTF_8)
+                .withCommandLimit("a", 0.1, 1);
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withWireProtocol(WireProtocol.FRAMED).withRateLimiter(limiter);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            SessionTestSupport.openFramed(socket);
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final FrameDecoder frames = new FrameDecoder(1024);
+            SessionTestSupport.writeFrame(out, 1, "a");
+            assertEquals(readFrame(frames, in), "1 OK a\n");
+            SessionTestSupport.writeFrame(out, 2, "a");
+            assertEquals(readFrame(frames, in), "2 FAILED Rate limit exceeded.\n");
+            SessionTestSupport.writeFrame(out, 3, "b");
+            assertEquals(readFrame(frames, in), "3 OK b\n");
+            limiter.withPolicy(RateLimitPolicy.DISCONNECT);
+            SessionTestSupport.writeFrame(out, 4, "a");
+            assertEquals(readFrame(frames, in), "0 CLOSING Rate limit exceeded, closing session.\n");
+            assertFalse(frames.readFrame(in));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFramedRateLimitDelay(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.ECHO_HANDLER,
+                StandardCharsets.UTF_8).withWireProtocol(WireProtocol.FRAMED).withFraming(1024, 4)
+                .withRateLimiter(new RateLimiter(RateLimitPolicy.DELAY, StandardCharsets.UTF_8)
+                        .withSessionLimit(10.0, 1));
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final Socket socket = connect(port)) {
+            SessionTestSupport.openFramed(socket);
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            final FrameDecoder frames = new FrameDecoder(1024);
+            final long start = System.nanoTime();
+            SessionTestSupport.writeFrame(out, 1, "a");
+            SessionTestSupport.writeFrame(out, 2, "b");
+            SessionTestSupport.writeFrame(out, 3, "c");
+            assertEquals(readFrame(frames, in), "1 OK a\n");
+            assertEquals(readFrame(frames, in), "2 OK b\n");
+            assertEquals(readFrame(frames, in), "3 OK c\n");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+            //the delayed requests are answered, before the session is closed
+            SessionTestSupport.writeFrame(out, 4, "d");
+            socket.shutdownOutput();
+            assertEquals(readFrame(frames, in), "4 OK d\n");
+            assertFalse(frames.readFrame(in));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testProtocolDetection(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final int framedPort = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withWireProtocol(WireProtocol.AUTO)
+                .withProtocolDetection(50L, TimeUnit.MILLISECONDS)
+                .withListener(new InetSocketAddress(InetAddress.getLoopbackAddress(), framedPort),
+                        WireProtocol.FRAMED);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try {
+            try(final Socket quiet = connect(port);
+                final Socket eager = connect(port)) {
+                //a text client waiting for the opener gets it after the detection timeout
+                assertEquals(readUntil(quiet.getInputStream(), "app> "), "Welcome\napp> ");
+                //a text client sending at once is served as well
+                eager.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals(readUntil(eager.getInputStream(), "app> "), "Welcome\napp> ");
+                assertEquals(readUntil(eager.getInputStream(), "app> "), "pong\napp> ");
+            }
+            //a framed client sends the preamble at once
+            for(final int clientPort : new int[] {port, framedPort}) {
+                try(final Socket socket = connect(clientPort)) {
+                    SessionTestSupport.openFramed(socket);
+                    SessionTestSupport.writeFrame(socket.getOutputStream(), 5, "ping");
+                    assertEquals(readFrame(new FrameDecoder(1024), socket.getInputStream()), "5 OK pong\n");
+                }
+            }
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "nonBlockingProvider")
+    public void testFramedWithSecurityHandlerAndTls(Boolean nonBlocking) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 5, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext())
+                .withSecurityHandler(new TelnetPasswordUsernameSecurityHandler("user", "pass", StandardCharsets.UTF_8))
+                .withWireProtocol(WireProtocol.AUTO);
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try(final SSLSocket socket = connectTls(SessionTestSupport.clientTlsContext(), port)) {
+            final InputStream in = socket.getInputStream();
+            final OutputStream out = socket.getOutputStream();
+            out.write(Frames.preamble());
+            readUntil(in, "user : ");
+            out.write("user\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "password : ");
+            out.write("pass\n".getBytes(StandardCharsets.UTF_8));
+            //the echo is switched on again
+            readUntil(in, "\n");
+            assertEquals(readBytes(in, Frames.PREAMBLE_LENGTH), Frames.preamble());
+            SessionTestSupport.writeFrame(out, 9, "ping");
+            assertEquals(readFrame(new FrameDecoder(1024), in), "9 OK pong\n");
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "invalidFramingProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidFraming(Integer maxFrameLength, Integer maxRequestsInFlight) {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withFraming(maxFrameLength, maxRequestsInFlight);
+    }
+
+    @DataProvider
+    public Object[][] invalidFramingProvider() {
+        return new Object[][] {
+                {null, 1},
+                {0, 1},
+                {1, null},
+                {1, 0}
+        };
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnixDomainSocketCannotDetectProtocol() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withUnixDomainSocket(Paths.get("control.sock"), WireProtocol.AUTO);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testProtocolDetectionNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withProtocolDetection(0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testTlsSessionCacheWithoutTls() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withTlsSessionCache(100, 1L, TimeUnit.HOURS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTlsSessionCacheNegative() throws Exception {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withTls(SessionTestSupport.serverTlsContext()).withTlsSessionCache(-1, 1L, TimeUnit.HOURS);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testResponseChunkSizeNegative() {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8).withResponseChunkSize(0);
+    }
+
+    @Test(dataProvider = "invalidPushQueueProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testPushQueueNegative(Integer capacity, PushOverflowPolicy policy) {
+        new SocketeerServer(8080, 5, mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withPushQueue(capacity, policy);
+    }
+
+    @DataProvider
+    public Object[][] invalidPushQueueProvider() {
+        return new Object[][] {
+                {null, PushOverflowPolicy.DROP_OLDEST},
+                {0, PushOverflowPolicy.DROP_OLDEST},
+                {1, null}
+        };
+    }
+
+    /*
+     * A session takes pushed messages after it sent the prompt.
+     */
+    private static void awaitActiveSessions(final SocketeerServer server, final int count)
+            throws InterruptedException {
+        for(int i = 0; i < 100 && activeSessions(server) < count; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(activeSessions(server), count);
+    }
+
+    private static int activeSessions(final SocketeerServer server) {
+        int active = 0;
+        for(final SessionInfo info : server.getSessions()) {
+            if(info.getState() == SessionInfo.State.ACTIVE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    private static SessionInfo sessionOf(final SocketeerServer server, final Socket client) {
+        for(final SessionInfo info : server.getSessions()) {
+            if(info.getRemoteAddress().getPort() == client.getLocalPort()) {
+                return info;
+            }
+        }
+        throw new AssertionError("No session of " + client);
+    }
+
+    private static String readFrame(final FrameDecoder frames, final InputStream in) throws IOException {
+        assertTrue(frames.readFrame(in));
+        return frames.id() + " " + frames.status() + " " + new String(frames.copyPayload(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(final InputStream in, final int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while(read < length) {
+            final int n = in.read(bytes, read, length - read);
+            if(n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    @DataProvider
+    public Object[][] nonBlockingProvider() {
+        return new Object[][] {
+                {Boolean.FALSE},
+                {Boolean.TRUE}
+        };
+    }
+
+    /*
+     * The session is closed by the server after the client saw the end of the stream.
+     */
+    private static void awaitClosedSessions(final DefaultSocketeerMetrics metrics) throws InterruptedException {
+        for(int i = 0; i < 100 && metrics.getActiveSessions() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(metrics.getActiveSessions(), 0);
+    }
+
 }
@@ -1,10 +1,18 @@
 package de.logicalco.socketeer.server;
 
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
 import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import de.logicalco.socketeer.utils.LineDecoder;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -39,6 +47,189 @@ public class SocketeerSessionTest {
         new SocketeerSession(mock(Socket.class), mock(CommandHandler.class), StandardCharsets.UTF_8).withSecurityHandler(null);
     }
 
-    //TODO test run and with security handler
+    @Test
+    public void testRunDiscardsLongLines() throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Socket connection = server.accept();
+            final Thread session = new Thread(new SocketeerSession(connection, SessionTestSupport.PING_HANDLER,
+                    StandardCharsets.UTF_8).withLineDecoder(new LineDecoder(8, LineDecoder.OverflowPolicy.DISCARD)));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, "app> "), "Welcome\napp> ");
+            client.getOutputStream().write("ping ping ping\nping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "Line exceeds 8 bytes, discarded.\napp> ");
+            assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            //end of stream ends the session
+            client.shutdownOutput();
+            session.join(5000);
+            assertFalse(session.isAlive());
+        }
+    }
+
+    @Test
+    public void testRunByteBufferCommandHandler() throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Thread session = new Thread(new SocketeerSession(server.accept(), SessionTestSupport.ECHO_HANDLER,
+                    StandardCharsets.UTF_8));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, "echo> "), "echo> ");
+            client.getOutputStream().write("hello\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "echo> "), "hello\necho> ");
+            session.join(5000);
+            assertFalse(session.isAlive());
+        }
+    }
+
+    @Test
+    public void testSingleWritePerCommand() throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final SessionTestSupport.CountingSocket connection = new SessionTestSupport.CountingSocket(server.accept());
+            final Thread session = new Thread(new SocketeerSession(connection, SessionTestSupport.PING_HANDLER,
+                    StandardCharsets.UTF_8));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            readUntil(in, "app> ");
+            for(int i = 0; i < 10; i++) {
+                client.getOutputStream().write("ping\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals(readUntil(in, "app> "), "pong\napp> ");
+            }
+            client.getOutputStream().write("exit\n".getBytes(StandardCharsets.UTF_8));
+            session.join(5000);
+            //opener and prompt, then response and prompt per command
+            assertEquals(connection.getWrites(), 11);
+        }
+    }
+
+    @Test(dataProvider = "pipeliningProvider")
+    public void testPipelinedCommandsSingleWrite(Boolean suppressPrompt, String expected) throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final SessionTestSupport.CountingSocket connection = new SessionTestSupport.CountingSocket(server.accept());
+            //all commands are buffered before the session reads
+            final StringBuilder commands = new StringBuilder();
+            for(int i = 0; i < 10; i++) {
+                commands.append("ping\n");
+            }
+            client.getOutputStream().write(commands.append("exit\n").toString().getBytes(StandardCharsets.UTF_8));
+            final Thread session = new Thread(new SocketeerSession(connection, SessionTestSupport.PING_HANDLER,
+                    StandardCharsets.UTF_8).withPipelining(Pipelining.ENABLED, suppressPrompt));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, expected), expected);
+            assertEquals(in.read(), -1);
+            session.join(5000);
+            //opener and prompt, then all responses at once
+            assertEquals(connection.getWrites(), 2);
+        }
+    }
+
+    @DataProvider
+    public Object[][] pipeliningProvider() {
+        final StringBuilder withPrompt = new StringBuilder("Welcome\napp> ");
+        final StringBuilder withoutPrompt = new StringBuilder("Welcome\n");
+        for(int i = 0; i < 10; i++) {
+            withPrompt.append("pong\napp> ");
+            withoutPrompt.append("pong\n");
+        }
+        return new Object[][] {
+                {Boolean.FALSE, withPrompt.toString()},
+                {Boolean.TRUE, withoutPrompt.toString()}
+        };
+    }
+
+    @Test(dataProvider = "negotiationProvider")
+    public void testPipeliningNegotiation(Pipelining pipelining, String expected) throws Exception {
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Thread session = new Thread(new SocketeerSession(server.accept(), SessionTestSupport.PING_HANDLER,
+                    StandardCharsets.UTF_8).withPipelining(pipelining, Boolean.TRUE));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, "app> "), "Welcome\napp> ");
+            client.getOutputStream().write("ping\n#pipeline\nping\nping\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, expected), expected);
+            assertEquals(in.read(), -1);
+            session.join(5000);
+            assertFalse(session.isAlive());
+        }
+    }
+
+    @DataProvider
+    public Object[][] negotiationProvider() {
+        return new Object[][] {
+                //the command is passed to the handler
+                {Pipelining.DISABLED, "pong\napp> app> pong\napp> pong\napp> "},
+                {Pipelining.NEGOTIATED, "pong\napp> Pipelining enabled.\npong\npong\n"}
+        };
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testWithPipeliningNegative() throws IOException {
+        new SocketeerSession(mock(Socket.class), mock(CommandHandler.class), StandardCharsets.UTF_8)
+                .withPipelining(null, Boolean.TRUE);
+    }
+
+    @Test
+    public void testAsyncCommandHandler() throws Exception {
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Thread session = new Thread(new SocketeerSession(server.accept(),
+                    new AsyncCommandHandlerAdapter(handler), StandardCharsets.UTF_8));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, "app> "), "app> ");
+            //the prompts come back at once, the responses in order of the commands
+            client.getOutputStream().write("slow\nping\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> app> "), "app> app> ");
+            assertEquals(readUntil(in, "pong\napp> "), "done\napp> pong\napp> ");
+            //the escape sequence cancels pending responses
+            client.getOutputStream().write("hang\nexit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "app> "), "app> ");
+            assertEquals(in.read(), -1);
+            session.join(5000);
+            assertTrue(handler.getHanging().get(0).isCancelled());
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncRepliesInOrder() throws Exception {
+        final SessionTestSupport.AsyncHandler handler = new SessionTestSupport.AsyncHandler();
+        try(final ServerSocket server = new ServerSocket(0);
+            final Socket client = new Socket("localhost", server.getLocalPort())) {
+            final Thread session = new Thread(new SocketeerSession(server.accept(),
+                    new AsyncCommandHandlerAdapter(handler), StandardCharsets.UTF_8)
+                    .withLineDecoder(new LineDecoder(16, LineDecoder.OverflowPolicy.DISCARD))
+                    .withPipelining(Pipelining.NEGOTIATED, Boolean.FALSE));
+            session.start();
+            client.setSoTimeout(5000);
+            final InputStream in = client.getInputStream();
+            assertEquals(readUntil(in, "app> "), "app> ");
+            //the replies of the session wait for the slow response
+            client.getOutputStream().write("slow\nping ping ping ping\n#pipeline\nping\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            assertEquals(readUntil(in, "pong\n").replace("app> ", ""),
+                    "done\nLine exceeds 16 bytes, discarded.\nPipelining enabled.\npong\n");
+            client.getOutputStream().write("exit\n".getBytes(StandardCharsets.UTF_8));
+            session.join(5000);
+            assertFalse(session.isAlive());
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    //TODO test with security handler
 
 }
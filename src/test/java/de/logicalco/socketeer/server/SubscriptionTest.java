@@ -0,0 +1,189 @@
+package de.logicalco.socketeer.server;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'Subscription'.
+ */
+public class SubscriptionTest {
+
+    private static final byte[] PROMPT = "app> ".getBytes(StandardCharsets.UTF_8);
+
+    private ScheduledExecutorService scheduler;
+
+    @BeforeMethod
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(2);
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCreation(Subscription.Producer producer, long periodMillis) {
+        new Subscription(producer, periodMillis, scheduler, new RecordingOutput(), PROMPT, StandardCharsets.UTF_8);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {null, 0L},
+                {new Counter(), -1L}
+        };
+    }
+
+    @Test
+    public void testUpdatesAreCoalesced() throws InterruptedException {
+        final Counter counter = new Counter();
+        final RecordingOutput output = new RecordingOutput();
+        final Subscription subscription = new Subscription(counter, 0, scheduler, output, PROMPT,
+                StandardCharsets.UTF_8);
+        subscription.start();
+        assertEquals(output.next(), "1");
+        //the client did not take the first update yet
+        for(int i = 0; i < 100; i++) {
+            counter.value.incrementAndGet();
+            subscription.update();
+        }
+        assertNull(output.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(counter.produced.get(), 1);
+        //the latest value follows at once
+        subscription.sent();
+        assertEquals(output.next(), "101");
+        subscription.sent();
+        assertNull(output.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(counter.produced.get(), 2);
+    }
+
+    @Test
+    public void testPeriodic() throws InterruptedException {
+        final Counter counter = new Counter();
+        final RecordingOutput output = new RecordingOutput();
+        final Subscription subscription = new Subscription(counter, 10, scheduler, output, PROMPT,
+                StandardCharsets.UTF_8);
+        subscription.start();
+        for(int i = 0; i < 3; i++) {
+            counter.value.incrementAndGet();
+            output.next();
+            subscription.sent();
+        }
+        assertTrue(subscription.close());
+        assertFalse(subscription.close());
+        assertTrue(subscription.isCancelled());
+        output.sent.poll(50, TimeUnit.MILLISECONDS);
+        subscription.sent();
+        assertNull(output.sent.poll(100, TimeUnit.MILLISECONDS));
+        //closing does not notify the session
+        assertEquals(output.cancelled.get(), 0);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final RecordingOutput output = new RecordingOutput();
+        final Subscription subscription = new Subscription(new Counter(), 0, scheduler, output, PROMPT,
+                StandardCharsets.UTF_8);
+        subscription.cancel();
+        subscription.cancel();
+        assertEquals(output.cancelled.get(), 1);
+        assertFalse(subscription.close());
+        subscription.update();
+        assertNull(output.sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailingProducer() throws InterruptedException {
+        final RecordingOutput output = new RecordingOutput();
+        final Subscription subscription = new Subscription(new Subscription.Producer() {
+            @Override
+            public void produce(ResponseBuffer update) {
+                throw new IllegalStateException("Failed.");
+            }
+        }, 0, scheduler, output, PROMPT, StandardCharsets.UTF_8);
+        subscription.start();
+        for(int i = 0; i < 100 && output.cancelled.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(output.cancelled.get(), 1);
+        assertTrue(subscription.isCancelled());
+    }
+
+    @Test
+    public void testEmptyUpdateIsNotSent() throws InterruptedException {
+        final Counter counter = new Counter();
+        final RecordingOutput output = new RecordingOutput();
+        final Subscription subscription = new Subscription(new Subscription.Producer() {
+            @Override
+            public void produce(ResponseBuffer update) {
+                counter.produced.incrementAndGet();
+            }
+        }, 0, scheduler, output, PROMPT, StandardCharsets.UTF_8);
+        subscription.start();
+        for(int i = 0; i < 100 && counter.produced.get() < 1; i++) {
+            Thread.sleep(10);
+        }
+        subscription.update();
+        for(int i = 0; i < 100 && counter.produced.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(counter.produced.get(), 2);
+        assertNull(output.sent.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testNotSupported() {
+        new ResponseBuffer(StandardCharsets.UTF_8).subscribe(new Counter());
+    }
+
+    private static final class Counter implements Subscription.Producer {
+
+        private final AtomicInteger value = new AtomicInteger(1);
+        private final AtomicInteger produced = new AtomicInteger();
+
+        @Override
+        public void produce(ResponseBuffer update) {
+            produced.incrementAndGet();
+            update.print(String.valueOf(value.get()));
+        }
+    }
+
+    private static final class RecordingOutput implements Subscription.Output {
+
+        private final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+        private final AtomicInteger cancelled = new AtomicInteger();
+
+        @Override
+        public void send(Subscription subscription, ResponseBuffer update) {
+            sent.add(new String(update.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void cancelled(Subscription subscription) {
+            cancelled.incrementAndGet();
+        }
+
+        private String next() throws InterruptedException {
+            final String update = sent.poll(5, TimeUnit.SECONDS);
+            assertTrue(update != null);
+            return update;
+        }
+    }
+}
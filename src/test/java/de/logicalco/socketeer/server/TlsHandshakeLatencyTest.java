@@ -0,0 +1,107 @@
+package de.logicalco.socketeer.server;
+
+import com.google.common.base.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static de.logicalco.socketeer.server.SessionTestSupport.connectTls;
+import static de.logicalco.socketeer.server.SessionTestSupport.readUntil;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local client connects repeatedly, the latency of full and of resumed TLS handshakes (until the prompt is read) is
+ * logged for both session engines. Only the resumption itself is tested by the default build.
+ */
+public class TlsHandshakeLatencyTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TlsHandshakeLatencyTest.class);
+
+    private static final int CONNECTIONS = 50;
+
+    private static final String LATENCY = "latency";
+
+    @Test(dataProvider = "modesProvider")
+    public void testResumption(Boolean nonBlocking, String protocol) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 1, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext());
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try {
+            final SSLContext client = SessionTestSupport.clientTlsContext();
+            //the second connection resumes the session of the first
+            connect(client, port, protocol, Optional.of(connect(client, port, protocol, Optional.<SSLSocket>absent())));
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @Test(dataProvider = "modesProvider", groups = "benchmark")
+    public void testLatency(Boolean nonBlocking, String protocol) throws Exception {
+        final int port = SessionTestSupport.freePort();
+        final SocketeerServer server = new SocketeerServer(port, 1, SessionTestSupport.PING_HANDLER,
+                StandardCharsets.UTF_8).withTls(SessionTestSupport.serverTlsContext());
+        if(nonBlocking) {
+            server.withNonBlockingIo(1);
+        }
+        server.start();
+        try {
+            //warm up and wait for the server to bind
+            connect(SessionTestSupport.clientTlsContext(), port, protocol, Optional.<SSLSocket>absent());
+            long full = 0;
+            long resumed = 0;
+            for(int i = 0; i < CONNECTIONS; i++) {
+                //a new client context has no session to resume
+                final SSLContext client = SessionTestSupport.clientTlsContext();
+                final SSLSocket first = connect(client, port, protocol, Optional.<SSLSocket>absent());
+                full += (Long) first.getSession().getValue(LATENCY);
+                final SSLSocket second = connect(client, port, protocol, Optional.of(first));
+                resumed += (Long) second.getSession().getValue(LATENCY);
+            }
+            LOGGER.info(String.format("%s, %s : full handshake %.2fms, resumed handshake %.2fms.",
+                    nonBlocking ? "non-blocking" : "blocking", protocol, full / 1e6 / CONNECTIONS,
+                    resumed / 1e6 / CONNECTIONS));
+            assertTrue(resumed > 0);
+        } finally {
+            server.stop(true);
+        }
+    }
+
+    @DataProvider
+    public Object[][] modesProvider() {
+        return new Object[][] {
+                {Boolean.FALSE, "TLSv1.2"},
+                {Boolean.FALSE, "TLSv1.3"},
+                {Boolean.TRUE, "TLSv1.2"},
+                {Boolean.TRUE, "TLSv1.3"}
+        };
+    }
+
+    /*
+     * Connect, read the prompt and leave, the time until the prompt is read is kept by the TLS session. A connection
+     * resuming the session of another one keeps its creation time.
+     */
+    private static SSLSocket connect(final SSLContext client, final int port, final String protocol,
+                                     final Optional<SSLSocket> resumed) throws Exception {
+        final long start = System.nanoTime();
+        try(final SSLSocket socket = connectTls(client, port, protocol)) {
+            assertEquals(readUntil(socket.getInputStream(), "app> "), "Welcome\napp> ");
+            socket.getSession().putValue(LATENCY, System.nanoTime() - start);
+            if(resumed.isPresent()) {
+                assertEquals(socket.getSession().getCreationTime(), resumed.get().getSession().getCreationTime());
+            }
+            socket.getOutputStream().write("exit\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(socket.getInputStream().read(), -1);
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test class for 'FrameDecoder' and 'Frames'.
+ */
+public class FrameDecoderTest {
+
+    @Test(dataProvider = "chunkProvider")
+    public void testReadFrame(Integer chunk) throws IOException {
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        write(input, Frames.encode(1, FrameStatus.OK, bytes("first")));
+        write(input, Frames.encode(-7, FrameStatus.FAILED, new byte[0]));
+        //bigger than the initial buffer
+        final byte[] big = new byte[10000];
+        for(int i = 0; i < big.length; i++) {
+            big[i] = (byte) i;
+        }
+        write(input, Frames.encode(3, FrameStatus.PUSH, big));
+        final FrameDecoder decoder = new FrameDecoder(16 * 1024);
+        final InputStream in = limited(new ByteArrayInputStream(input.toByteArray()), chunk);
+        assertTrue(decoder.readFrame(in));
+        assertEquals(decoder.id(), 1);
+        assertEquals(decoder.status(), FrameStatus.OK);
+        assertEquals(decoder.copyPayload(), bytes("first"));
+        assertTrue(decoder.readFrame(in));
+        assertEquals(decoder.id(), -7);
+        assertEquals(decoder.status(), FrameStatus.FAILED);
+        assertEquals(decoder.payload().remaining(), 0);
+        assertTrue(decoder.readFrame(in));
+        assertEquals(decoder.id(), 3);
+        assertEquals(decoder.status(), FrameStatus.PUSH);
+        assertEquals(decoder.copyPayload(), big);
+        assertFalse(decoder.readFrame(in));
+        assertFalse(decoder.hasBufferedInput());
+    }
+
+    @DataProvider
+    public Object[][] chunkProvider() {
+        return new Object[][] {
+                {1},
+                {7},
+                {4096},
+                {Integer.MAX_VALUE}
+        };
+    }
+
+    @Test
+    public void testFillChannel() throws IOException {
+        final ByteBuffer frame = Frames.encode(42, FrameStatus.CLOSING, bytes("bye"));
+        final FrameDecoder decoder = new FrameDecoder(16);
+        assertFalse(decoder.next());
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(frame.array(), 0, 6)));
+        assertFalse(decoder.next());
+        assertTrue(decoder.hasBufferedInput());
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(frame.array(), 6, frame.remaining() - 6)));
+        assertTrue(decoder.next());
+        assertEquals(decoder.id(), 42);
+        assertEquals(decoder.status(), FrameStatus.CLOSING);
+        assertEquals(decoder.payload(), ByteBuffer.wrap(bytes("bye")));
+        assertFalse(decoder.next());
+    }
+
+    @Test(expectedExceptions = FrameTooLongException.class)
+    public void testFrameTooLong() throws IOException {
+        final FrameDecoder decoder = new FrameDecoder(4);
+        decoder.readFrame(new ByteArrayInputStream(Frames.encode(1, FrameStatus.OK, bytes("12345")).array()));
+    }
+
+    @Test(dataProvider = "invalidFrameProvider", expectedExceptions = ProtocolException.class)
+    public void testInvalidFrame(byte[] frame) throws IOException {
+        new FrameDecoder(1024).readFrame(new ByteArrayInputStream(frame));
+    }
+
+    @DataProvider
+    public Object[][] invalidFrameProvider() {
+        return new Object[][] {
+                //shorter than id and status
+                {new byte[] {0, 0, 0, 4, 0, 0, 0, 1}},
+                //negative length
+                {new byte[] {-1, -1, -1, -1, 0, 0, 0, 1, 0}},
+                //unknown status
+                {new byte[] {0, 0, 0, 5, 0, 0, 0, 1, 99}}
+        };
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void testEndWithinFrame() throws IOException {
+        final ByteBuffer frame = Frames.encode(1, FrameStatus.OK, bytes("cut"));
+        new FrameDecoder(1024).readFrame(new ByteArrayInputStream(frame.array(), 0, frame.remaining() - 1));
+    }
+
+    @Test
+    public void testEncode() {
+        final ByteBuffer payload = ByteBuffer.wrap(bytes("xpayloadx"));
+        payload.position(1).limit(8);
+        final ByteBuffer frame = Frames.encode(258, FrameStatus.TIMED_OUT, payload);
+        //the payload is not consumed
+        assertEquals(payload.position(), 1);
+        assertEquals(frame.position(), 0);
+        assertEquals(frame.getInt(), 12);
+        assertEquals(frame.getInt(), 258);
+        assertEquals(frame.get(), (byte) FrameStatus.TIMED_OUT.getCode());
+        assertEquals(frame, ByteBuffer.wrap(bytes("payload")));
+        assertEquals(Frames.encode(258, FrameStatus.TIMED_OUT, bytes("xpayloadx"), 1, 7).array(), frame.array());
+    }
+
+    @Test
+    public void testPreamble() {
+        final byte[] preamble = Frames.preamble();
+        assertEquals(preamble.length, Frames.PREAMBLE_LENGTH);
+        assertTrue(Frames.isPreamble(preamble, 0, preamble.length));
+        assertTrue(Frames.isPreamble(preamble, 0, 1));
+        assertTrue(Frames.isPreamble(preamble, 0, 0));
+        assertFalse(Frames.isPreamble(bytes("ping\n"), 0, 5));
+        //a copy is handed out
+        preamble[1] = 'X';
+        assertTrue(Frames.isPreamble(Frames.preamble(), 0, Frames.PREAMBLE_LENGTH));
+    }
+
+    @Test
+    public void testStatusByCode() {
+        for(final FrameStatus status : FrameStatus.values()) {
+            assertEquals(FrameStatus.byCode(status.getCode()).get(), status);
+        }
+        assertFalse(FrameStatus.byCode(255).isPresent());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidMaxFrameLength() {
+        new FrameDecoder(0);
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void write(final ByteArrayOutputStream out, final ByteBuffer frame) {
+        out.write(frame.array(), frame.position(), frame.remaining());
+    }
+
+    /*
+     * At most the given amount of bytes per read call.
+     */
+    private static InputStream limited(final InputStream in, final int chunk) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+}
@@ -0,0 +1,103 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test class for 'LatencyHistogram'.
+ */
+public class LatencyHistogramTest {
+
+    @Test(dataProvider = "valuesProvider")
+    public void testBuckets(long value) {
+        final int index = LatencyHistogram.index(value);
+        //the value is in its bucket and the bucket's precision is 1/16 of the value
+        assertTrue(LatencyHistogram.highestValue(index) >= value);
+        assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        assertTrue(LatencyHistogram.highestValue(index) - value <= value / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @DataProvider
+    public Object[][] valuesProvider() {
+        return new Object[][] {
+                {0L}, {1L}, {15L}, {16L}, {31L}, {32L}, {33L}, {1000L}, {1023L}, {1024L}, {123456789L},
+                {1L << 40}, {(1L << 40) - 1}, {Long.MAX_VALUE}
+        };
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for(int i = 1; i < LatencyHistogram.index(Long.MAX_VALUE); i++) {
+            assertEquals(LatencyHistogram.index(LatencyHistogram.highestValue(i - 1) + 1), i);
+            assertEquals(LatencyHistogram.index(LatencyHistogram.highestValue(i)), i);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMean(), 0.0);
+        assertEquals(histogram.getMax(), 0);
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for(long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(histogram.getCount(), 10000);
+        assertEquals(histogram.getMean(), 5000500.0);
+        assertEquals(histogram.getMax(), 10000000);
+        assertWithin(histogram.getValueAtPercentile(50), 5000000);
+        assertWithin(histogram.getValueAtPercentile(99), 9900000);
+        assertWithin(histogram.getValueAtPercentile(99.9), 9990000);
+        assertEquals(histogram.getValueAtPercentile(100), 10000000);
+        assertWithin(histogram.getValueAtPercentile(0), 1000);
+    }
+
+    @Test
+    public void testNegativeValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(histogram.getCount(), 1);
+        assertEquals(histogram.getValueAtPercentile(50), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        new LatencyHistogram().getValueAtPercentile(100.5);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for(int t = 0; t < 4; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(histogram.getCount(), 40000);
+        assertEquals(histogram.getMax(), 9999);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual >= expected && actual - expected <= expected / LatencyHistogram.SUB_BUCKETS,
+                actual + " is not within 1/16 above " + expected);
+    }
+}
@@ -0,0 +1,257 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test class for 'LineDecoder'.
+ */
+public class LineDecoderTest {
+
+    @Test(dataProvider = "linesProvider")
+    public void testReadLine(String input, String[] expected) throws IOException {
+        assertEquals(readAll(new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD), bytes(input), 4096),
+                Arrays.asList(expected));
+        //one byte per read call
+        assertEquals(readAll(new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD), bytes(input), 1),
+                Arrays.asList(expected));
+    }
+
+    @DataProvider
+    public Object[][] linesProvider() {
+        return new Object[][] {
+                {"", new String[]{}},
+                {"\n", new String[]{""}},
+                {"\r\n", new String[]{""}},
+                {"\u0000\n", new String[]{""}},
+                {"ping\r\npong\n", new String[]{"ping", "pong"}},
+                {"pi\u0000ng\n\nlast", new String[]{"ping", "", "last"}},
+                //Ctrl-C is not part of the line
+                {"pi\u0003ng\n\u0003\n", new String[]{"ping", ""}}
+        };
+    }
+
+    @Test
+    public void testSplitBehavesLikeReadLineUnicode() throws IOException {
+        final byte[] input = bytes(repeat('a', 600) + "\nshort\n" + repeat('b', 255) + "\n");
+        final InputStream legacyIn = new ByteArrayInputStream(input);
+        final List<String> legacy = new ArrayList<>();
+        while(legacyIn.available() > 0) {
+            legacy.add(new String(SocketeerUtils.readLineUnicode(legacyIn), StandardCharsets.UTF_8));
+        }
+        assertEquals(readAll(new LineDecoder(255, LineDecoder.OverflowPolicy.SPLIT), input, 100), legacy);
+    }
+
+    @Test(dataProvider = "overflowProvider")
+    public void testOverflow(LineDecoder.OverflowPolicy policy, String expected) throws IOException {
+        final LineDecoder decoder = new LineDecoder(4, policy);
+        final InputStream in = new ByteArrayInputStream(bytes("abcdefgh\nok\n"));
+        assertTrue(decoder.readLine(in));
+        assertTrue(decoder.overflowed());
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), expected);
+        assertTrue(decoder.readLine(in));
+        if(policy == LineDecoder.OverflowPolicy.SPLIT) {
+            //split at the max length as well, like readLineUnicode, the line feed follows as an empty line
+            assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "efgh");
+            assertTrue(decoder.overflowed());
+            assertTrue(decoder.readLine(in));
+            assertEquals(decoder.lineLength(), 0);
+            assertFalse(decoder.overflowed());
+            assertTrue(decoder.readLine(in));
+        }
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "ok");
+        assertFalse(decoder.overflowed());
+        assertFalse(decoder.readLine(in));
+    }
+
+    @DataProvider
+    public Object[][] overflowProvider() {
+        return new Object[][] {
+                {LineDecoder.OverflowPolicy.SPLIT, "abcd"},
+                {LineDecoder.OverflowPolicy.TRUNCATE, "abcd"},
+                {LineDecoder.OverflowPolicy.DISCARD, ""}
+        };
+    }
+
+    @Test
+    public void testOverflowFail() throws IOException {
+        final LineDecoder decoder = new LineDecoder(4, LineDecoder.OverflowPolicy.FAIL);
+        final InputStream in = new ByteArrayInputStream(bytes("abcdefgh\nok\n"));
+        try {
+            decoder.readLine(in);
+            throw new AssertionError("Line too long not detected.");
+        } catch(LineTooLongException e) {
+            assertEquals(e.getMaxLineLength(), 4);
+        }
+        //the rest of the long line is skipped
+        assertTrue(decoder.readLine(in));
+        assertTrue(decoder.overflowed());
+        assertTrue(decoder.readLine(in));
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "ok");
+    }
+
+    @Test
+    public void testManyLinesThroughSmallBuffer() throws IOException {
+        final BufferPool pool = new BufferPool(16, 1);
+        final LineDecoder decoder = new LineDecoder(pool, 10, LineDecoder.OverflowPolicy.DISCARD);
+        final StringBuilder input = new StringBuilder();
+        final List<String> expected = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            expected.add("cmd" + i);
+            input.append("cmd").append(i).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        assertEquals(readAll(decoder, bytes(input.toString()), 7), expected);
+        decoder.release();
+        assertEquals(pool.acquire().length, 16);
+    }
+
+    @Test
+    public void testFillFromChannel() throws IOException {
+        final LineDecoder decoder = new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD);
+        decoder.fill(Channels.newChannel(new ByteArrayInputStream(bytes("exit\npartial"))));
+        assertTrue(decoder.next());
+        assertTrue(decoder.lineEquals(bytes("exit")));
+        assertFalse(decoder.lineEquals(bytes("exi")));
+        final ByteBuffer line = decoder.line();
+        assertTrue(line.isReadOnly());
+        assertEquals(line.remaining(), 4);
+        assertEquals(line.get(line.position()), (byte) 'e');
+        assertFalse(decoder.next());
+        assertTrue(decoder.finish());
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "partial");
+    }
+
+    @Test
+    public void testInterrupted() throws IOException {
+        final LineDecoder decoder = new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD);
+        assertFalse(decoder.interrupted());
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes("watch\npartial"));
+        assertTrue(decoder.readLine(in));
+        assertFalse(decoder.next());
+        assertFalse(decoder.interrupted());
+        //the input up to the last interrupt is dropped, including the incomplete line
+        decoder.fill(new ByteArrayInputStream(bytes("\nskipped\n\u0003x\u0003ping\nne")));
+        assertTrue(decoder.interrupted());
+        assertFalse(decoder.interrupted());
+        assertTrue(decoder.next());
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "ping");
+        assertFalse(decoder.next());
+        decoder.fill(new ByteArrayInputStream(bytes("xt\n")));
+        assertFalse(decoder.interrupted());
+        assertTrue(decoder.next());
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "next");
+    }
+
+    @Test
+    public void testTelnetInterrupt() throws IOException {
+        final LineDecoder decoder = new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD)
+                .withTelnet(new TelnetDecoder());
+        decoder.fill(new ByteArrayInputStream(Telnet.buildCmdChain(Telnet.IAC, Telnet.BREAK)));
+        assertTrue(decoder.interrupted());
+        decoder.fill(new ByteArrayInputStream(Telnet.buildCmdChain(Telnet.IAC, Telnet.NOP)));
+        assertFalse(decoder.interrupted());
+    }
+
+    @Test
+    public void testInputStreamViewKeepsReadAhead() throws IOException {
+        final LineDecoder decoder = new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD);
+        final InputStream source = new ByteArrayInputStream(bytes("user\npass\nping\n"));
+        final InputStream view = decoder.asInputStream(source);
+        assertEquals(new String(SocketeerUtils.readLineUnicode(view), StandardCharsets.UTF_8), "user");
+        assertEquals(new String(SocketeerUtils.readLineUnicode(view), StandardCharsets.UTF_8), "pass");
+        //the view has read everything in one call, the rest is decoded from the buffer
+        assertEquals(source.available(), 0);
+        assertTrue(decoder.readLine(source));
+        assertEquals(new String(decoder.copyLine(), StandardCharsets.UTF_8), "ping");
+    }
+
+    @Test(dataProvider = "chunkProvider")
+    public void testTelnetCommandsAreFiltered(int chunk) throws IOException {
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.WILL, Telnet.NAWS));
+        input.write(bytes("pi"));
+        input.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.SB, Telnet.NAWS));
+        //a window of 266x10, the width contains a line feed
+        input.write(new byte[]{1, 10, 0, 10});
+        input.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.SE));
+        input.write(bytes("ng\n"));
+        input.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.IP, Telnet.IAC, Telnet.DO, Telnet.SGA));
+        input.write(bytes("exit\n"));
+        final TelnetDecoder telnet = new TelnetDecoder();
+        final LineDecoder decoder = new LineDecoder(255, LineDecoder.OverflowPolicy.DISCARD).withTelnet(telnet);
+        assertEquals(readAll(decoder, input.toByteArray(), chunk), Arrays.asList("ping", "exit"));
+        assertEquals(telnet.getWindowWidth(), 266);
+        assertEquals(telnet.getWindowHeight(), 10);
+        assertTrue(telnet.isEnabledRemotely(Telnet.NAWS.getCode()));
+        assertTrue(telnet.isEnabledLocally(Telnet.SGA.getCode()));
+    }
+
+    @DataProvider
+    public Object[][] chunkProvider() {
+        return new Object[][] {
+                {1},
+                {2},
+                {5},
+                {4096}
+        };
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class, NullPointerException.class})
+    public void testInvalidCreation(int maxLineLength, LineDecoder.OverflowPolicy policy) {
+        new LineDecoder(maxLineLength, policy);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {0, LineDecoder.OverflowPolicy.DISCARD},
+                {-1, LineDecoder.OverflowPolicy.DISCARD},
+                {255, null}
+        };
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPoolBufferTooSmall() {
+        new LineDecoder(new BufferPool(16, 1), 16, LineDecoder.OverflowPolicy.DISCARD);
+    }
+
+    private static List<String> readAll(LineDecoder decoder, byte[] input, final int chunk) throws IOException {
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream(input)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+        final List<String> lines = new ArrayList<>();
+        while(decoder.readLine(in)) {
+            lines.add(new String(decoder.array(), decoder.lineOffset(), decoder.lineLength(), StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(char c, int times) {
+        final char[] chars = new char[times];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -11,6 +11,7 @@ import org.testng.annotations.Test;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
@@ -42,6 +43,23 @@ public class SocketeerUtilsTest {
         };
     }
 
+    @Test
+    public void testReadLineUnicodeSkipsTelnetCommands() throws IOException {
+        final InputStream in = new ByteArrayInputStream(new byte[]{
+                (byte) 255, (byte) 253, 1, 'p', 'a', (byte) 255, (byte) 255, 's',
+                (byte) 255, (byte) 250, 31, 0, 10, 0, 10, (byte) 255, (byte) 240, 's', '\n', 'x'});
+        assertEquals(SocketeerUtils.readLineUnicode(in), new byte[]{'p', 'a', (byte) 255, 's', 's'});
+        assertEquals(in.read(), 'x');
+    }
+
+    @Test
+    public void testReadLineUnicodeDropsInterrupts() throws IOException {
+        //IAC IP and IAC BREAK are decoded to Ctrl-C, which is dropped as a typed one
+        final InputStream in = new ByteArrayInputStream(new byte[]{
+                'u', (byte) 255, (byte) 244, 's', (byte) 255, (byte) 243, 3, 'e', 'r', '\n'});
+        assertEquals(SocketeerUtils.readLineUnicode(in), new byte[]{'u', 's', 'e', 'r'});
+    }
+
     @Test(dataProvider = "respondUtf8Provider")
     public void testRespond(String text, boolean newLine, Optional<byte[]> expected) {
         final Optional<byte[]> actual = SocketeerUtils.respondUTF8(text, newLine);
@@ -0,0 +1,198 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Test class for 'TelnetDecoder'.
+ */
+public class TelnetDecoderTest {
+
+    private static final int IAC = 255;
+    private static final int SB = 250;
+    private static final int SE = 240;
+    private static final int WILL = 251;
+    private static final int WONT = 252;
+    private static final int DO = 253;
+    private static final int DONT = 254;
+
+    @Test(dataProvider = "filterProvider")
+    public void testDecode(int[] input, String expected) {
+        assertEquals(decode(new TelnetDecoder(), input, input.length), expected);
+        //commands split across reads
+        assertEquals(decode(new TelnetDecoder(), input, 1), expected);
+        assertEquals(decode(new TelnetDecoder(), input, 2), expected);
+    }
+
+    @DataProvider
+    public Object[][] filterProvider() {
+        return new Object[][] {
+                {codes("ping"), "ping"},
+                {new int[]{}, ""},
+                //escaped IAC
+                {new int[]{'a', IAC, IAC, 'b'}, "aÿb"},
+                //two byte commands (NOP, DM, AO, GA)
+                {new int[]{'a', IAC, 241, 'b', IAC, 242, IAC, 245, IAC, 249, 'c'}, "abc"},
+                //interrupts (IP, BREAK) are passed on as Ctrl-C
+                {new int[]{'a', IAC, 244, 'b', IAC, 243}, "a\u0003b\u0003"},
+                //negotiation
+                {new int[]{IAC, WILL, 31, 'p', IAC, DO, 3, 'i', IAC, DONT, 1, IAC, WONT, 34}, "pi"},
+                //subnegotiation containing IAC and SE as data
+                {new int[]{'a', IAC, SB, 24, 0, IAC, IAC, SE, 10, IAC, SE, 'b'}, "ab"},
+                //subnegotiation without SE, the IAC starts the next command
+                {new int[]{'a', IAC, SB, 24, 0, 'x', IAC, 241, 'b'}, "ab"},
+                //unknown command
+                {new int[]{IAC, 17, 'a'}, "a"}
+        };
+    }
+
+    @Test(dataProvider = "negotiationProvider")
+    public void testNegotiation(int[] input, int[] expectedReplies, int option, boolean locally, boolean remotely) {
+        final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        final TelnetDecoder decoder = new TelnetDecoder().withReplies(new TelnetDecoder.Replies() {
+            @Override
+            public void send(byte[] reply) {
+                replies.write(reply, 0, reply.length);
+            }
+        });
+        assertEquals(decode(decoder, input, input.length), "");
+        assertEquals(replies.toByteArray(), bytes(expectedReplies));
+        assertEquals(decoder.isEnabledLocally(option), locally);
+        assertEquals(decoder.isEnabledRemotely(option), remotely);
+    }
+
+    @DataProvider
+    public Object[][] negotiationProvider() {
+        return new Object[][] {
+                //NAWS is accepted from the client
+                {new int[]{IAC, WILL, 31}, new int[]{IAC, DO, 31}, 31, false, true},
+                //a repeated request is not answered
+                {new int[]{IAC, WILL, 31, IAC, WILL, 31}, new int[]{IAC, DO, 31}, 31, false, true},
+                {new int[]{IAC, WILL, 31, IAC, WONT, 31}, new int[]{IAC, DO, 31, IAC, DONT, 31}, 31, false, false},
+                //LINEMODE is refused
+                {new int[]{IAC, WILL, 34}, new int[]{IAC, DONT, 34}, 34, false, false},
+                {new int[]{IAC, WONT, 34}, new int[]{}, 34, false, false},
+                //SGA is accepted on both sides
+                {new int[]{IAC, DO, 3, IAC, WILL, 3}, new int[]{IAC, WILL, 3, IAC, DO, 3}, 3, true, true},
+                {new int[]{IAC, DO, 3, IAC, DONT, 3}, new int[]{IAC, WILL, 3, IAC, WONT, 3}, 3, false, false},
+                //the server does not echo
+                {new int[]{IAC, DO, 1}, new int[]{IAC, WONT, 1}, 1, false, false},
+                {new int[]{IAC, DONT, 1}, new int[]{}, 1, false, false}
+        };
+    }
+
+    @Test
+    public void testRequestsOfTheServer() throws IOException {
+        final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        final TelnetDecoder decoder = new TelnetDecoder().withReplies(new TelnetDecoder.Replies() {
+            @Override
+            public void send(byte[] reply) {
+                replies.write(reply, 0, reply.length);
+            }
+        });
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        final OutputStream out = decoder.negotiating(sent);
+        out.write("password : ".getBytes("UTF-8"));
+        //the request may be split across writes
+        out.write(new byte[]{(byte) IAC, (byte) WILL});
+        out.write(1);
+        assertEquals(decode(decoder, new int[]{IAC, DO, 1}, 3), "");
+        assertTrue(decoder.isEnabledLocally(1));
+        out.write(Telnet.buildCmdChain(Telnet.IAC, Telnet.WONT, Telnet.ECHO));
+        assertEquals(decode(decoder, new int[]{IAC, DONT, 1}, 3), "");
+        assertFalse(decoder.isEnabledLocally(1));
+        //requests registered directly
+        decoder.requested(Telnet.DO, Telnet.LINEMODE.getCode());
+        assertEquals(decode(decoder, new int[]{IAC, WILL, 34}, 3), "");
+        assertTrue(decoder.isEnabledRemotely(34));
+        //the acknowledgements are not answered
+        assertEquals(replies.size(), 0);
+        assertEquals(sent.size(), "password : ".length() + 6);
+    }
+
+    @Test
+    public void testWindowSize() {
+        final TelnetDecoder decoder = new TelnetDecoder();
+        assertEquals(decoder.getWindowWidth(), 0);
+        decode(decoder, new int[]{IAC, SB, 31, 0, 80, 0, 24, IAC, SE}, 1);
+        assertEquals(decoder.getWindowWidth(), 80);
+        assertEquals(decoder.getWindowHeight(), 24);
+        //IAC in the size is escaped
+        decode(decoder, new int[]{IAC, SB, 31, IAC, IAC, IAC, IAC, 1, 0, IAC, SE}, 4);
+        assertEquals(decoder.getWindowWidth(), 65535);
+        assertEquals(decoder.getWindowHeight(), 256);
+    }
+
+    @Test
+    public void testDecodeInPlace() {
+        final byte[] bytes = bytes(new int[]{'x', 'a', IAC, IAC, 'b', IAC, 241, 'c', 'x'});
+        assertEquals(new TelnetDecoder().decode(bytes, 1, 7), 4);
+        assertEquals(Arrays.copyOfRange(bytes, 0, 5), bytes(new int[]{'x', 'a', IAC, 'b', 'c'}));
+        assertEquals(bytes[8], (byte) 'x');
+    }
+
+    @Test(dataProvider = "invalidRangeProvider", expectedExceptions = IllegalArgumentException.class)
+    public void testDecodeInvalidRange(int offset, int length) {
+        new TelnetDecoder().decode(new byte[4], offset, length);
+    }
+
+    @DataProvider
+    public Object[][] invalidRangeProvider() {
+        return new Object[][] {
+                {-1, 2},
+                {0, -1},
+                {2, 3}
+        };
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRequestedInvalidVerb() {
+        new TelnetDecoder().requested(Telnet.SB, 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidOption() {
+        new TelnetDecoder().isEnabledLocally(256);
+    }
+
+    /*
+     * Decode the input in chunks of the given size and collect the data.
+     */
+    private static String decode(TelnetDecoder decoder, int[] input, int chunk) {
+        final byte[] bytes = bytes(input);
+        final StringBuilder data = new StringBuilder();
+        for(int offset = 0; offset < bytes.length; offset += chunk) {
+            final int length = Math.min(chunk, bytes.length - offset);
+            final int decoded = decoder.decode(bytes, offset, length);
+            for(int i = offset; i < offset + decoded; i++) {
+                data.append((char) (bytes[i] & 0xFF));
+            }
+        }
+        return data.toString();
+    }
+
+    private static int[] codes(String text) {
+        final int[] codes = new int[text.length()];
+        for(int i = 0; i < codes.length; i++) {
+            codes[i] = text.charAt(i);
+        }
+        return codes;
+    }
+
+    private static byte[] bytes(int[] codes) {
+        final byte[] bytes = new byte[codes.length];
+        for(int i = 0; i < codes.length; i++) {
+            bytes[i] = (byte) codes[i];
+        }
+        return bytes;
+    }
+}
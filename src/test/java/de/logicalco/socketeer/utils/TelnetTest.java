@@ -1,9 +1,14 @@
 package de.logicalco.socketeer.utils;
 
 import com.google.common.base.Optional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -27,6 +32,9 @@ public class TelnetTest {
     public Object[][] forCodeProvider() {
         return new Object[][] {
                 {1, Optional.of(Telnet.ECHO)},
+                {0, Optional.of(Telnet.BINARY)},
+                {2, Optional.absent()},
+                {242, Optional.of(Telnet.DM)},
                 {-11, Optional.absent()},
                 {255, Optional.of(Telnet.IAC)},
                 {5654, Optional.absent()}
@@ -78,7 +86,9 @@ public class TelnetTest {
     public Object[][] cmdChainToStringProvider() {
         return new Object[][]{
                 {new int[]{}, ""},
-                {new int[]{255, 251, 1}, "IAC WILL ECHO"}
+                {new int[]{255, 251, 1}, "IAC WILL ECHO"},
+                {new int[]{255, 250, 24, 1, 255, 240}, "IAC SB TERMINAL-TYPE ECHO IAC SE"},
+                {new int[]{255, 253, 200}, "IAC DO 200"}
         };
     }
 
@@ -87,4 +97,41 @@ public class TelnetTest {
         Telnet.cmdChainToString(null);
     }
 
+    @Test
+    public void testCodesAreUnique() {
+        for(final Telnet telnet : Telnet.values()) {
+            assertEquals(Telnet.forCode(telnet.getCode()).get(), telnet);
+            assertEquals(telnet.getByte(), (byte) telnet.getCode());
+        }
+    }
+
+    @Test
+    public void testWriteNegotiation() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Telnet.writeNegotiation(out, Telnet.WILL, Telnet.ECHO.getCode());
+        Telnet.writeNegotiation(out, Telnet.DONT, 200);
+        assertEquals(out.toByteArray(), new byte[]{(byte) 255, (byte) 251, 1, (byte) 255, (byte) 254, (byte) 200});
+        //the frames are encoded once
+        assertSame(Telnet.negotiation(251, 1), Telnet.negotiation(251, 1));
+    }
+
+    @Test
+    public void testNegotiationFrames() {
+        for(int verb = 251; verb <= 254; verb++) {
+            for(int option = 0; option < 256; option++) {
+                assertEquals(Telnet.negotiation(verb, option), new byte[]{(byte) 255, (byte) verb, (byte) option});
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWriteNegotiationInvalidVerb() throws IOException {
+        Telnet.writeNegotiation(new ByteArrayOutputStream(), Telnet.IAC, Telnet.ECHO.getCode());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWriteNegotiationInvalidOption() throws IOException {
+        Telnet.writeNegotiation(new ByteArrayOutputStream(), Telnet.DO, 256);
+    }
+
 }
@@ -0,0 +1,171 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'TimerWheel'.
+ */
+public class TimerWheelTest {
+
+    @Test(timeOut = 5000)
+    public void testExpiresInOrder() throws InterruptedException {
+        //a few rounds of the wheel
+        final TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 8);
+        try {
+            final List<Integer> expired = new CopyOnWriteArrayList<>();
+            final CountDownLatch done = new CountDownLatch(3);
+            final long start = System.nanoTime();
+            for(final int delay : new int[]{150, 20, 80}) {
+                wheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        expired.add(delay);
+                        done.countDown();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            done.await();
+            assertEquals(expired.toString(), "[20, 80, 150]");
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        } finally {
+            wheel.close();
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testCancel() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 16);
+        try {
+            final AtomicInteger runs = new AtomicInteger();
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            };
+            final TimerWheel.Timeout cancelled = wheel.schedule(task, 20, TimeUnit.MILLISECONDS);
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            final CountDownLatch done = new CountDownLatch(1);
+            final TimerWheel.Timeout expired = wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+            done.await();
+            assertEquals(runs.get(), 0);
+            assertFalse(expired.cancel());
+        } finally {
+            wheel.close();
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testManyTimeouts() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel(1, TimeUnit.MILLISECONDS, 64);
+        try {
+            final int count = 10000;
+            final CountDownLatch done = new CountDownLatch(count / 2);
+            final AtomicInteger runs = new AtomicInteger();
+            for(int i = 0; i < count; i++) {
+                final TimerWheel.Timeout timeout = wheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        runs.incrementAndGet();
+                        done.countDown();
+                    }
+                }, i % 200, TimeUnit.MILLISECONDS);
+                if(i % 2 == 1) {
+                    timeout.cancel();
+                }
+            }
+            done.await();
+            Thread.sleep(50);
+            assertEquals(runs.get(), count / 2);
+        } finally {
+            wheel.close();
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void testScheduleFromTask() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 16);
+        try {
+            final CountDownLatch done = new CountDownLatch(3);
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                    if(done.getCount() > 0) {
+                        wheel.schedule(this, 10, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }, 10, TimeUnit.MILLISECONDS);
+            done.await();
+        } finally {
+            wheel.close();
+        }
+    }
+
+    @Test
+    public void testClose() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel(5, TimeUnit.MILLISECONDS, 16);
+        final AtomicInteger runs = new AtomicInteger();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        wheel.schedule(task, 20, TimeUnit.MILLISECONDS);
+        wheel.close();
+        //scheduling on a closed wheel is ignored
+        wheel.schedule(task, 0, TimeUnit.MILLISECONDS);
+        Thread.sleep(60);
+        assertEquals(runs.get(), 0);
+    }
+
+    @Test(dataProvider = "bucketCountProvider")
+    public void testBucketCount(int bucketCount, int expected) {
+        assertEquals(new TimerWheel(10, TimeUnit.MILLISECONDS, bucketCount).getBucketCount(), expected);
+    }
+
+    @DataProvider
+    public Object[][] bucketCountProvider() {
+        return new Object[][] {
+                {1, 1},
+                {2, 2},
+                {3, 4},
+                {512, 512},
+                {513, 1024}
+        };
+    }
+
+    @Test(dataProvider = "invalidArgsProvider", expectedExceptions = {IllegalArgumentException.class,
+            NullPointerException.class})
+    public void testInvalidCreation(long tick, TimeUnit unit, int bucketCount) {
+        new TimerWheel(tick, unit, bucketCount);
+    }
+
+    @DataProvider
+    public Object[][] invalidArgsProvider() {
+        return new Object[][] {
+                {0, TimeUnit.MILLISECONDS, 16},
+                {10, null, 16},
+                {10, TimeUnit.MILLISECONDS, 0},
+                {10, TimeUnit.MILLISECONDS, 1 << 17}
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package de.logicalco.socketeer.utils;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test class for 'TokenBucket'.
+ */
+public class TokenBucketTest {
+
+    private static final long INTERVAL = 100;
+    private static final long WINDOW = 3 * INTERVAL;
+
+    @Test
+    public void testBurstAndRefill() {
+        final TokenBucket bucket = new TokenBucket(1000);
+        //the burst is available at once
+        for(int i = 0; i < 3; i++) {
+            assertEquals(bucket.tryAcquire(1000, INTERVAL, WINDOW), 0);
+        }
+        assertEquals(bucket.tryAcquire(1000, INTERVAL, WINDOW), INTERVAL);
+        assertEquals(bucket.tryAcquire(1050, INTERVAL, WINDOW), INTERVAL / 2);
+        assertFalse(bucket.isFull(1050));
+        //one token per interval
+        assertEquals(bucket.tryAcquire(1100, INTERVAL, WINDOW), 0);
+        assertEquals(bucket.tryAcquire(1100, INTERVAL, WINDOW), INTERVAL);
+        //the bucket does not hold more than the burst
+        assertTrue(bucket.isFull(1400));
+        for(int i = 0; i < 3; i++) {
+            assertEquals(bucket.tryAcquire(5000, INTERVAL, WINDOW), 0);
+        }
+        assertEquals(bucket.tryAcquire(5000, INTERVAL, WINDOW), INTERVAL);
+    }
+
+    @Test
+    public void testReserve() {
+        final TokenBucket bucket = new TokenBucket(0);
+        for(int i = 0; i < 3; i++) {
+            assertEquals(bucket.reserve(0, INTERVAL, WINDOW), 0);
+        }
+        //the tokens are taken in advance
+        assertEquals(bucket.reserve(0, INTERVAL, WINDOW), INTERVAL);
+        assertEquals(bucket.reserve(0, INTERVAL, WINDOW), 2 * INTERVAL);
+        assertEquals(bucket.tryAcquire(2 * INTERVAL, INTERVAL, WINDOW), INTERVAL);
+    }
+
+    @Test
+    public void testRelease() {
+        final TokenBucket bucket = new TokenBucket(0);
+        for(int i = 0; i < 3; i++) {
+            assertEquals(bucket.tryAcquire(0, INTERVAL, WINDOW), 0);
+        }
+        bucket.release(INTERVAL);
+        assertEquals(bucket.tryAcquire(0, INTERVAL, WINDOW), 0);
+        assertEquals(bucket.tryAcquire(0, INTERVAL, WINDOW), INTERVAL);
+    }
+
+    @Test
+    public void testRateChange() {
+        final TokenBucket bucket = new TokenBucket(0);
+        assertEquals(bucket.tryAcquire(0, INTERVAL, INTERVAL), 0);
+        assertEquals(bucket.tryAcquire(0, INTERVAL, INTERVAL), INTERVAL);
+        //a bigger burst applies to the same bucket
+        assertEquals(bucket.tryAcquire(0, INTERVAL, WINDOW), 0);
+    }
+
+    @Test(timeOut = 10000)
+    public void testConcurrentAcquire() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(0);
+        final AtomicInteger acquired = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for(int t = 0; t < 8; t++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch(InterruptedException e) {
+                            return;
+                        }
+                        for(int i = 0; i < 10000; i++) {
+                            if(bucket.tryAcquire(0, 1, 1000) == 0) {
+                                acquired.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            //no token is handed out twice
+            assertEquals(acquired.get(), 1000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}